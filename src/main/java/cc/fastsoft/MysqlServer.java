@@ -1,51 +1,140 @@
 package cc.fastsoft;
 
+import cc.fastsoft.config.ServerConfig;
+import cc.fastsoft.db.DatabaseEngine;
 import cc.fastsoft.jdbc.ServerHandler;
+import cc.fastsoft.jdbc.ServerTransport;
+import cc.fastsoft.jdbc.executor.StatementExecutor;
 import cc.fastsoft.jdbc.protocol.codec.PacketDecoder;
 import cc.fastsoft.jdbc.protocol.codec.PacketEncoder;
+import cc.fastsoft.sql.StatementCache;
 import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.channel.Channel;
-import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
 import io.netty.channel.EventLoopGroup;
 import io.netty.channel.MultiThreadIoEventLoopGroup;
-import io.netty.channel.nio.NioIoHandler;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.channel.unix.UnixChannelOption;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class MysqlServer {
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * MySQL Server - Accepts MySQL protocol connections
+ *
+ * Netty event loops only decode and write packets; statements run on the
+ * {@link StatementExecutor}. The socket transport (NIO, epoll, io_uring), the
+ * number of acceptor and worker threads and the socket options come from
+ * {@link ServerConfig}.
+ */
+public class MysqlServer implements AutoCloseable {
     private static final Logger logger = LoggerFactory.getLogger(MysqlServer.class);
 
+    private final ServerTransport transport;
+    private final int acceptorThreads;
+    private final EventLoopGroup bossGroup;
+    private final EventLoopGroup workerGroup;
+    private final StatementExecutor statementExecutor;
+    private final DatabaseEngine databaseEngine;
+    private final StatementCache statementCache;
+    private final List<Channel> serverChannels = new ArrayList<>();
+
+    /**
+     * Opens the storage engine (see {@code rocksdb.path}); it is closed with the server
+     */
+    public MysqlServer(StatementExecutor statementExecutor) {
+        this(statementExecutor, ServerTransport.select(ServerConfig.getTransportType()),
+                ServerConfig.getAcceptorThreads(), ServerConfig.getWorkerThreads());
+    }
+
+    public MysqlServer(StatementExecutor statementExecutor, ServerTransport transport,
+                       int acceptorThreads, int workerThreads) {
+        this.transport = transport;
+        // Without SO_REUSEPORT a port has a single listening socket
+        this.acceptorThreads = transport.supportsReusePort() ? acceptorThreads : 1;
+        this.bossGroup = new MultiThreadIoEventLoopGroup(this.acceptorThreads, transport.ioHandlerFactory());
+        this.workerGroup = new MultiThreadIoEventLoopGroup(workerThreads, transport.ioHandlerFactory());
+        this.statementExecutor = statementExecutor;
+        this.databaseEngine = new DatabaseEngine();
+        this.statementCache = new StatementCache(databaseEngine, ServerConfig.getStatementCacheSize());
+    }
+
+    /**
+     * Bind the server and return the port it listens on (useful when binding port 0)
+     */
+    public int start(int port) throws InterruptedException {
+        ServerBootstrap b = new ServerBootstrap();
+        b.group(bossGroup, workerGroup)
+                .channel(transport.serverChannelClass())
+                .option(ChannelOption.SO_BACKLOG, ServerConfig.getBacklog())
+                .option(ChannelOption.SO_REUSEADDR, true)
+                .childOption(ChannelOption.TCP_NODELAY, true)
+                .childOption(ChannelOption.SO_KEEPALIVE, true)
+                .childOption(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+                .childOption(ChannelOption.WRITE_BUFFER_WATER_MARK, new WriteBufferWaterMark(
+                        ServerConfig.getWriteBufferLow(), ServerConfig.getWriteBufferHigh()))
+                .childHandler(new ChannelInitializer<Channel>() {
+                    @Override
+                    protected void initChannel(Channel ch) {
+                        ch.pipeline().addLast(new PacketDecoder());
+                        ch.pipeline().addLast(new PacketEncoder());
+                        ch.pipeline().addLast(new ServerHandler(statementExecutor, databaseEngine, statementCache));
+                    }
+                });
+
+        if (ServerConfig.getSocketSendBuffer() > 0) {
+            b.childOption(ChannelOption.SO_SNDBUF, ServerConfig.getSocketSendBuffer());
+        }
+        if (ServerConfig.getSocketReceiveBuffer() > 0) {
+            b.childOption(ChannelOption.SO_RCVBUF, ServerConfig.getSocketReceiveBuffer());
+        }
+        if (acceptorThreads > 1) {
+            b.option(UnixChannelOption.SO_REUSEPORT, true);
+        }
+
+        // One listening socket per acceptor thread; the kernel spreads connections across them
+        Channel first = b.bind(port).sync().channel();
+        serverChannels.add(first);
+        int boundPort = ((InetSocketAddress) first.localAddress()).getPort();
+        for (int i = 1; i < acceptorThreads; i++) {
+            serverChannels.add(b.bind(boundPort).sync().channel());
+        }
+        logger.info("MySQL Mock Server started on port {} ({} transport, {} acceptor(s))",
+                boundPort, transport, acceptorThreads);
+        return boundPort;
+    }
+
+    public void awaitClose() throws InterruptedException {
+        for (Channel serverChannel : serverChannels) {
+            serverChannel.closeFuture().sync();
+        }
+    }
+
+    @Override
+    public void close() {
+        logger.info("Shutting down MySQL Mock Server");
+        for (Channel serverChannel : serverChannels) {
+            serverChannel.close().syncUninterruptibly();
+        }
+        bossGroup.shutdownGracefully().syncUninterruptibly();
+        workerGroup.shutdownGracefully().syncUninterruptibly();
+        statementExecutor.close();
+        databaseEngine.close();
+    }
+
     public static void main(String[] args) {
         System.setProperty("io.netty.channel.AbstractChannel.connectionReset", "false");
-        EventLoopGroup bossGroup = new MultiThreadIoEventLoopGroup(1, NioIoHandler.newFactory());
-        EventLoopGroup workerGroup = new MultiThreadIoEventLoopGroup(8, NioIoHandler.newFactory());
-        try {
-            ServerBootstrap b = new ServerBootstrap();
-            b.group(bossGroup, workerGroup)
-                    .channel(NioServerSocketChannel.class)
-                    .childHandler(new ChannelInitializer<Channel>() {
-                        @Override
-                        protected void initChannel(Channel ch) {
-                            ch.pipeline().addLast(new PacketDecoder());
-                            ch.pipeline().addLast(new PacketEncoder());
-                            ch.pipeline().addLast(new ServerHandler());
-                        }
-                    });
-
-            int port = 2883;
-            ChannelFuture f = b.bind(port).sync();
-
-            logger.info("MySQL Mock Server started on port {}", port);
-            f.channel().closeFuture().sync();
+        try (MysqlServer server = new MysqlServer(StatementExecutor.fromConfig())) {
+            server.start(ServerConfig.getPort());
+            server.awaitClose();
         } catch (InterruptedException e) {
             logger.error("Server interrupted", e);
             Thread.currentThread().interrupt();
-        } finally {
-            logger.info("Shutting down MySQL Mock Server");
-            bossGroup.shutdownGracefully();
-            workerGroup.shutdownGracefully();
         }
     }
 }
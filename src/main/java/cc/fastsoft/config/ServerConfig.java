@@ -0,0 +1,322 @@
+package cc.fastsoft.config;
+
+import cc.fastsoft.storage.rocksdb.TransactionMode;
+
+/**
+ * Server Config - Server settings read from system properties
+ *
+ * Every setting can be overridden on the command line, e.g.
+ * {@code -Dserver.port=3306 -Dserver.executor=virtual}.
+ */
+public final class ServerConfig {
+
+    public static final String PORT = "server.port";
+    public static final String EXECUTOR = "server.executor";
+    public static final String EXECUTOR_THREADS = "server.executor.threads";
+    public static final String EXECUTOR_QUEUE_SIZE = "server.executor.queue.size";
+    public static final String CONNECTION_PENDING_LIMIT = "server.connection.pending.limit";
+    public static final String STATEMENT_CACHE_SIZE = "server.statement.cache.size";
+    public static final String WRITE_BUFFER_LOW = "server.write.buffer.low";
+    public static final String WRITE_BUFFER_HIGH = "server.write.buffer.high";
+    public static final String TRANSPORT = "server.transport";
+    public static final String ACCEPTOR_THREADS = "server.acceptor.threads";
+    public static final String WORKER_THREADS = "server.worker.threads";
+    public static final String BACKLOG = "server.backlog";
+    public static final String SOCKET_SEND_BUFFER = "server.socket.send.buffer";
+    public static final String SOCKET_RECEIVE_BUFFER = "server.socket.receive.buffer";
+    public static final String LOAD_BUFFER_SIZE = "server.load.buffer.size";
+    public static final String SORT_BUFFER_SIZE = "server.sort.buffer.size";
+    public static final String AGGREGATE_BUFFER_SIZE = "server.aggregate.buffer.size";
+    public static final String JOIN_BUFFER_SIZE = "server.join.buffer.size";
+    public static final String MULTI_GET_BATCH_SIZE = "server.multiget.batch.size";
+    public static final String WRITE_SYNC = "rocksdb.write.sync";
+    public static final String WRITE_DISABLE_WAL = "rocksdb.write.disable.wal";
+    public static final String TRANSACTION_MODE = "rocksdb.transaction.mode";
+    public static final String TRANSACTION_LOCK_TIMEOUT = "rocksdb.transaction.lock.timeout";
+    public static final String WRITE_CONFLICT_RETRIES = "server.write.conflict.retries";
+    public static final String BLOCK_CACHE_SIZE = "rocksdb.block.cache.size";
+    public static final String AUTO_INCREMENT_BLOCK = "server.auto_increment.block";
+    public static final String TABLE_PREFIX = "rocksdb.table.";
+    public static final String TABLE_COMPRESSION = "compression";
+    public static final String TABLE_COMPACTION = "compaction";
+    public static final String TABLE_BLOOM_BITS = "bloom.bits";
+    public static final String TABLE_PREFIX_BLOOM = "prefix.bloom";
+
+    /**
+     * How statement work is executed
+     */
+    public enum ExecutorType {
+        /** Bounded pool of platform threads */
+        POOL,
+        /** One virtual thread per statement (JDK 21+, falls back to POOL) */
+        VIRTUAL
+    }
+
+    /**
+     * Netty transport used for sockets
+     */
+    public enum TransportType {
+        /** epoll on Linux when the native library loads, NIO otherwise */
+        AUTO,
+        NIO,
+        EPOLL,
+        IO_URING
+    }
+
+    private ServerConfig() {
+    }
+
+    public static int getPort() {
+        return getInt(PORT, 2883);
+    }
+
+    public static ExecutorType getExecutorType() {
+        return ExecutorType.valueOf(System.getProperty(EXECUTOR, "pool").trim().toUpperCase());
+    }
+
+    /**
+     * Worker threads of the statement pool, twice the core count by default
+     * because statements block on RocksDB I/O
+     */
+    public static int getExecutorThreads() {
+        return getInt(EXECUTOR_THREADS, Runtime.getRuntime().availableProcessors() * 2);
+    }
+
+    /**
+     * Statements that may wait for a worker before connections stop being read
+     */
+    public static int getExecutorQueueSize() {
+        return getInt(EXECUTOR_QUEUE_SIZE, 1024);
+    }
+
+    /**
+     * Commands one connection may have queued before its socket stops being read
+     */
+    public static int getConnectionPendingLimit() {
+        return getInt(CONNECTION_PENDING_LIMIT, 16);
+    }
+
+    /**
+     * Normalized statements kept parsed by the statement cache
+     */
+    public static int getStatementCacheSize() {
+        return getInt(STATEMENT_CACHE_SIZE, 1024);
+    }
+
+    /**
+     * Outbound bytes per connection below which a paused result set resumes writing
+     */
+    public static int getWriteBufferLow() {
+        return getInt(WRITE_BUFFER_LOW, 256 * 1024);
+    }
+
+    /**
+     * Outbound bytes per connection above which result set writing waits for the socket
+     */
+    public static int getWriteBufferHigh() {
+        return getInt(WRITE_BUFFER_HIGH, 1024 * 1024);
+    }
+
+    public static TransportType getTransportType() {
+        return TransportType.valueOf(System.getProperty(TRANSPORT, "auto").trim().toUpperCase());
+    }
+
+    /**
+     * Listening sockets bound with SO_REUSEPORT, each served by its own acceptor
+     * thread (native transports only; NIO always uses one)
+     */
+    public static int getAcceptorThreads() {
+        return getInt(ACCEPTOR_THREADS, 1);
+    }
+
+    /**
+     * Event loop threads for client connections, one per core by default
+     */
+    public static int getWorkerThreads() {
+        return getInt(WORKER_THREADS, Runtime.getRuntime().availableProcessors());
+    }
+
+    public static int getBacklog() {
+        return getInt(BACKLOG, 1024);
+    }
+
+    /**
+     * SO_SNDBUF of client sockets in bytes, or 0 to keep the OS default
+     */
+    public static int getSocketSendBuffer() {
+        return getInt(SOCKET_SEND_BUFFER, 0, 0);
+    }
+
+    /**
+     * SO_RCVBUF of client sockets in bytes, or 0 to keep the OS default
+     */
+    public static int getSocketReceiveBuffer() {
+        return getInt(SOCKET_RECEIVE_BUFFER, 0, 0);
+    }
+
+    /**
+     * Bytes of encoded rows LOAD DATA sorts in memory before writing them to an SST file
+     */
+    public static int getLoadBufferSize() {
+        return getInt(LOAD_BUFFER_SIZE, 64 * 1024 * 1024, 1024);
+    }
+
+    /**
+     * Bytes of rows ORDER BY sorts in memory before spilling sorted runs to disk
+     */
+    public static int getSortBufferSize() {
+        return getInt(SORT_BUFFER_SIZE, 16 * 1024 * 1024, 1024);
+    }
+
+    /**
+     * Bytes of groups GROUP BY keeps in memory before spilling rows of new groups to disk
+     */
+    public static int getAggregateBufferSize() {
+        return getInt(AGGREGATE_BUFFER_SIZE, 16 * 1024 * 1024, 1024);
+    }
+
+    /**
+     * Bytes of rows a hash join builds its table from before partitioning both inputs to disk
+     */
+    public static int getJoinBufferSize() {
+        return getInt(JOIN_BUFFER_SIZE, 16 * 1024 * 1024, 1024);
+    }
+
+    /**
+     * Primary keys read with one RocksDB multiGet by IN-list lookups and primary key joins
+     */
+    public static int getMultiGetBatchSize() {
+        return getInt(MULTI_GET_BATCH_SIZE, 256, 1);
+    }
+
+    /**
+     * Whether each statement's write waits for the WAL to be fsynced. Without it a
+     * committed statement survives a process crash but not a machine crash.
+     */
+    public static boolean isWriteSync() {
+        return getBoolean(WRITE_SYNC, false);
+    }
+
+    /**
+     * Skip the WAL for data writes; unflushed statements are lost on any crash
+     */
+    public static boolean isWriteDisableWal() {
+        return getBoolean(WRITE_DISABLE_WAL, false);
+    }
+
+    /**
+     * How RocksDB is opened: none, optimistic (the default) or pessimistic. Only
+     * optimistic and pessimistic support BEGIN / COMMIT / ROLLBACK.
+     */
+    public static TransactionMode getTransactionMode() {
+        return TransactionMode.valueOf(System.getProperty(TRANSACTION_MODE, "optimistic").trim().toUpperCase());
+    }
+
+    /**
+     * Milliseconds a pessimistic transaction waits for a row lock before its
+     * statement fails
+     */
+    public static int getTransactionLockTimeout() {
+        return getInt(TRANSACTION_LOCK_TIMEOUT, 1000, 0);
+    }
+
+    /**
+     * Times a statement outside of a transaction is run again after a write conflict
+     */
+    public static int getWriteConflictRetries() {
+        return getInt(WRITE_CONFLICT_RETRIES, 10, 0);
+    }
+
+    /**
+     * Number of AUTO_INCREMENT values a table reserves with one write; up to this
+     * many values are skipped when the server restarts
+     */
+    public static int getAutoIncrementBlock() {
+        return getInt(AUTO_INCREMENT_BLOCK, 1000, 1);
+    }
+
+    /**
+     * Bytes of the LRU block cache shared by the column families of all tables. It
+     * also holds their index and filter blocks.
+     */
+    public static long getBlockCacheSize() {
+        return getLong(BLOCK_CACHE_SIZE, 256L * 1024 * 1024, 1024 * 1024);
+    }
+
+    /**
+     * Compression of a table's column family: none, snappy, lz4 or zstd. Set
+     * {@code rocksdb.table.compression} for all tables or
+     * {@code rocksdb.table.<database>.<table>.compression} for one.
+     */
+    public static String getTableCompression(String qualifiedTableName) {
+        return getTableProperty(qualifiedTableName, TABLE_COMPRESSION, "lz4");
+    }
+
+    /**
+     * Compaction style of a table's column family: level or universal
+     */
+    public static String getTableCompaction(String qualifiedTableName) {
+        return getTableProperty(qualifiedTableName, TABLE_COMPACTION, "level");
+    }
+
+    /**
+     * Bloom filter bits per key of a table's column family, 0 for no filter
+     */
+    public static int getTableBloomBits(String qualifiedTableName) {
+        String value = getTableProperty(qualifiedTableName, TABLE_BLOOM_BITS, "10");
+        int bits = Integer.parseInt(value);
+        if (bits < 0) {
+            throw new IllegalStateException("Bloom filter bits must be at least 0: " + value);
+        }
+        return bits;
+    }
+
+    /**
+     * Whether a table's column family also filters by key prefix (table and index
+     * id), see {@code TableColumnFamilies}; only used with bloom filter bits above 0
+     */
+    public static boolean isTablePrefixBloom(String qualifiedTableName) {
+        return Boolean.parseBoolean(getTableProperty(qualifiedTableName, TABLE_PREFIX_BLOOM, "true"));
+    }
+
+    private static String getTableProperty(String qualifiedTableName, String name, String defaultValue) {
+        String value = System.getProperty(TABLE_PREFIX + qualifiedTableName + "." + name);
+        if (value == null || value.isBlank()) {
+            value = System.getProperty(TABLE_PREFIX + name);
+        }
+        return value == null || value.isBlank() ? defaultValue : value.trim().toLowerCase();
+    }
+
+    private static boolean getBoolean(String key, boolean defaultValue) {
+        String value = System.getProperty(key);
+        return value == null || value.isBlank() ? defaultValue : Boolean.parseBoolean(value.trim());
+    }
+
+    private static int getInt(String key, int defaultValue) {
+        return getInt(key, defaultValue, 1);
+    }
+
+    private static int getInt(String key, int defaultValue, int minimum) {
+        String value = System.getProperty(key);
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+        int parsed = Integer.parseInt(value.trim());
+        if (parsed < minimum) {
+            throw new IllegalStateException("System property " + key + " must be at least " + minimum + ": " + value);
+        }
+        return parsed;
+    }
+
+    private static long getLong(String key, long defaultValue, long minimum) {
+        String value = System.getProperty(key);
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+        long parsed = Long.parseLong(value.trim());
+        if (parsed < minimum) {
+            throw new IllegalStateException("System property " + key + " must be at least " + minimum + ": " + value);
+        }
+        return parsed;
+    }
+}
@@ -1,24 +1,42 @@
 package cc.fastsoft.db;
 
+import cc.fastsoft.config.ServerConfig;
+import cc.fastsoft.db.core.AutoIncrementSequences;
+import cc.fastsoft.db.core.BulkLoader;
 import cc.fastsoft.db.core.DatabaseManager;
 import cc.fastsoft.db.core.KeyEncoder;
 import cc.fastsoft.db.core.MetadataManager;
 import cc.fastsoft.db.core.RowCodec;
+import cc.fastsoft.db.core.SessionTransaction;
+import cc.fastsoft.db.core.StatementBatch;
+import cc.fastsoft.db.core.StorageFormat;
 import cc.fastsoft.db.core.StorageManager;
+import cc.fastsoft.db.core.TableColumnFamilies;
+import cc.fastsoft.db.core.TableIndexes;
 import cc.fastsoft.db.schema.Column;
+import cc.fastsoft.db.schema.DatabaseSchema;
+import cc.fastsoft.db.schema.IndexSchema;
 import cc.fastsoft.db.schema.TableSchema;
 import cc.fastsoft.storage.rocksdb.RocksDbHandle;
+import org.rocksdb.BlockBasedTableConfig;
+import org.rocksdb.Cache;
 import org.rocksdb.ColumnFamilyOptions;
 import org.rocksdb.DBOptions;
+import org.rocksdb.LRUCache;
 import org.rocksdb.RocksDB;
 import org.rocksdb.RocksDBException;
+import org.rocksdb.WriteOptions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import static cc.fastsoft.db.schema.Column.ColumnType;
 
@@ -28,20 +46,48 @@ import static cc.fastsoft.db.schema.Column.ColumnType;
  * Architecture:
  * - MetadataManager: Manages table schema metadata
  * - StorageManager: Handles data storage and retrieval
+ * - TableColumnFamilies: Keeps the rows of every table in its own column family
+ * - TableIndexes: Tracks the secondary indexes that writes maintain
+ * - AutoIncrementSequences: Generates AUTO_INCREMENT values from reserved blocks
  * - KeyEncoder: Encodes primary keys and data keys
+ * - StorageFormat: Versions the on-disk format and migrates older data
  * - RowCodec: Serializes and deserializes row data
+ *
+ * The engine holds no per-client state and may be shared by many threads;
+ * the current database is taken from the caller's {@link Session}.
+ *
+ * Transactions: unless rocksdb.transaction.mode is none, RocksDB is opened as an
+ * OptimisticTransactionDB or TransactionDB. A session's transaction begins with
+ * {@link #beginTransaction} or, with autocommit off, at its first statement, and
+ * lasts until {@link #commit} or {@link #rollback}; schema changes and bulk loads
+ * commit it first. Outside of a transaction every statement is one of its own.
  */
 public class DatabaseEngine implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(DatabaseEngine.class);
+
     private RocksDbHandle rocksDbHandle;
     private RocksDB db;
+    private WriteOptions writeOptions;
+    // Block cache shared by all column families, see rocksdb.block.cache.size
+    private Cache blockCache;
+    // Staging area for the SST files of bulk loads, next to the database directory
+    private File bulkLoadDirectory;
+    // Temporary files of sorts and aggregations that exceed their memory budget
+    private File spillDirectory;
 
     // Modular components
     private DatabaseManager databaseManager;
     private MetadataManager metadataManager;
     private StorageManager storageManager;
+    private TableColumnFamilies columnFamilies;
+    private TableIndexes tableIndexes;
+    private AutoIncrementSequences sequences;
     private KeyEncoder keyEncoder;
     private RowCodec rowCodec;
 
+    // Serializes table creation and removal with their column families
+    private final Object ddlLock = new Object();
+
     public DatabaseEngine() {
         try {
             initRocksDB();
@@ -58,14 +104,24 @@ public class DatabaseEngine implements Closeable {
         DBOptions dbOptions = new DBOptions();
         dbOptions.setCreateIfMissing(true);
         dbOptions.setCreateMissingColumnFamilies(true);
-        ColumnFamilyOptions columnFamilyOptions = new ColumnFamilyOptions();
+        // Index and filter blocks get the high priority part of the cache
+        blockCache = new LRUCache(ServerConfig.getBlockCacheSize(), -1, false, 0.1);
+        ColumnFamilyOptions columnFamilyOptions = new ColumnFamilyOptions()
+                .setTableFormatConfig(new BlockBasedTableConfig().setBlockCache(blockCache));
 
         // Allow custom RocksDB path for testing
         String dbPath = System.getProperty("rocksdb.path", "rocks.db");
-        rocksDbHandle =
-                new RocksDbHandle(new File(dbPath), dbOptions, columnFamilyOptions, false);
+        rocksDbHandle = new RocksDbHandle(new File(dbPath), dbOptions, columnFamilyOptions,
+                name -> TableColumnFamilies.options(name, blockCache), ServerConfig.getTransactionMode(), false);
         rocksDbHandle.openDB();
         db = rocksDbHandle.getDb();
+        bulkLoadDirectory = new File(dbPath + ".load");
+        spillDirectory = new File(dbPath + ".spill");
+
+        // Durability of row writes, see rocksdb.write.sync and rocksdb.write.disable.wal
+        writeOptions = new WriteOptions()
+                .setSync(ServerConfig.isWriteSync())
+                .setDisableWAL(ServerConfig.isWriteDisableWal());
     }
 
     /**
@@ -76,7 +132,11 @@ public class DatabaseEngine implements Closeable {
         this.rowCodec = new RowCodec();
         this.databaseManager = new DatabaseManager(db);
         this.metadataManager = new MetadataManager(db, databaseManager);
-        this.storageManager = new StorageManager(db, keyEncoder, rowCodec);
+        this.columnFamilies = new TableColumnFamilies(rocksDbHandle, blockCache);
+        this.tableIndexes = new TableIndexes();
+        this.sequences = new AutoIncrementSequences(db, ServerConfig.getAutoIncrementBlock());
+        this.storageManager = new StorageManager(db, columnFamilies, keyEncoder, rowCodec, writeOptions, tableIndexes,
+                sequences);
 
         // Load existing databases and tables from RocksDB on startup
         loadExistingData();
@@ -89,10 +149,57 @@ public class DatabaseEngine implements Closeable {
     private void loadExistingData() throws RocksDBException {
         System.out.println("Loading existing data from RocksDB...");
         databaseManager.loadAllDatabases();
+        new StorageFormat(db, databaseManager, metadataManager, columnFamilies, keyEncoder, rowCodec).upgrade();
         metadataManager.loadAllTables();
+        dropUnusedColumnFamilies();
+        loadIndexes();
         System.out.println("Data loading completed.");
     }
 
+    /**
+     * Register the indexes of every table, and finish index builds that were
+     * interrupted by a restart; building again only rewrites existing entries
+     */
+    private void loadIndexes() throws RocksDBException {
+        for (String databaseName : databaseManager.listDatabases()) {
+            DatabaseSchema dbSchema = databaseManager.getDatabaseSchema(databaseName);
+            if (dbSchema == null) {
+                continue;
+            }
+            for (TableSchema table : dbSchema.getTables()) {
+                tableIndexes.set(table);
+                for (IndexSchema index : table.indexes) {
+                    if (index.building) {
+                        logger.info("Resuming build of index {} on {}", index.indexName, table.tableName);
+                        finishIndexBuild(databaseName, table, index);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Drop column families no table refers to any more, left behind when the server
+     * stopped between creating or dropping a table and saving its schema
+     */
+    private void dropUnusedColumnFamilies() throws RocksDBException {
+        Set<Long> tableIds = new HashSet<>();
+        for (String databaseName : databaseManager.listDatabases()) {
+            DatabaseSchema dbSchema = databaseManager.getDatabaseSchema(databaseName);
+            if (dbSchema != null) {
+                for (TableSchema table : dbSchema.getTables()) {
+                    tableIds.add(table.tableId);
+                }
+            }
+        }
+        for (long tableId : columnFamilies.tableIds()) {
+            if (!tableIds.contains(tableId)) {
+                logger.info("Dropping column family of removed table id {}", tableId);
+                columnFamilies.drop(tableId);
+            }
+        }
+    }
+
     // ==================== Database Management API ====================
 
     /**
@@ -106,21 +213,27 @@ public class DatabaseEngine implements Closeable {
      * Drop a database
      */
     public void dropDatabase(String databaseName) throws RocksDBException {
-        databaseManager.dropDatabase(databaseName);
-    }
-
-    /**
-     * Use/switch to a database
-     */
-    public void useDatabase(String databaseName) throws RocksDBException {
-        databaseManager.useDatabase(databaseName);
+        synchronized (ddlLock) {
+            DatabaseSchema dbSchema = databaseManager.getDatabaseSchema(databaseName);
+            List<TableSchema> tables = dbSchema == null ? List.of() : List.copyOf(dbSchema.getTables());
+            databaseManager.dropDatabase(databaseName);
+            metadataManager.dropDatabaseTables(databaseName);
+            for (TableSchema table : tables) {
+                tableIndexes.remove(table.tableId);
+                sequences.drop(table.tableId);
+                columnFamilies.drop(table.tableId);
+            }
+        }
     }
 
     /**
-     * Get current database name
+     * Use/switch to a database for the given session
      */
-    public String getCurrentDatabase() {
-        return databaseManager.getCurrentDatabase();
+    public void useDatabase(Session session, String databaseName) {
+        if (!databaseManager.databaseExists(databaseName)) {
+            throw new IllegalStateException("Database does not exist: " + databaseName);
+        }
+        session.setDatabase(databaseName);
     }
 
     /**
@@ -140,13 +253,22 @@ public class DatabaseEngine implements Closeable {
     // ==================== Table Management API ====================
 
     /**
-     * Create a new table in current database
+     * Create a new table in the session's current database
      */
-    public void createTable(String tableName,
+    public void createTable(Session session, String tableName,
                             List<Column> columns,
                             List<String> primaryKeyColumns) throws RocksDBException {
-        TableSchema schema = new TableSchema(tableName, columns, primaryKeyColumns);
-        metadataManager.saveTableSchema(tableName, schema);
+        createTable(session.requireDatabase(), tableName, columns, primaryKeyColumns, List.of());
+    }
+
+    /**
+     * Create a new table with secondary indexes in the session's current database
+     */
+    public void createTable(Session session, String tableName,
+                            List<Column> columns,
+                            List<String> primaryKeyColumns,
+                            List<IndexSchema> indexes) throws RocksDBException {
+        createTable(session.requireDatabase(), tableName, columns, primaryKeyColumns, indexes);
     }
 
     /**
@@ -155,103 +277,243 @@ public class DatabaseEngine implements Closeable {
     public void createTable(String databaseName, String tableName,
                             List<Column> columns,
                             List<String> primaryKeyColumns) throws RocksDBException {
-        TableSchema schema = new TableSchema(tableName, columns, primaryKeyColumns);
-        metadataManager.saveTableSchema(databaseName, tableName, schema);
+        createTable(databaseName, tableName, columns, primaryKeyColumns, List.of());
+    }
+
+    private void createTable(String databaseName, String tableName,
+                             List<Column> columns,
+                             List<String> primaryKeyColumns,
+                             List<IndexSchema> indexes) throws RocksDBException {
+        synchronized (ddlLock) {
+            if (!databaseManager.databaseExists(databaseName)) {
+                throw new IllegalStateException("Database does not exist: " + databaseName);
+            }
+            if (metadataManager.tableExists(databaseName, tableName)) {
+                throw new IllegalStateException("Table already exists: " + databaseName + "." + tableName);
+            }
+            TableSchema schema = new TableSchema(tableName, columns, primaryKeyColumns,
+                    metadataManager.allocateTableId(), indexes);
+
+            // The column family is created before the schema refers to it
+            columnFamilies.create(databaseName, schema);
+            try {
+                metadataManager.saveTableSchema(databaseName, tableName, schema);
+            } catch (RocksDBException | RuntimeException e) {
+                columnFamilies.drop(schema.tableId);
+                throw e;
+            }
+            tableIndexes.set(schema);
+        }
     }
 
     /**
-     * Insert a row into table
+     * Insert a row into table. A row without an AUTO_INCREMENT value is given the
+     * next one, which becomes the session's last insert id.
      */
-    public void insert(String tableName, Map<String, Object> row) throws RocksDBException {
-        String currentDb = databaseManager.getCurrentDatabase();
-        if (currentDb == null) {
-            throw new IllegalStateException("No database selected");
+    public void insert(Session session, String tableName, Map<String, Object> row) throws RocksDBException {
+        TableSchema schema = getTableSchema(session, tableName);
+        long generated = storageManager.assignAutoIncrement(schema, row);
+        storageManager.insertRow(schema, row);
+        if (generated > 0) {
+            session.setLastInsertId(generated);
         }
-        TableSchema schema = metadataManager.getTableSchema(tableName);
-        String fullTableName = currentDb + "." + tableName;
-        storageManager.insertRow(fullTableName, schema, row);
+    }
+
+    /**
+     * Start collecting the row changes of one statement of a session; nothing is
+     * written until the batch is committed, and in a transaction not before the
+     * transaction is. The caller must close it.
+     */
+    public StatementBatch newBatch(Session session) throws RocksDBException {
+        return getStorageManager(session).newBatch();
+    }
+
+    /**
+     * Start loading rows into a table through SST file ingestion; nothing is visible
+     * until the loader is finished. The loaded rows bypass transactions, so the
+     * session's transaction is committed first. The caller must close it.
+     */
+    public BulkLoader newBulkLoader(Session session, String tableName, boolean replace)
+            throws RocksDBException, IOException {
+        commit(session);
+        TableSchema schema = getTableSchema(session, tableName);
+        return storageManager.newBulkLoader(schema, bulkLoadDirectory, ServerConfig.getLoadBufferSize(), replace);
     }
 
     /**
      * Select a row by primary key
      */
-    public Map<String, Object> selectByPrimaryKey(String tableName,
+    public Map<String, Object> selectByPrimaryKey(Session session, String tableName,
                                                   Map<String, Object> pkValues) throws RocksDBException {
-        String currentDb = databaseManager.getCurrentDatabase();
-        if (currentDb == null) {
-            throw new IllegalStateException("No database selected");
-        }
-        TableSchema schema = metadataManager.getTableSchema(tableName);
-        String fullTableName = currentDb + "." + tableName;
-        return storageManager.selectByPrimaryKey(fullTableName, schema, pkValues);
+        TableSchema schema = getTableSchema(session, tableName);
+        return storageManager.selectByPrimaryKey(schema, pkValues);
     }
 
     /**
      * Select all rows from a table
      */
-    public List<Map<String, Object>> selectAll(String tableName) throws RocksDBException {
-        String currentDb = databaseManager.getCurrentDatabase();
-        if (currentDb == null) {
-            throw new IllegalStateException("No database selected");
-        }
-        TableSchema schema = metadataManager.getTableSchema(tableName);
-        String fullTableName = currentDb + "." + tableName;
-        return storageManager.selectAll(fullTableName, schema);
+    public List<Map<String, Object>> selectAll(Session session, String tableName) throws RocksDBException {
+        TableSchema schema = getTableSchema(session, tableName);
+        return storageManager.selectAll(schema);
     }
 
     /**
      * Update a row by primary key
      */
-    public void update(String tableName,
-                      Map<String, Object> pkValues,
-                      Map<String, Object> newValues) throws RocksDBException {
-        String currentDb = databaseManager.getCurrentDatabase();
-        if (currentDb == null) {
-            throw new IllegalStateException("No database selected");
-        }
-        TableSchema schema = metadataManager.getTableSchema(tableName);
-        String fullTableName = currentDb + "." + tableName;
-        storageManager.updateByPrimaryKey(fullTableName, schema, pkValues, newValues);
+    public void update(Session session, String tableName,
+                       Map<String, Object> pkValues,
+                       Map<String, Object> newValues) throws RocksDBException {
+        TableSchema schema = getTableSchema(session, tableName);
+        storageManager.updateByPrimaryKey(schema, pkValues, newValues);
     }
 
     /**
      * Delete a row by primary key
      */
-    public void delete(String tableName, Map<String, Object> pkValues) throws RocksDBException {
-        String currentDb = databaseManager.getCurrentDatabase();
-        if (currentDb == null) {
-            throw new IllegalStateException("No database selected");
+    public void delete(Session session, String tableName, Map<String, Object> pkValues) throws RocksDBException {
+        TableSchema schema = getTableSchema(session, tableName);
+        storageManager.deleteByPrimaryKey(schema, pkValues);
+    }
+
+    /**
+     * Drop a table: its schema is removed and its column family dropped with all rows
+     */
+    public void dropTable(Session session, String tableName) throws RocksDBException {
+        String databaseName = session.requireDatabase();
+        synchronized (ddlLock) {
+            TableSchema schema = metadataManager.getTableSchema(databaseName, tableName);
+            metadataManager.dropTableSchema(databaseName, tableName);
+            tableIndexes.remove(schema.tableId);
+            sequences.drop(schema.tableId);
+            columnFamilies.drop(schema.tableId);
+        }
+    }
+
+    /**
+     * Create a secondary index on a table and build it from the existing rows. The
+     * table stays readable and writable while the index is built; queries use the
+     * index once it is complete.
+     */
+    public void createIndex(Session session, String tableName, String indexName,
+                            List<String> columns) throws RocksDBException {
+        String databaseName = session.requireDatabase();
+        synchronized (ddlLock) {
+            TableSchema schema = metadataManager.getTableSchema(databaseName, tableName);
+            if (schema.getIndex(indexName) != null) {
+                throw new IllegalStateException("Duplicate key name '" + indexName + "' on table " + tableName);
+            }
+            if (columns.isEmpty() || Set.copyOf(columns).size() != columns.size()) {
+                throw new IllegalArgumentException("Index " + indexName + " needs distinct columns: " + columns);
+            }
+            for (String column : columns) {
+                if (schema.getColumn(column) == null) {
+                    throw new IllegalArgumentException("Key column '" + column + "' doesn't exist in table " + tableName);
+                }
+            }
+            // Recorded as building first, so a restart finishes the build
+            IndexSchema index = new IndexSchema(indexName, columns, schema.nextIndexId(), true);
+            schema = schema.withIndex(index);
+            metadataManager.updateTableSchema(databaseName, schema);
+            finishIndexBuild(databaseName, schema, index);
+        }
+    }
+
+    private void finishIndexBuild(String databaseName, TableSchema schema, IndexSchema index)
+            throws RocksDBException {
+        long rows = storageManager.buildIndex(schema, index);
+        TableSchema built = schema.withIndex(index.built());
+        metadataManager.updateTableSchema(databaseName, built);
+        tableIndexes.set(built);
+        logger.info("Built index {} on {} over {} row(s)", index.indexName, schema.tableName, rows);
+    }
+
+    /**
+     * Drop a secondary index and delete its entries
+     */
+    public void dropIndex(Session session, String tableName, String indexName) throws RocksDBException {
+        String databaseName = session.requireDatabase();
+        synchronized (ddlLock) {
+            TableSchema schema = metadataManager.getTableSchema(databaseName, tableName);
+            IndexSchema index = schema.getIndex(indexName);
+            if (index == null) {
+                throw new IllegalStateException("Can't DROP '" + indexName + "'; check that it exists");
+            }
+            schema = schema.withoutIndex(indexName);
+            metadataManager.updateTableSchema(databaseName, schema);
+            storageManager.dropIndex(schema, index);
+        }
+    }
+
+    /**
+     * Delete all rows of a table, keeping the table
+     */
+    public void truncateTable(Session session, String tableName) throws RocksDBException {
+        TableSchema schema = getTableSchema(session, tableName);
+        storageManager.truncate(schema);
+    }
+
+    /**
+     * Check if table exists in the session's current database
+     */
+    public boolean tableExists(Session session, String tableName) {
+        String databaseName = session.getDatabase();
+        if (databaseName == null) {
+            return false;
+        }
+        try {
+            return metadataManager.tableExists(databaseName, tableName);
+        } catch (RocksDBException e) {
+            return false;
         }
-        TableSchema schema = metadataManager.getTableSchema(tableName);
-        String fullTableName = currentDb + "." + tableName;
-        storageManager.deleteByPrimaryKey(fullTableName, schema, pkValues);
     }
 
     /**
-     * Drop a table (delete schema and all data)
+     * Get table schema from the session's current database
      */
-    public void dropTable(String tableName) throws RocksDBException {
-        String currentDb = databaseManager.getCurrentDatabase();
-        if (currentDb == null) {
-            throw new IllegalStateException("No database selected");
+    public TableSchema getTableSchema(Session session, String tableName) throws RocksDBException {
+        return metadataManager.getTableSchema(session.requireDatabase(), tableName);
+    }
+
+    // ==================== Transactions ====================
+
+    /**
+     * Begin a transaction in a session, committing the one it has open. Without
+     * transaction support nothing happens and every statement stays on its own.
+     */
+    public void beginTransaction(Session session) throws RocksDBException {
+        commit(session);
+        if (storageManager.isTransactional()) {
+            session.setTransaction(storageManager.beginTransaction());
         }
-        String fullTableName = currentDb + "." + tableName;
-        storageManager.deleteAll(fullTableName);
-        metadataManager.dropTableSchema(tableName);
     }
 
     /**
-     * Check if table exists
+     * Commit the session's open transaction, if any. The transaction ends even
+     * when the commit fails, with its changes discarded.
      */
-    public boolean tableExists(String tableName) {
-        return metadataManager.tableExists(tableName);
+    public void commit(Session session) throws RocksDBException {
+        SessionTransaction transaction = session.getTransaction();
+        if (transaction == null) {
+            return;
+        }
+        session.setTransaction(null);
+        try (transaction) {
+            transaction.commit();
+        }
     }
 
     /**
-     * Get table schema
+     * Discard the changes of the session's open transaction, if any
      */
-    public TableSchema getTableSchema(String tableName) throws RocksDBException {
-        return metadataManager.getTableSchema(tableName);
+    public void rollback(Session session) throws RocksDBException {
+        SessionTransaction transaction = session.getTransaction();
+        if (transaction == null) {
+            return;
+        }
+        session.setTransaction(null);
+        try (transaction) {
+            transaction.rollback();
+        }
     }
 
     // ==================== Getters for Modules ====================
@@ -260,10 +522,29 @@ public class DatabaseEngine implements Closeable {
         return metadataManager;
     }
 
+    /**
+     * Directory for the temporary files of sorts and aggregations that spill to disk
+     */
+    public File getSpillDirectory() {
+        return spillDirectory;
+    }
+
     public StorageManager getStorageManager() {
         return storageManager;
     }
 
+    /**
+     * The storage manager for the statements of a session: bound to its open
+     * transaction, if any. With autocommit off, a transaction is begun first.
+     */
+    public StorageManager getStorageManager(Session session) {
+        if (session.getTransaction() == null && !session.isAutocommit() && storageManager.isTransactional()) {
+            session.setTransaction(storageManager.beginTransaction());
+        }
+        SessionTransaction transaction = session.getTransaction();
+        return transaction == null ? storageManager : storageManager.withTransaction(transaction);
+    }
+
     public KeyEncoder getKeyEncoder() {
         return keyEncoder;
     }
@@ -275,7 +556,14 @@ public class DatabaseEngine implements Closeable {
     @Override
     public void close() {
         if (rocksDbHandle != null) {
-            rocksDbHandle.getDb().close();
+            rocksDbHandle.close();
+        }
+        if (writeOptions != null) {
+            writeOptions.close();
+        }
+        // The cache outlives the column families using it
+        if (blockCache != null) {
+            blockCache.close();
         }
     }
 
@@ -283,8 +571,9 @@ public class DatabaseEngine implements Closeable {
         DatabaseEngine engine = new DatabaseEngine();
         try {
             // Example usage
+            Session session = new Session();
             engine.createDatabase("demo");
-            engine.useDatabase("demo");
+            engine.useDatabase(session, "demo");
 
             // Define table schema
             List<Column> columns = List.of(
@@ -297,7 +586,7 @@ public class DatabaseEngine implements Closeable {
             List<String> pkColumns = List.of("id");
 
             // Create table
-            engine.createTable("users", columns, pkColumns);
+            engine.createTable(session, "users", columns, pkColumns);
 
             // Insert a row
             for (int i = 1; i <= 10; i++) {
@@ -307,13 +596,13 @@ public class DatabaseEngine implements Closeable {
                 row.put("age", 20 + i);
                 row.put("type", i % 2 == 0 ? "admin" : "guest");
                 row.put("created_at", System.currentTimeMillis());
-                engine.insert("users", row);
+                engine.insert(session, "users", row);
             }
 
             // Select the row
             Map<String, Object> pkValues = new HashMap<>();
             pkValues.put("id", 1);
-            Map<String, Object> selectedRow = engine.selectByPrimaryKey("users", pkValues);
+            Map<String, Object> selectedRow = engine.selectByPrimaryKey(session, "users", pkValues);
             System.out.println("Selected Row: " + selectedRow);
 
         } catch (Exception e) {
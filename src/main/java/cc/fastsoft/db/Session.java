@@ -0,0 +1,104 @@
+package cc.fastsoft.db;
+
+import cc.fastsoft.db.core.SessionTransaction;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Session - State of one client session (current database, session variables,
+ * autocommit, open transaction, last insert id)
+ *
+ * The engine keeps no per-client state; every call that depends on the session takes
+ * one. A session is used by one connection at a time, whose commands run one after
+ * another, so it needs no locking.
+ */
+public class Session {
+    private String database;
+    private boolean autocommit = true;
+    private SessionTransaction transaction;
+    private long lastInsertId;
+    private final Map<String, String> variables = new LinkedHashMap<>();
+
+    public Session() {
+    }
+
+    public Session(String database) {
+        this.database = database;
+    }
+
+    /**
+     * Current database, or null when none is selected
+     */
+    public String getDatabase() {
+        return database;
+    }
+
+    public void setDatabase(String database) {
+        this.database = database;
+    }
+
+    /**
+     * Current database, failing when none is selected
+     */
+    public String requireDatabase() {
+        if (database == null) {
+            throw new IllegalStateException("No database selected. Use 'USE database_name' first.");
+        }
+        return database;
+    }
+
+    public boolean isAutocommit() {
+        return autocommit;
+    }
+
+    public void setAutocommit(boolean autocommit) {
+        this.autocommit = autocommit;
+    }
+
+    /**
+     * The open transaction, or null. It is begun and ended by the engine, see
+     * {@link DatabaseEngine#beginTransaction}.
+     */
+    public SessionTransaction getTransaction() {
+        return transaction;
+    }
+
+    void setTransaction(SessionTransaction transaction) {
+        this.transaction = transaction;
+    }
+
+    public boolean isInTransaction() {
+        return transaction != null;
+    }
+
+    /**
+     * First AUTO_INCREMENT value generated by the latest INSERT that generated
+     * one, as returned by LAST_INSERT_ID(); 0 before any
+     */
+    public long getLastInsertId() {
+        return lastInsertId;
+    }
+
+    public void setLastInsertId(long lastInsertId) {
+        this.lastInsertId = lastInsertId;
+    }
+
+    /**
+     * Session variable value, or null when it was never set in this session.
+     * Names are case-insensitive.
+     */
+    public String getVariable(String name) {
+        return variables.get(name.toLowerCase(Locale.ROOT));
+    }
+
+    public void setVariable(String name, String value) {
+        variables.put(name.toLowerCase(Locale.ROOT), value);
+    }
+
+    public Map<String, String> getVariables() {
+        return Collections.unmodifiableMap(variables);
+    }
+}
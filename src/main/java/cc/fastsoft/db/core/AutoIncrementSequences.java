@@ -0,0 +1,160 @@
+package cc.fastsoft.db.core;
+
+import cc.fastsoft.db.schema.Column;
+import cc.fastsoft.db.schema.TableSchema;
+import org.rocksdb.RocksDB;
+import org.rocksdb.RocksDBException;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Auto Increment Sequences - Generates the AUTO_INCREMENT values of every table
+ *
+ * A table's sequence hands out values from an {@link AtomicLong} in memory. Only
+ * the end of the block of values reserved so far is stored, under a metadata key
+ * of the table id, and a new block is reserved with one write when the current one
+ * runs out, so generating a value normally writes nothing. After a restart the
+ * sequence continues behind the stored end: the unused rest of the last block is
+ * skipped, but no value is ever handed out twice. Rows inserted with an explicit
+ * value move the sequence past it, as in MySQL.
+ *
+ * Values of rolled back statements and transactions are not given back.
+ */
+public class AutoIncrementSequences {
+    private static final String KEY_PREFIX = "meta:auto_increment:";
+
+    private final RocksDB db;
+    private final int blockSize;
+    private final Map<Long, Sequence> sequences = new ConcurrentHashMap<>();
+
+    public AutoIncrementSequences(RocksDB db, int blockSize) {
+        this.db = db;
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * Give a row its AUTO_INCREMENT value when it has none (absent, NULL or 0), or
+     * move the sequence past the value it has. Returns the generated value, or 0
+     * when the row kept its own or the table has no AUTO_INCREMENT column.
+     */
+    public long assign(TableSchema schema, Map<String, Object> row) throws RocksDBException {
+        Column column = schema.getAutoIncrementColumn();
+        if (column == null) {
+            return 0;
+        }
+        Object value = row.get(column.name);
+        Long explicit = value == null ? Long.valueOf(0) : explicitValue(value);
+        if (explicit == null || explicit < 0) {
+            // Left to the row codec, which rejects what it cannot store
+            return 0;
+        }
+        Sequence sequence = sequence(schema.tableId);
+        if (explicit > 0) {
+            sequence.advancePast(explicit);
+            return 0;
+        }
+        long id = sequence.next();
+        if (column.type == Column.ColumnType.INT) {
+            if (id > Integer.MAX_VALUE) {
+                throw new IllegalStateException("Failed to read auto-increment value from storage engine");
+            }
+            row.put(column.name, (int) id);
+        } else {
+            row.put(column.name, id);
+        }
+        return id;
+    }
+
+    /**
+     * Forget the sequence of a dropped table
+     */
+    public void drop(long tableId) throws RocksDBException {
+        sequences.remove(tableId);
+        db.delete(key(tableId));
+    }
+
+    private Sequence sequence(long tableId) throws RocksDBException {
+        Sequence sequence = sequences.get(tableId);
+        if (sequence != null) {
+            return sequence;
+        }
+        synchronized (this) {
+            sequence = sequences.get(tableId);
+            if (sequence == null) {
+                byte[] value = db.get(key(tableId));
+                long reserved = value == null ? 0 : Long.parseLong(new String(value));
+                sequence = new Sequence(key(tableId), reserved);
+                sequences.put(tableId, sequence);
+            }
+            return sequence;
+        }
+    }
+
+    private static Long explicitValue(Object value) {
+        if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+        if (value instanceof String) {
+            try {
+                return Long.parseLong(((String) value).trim());
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    private static byte[] key(long tableId) {
+        return (KEY_PREFIX + tableId).getBytes();
+    }
+
+    /**
+     * The sequence of one table. Values up to {@code reserved} are stored as used,
+     * so they can be handed out without a write.
+     */
+    private final class Sequence {
+        private final byte[] key;
+        private final AtomicLong next;
+        private volatile long reserved;
+
+        Sequence(byte[] key, long reserved) {
+            this.key = key;
+            this.reserved = reserved;
+            this.next = new AtomicLong(reserved + 1);
+        }
+
+        long next() throws RocksDBException {
+            long id = next.getAndIncrement();
+            if (id > reserved) {
+                reserve(id);
+            }
+            return id;
+        }
+
+        void advancePast(long value) throws RocksDBException {
+            long current;
+            while ((current = next.get()) <= value) {
+                if (next.compareAndSet(current, value + 1)) {
+                    break;
+                }
+            }
+            if (value > reserved) {
+                reserve(value);
+            }
+        }
+
+        /**
+         * Store a new end of the reserved values, covering {@code id} and the block after it
+         */
+        private synchronized void reserve(long id) throws RocksDBException {
+            if (id <= reserved) {
+                return;
+            }
+            long end = id + blockSize - 1;
+            db.put(key, String.valueOf(end).getBytes());
+            reserved = end;
+        }
+    }
+}
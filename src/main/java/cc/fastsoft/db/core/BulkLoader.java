@@ -0,0 +1,383 @@
+package cc.fastsoft.db.core;
+
+import cc.fastsoft.db.schema.IndexSchema;
+import cc.fastsoft.db.schema.TableSchema;
+import cc.fastsoft.utils.IOUtils;
+import org.rocksdb.ColumnFamilyHandle;
+import org.rocksdb.EnvOptions;
+import org.rocksdb.IngestExternalFileOptions;
+import org.rocksdb.Options;
+import org.rocksdb.ReadOptions;
+import org.rocksdb.RocksDB;
+import org.rocksdb.RocksDBException;
+import org.rocksdb.RocksIterator;
+import org.rocksdb.SstFileReader;
+import org.rocksdb.SstFileReaderIterator;
+import org.rocksdb.SstFileWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Bulk Loader - Loads rows into a table by ingesting SST files, bypassing the memtable and WAL
+ *
+ * Encoded rows are buffered until the buffer reaches its size limit, then sorted by
+ * key and written to an SST file (a sorted run) in a private temporary directory.
+ * {@link #finish()} merges the runs into one SST file and ingests it, so the rows
+ * appear together or not at all; a load that fits in a single run into a table
+ * without indexes is ingested without merging. Closing a loader that was not
+ * finished deletes its files.
+ *
+ * Duplicate keys: by default the first row of a key wins and rows whose key was
+ * already in the table are skipped (LOAD DATA ... IGNORE, the MySQL default for
+ * LOCAL). With {@code replace} the last row of a key wins and existing rows are
+ * overwritten. Existing keys are only looked up when the table has rows when the
+ * load is finished, so rows written while the file was being read are seen.
+ *
+ * Index entries of the loaded rows are produced while merging, sorted the same way
+ * and ingested in the same call as the rows. Rows that replace existing ones also
+ * delete the index entries of the rows they replace.
+ */
+public class BulkLoader implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(BulkLoader.class);
+
+    // Rough per-row bookkeeping cost of the buffer beyond the key and value bytes
+    private static final int ENTRY_OVERHEAD = 64;
+
+    private static final Comparator<byte[]> KEY_ORDER = Arrays::compareUnsigned;
+
+    // Index run values: the operation to apply to the index key
+    private static final byte[] INDEX_PUT = {0};
+    private static final byte[] INDEX_DELETE = {1};
+    private static final byte[] EMPTY_VALUE = new byte[0];
+
+    private final RocksDB db;
+    private final ColumnFamilyHandle columnFamily;
+    private final TableIndexes tableIndexes;
+    private final AutoIncrementSequences sequences;
+    private final TableSchema schema;
+    private final KeyEncoder keyEncoder;
+    private final RowCodec rowCodec;
+    private final Options sstOptions;
+    private final EnvOptions envOptions = new EnvOptions();
+    private final File directory;
+    private final long bufferLimit;
+    private final boolean replace;
+
+    private final SortedRuns rows;
+    private long addedRows;
+    private long loadedRows;
+    private boolean finished;
+
+    BulkLoader(RocksDB db, TableColumnFamilies columnFamilies, TableIndexes tableIndexes,
+               AutoIncrementSequences sequences, TableSchema schema, KeyEncoder keyEncoder, RowCodec rowCodec,
+               File parentDirectory, long bufferLimit, boolean replace) throws IOException {
+        this.db = db;
+        this.columnFamily = columnFamilies.get(schema);
+        this.tableIndexes = tableIndexes;
+        this.sequences = sequences;
+        this.schema = schema;
+        this.keyEncoder = keyEncoder;
+        this.rowCodec = rowCodec;
+        this.bufferLimit = bufferLimit;
+        this.replace = replace;
+        Files.createDirectories(parentDirectory.toPath());
+        this.directory = Files.createTempDirectory(parentDirectory.toPath(), schema.tableName + "-").toFile();
+        this.sstOptions = columnFamilies.sstFileOptions(schema);
+        this.rows = new SortedRuns("run");
+    }
+
+    /**
+     * Add a row; its key and value are encoded right away. A row without an
+     * AUTO_INCREMENT value is given the next one.
+     */
+    public void add(Map<String, Object> row) throws RocksDBException {
+        if (finished) {
+            throw new IllegalStateException("Bulk load already finished");
+        }
+        sequences.assign(schema, row);
+        byte[] key = keyEncoder.encodeDataKey(schema, keyEncoder.encodePrimaryKey(schema, row));
+        rows.add(key, rowCodec.encodeRow(schema, row));
+        addedRows++;
+    }
+
+    /**
+     * Write the remaining rows, merge the runs and ingest the result into the table.
+     * Returns the number of rows loaded.
+     */
+    public long finish() throws RocksDBException {
+        if (finished) {
+            throw new IllegalStateException("Bulk load already finished");
+        }
+        finished = true;
+        rows.spill();
+
+        // The indexes are read and the files ingested with no index change in flight
+        Lock writerLock = tableIndexes.writerLock();
+        writerLock.lock();
+        try {
+            List<IndexSchema> indexes = tableIndexes.get(schema);
+            // Rows already stored are needed to skip them (IGNORE) or to delete their index entries
+            boolean lookupExisting = (!replace || !indexes.isEmpty()) && !isEmpty();
+
+            List<String> files = new ArrayList<>();
+            if (rows.files.size() == 1 && !lookupExisting && indexes.isEmpty()) {
+                String file = rows.files.get(0);
+                loadedRows = countEntries(file);
+                files.add(file);
+            } else {
+                loadedRows = mergeRows(indexes, lookupExisting, files);
+            }
+            if (!files.isEmpty()) {
+                try (IngestExternalFileOptions ingestOptions = new IngestExternalFileOptions()) {
+                    ingestOptions.setMoveFiles(true);
+                    db.ingestExternalFile(columnFamily, files, ingestOptions);
+                }
+            }
+        } finally {
+            writerLock.unlock();
+        }
+        logger.info("Bulk loaded {} rows into {} from {} sorted run(s), {} skipped",
+                loadedRows, schema.tableName, rows.files.size(), getSkippedRows());
+        return loadedRows;
+    }
+
+    /**
+     * Rows not loaded because of a duplicate key
+     */
+    public long getSkippedRows() {
+        return finished ? addedRows - loadedRows : 0;
+    }
+
+    /**
+     * Merge the row runs into one SST file, keeping one row per key and leaving out
+     * (IGNORE) or replacing existing rows, and write the index entries of the merged
+     * rows to a second file. Adds the files to ingest and returns the number of rows.
+     */
+    private long mergeRows(List<IndexSchema> indexes, boolean lookupExisting, List<String> files)
+            throws RocksDBException {
+        String rowFile = new File(directory, "rows.sst").getAbsolutePath();
+        SortedRuns indexEntries = new SortedRuns("index");
+        long written;
+        try (SstFileWriter writer = new SstFileWriter(envOptions, sstOptions)) {
+            writer.open(rowFile);
+            written = rows.merge((key, value) -> {
+                byte[] existing = lookupExisting ? db.get(columnFamily, key) : null;
+                if (existing != null && !replace) {
+                    return false;
+                }
+                writer.put(key, value);
+                if (!indexes.isEmpty()) {
+                    Map<String, Object> row = toRowMap(rowCodec.decodeValues(schema, value));
+                    Map<String, Object> oldRow = existing == null ? null
+                            : toRowMap(rowCodec.decodeValues(schema, existing));
+                    for (IndexSchema index : indexes) {
+                        byte[] indexKey = keyEncoder.encodeIndexKey(schema, index, row);
+                        byte[] oldIndexKey = oldRow == null ? null : keyEncoder.encodeIndexKey(schema, index, oldRow);
+                        if (oldIndexKey != null && !Arrays.equals(oldIndexKey, indexKey)) {
+                            indexEntries.add(oldIndexKey, INDEX_DELETE);
+                        }
+                        indexEntries.add(indexKey, INDEX_PUT);
+                    }
+                }
+                return true;
+            });
+            if (written > 0) {
+                writer.finish();
+                files.add(rowFile);
+            }
+        }
+
+        indexEntries.spill();
+        if (!indexEntries.files.isEmpty()) {
+            String indexFile = new File(directory, "index.sst").getAbsolutePath();
+            try (SstFileWriter writer = new SstFileWriter(envOptions, sstOptions)) {
+                writer.open(indexFile);
+                // Index keys end with the primary key, so they never repeat
+                indexEntries.merge((key, op) -> {
+                    if (op[0] == INDEX_DELETE[0]) {
+                        writer.delete(key);
+                    } else {
+                        writer.put(key, EMPTY_VALUE);
+                    }
+                    return true;
+                });
+                writer.finish();
+            }
+            files.add(indexFile);
+        }
+        return written;
+    }
+
+    private Map<String, Object> toRowMap(Object[] values) {
+        Map<String, Object> row = new LinkedHashMap<>();
+        for (int i = 0; i < values.length; i++) {
+            row.put(schema.columns.get(i).name, values[i]);
+        }
+        return row;
+    }
+
+    private long countEntries(String file) throws RocksDBException {
+        try (SstFileReader reader = new SstFileReader(sstOptions)) {
+            reader.open(file);
+            return reader.getTableProperties().getNumEntries();
+        }
+    }
+
+    private boolean isEmpty() {
+        byte[] prefix = keyEncoder.getDataKeyPrefix(schema);
+        try (ReadOptions readOptions = new ReadOptions().setTotalOrderSeek(true);
+             RocksIterator iterator = db.newIterator(columnFamily, readOptions)) {
+            iterator.seek(prefix);
+            return !iterator.isValid() || !keyEncoder.keyStartsWith(iterator.key(), prefix);
+        }
+    }
+
+    @Override
+    public void close() {
+        rows.buffer.clear();
+        sstOptions.close();
+        envOptions.close();
+        // Ingested files were moved into the database; anything left is unused
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    /**
+     * Receives the entries that win the merge, in key order; returns whether it kept the entry
+     */
+    private interface MergeConsumer {
+        boolean accept(byte[] key, byte[] value) throws RocksDBException;
+    }
+
+    /**
+     * Entries sorted in memory and spilled to SST files as sorted runs once the
+     * buffer is full. Of entries with the same key the first wins, or the last
+     * with {@code replace}.
+     */
+    private final class SortedRuns {
+        private final String name;
+        private final List<Entry> buffer = new ArrayList<>();
+        private final List<String> files = new ArrayList<>();
+        private long bufferedBytes;
+
+        SortedRuns(String name) {
+            this.name = name;
+        }
+
+        void add(byte[] key, byte[] value) throws RocksDBException {
+            buffer.add(new Entry(key, value));
+            bufferedBytes += key.length + value.length + ENTRY_OVERHEAD;
+            if (bufferedBytes >= bufferLimit) {
+                spill();
+            }
+        }
+
+        /**
+         * Sort the buffered entries, drop duplicate keys and write them to a new run
+         */
+        void spill() throws RocksDBException {
+            if (buffer.isEmpty()) {
+                return;
+            }
+            // Stable sort: entries with the same key stay in the order they were added
+            buffer.sort((a, b) -> KEY_ORDER.compare(a.key, b.key));
+
+            String file = new File(directory, name + "-" + files.size() + ".sst").getAbsolutePath();
+            try (SstFileWriter writer = new SstFileWriter(envOptions, sstOptions)) {
+                writer.open(file);
+                int size = buffer.size();
+                for (int i = 0; i < size; i++) {
+                    Entry entry = buffer.get(i);
+                    boolean sameAsNext = i + 1 < size && Arrays.equals(entry.key, buffer.get(i + 1).key);
+                    boolean sameAsPrevious = i > 0 && Arrays.equals(entry.key, buffer.get(i - 1).key);
+                    if (!(replace ? sameAsNext : sameAsPrevious)) {
+                        writer.put(entry.key, entry.value);
+                    }
+                }
+                writer.finish();
+            }
+            files.add(file);
+            buffer.clear();
+            bufferedBytes = 0;
+        }
+
+        /**
+         * Merge the runs and hand the winning entry of each key to the consumer.
+         * Returns the number of entries the consumer kept.
+         */
+        long merge(MergeConsumer consumer) throws RocksDBException {
+            List<SstFileReader> readers = new ArrayList<>();
+            List<SstFileReaderIterator> iterators = new ArrayList<>();
+            // Smallest key first; for equal keys the winning run first
+            PriorityQueue<Integer> queue = new PriorityQueue<>((a, b) -> {
+                int order = KEY_ORDER.compare(iterators.get(a).key(), iterators.get(b).key());
+                if (order != 0) {
+                    return order;
+                }
+                return replace ? Integer.compare(b, a) : Integer.compare(a, b);
+            });
+
+            long kept = 0;
+            try (ReadOptions readOptions = new ReadOptions()) {
+                for (String file : files) {
+                    SstFileReader reader = new SstFileReader(sstOptions);
+                    readers.add(reader);
+                    reader.open(file);
+                    SstFileReaderIterator iterator = reader.newIterator(readOptions);
+                    iterators.add(iterator);
+                    iterator.seekToFirst();
+                    if (iterator.isValid()) {
+                        queue.add(iterators.size() - 1);
+                    }
+                }
+
+                byte[] previousKey = null;
+                while (!queue.isEmpty()) {
+                    int run = queue.poll();
+                    SstFileReaderIterator iterator = iterators.get(run);
+                    byte[] key = iterator.key();
+                    if ((previousKey == null || !Arrays.equals(key, previousKey))
+                            && consumer.accept(key, iterator.value())) {
+                        kept++;
+                    }
+                    previousKey = key;
+                    iterator.next();
+                    if (iterator.isValid()) {
+                        queue.add(run);
+                    }
+                }
+            } finally {
+                IOUtils.closeAllQuietly(iterators);
+                IOUtils.closeAllQuietly(readers);
+            }
+            return kept;
+        }
+    }
+
+    private static final class Entry {
+        final byte[] key;
+        final byte[] value;
+
+        Entry(byte[] key, byte[] value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+}
@@ -13,6 +13,8 @@ import java.util.concurrent.ConcurrentHashMap;
 /**
  * Database Manager - Manages database-level operations
  *
+ * Which database a client is using is session state, see {@link cc.fastsoft.db.Session}.
+ *
  * Hierarchy:
  * - Database (contains multiple tables)
  *   - Table (contains multiple rows)
@@ -21,7 +23,6 @@ import java.util.concurrent.ConcurrentHashMap;
 public class DatabaseManager {
     private final RocksDB db;
     private final Map<String, DatabaseSchema> databaseCache = new ConcurrentHashMap<>();
-    private String currentDatabase = null;
 
     public DatabaseManager(RocksDB db) {
         this.db = db;
@@ -68,11 +69,6 @@ public class DatabaseManager {
         // Delete database metadata
         db.delete(metaDatabaseKey(databaseName));
         databaseCache.remove(databaseName);
-
-        // If current database is being dropped, set to null
-        if (databaseName.equals(currentDatabase)) {
-            currentDatabase = null;
-        }
     }
 
     /**
@@ -137,33 +133,6 @@ public class DatabaseManager {
         return databases;
     }
 
-    /**
-     * Use/switch to a database
-     */
-    public void useDatabase(String databaseName) throws RocksDBException {
-        if (!databaseExists(databaseName)) {
-            throw new IllegalStateException("Database does not exist: " + databaseName);
-        }
-        this.currentDatabase = databaseName;
-    }
-
-    /**
-     * Get current database name
-     */
-    public String getCurrentDatabase() {
-        return currentDatabase;
-    }
-
-    /**
-     * Get current database schema
-     */
-    public DatabaseSchema getCurrentDatabaseSchema() throws RocksDBException {
-        if (currentDatabase == null) {
-            throw new IllegalStateException("No database selected. Use 'USE database_name' first.");
-        }
-        return getDatabaseSchema(currentDatabase);
-    }
-
     /**
      * Save database schema (after modifications like adding/dropping tables)
      */
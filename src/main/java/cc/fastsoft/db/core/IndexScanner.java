@@ -0,0 +1,86 @@
+package cc.fastsoft.db.core;
+
+import cc.fastsoft.db.schema.IndexSchema;
+import cc.fastsoft.db.schema.TableSchema;
+import org.rocksdb.ReadOptions;
+import org.rocksdb.RocksDBException;
+import org.rocksdb.RocksIterator;
+import org.rocksdb.Slice;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Index Scanner - Streams the entries of a secondary index that start with a key prefix
+ *
+ * Entries come in index order, or backwards for a reverse scanner. Each one is
+ * returned as a row in schema column order holding only the indexed and primary
+ * key columns; the other columns are null. The iterator is bounded to the prefix.
+ * Must be closed to release the native iterator and its bounds.
+ */
+public class IndexScanner implements AutoCloseable {
+    private final RocksIterator iterator;
+    private final ReadOptions readOptions;
+    private final Slice lowerBound;
+    private final Slice upperBound;
+    private final TableSchema schema;
+    private final IndexSchema index;
+    private final KeyEncoder keyEncoder;
+    private final byte[] prefix;
+    private final boolean reverse;
+    private final Map<String, Integer> ordinals = new HashMap<>();
+    private boolean started;
+
+    IndexScanner(RocksIterator iterator, ReadOptions readOptions, Slice lowerBound, Slice upperBound,
+                 TableSchema schema, IndexSchema index, KeyEncoder keyEncoder, byte[] prefix, boolean reverse) {
+        this.iterator = iterator;
+        this.readOptions = readOptions;
+        this.lowerBound = lowerBound;
+        this.upperBound = upperBound;
+        this.schema = schema;
+        this.index = index;
+        this.keyEncoder = keyEncoder;
+        this.prefix = prefix;
+        this.reverse = reverse;
+        for (int i = 0; i < schema.columns.size(); i++) {
+            ordinals.put(schema.columns.get(i).name, i);
+        }
+    }
+
+    /**
+     * Advance to the next entry and return its row, or null when no entry is left
+     */
+    public Object[] next() throws RocksDBException {
+        if (!started) {
+            if (reverse) {
+                iterator.seekToLast();
+            } else {
+                iterator.seek(prefix);
+            }
+            started = true;
+        } else if (reverse) {
+            iterator.prev();
+        } else {
+            iterator.next();
+        }
+
+        if (!iterator.isValid()) {
+            iterator.status();
+            return null;
+        }
+        Object[] row = new Object[schema.columns.size()];
+        for (Map.Entry<String, Object> entry : keyEncoder.decodeIndexKey(schema, index, iterator.key()).entrySet()) {
+            row[ordinals.get(entry.getKey())] = entry.getValue();
+        }
+        return row;
+    }
+
+    @Override
+    public void close() {
+        // The bounds must outlive the iterator that reads them
+        iterator.close();
+        readOptions.close();
+        lowerBound.close();
+        upperBound.close();
+    }
+}
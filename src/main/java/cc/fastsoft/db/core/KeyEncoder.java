@@ -1,43 +1,188 @@
 package cc.fastsoft.db.core;
 
+import cc.fastsoft.db.schema.Column;
+import cc.fastsoft.db.schema.IndexSchema;
 import cc.fastsoft.db.schema.TableSchema;
 
-import java.util.ArrayList;
+import java.io.ByteArrayOutputStream;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
 /**
  * Key Encoder - Handles encoding of primary keys and data keys
+ *
+ * Data key layout (binary, memcomparable):
+ * - 1 byte: 't' table data namespace
+ * - 8 bytes: table id, big-endian with the sign bit flipped
+ * - primary key columns, each encoded with {@link MemComparable}
+ *
+ * Keys of one table share a fixed 9 byte prefix and sort in SQL order of the
+ * primary key, so range predicates and ORDER BY on the key map to bounded
+ * RocksDB iterations.
+ *
+ * Index key layout (value is empty):
+ * - 1 byte: 'i' secondary index namespace
+ * - 8 bytes: table id, as in data keys
+ * - 4 bytes: index id, big-endian with the sign bit flipped
+ * - indexed columns, each encoded with {@link MemComparable} (NULL allowed)
+ * - primary key columns, which make the key unique and locate the row
  */
 public class KeyEncoder {
 
+    public static final byte TABLE_DATA_NAMESPACE = 't';
+    public static final byte INDEX_NAMESPACE = 'i';
+    public static final int TABLE_PREFIX_LENGTH = 9;
+    public static final int INDEX_PREFIX_LENGTH = 13;
+
     /**
      * Encode primary key from row data
      */
-    public String encodePrimaryKey(TableSchema schema, Map<String, Object> row) {
-        List<String> parts = new ArrayList<>();
+    public byte[] encodePrimaryKey(TableSchema schema, Map<String, Object> row) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(32);
         for (String pkCol : schema.primaryKeyColumns) {
             Object value = row.get(pkCol);
             if (value == null) {
                 throw new IllegalArgumentException("Primary key column " + pkCol + " is null");
             }
-            parts.add(value.toString());
+            MemComparable.writeValue(out, schema.getColumn(pkCol).type, value);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Decode primary key column values from a full data key
+     */
+    public Map<String, Object> decodePrimaryKey(TableSchema schema, byte[] dataKey) {
+        Map<String, Object> values = new LinkedHashMap<>();
+        MemComparable.Reader reader = new MemComparable.Reader(dataKey, TABLE_PREFIX_LENGTH);
+        for (String pkCol : schema.primaryKeyColumns) {
+            Column column = schema.getColumn(pkCol);
+            values.put(pkCol, reader.readValue(column.type));
         }
-        return String.join("|", parts);
+        return values;
     }
 
     /**
      * Get data key prefix for a table
      */
-    public String getDataKeyPrefix(String tableName) {
-        return "data:" + tableName + ":";
+    public byte[] getDataKeyPrefix(TableSchema schema) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(TABLE_PREFIX_LENGTH);
+        out.write(TABLE_DATA_NAMESPACE);
+        MemComparable.writeLong(out, schema.tableId);
+        return out.toByteArray();
     }
 
     /**
      * Encode full data key
      */
-    public byte[] encodeDataKey(String tableName, String primaryKeyEncoded) {
-        return (getDataKeyPrefix(tableName) + primaryKeyEncoded).getBytes();
+    public byte[] encodeDataKey(TableSchema schema, byte[] primaryKeyEncoded) {
+        byte[] prefix = getDataKeyPrefix(schema);
+        byte[] key = new byte[prefix.length + primaryKeyEncoded.length];
+        System.arraycopy(prefix, 0, key, 0, prefix.length);
+        System.arraycopy(primaryKeyEncoded, 0, key, prefix.length, primaryKeyEncoded.length);
+        return key;
+    }
+
+    /**
+     * Get the prefix shared by the index keys of every index of a table
+     */
+    public byte[] getIndexKeyPrefix(TableSchema schema) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(TABLE_PREFIX_LENGTH);
+        out.write(INDEX_NAMESPACE);
+        MemComparable.writeLong(out, schema.tableId);
+        return out.toByteArray();
+    }
+
+    /**
+     * Encode the index key prefix for the leading index column values given; with no
+     * values this is the prefix of every key of the index
+     */
+    public byte[] encodeIndexPrefix(TableSchema schema, IndexSchema index, List<Object> leadingValues) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(32);
+        out.write(INDEX_NAMESPACE);
+        MemComparable.writeLong(out, schema.tableId);
+        MemComparable.writeInt(out, index.indexId);
+        for (int i = 0; i < leadingValues.size(); i++) {
+            MemComparable.writeValue(out, schema.getColumn(index.columns.get(i)).type, leadingValues.get(i));
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Encode the index key of a row
+     */
+    public byte[] encodeIndexKey(TableSchema schema, IndexSchema index, Map<String, Object> row) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(48);
+        out.write(INDEX_NAMESPACE);
+        MemComparable.writeLong(out, schema.tableId);
+        MemComparable.writeInt(out, index.indexId);
+        for (String column : index.columns) {
+            MemComparable.writeValue(out, schema.getColumn(column).type, row.get(column));
+        }
+        out.writeBytes(encodePrimaryKey(schema, row));
+        return out.toByteArray();
+    }
+
+    /**
+     * Decode the indexed column values followed by the primary key column values
+     * from an index key
+     */
+    public Map<String, Object> decodeIndexKey(TableSchema schema, IndexSchema index, byte[] indexKey) {
+        Map<String, Object> values = new LinkedHashMap<>();
+        MemComparable.Reader reader = new MemComparable.Reader(indexKey, INDEX_PREFIX_LENGTH);
+        for (String column : index.columns) {
+            values.put(column, reader.readValue(schema.getColumn(column).type));
+        }
+        for (String pkCol : schema.primaryKeyColumns) {
+            values.put(pkCol, reader.readValue(schema.getColumn(pkCol).type));
+        }
+        return values;
+    }
+
+    /**
+     * Encode the data key bounds of a range on the leading primary key column:
+     * the inclusive lower bound and exclusive upper bound of the keys in range.
+     * An open side is bounded by the table's data key prefix.
+     */
+    public byte[][] encodeDataKeyRange(TableSchema schema, KeyRange range) {
+        byte[] prefix = getDataKeyPrefix(schema);
+        byte[] lower = prefix;
+        if (range.lower != null) {
+            // Keys whose leading value equals the bound all start with its encoding
+            byte[] start = encodeLeadingKeyValue(schema, prefix, range.lower);
+            lower = range.lowerInclusive ? start : prefixUpperBound(start);
+        }
+        byte[] upper = prefixUpperBound(prefix);
+        if (range.upper != null) {
+            byte[] start = encodeLeadingKeyValue(schema, prefix, range.upper);
+            upper = range.upperInclusive ? prefixUpperBound(start) : start;
+        }
+        return new byte[][] {lower, upper};
+    }
+
+    private byte[] encodeLeadingKeyValue(TableSchema schema, byte[] prefix, Object value) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(32);
+        out.writeBytes(prefix);
+        MemComparable.writeValue(out, schema.getColumn(schema.primaryKeyColumns.get(0)).type, value);
+        return out.toByteArray();
+    }
+
+    /**
+     * Get the smallest key that sorts after every key starting with the given prefix,
+     * or null if no such key exists (prefix is all 0xFF)
+     */
+    public byte[] prefixUpperBound(byte[] prefix) {
+        byte[] bound = prefix.clone();
+        for (int i = bound.length - 1; i >= 0; i--) {
+            if (bound[i] != (byte) 0xFF) {
+                bound[i]++;
+                byte[] truncated = new byte[i + 1];
+                System.arraycopy(bound, 0, truncated, 0, i + 1);
+                return truncated;
+            }
+        }
+        return null;
     }
 
     /**
@@ -54,5 +199,14 @@ public class KeyEncoder {
         }
         return true;
     }
-}
 
+    // ==================== Legacy text format ====================
+
+    /**
+     * Data key prefix of the pre-binary storage format ("data:db.table:"),
+     * only used to migrate existing data
+     */
+    public byte[] getLegacyDataKeyPrefix(String fullTableName) {
+        return ("data:" + fullTableName + ":").getBytes();
+    }
+}
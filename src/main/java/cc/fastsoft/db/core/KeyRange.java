@@ -0,0 +1,34 @@
+package cc.fastsoft.db.core;
+
+/**
+ * Key Range - Bounds on the leading primary key column of a table scan
+ *
+ * Either bound may be absent (null), in which case the range is open on that
+ * side. Bound values must already be of the column's Java type.
+ */
+public class KeyRange {
+
+    public static final KeyRange ALL = new KeyRange(null, false, null, false);
+
+    public final Object lower;
+    public final boolean lowerInclusive;
+    public final Object upper;
+    public final boolean upperInclusive;
+
+    public KeyRange(Object lower, boolean lowerInclusive, Object upper, boolean upperInclusive) {
+        this.lower = lower;
+        this.lowerInclusive = lowerInclusive;
+        this.upper = upper;
+        this.upperInclusive = upperInclusive;
+    }
+
+    public boolean isAll() {
+        return lower == null && upper == null;
+    }
+
+    @Override
+    public String toString() {
+        return (lower == null ? "(-inf" : (lowerInclusive ? "[" : "(") + lower) + ", "
+                + (upper == null ? "+inf)" : upper + (upperInclusive ? "]" : ")"));
+    }
+}
@@ -0,0 +1,222 @@
+package cc.fastsoft.db.core;
+
+import cc.fastsoft.db.schema.Column.ColumnType;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+
+/**
+ * MemComparable - Order-preserving binary encoding of column values
+ *
+ * Encoded values compare with unsigned byte-wise comparison (the RocksDB default
+ * comparator) in the same order as the SQL values they represent, so keys built
+ * from them can be range scanned.
+ *
+ * Format of a single value:
+ * - 1 byte marker: 0x00 for NULL (sorts first), 0x01 for a present value
+ * - INT: 4 bytes big-endian with the sign bit flipped
+ * - LONG: 8 bytes big-endian with the sign bit flipped
+ * - FLOAT/DOUBLE: 8 bytes IEEE-754, sign bit flipped for positives, all bits flipped for negatives
+ * - BOOLEAN: 1 byte, 0 or 1
+ * - DATE: epoch day as INT, DATETIME: epoch microseconds as LONG, parsed as
+ *   {@link RowCodec} stores them, so every spelling of a value is the same key
+ * - strings: UTF-8 bytes with 0x00 escaped as 0x00 0xFF, terminated by 0x00 0x01
+ */
+public final class MemComparable {
+
+    public static final byte NULL_MARKER = 0x00;
+    public static final byte VALUE_MARKER = 0x01;
+
+    private static final byte ESCAPE = 0x00;
+    private static final byte ESCAPED_ZERO = (byte) 0xFF;
+    private static final byte TERMINATOR = 0x01;
+
+    private MemComparable() {
+    }
+
+    /**
+     * Encode a value of the given column type
+     */
+    public static void writeValue(ByteArrayOutputStream out, ColumnType type, Object value) {
+        if (value == null) {
+            out.write(NULL_MARKER);
+            return;
+        }
+        out.write(VALUE_MARKER);
+        switch (type) {
+            case INT:
+                writeInt(out, Math.toIntExact(toLong(value)));
+                break;
+            case LONG:
+                writeLong(out, toLong(value));
+                break;
+            case FLOAT:
+            case DOUBLE:
+                writeDouble(out, toDouble(value));
+                break;
+            case BOOLEAN:
+                out.write(toBoolean(value) ? 1 : 0);
+                break;
+            case DATE:
+                writeInt(out, (int) RowCodec.toLocalDate(value).toEpochDay());
+                break;
+            case DATETIME:
+                writeLong(out, RowCodec.toEpochMicros(value));
+                break;
+            default:
+                writeBytes(out, value.toString().getBytes(StandardCharsets.UTF_8));
+                break;
+        }
+    }
+
+    public static void writeInt(ByteArrayOutputStream out, int value) {
+        int v = value ^ Integer.MIN_VALUE;
+        out.write(v >>> 24);
+        out.write(v >>> 16);
+        out.write(v >>> 8);
+        out.write(v);
+    }
+
+    public static void writeLong(ByteArrayOutputStream out, long value) {
+        long v = value ^ Long.MIN_VALUE;
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            out.write((int) (v >>> shift));
+        }
+    }
+
+    public static void writeDouble(ByteArrayOutputStream out, double value) {
+        if (value == 0.0d) {
+            value = 0.0d; // fold -0.0 into 0.0
+        }
+        long bits = Double.doubleToLongBits(value);
+        bits = bits < 0 ? ~bits : bits ^ Long.MIN_VALUE;
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            out.write((int) (bits >>> shift));
+        }
+    }
+
+    public static void writeBytes(ByteArrayOutputStream out, byte[] bytes) {
+        for (byte b : bytes) {
+            out.write(b);
+            if (b == ESCAPE) {
+                out.write(ESCAPED_ZERO);
+            }
+        }
+        out.write(ESCAPE);
+        out.write(TERMINATOR);
+    }
+
+    /**
+     * Sequential decoder over an encoded key
+     */
+    public static final class Reader {
+        private final byte[] data;
+        private int pos;
+
+        public Reader(byte[] data, int offset) {
+            this.data = data;
+            this.pos = offset;
+        }
+
+        public int position() {
+            return pos;
+        }
+
+        public boolean hasRemaining() {
+            return pos < data.length;
+        }
+
+        /**
+         * Decode the next value of the given column type
+         */
+        public Object readValue(ColumnType type) {
+            byte marker = data[pos++];
+            if (marker == NULL_MARKER) {
+                return null;
+            }
+            switch (type) {
+                case INT:
+                    return readInt();
+                case LONG:
+                    return readLong();
+                case FLOAT:
+                case DOUBLE:
+                    return readDouble();
+                case BOOLEAN:
+                    return data[pos++] != 0;
+                case DATE:
+                    return LocalDate.ofEpochDay(readInt()).toString();
+                case DATETIME:
+                    return RowCodec.formatEpochMicros(readLong());
+                default:
+                    return new String(readBytes(), StandardCharsets.UTF_8);
+            }
+        }
+
+        public int readInt() {
+            int v = ((data[pos] & 0xFF) << 24) | ((data[pos + 1] & 0xFF) << 16)
+                    | ((data[pos + 2] & 0xFF) << 8) | (data[pos + 3] & 0xFF);
+            pos += 4;
+            return v ^ Integer.MIN_VALUE;
+        }
+
+        public long readLong() {
+            return readRawLong() ^ Long.MIN_VALUE;
+        }
+
+        public double readDouble() {
+            long bits = readRawLong();
+            bits = bits < 0 ? bits ^ Long.MIN_VALUE : ~bits;
+            return Double.longBitsToDouble(bits);
+        }
+
+        public byte[] readBytes() {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            while (true) {
+                byte b = data[pos++];
+                if (b != ESCAPE) {
+                    out.write(b);
+                    continue;
+                }
+                byte next = data[pos++];
+                if (next == TERMINATOR) {
+                    return out.toByteArray();
+                }
+                out.write(ESCAPE);
+            }
+        }
+
+        private long readRawLong() {
+            long v = 0;
+            for (int i = 0; i < 8; i++) {
+                v = (v << 8) | (data[pos++] & 0xFF);
+            }
+            return v;
+        }
+    }
+
+    private static long toLong(Object value) {
+        if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+        return Long.parseLong(value.toString().trim());
+    }
+
+    private static double toDouble(Object value) {
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        }
+        return Double.parseDouble(value.toString().trim());
+    }
+
+    private static boolean toBoolean(Object value) {
+        if (value instanceof Boolean) {
+            return (Boolean) value;
+        }
+        if (value instanceof Number) {
+            return ((Number) value).intValue() != 0;
+        }
+        return Boolean.parseBoolean(value.toString().trim());
+    }
+}
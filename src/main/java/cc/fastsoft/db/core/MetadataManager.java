@@ -8,37 +8,31 @@ import org.rocksdb.RocksDBException;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Metadata Manager - Manages table schema metadata with database hierarchy
  *
  * Note: Tables now belong to databases. Use format: database.table
+ * Every lookup names its database; the engine resolves it from the session.
  */
 public class MetadataManager {
+    private static final byte[] NEXT_TABLE_ID_KEY = "meta:next_table_id".getBytes();
+
     private final RocksDB db;
     private final DatabaseManager databaseManager;
     private final Map<String, TableSchema> schemaCache = new ConcurrentHashMap<>();
+    private final AtomicLong schemaVersion = new AtomicLong();
 
     public MetadataManager(RocksDB db, DatabaseManager databaseManager) {
         this.db = db;
         this.databaseManager = databaseManager;
     }
 
-    /**
-     * Save table schema to current database
-     */
-    public void saveTableSchema(String tableName, TableSchema schema) throws RocksDBException {
-        String currentDb = databaseManager.getCurrentDatabase();
-        if (currentDb == null) {
-            throw new IllegalStateException("No database selected. Use 'USE database_name' first.");
-        }
-        saveTableSchema(currentDb, tableName, schema);
-    }
-
     /**
      * Save table schema to specified database
      */
-    public void saveTableSchema(String databaseName, String tableName, TableSchema schema) throws RocksDBException {
+    public synchronized void saveTableSchema(String databaseName, String tableName, TableSchema schema) throws RocksDBException {
         String fullName = getFullTableName(databaseName, tableName);
 
         if (schemaCache.containsKey(fullName)) {
@@ -51,21 +45,42 @@ public class MetadataManager {
             throw new IllegalStateException("Database does not exist: " + databaseName);
         }
 
+        if (schema.tableId == 0) {
+            schema = schema.withTableId(allocateTableId());
+        }
+
         dbSchema.addTable(schema);
         databaseManager.saveDatabaseSchema(dbSchema);
 
         schemaCache.put(fullName, schema);
+        schemaVersion.incrementAndGet();
     }
 
     /**
-     * Get table schema by name (from current database)
+     * Replace the schema of an existing table, e.g. after an index was added
      */
-    public TableSchema getTableSchema(String tableName) throws RocksDBException {
-        String currentDb = databaseManager.getCurrentDatabase();
-        if (currentDb == null) {
-            throw new IllegalStateException("No database selected. Use 'USE database_name' first.");
+    public synchronized void updateTableSchema(String databaseName, TableSchema schema) throws RocksDBException {
+        DatabaseSchema dbSchema = databaseManager.getDatabaseSchema(databaseName);
+        if (dbSchema == null) {
+            throw new IllegalStateException("Database does not exist: " + databaseName);
         }
-        return getTableSchema(currentDb, tableName);
+
+        dbSchema.replaceTable(schema);
+        databaseManager.saveDatabaseSchema(dbSchema);
+
+        schemaCache.put(getFullTableName(databaseName, schema.tableName), schema);
+        schemaVersion.incrementAndGet();
+    }
+
+    /**
+     * Allocate a new table id. Ids are never reused, so data left behind by a
+     * dropped table can never be read through a new table of the same name.
+     */
+    public synchronized long allocateTableId() throws RocksDBException {
+        byte[] value = db.get(NEXT_TABLE_ID_KEY);
+        long tableId = value == null ? 1L : Long.parseLong(new String(value));
+        db.put(NEXT_TABLE_ID_KEY, String.valueOf(tableId + 1).getBytes());
+        return tableId;
     }
 
     /**
@@ -94,21 +109,6 @@ public class MetadataManager {
         return schema;
     }
 
-    /**
-     * Check if table exists in current database
-     */
-    public boolean tableExists(String tableName) {
-        try {
-            String currentDb = databaseManager.getCurrentDatabase();
-            if (currentDb == null) {
-                return false;
-            }
-            return tableExists(currentDb, tableName);
-        } catch (RocksDBException e) {
-            return false;
-        }
-    }
-
     /**
      * Check if table exists in specified database
      */
@@ -123,21 +123,10 @@ public class MetadataManager {
         return dbSchema != null && dbSchema.hasTable(tableName);
     }
 
-    /**
-     * Drop table schema from current database
-     */
-    public void dropTableSchema(String tableName) throws RocksDBException {
-        String currentDb = databaseManager.getCurrentDatabase();
-        if (currentDb == null) {
-            throw new IllegalStateException("No database selected. Use 'USE database_name' first.");
-        }
-        dropTableSchema(currentDb, tableName);
-    }
-
     /**
      * Drop table schema from specified database
      */
-    public void dropTableSchema(String databaseName, String tableName) throws RocksDBException {
+    public synchronized void dropTableSchema(String databaseName, String tableName) throws RocksDBException {
         String fullName = getFullTableName(databaseName, tableName);
 
         DatabaseSchema dbSchema = databaseManager.getDatabaseSchema(databaseName);
@@ -149,6 +138,24 @@ public class MetadataManager {
         databaseManager.saveDatabaseSchema(dbSchema);
 
         schemaCache.remove(fullName);
+        schemaVersion.incrementAndGet();
+    }
+
+    /**
+     * Forget the cached tables of a dropped database
+     */
+    public synchronized void dropDatabaseTables(String databaseName) {
+        String prefix = databaseName + ".";
+        schemaCache.keySet().removeIf(fullName -> fullName.startsWith(prefix));
+        schemaVersion.incrementAndGet();
+    }
+
+    /**
+     * Counter bumped by every schema change. Anything derived from schemas (e.g.
+     * cached statement plans) is stale once the version it was built at has moved on.
+     */
+    public long getSchemaVersion() {
+        return schemaVersion.get();
     }
 
     /**
@@ -3,34 +3,197 @@ package cc.fastsoft.db.core;
 import cc.fastsoft.db.schema.Column;
 import cc.fastsoft.db.schema.TableSchema;
 
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.temporal.ChronoField;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
 
 /**
  * Row Codec - Handles serialization and deserialization of row data
+ *
+ * Binary row format (version 1):
+ * - 1 byte: format version
+ * - 2 bytes: column count N (rows written before a column was added decode it as NULL)
+ * - ceil(N / 8) bytes: null bitmap, bit i set when column i is NULL
+ * - for every non-null column, in schema order:
+ *   - INT: 4 bytes, LONG/DOUBLE/FLOAT: 8 bytes, BOOLEAN: 1 byte (big-endian)
+ *   - DATE: 4 bytes epoch day, DATETIME: 8 bytes epoch microseconds (UTC)
+ *   - VARCHAR/STRING/TEXT: varint length + UTF-8 bytes
+ *
+ * Rows written by the original text format ("col1=val1;col2=val2") are still
+ * decoded; they never start with the version byte.
  */
 public class RowCodec {
 
+    public static final byte FORMAT_VERSION = 0x01;
+    private static final int HEADER_LENGTH = 3;
+
+    private static final DateTimeFormatter DATETIME_FORMAT = new DateTimeFormatterBuilder()
+            .appendPattern("yyyy-MM-dd[ ]['T']HH:mm:ss")
+            .optionalStart()
+            .appendFraction(ChronoField.MICRO_OF_SECOND, 0, 6, true)
+            .optionalEnd()
+            .toFormatter();
+    private static final DateTimeFormatter DATETIME_OUTPUT_FORMAT =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
     /**
-     * Encode row as simple key-value format: "col1=val1;col2=val2;..."
+     * Encode row into the binary format
      */
-    public String encodeRow(TableSchema schema, Map<String, Object> row) {
-        return schema.columns.stream()
-                .map(column -> encodeColumn(column, row.get(column.name)))
-                .collect(Collectors.joining(";"));
+    public byte[] encodeRow(TableSchema schema, Map<String, Object> row) {
+        List<Column> columns = schema.columns;
+        int count = columns.size();
+        Object[] values = new Object[count];
+        byte[][] strings = new byte[count][];
+
+        int bitmapLength = (count + 7) >>> 3;
+        int length = HEADER_LENGTH + bitmapLength;
+        for (int i = 0; i < count; i++) {
+            Column column = columns.get(i);
+            Object value = row.get(column.name);
+            values[i] = value;
+            if (value == null) {
+                continue;
+            }
+            int width = fixedWidth(column.type);
+            if (width > 0) {
+                length += width;
+            } else {
+                strings[i] = value.toString().getBytes(StandardCharsets.UTF_8);
+                length += varIntLength(strings[i].length) + strings[i].length;
+            }
+        }
+
+        byte[] out = new byte[length];
+        out[0] = FORMAT_VERSION;
+        out[1] = (byte) (count >>> 8);
+        out[2] = (byte) count;
+        int pos = HEADER_LENGTH + bitmapLength;
+        for (int i = 0; i < count; i++) {
+            Object value = values[i];
+            if (value == null) {
+                out[HEADER_LENGTH + (i >>> 3)] |= (byte) (1 << (i & 7));
+                continue;
+            }
+            switch (columns.get(i).type) {
+                case INT:
+                    pos = writeInt(out, pos, toInt(value));
+                    break;
+                case LONG:
+                    pos = writeLong(out, pos, toLong(value));
+                    break;
+                case FLOAT:
+                case DOUBLE:
+                    pos = writeLong(out, pos, Double.doubleToLongBits(toDouble(value)));
+                    break;
+                case BOOLEAN:
+                    out[pos++] = (byte) (toBoolean(value) ? 1 : 0);
+                    break;
+                case DATE:
+                    pos = writeInt(out, pos, (int) toLocalDate(value).toEpochDay());
+                    break;
+                case DATETIME:
+                    pos = writeLong(out, pos, toEpochMicros(value));
+                    break;
+                default:
+                    byte[] bytes = strings[i];
+                    pos = writeVarInt(out, pos, bytes.length);
+                    System.arraycopy(bytes, 0, out, pos, bytes.length);
+                    pos += bytes.length;
+                    break;
+            }
+        }
+        return out;
     }
 
     /**
-     * Decode row from string format
+     * Decode row into a map keyed by column name, in schema order
      */
-    public Map<String, Object> decodeRow(TableSchema schema, String data) {
+    public Map<String, Object> decodeRow(TableSchema schema, byte[] data) {
+        Object[] values = decodeValues(schema, data);
         Map<String, Object> result = new LinkedHashMap<>();
-        if (data == null || data.isEmpty()) {
-            return result;
+        List<Column> columns = schema.columns;
+        for (int i = 0; i < values.length; i++) {
+            result.put(columns.get(i).name, values[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Decode row into an array of values indexed by column position in the schema
+     */
+    public Object[] decodeValues(TableSchema schema, byte[] data) {
+        List<Column> columns = schema.columns;
+        Object[] values = new Object[columns.size()];
+        if (data == null || data.length == 0) {
+            return values;
+        }
+        if (data[0] != FORMAT_VERSION) {
+            return decodeLegacyValues(schema, new String(data));
         }
 
+        int stored = ((data[1] & 0xFF) << 8) | (data[2] & 0xFF);
+        int pos = HEADER_LENGTH + ((stored + 7) >>> 3);
+        int count = Math.min(stored, values.length);
+        for (int i = 0; i < count; i++) {
+            if ((data[HEADER_LENGTH + (i >>> 3)] & (1 << (i & 7))) != 0) {
+                continue;
+            }
+            switch (columns.get(i).type) {
+                case INT:
+                    values[i] = readInt(data, pos);
+                    pos += 4;
+                    break;
+                case LONG:
+                    values[i] = readLong(data, pos);
+                    pos += 8;
+                    break;
+                case FLOAT:
+                case DOUBLE:
+                    values[i] = Double.longBitsToDouble(readLong(data, pos));
+                    pos += 8;
+                    break;
+                case BOOLEAN:
+                    values[i] = data[pos++] != 0;
+                    break;
+                case DATE:
+                    values[i] = LocalDate.ofEpochDay(readInt(data, pos)).toString();
+                    pos += 4;
+                    break;
+                case DATETIME:
+                    values[i] = formatEpochMicros(readLong(data, pos));
+                    pos += 8;
+                    break;
+                default:
+                    int length = 0;
+                    int shift = 0;
+                    byte b;
+                    do {
+                        b = data[pos++];
+                        length |= (b & 0x7F) << shift;
+                        shift += 7;
+                    } while (b < 0);
+                    values[i] = new String(data, pos, length, StandardCharsets.UTF_8);
+                    pos += length;
+                    break;
+            }
+        }
+        return values;
+    }
+
+    // ==================== Legacy text format ====================
+
+    /**
+     * Decode row from the legacy "col1=val1;col2=val2" text format
+     */
+    Object[] decodeLegacyValues(TableSchema schema, String data) {
         String[] pairs = data.split(";");
         Map<String, String> keyValueMap = new HashMap<>();
 
@@ -42,27 +205,18 @@ public class RowCodec {
             }
         }
 
-        for (Column column : schema.columns) {
-            String rawValue = keyValueMap.get(column.name);
-            Object decodedValue = decodeColumnValue(column, rawValue);
-            result.put(column.name, decodedValue);
+        Object[] values = new Object[schema.columns.size()];
+        for (int i = 0; i < values.length; i++) {
+            Column column = schema.columns.get(i);
+            values[i] = decodeLegacyColumnValue(column, keyValueMap.get(column.name));
         }
-
-        return result;
+        return values;
     }
 
     /**
-     * Encode a single column value
+     * Decode a single legacy column value based on its type
      */
-    private String encodeColumn(Column column, Object value) {
-        String valueStr = (value == null) ? "NULL" : value.toString();
-        return column.name + "=" + valueStr;
-    }
-
-    /**
-     * Decode a single column value based on its type
-     */
-    private Object decodeColumnValue(Column column, String rawValue) {
+    private Object decodeLegacyColumnValue(Column column, String rawValue) {
         if (rawValue == null || rawValue.equals("NULL")) {
             return null;
         }
@@ -82,5 +236,155 @@ public class RowCodec {
                 return rawValue;
         }
     }
-}
 
+    /**
+     * The text a DATE or DATETIME value decodes to, whichever accepted spelling it
+     * was given in, so equal values have equal text and text order is time order.
+     * Throws {@link java.time.DateTimeException} for a value that is not one.
+     */
+    public static String formatTemporal(Column.ColumnType type, Object value) {
+        if (type == Column.ColumnType.DATE) {
+            return toLocalDate(value).toString();
+        }
+        return formatEpochMicros(toEpochMicros(value));
+    }
+
+    // ==================== Helpers ====================
+
+    private static int fixedWidth(Column.ColumnType type) {
+        switch (type) {
+            case INT:
+            case DATE:
+                return 4;
+            case LONG:
+            case FLOAT:
+            case DOUBLE:
+            case DATETIME:
+                return 8;
+            case BOOLEAN:
+                return 1;
+            default:
+                return 0;
+        }
+    }
+
+    private static int writeInt(byte[] out, int pos, int v) {
+        out[pos] = (byte) (v >>> 24);
+        out[pos + 1] = (byte) (v >>> 16);
+        out[pos + 2] = (byte) (v >>> 8);
+        out[pos + 3] = (byte) v;
+        return pos + 4;
+    }
+
+    private static int writeLong(byte[] out, int pos, long v) {
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            out[pos++] = (byte) (v >>> shift);
+        }
+        return pos;
+    }
+
+    private static int writeVarInt(byte[] out, int pos, int v) {
+        while ((v & ~0x7F) != 0) {
+            out[pos++] = (byte) ((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        out[pos++] = (byte) v;
+        return pos;
+    }
+
+    private static int varIntLength(int v) {
+        int length = 1;
+        while ((v & ~0x7F) != 0) {
+            v >>>= 7;
+            length++;
+        }
+        return length;
+    }
+
+    private static int readInt(byte[] data, int pos) {
+        return ((data[pos] & 0xFF) << 24) | ((data[pos + 1] & 0xFF) << 16)
+                | ((data[pos + 2] & 0xFF) << 8) | (data[pos + 3] & 0xFF);
+    }
+
+    private static long readLong(byte[] data, int pos) {
+        long v = 0;
+        for (int i = 0; i < 8; i++) {
+            v = (v << 8) | (data[pos + i] & 0xFF);
+        }
+        return v;
+    }
+
+    private static int toInt(Object value) {
+        if (value instanceof Number) {
+            return Math.toIntExact(((Number) value).longValue());
+        }
+        return Integer.parseInt(value.toString().trim());
+    }
+
+    private static long toLong(Object value) {
+        if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+        return Long.parseLong(value.toString().trim());
+    }
+
+    private static double toDouble(Object value) {
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        }
+        return Double.parseDouble(value.toString().trim());
+    }
+
+    private static boolean toBoolean(Object value) {
+        if (value instanceof Boolean) {
+            return (Boolean) value;
+        }
+        if (value instanceof Number) {
+            return ((Number) value).intValue() != 0;
+        }
+        String s = value.toString().trim();
+        return s.equals("1") || Boolean.parseBoolean(s);
+    }
+
+    static LocalDate toLocalDate(Object value) {
+        if (value instanceof LocalDate) {
+            return (LocalDate) value;
+        }
+        String s = value.toString().trim();
+        return LocalDate.parse(s.length() > 10 ? s.substring(0, 10) : s);
+    }
+
+    static long toEpochMicros(Object value) {
+        if (value instanceof Number) {
+            // Milliseconds since the epoch, as produced by System.currentTimeMillis()
+            return ((Number) value).longValue() * 1000L;
+        }
+        LocalDateTime dateTime;
+        if (value instanceof LocalDateTime) {
+            dateTime = (LocalDateTime) value;
+        } else {
+            String s = value.toString().trim();
+            dateTime = s.length() == 10
+                    ? LocalDate.parse(s).atStartOfDay()
+                    : LocalDateTime.parse(s, DATETIME_FORMAT);
+        }
+        long seconds = dateTime.toEpochSecond(ZoneOffset.UTC);
+        return seconds * 1_000_000L + dateTime.getNano() / 1_000;
+    }
+
+    static String formatEpochMicros(long micros) {
+        long seconds = Math.floorDiv(micros, 1_000_000L);
+        int fraction = (int) Math.floorMod(micros, 1_000_000L);
+        LocalDateTime dateTime = LocalDateTime.ofEpochSecond(seconds, 0, ZoneOffset.UTC);
+        String text = DATETIME_OUTPUT_FORMAT.format(dateTime);
+        if (fraction == 0) {
+            return text;
+        }
+        String digits = String.format("%06d", fraction);
+        int end = digits.length();
+        while (digits.charAt(end - 1) == '0') {
+            end--;
+        }
+        return text + "." + digits.substring(0, end);
+    }
+}
@@ -0,0 +1,188 @@
+package cc.fastsoft.db.core;
+
+import org.rocksdb.ColumnFamilyHandle;
+import org.rocksdb.ReadOptions;
+import org.rocksdb.RocksDBException;
+import org.rocksdb.RocksIterator;
+import org.rocksdb.Status;
+import org.rocksdb.Transaction;
+
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Session Transaction - A RocksDB transaction with snapshot isolation
+ *
+ * Reads see the database as of the snapshot taken when the transaction began,
+ * with the transaction's own writes on top; changes committed by others later stay
+ * invisible. A write to a key that another transaction changed after the snapshot
+ * is a conflict: an OptimisticTransactionDB fails the commit, a TransactionDB fails
+ * the write, after waiting for the key's lock if another transaction holds it.
+ * Either way {@link #isConflict} is true for the exception, and the transaction
+ * can only be rolled back.
+ *
+ * Writes that go into the transaction over several statements maintain the indexes
+ * known when they were made, so the commit fails if the indexes changed meanwhile.
+ */
+public class SessionTransaction implements AutoCloseable {
+    private final Transaction transaction;
+    private final ReadOptions readOptions;
+    private final TableIndexes tableIndexes;
+    // Index version when the first statement of the transaction began, -1 before
+    private long indexVersion = -1;
+    private boolean committed;
+    private boolean closed;
+
+    SessionTransaction(Transaction transaction, TableIndexes tableIndexes) {
+        this.transaction = transaction;
+        this.readOptions = new ReadOptions().setSnapshot(transaction.getSnapshot());
+        this.tableIndexes = tableIndexes;
+    }
+
+    /**
+     * Whether an exception is a write conflict with another transaction, after which
+     * the statement or transaction may succeed when run again
+     */
+    public static boolean isConflict(RocksDBException e) {
+        Status status = e.getStatus();
+        return status != null && (status.getCode() == Status.Code.Busy || status.getCode() == Status.Code.TryAgain);
+    }
+
+    byte[] get(ColumnFamilyHandle columnFamily, byte[] key) throws RocksDBException {
+        return transaction.get(readOptions, columnFamily, key);
+    }
+
+    /**
+     * Read a key the transaction is about to write, so that a later change by
+     * another transaction is a conflict
+     */
+    byte[] getForUpdate(ColumnFamilyHandle columnFamily, byte[] key) throws RocksDBException {
+        try {
+            return transaction.getForUpdate(readOptions, columnFamily, key, true);
+        } catch (RocksDBException e) {
+            throw describe(e);
+        }
+    }
+
+    List<byte[]> multiGet(List<ColumnFamilyHandle> columnFamilies, List<byte[]> keys) throws RocksDBException {
+        return transaction.multiGetAsList(readOptions, columnFamilies, keys);
+    }
+
+    /**
+     * Open an iterator at the transaction's snapshot. {@code options} (typically
+     * carrying iterate bounds) must outlive the iterator.
+     */
+    RocksIterator newIterator(ColumnFamilyHandle columnFamily, ReadOptions options) {
+        return transaction.getIterator(options.setSnapshot(transaction.getSnapshot()), columnFamily);
+    }
+
+    void put(ColumnFamilyHandle columnFamily, byte[] key, byte[] value) throws RocksDBException {
+        try {
+            transaction.put(columnFamily, key, value);
+        } catch (RocksDBException e) {
+            throw describe(e);
+        }
+    }
+
+    void delete(ColumnFamilyHandle columnFamily, byte[] key) throws RocksDBException {
+        try {
+            transaction.delete(columnFamily, key);
+        } catch (RocksDBException e) {
+            throw describe(e);
+        }
+    }
+
+    /**
+     * Mark the start of a statement, so that a failing statement can be undone on
+     * its own with {@link #rollbackStatement()}. Called with the writer lock of
+     * {@link TableIndexes} held.
+     */
+    void beginStatement() throws RocksDBException {
+        if (indexVersion < 0) {
+            indexVersion = tableIndexes.version();
+        }
+        transaction.setSavePoint();
+    }
+
+    /**
+     * Undo the writes of the statement begun last
+     */
+    void rollbackStatement() throws RocksDBException {
+        transaction.rollbackToSavePoint();
+    }
+
+    /**
+     * Apply all writes of the transaction atomically. A transaction whose
+     * statements began with {@link #beginStatement()} commits while holding the
+     * writer lock of {@link TableIndexes}; one without holds it already.
+     */
+    public void commit() throws RocksDBException {
+        if (committed || closed) {
+            throw new IllegalStateException("Transaction already ended");
+        }
+        if (indexVersion < 0) {
+            commitTransaction();
+            return;
+        }
+        // Index builds and drops wait until the writes are committed
+        Lock writerLock = tableIndexes.writerLock();
+        writerLock.lock();
+        try {
+            if (tableIndexes.version() != indexVersion) {
+                throw new IllegalStateException("Table definition has changed, please retry transaction");
+            }
+            commitTransaction();
+        } finally {
+            writerLock.unlock();
+        }
+    }
+
+    private void commitTransaction() throws RocksDBException {
+        try {
+            transaction.commit();
+            committed = true;
+        } catch (RocksDBException e) {
+            throw describe(e);
+        }
+    }
+
+    /**
+     * Discard all writes of the transaction
+     */
+    public void rollback() throws RocksDBException {
+        if (!committed && !closed) {
+            transaction.rollback();
+        }
+    }
+
+    /**
+     * End the transaction, discarding its writes unless it was committed
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        try {
+            rollback();
+        } catch (RocksDBException e) {
+            // the writes are discarded with the transaction
+        } finally {
+            closed = true;
+            transaction.close();
+            readOptions.close();
+        }
+    }
+
+    private static RocksDBException describe(RocksDBException e) {
+        Status status = e.getStatus();
+        if (isConflict(e)) {
+            return new RocksDBException("Write conflict with a concurrent transaction; try restarting transaction",
+                    status);
+        }
+        if (status != null && status.getCode() == Status.Code.TimedOut) {
+            return new RocksDBException("Lock wait timeout exceeded; try restarting transaction", status);
+        }
+        return e;
+    }
+}
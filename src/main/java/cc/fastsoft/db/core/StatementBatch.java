@@ -0,0 +1,148 @@
+package cc.fastsoft.db.core;
+
+import org.rocksdb.ColumnFamilyHandle;
+import org.rocksdb.ReadOptions;
+import org.rocksdb.RocksDB;
+import org.rocksdb.RocksDBException;
+import org.rocksdb.WriteBatchWithIndex;
+import org.rocksdb.WriteOptions;
+
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Statement Batch - Collects the mutations of one statement and applies them atomically
+ *
+ * On a plain database writes go into a {@link WriteBatchWithIndex}, so {@link #get}
+ * sees the statement's own changes on top of the database. Nothing reaches RocksDB
+ * until {@link #commit()}, which writes the whole batch with one WAL record; closing a
+ * batch that was not committed discards it, so a failing statement leaves no partial
+ * changes. A batch holds the writer lock of {@link TableIndexes} until it is closed.
+ *
+ * On a transactional database writes go into a {@link SessionTransaction} instead,
+ * and {@link #get} reads the keys the statement is about to change for update, so
+ * that a concurrent change to them is a write conflict rather than a lost update.
+ * A statement that is its own transaction commits it; a statement of a session's
+ * transaction leaves its changes there, and closing it uncommitted rolls the
+ * transaction back to where the statement began.
+ */
+public class StatementBatch implements AutoCloseable {
+    private final RocksDB db;
+    private final WriteOptions writeOptions;
+    private final WriteBatchWithIndex batch;
+    private final ReadOptions readOptions;
+    private final SessionTransaction transaction;
+    // Whether the transaction is the statement's own, ending with the batch
+    private final boolean ownTransaction;
+    private final Lock writerLock;
+    private int mutations;
+    private boolean committed;
+    private boolean closed;
+
+    StatementBatch(RocksDB db, WriteOptions writeOptions, Lock writerLock) {
+        this.db = db;
+        this.writeOptions = writeOptions;
+        this.batch = new WriteBatchWithIndex(true);
+        this.readOptions = new ReadOptions();
+        this.transaction = null;
+        this.ownTransaction = false;
+        this.writerLock = writerLock;
+        writerLock.lock();
+    }
+
+    StatementBatch(SessionTransaction transaction, boolean ownTransaction, Lock writerLock) throws RocksDBException {
+        this.db = null;
+        this.writeOptions = null;
+        this.batch = null;
+        this.readOptions = null;
+        this.transaction = transaction;
+        this.ownTransaction = ownTransaction;
+        this.writerLock = writerLock;
+        writerLock.lock();
+        if (!ownTransaction) {
+            try {
+                transaction.beginStatement();
+            } catch (RocksDBException | RuntimeException e) {
+                writerLock.unlock();
+                throw e;
+            }
+        }
+    }
+
+    public void put(ColumnFamilyHandle columnFamily, byte[] key, byte[] value) throws RocksDBException {
+        if (transaction != null) {
+            transaction.put(columnFamily, key, value);
+        } else {
+            batch.put(columnFamily, key, value);
+        }
+        mutations++;
+    }
+
+    public void delete(ColumnFamilyHandle columnFamily, byte[] key) throws RocksDBException {
+        if (transaction != null) {
+            transaction.delete(columnFamily, key);
+        } else {
+            batch.delete(columnFamily, key);
+        }
+        mutations++;
+    }
+
+    /**
+     * Read a key as it will be after the batch is committed
+     */
+    public byte[] get(ColumnFamilyHandle columnFamily, byte[] key) throws RocksDBException {
+        if (transaction != null) {
+            return transaction.getForUpdate(columnFamily, key);
+        }
+        return batch.getFromBatchAndDB(db, columnFamily, readOptions, key);
+    }
+
+    /**
+     * Number of mutations collected so far
+     */
+    public int size() {
+        return mutations;
+    }
+
+    /**
+     * Apply all collected mutations in one atomic write. In a session's transaction
+     * they only become part of the transaction, and are applied when it commits.
+     */
+    public void commit() throws RocksDBException {
+        if (committed) {
+            throw new IllegalStateException("Batch already committed");
+        }
+        if (transaction != null) {
+            if (ownTransaction) {
+                transaction.commit();
+            }
+            committed = true;
+            return;
+        }
+        committed = true;
+        if (batch.count() > 0) {
+            db.write(writeOptions, batch);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (transaction == null) {
+                batch.close();
+                readOptions.close();
+            } else if (ownTransaction) {
+                transaction.close();
+            } else if (!committed) {
+                transaction.rollbackStatement();
+            }
+        } catch (RocksDBException e) {
+            throw new IllegalStateException("Failed to roll back statement: " + e.getMessage(), e);
+        } finally {
+            writerLock.unlock();
+        }
+    }
+}
@@ -0,0 +1,303 @@
+package cc.fastsoft.db.core;
+
+import cc.fastsoft.db.schema.Column;
+import cc.fastsoft.db.schema.DatabaseSchema;
+import cc.fastsoft.db.schema.IndexSchema;
+import cc.fastsoft.db.schema.TableSchema;
+import cc.fastsoft.storage.rocksdb.RocksDBOperationUtils;
+import org.rocksdb.ColumnFamilyHandle;
+import org.rocksdb.RocksDB;
+import org.rocksdb.RocksDBException;
+import org.rocksdb.RocksIterator;
+import org.rocksdb.WriteBatch;
+import org.rocksdb.WriteOptions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Storage Format - Records the on-disk format version and upgrades older data
+ *
+ * Versions:
+ * - 1: no marker; text data keys "data:db.table:pk1|pk2"
+ * - 2: binary memcomparable data keys prefixed with the table id
+ * - 3: the rows of each table in their own column family (see TableColumnFamilies)
+ * - 4: DATE and DATETIME key values encoded as numbers (see MemComparable)
+ *
+ * Row values carry their own format version byte (see RowCodec), so rows
+ * written in the text format stay readable and are rewritten on update.
+ */
+public class StorageFormat {
+    private static final Logger logger = LoggerFactory.getLogger(StorageFormat.class);
+
+    public static final int CURRENT_VERSION = 4;
+    private static final int LEGACY_VERSION = 1;
+    private static final int SHARED_COLUMN_FAMILY_VERSION = 2;
+    private static final int TEXT_TEMPORAL_KEY_VERSION = 3;
+    private static final byte[] EMPTY_VALUE = new byte[0];
+    private static final int MIGRATION_BATCH_SIZE = 10_000;
+    private static final byte[] FORMAT_VERSION_KEY = "meta:format_version".getBytes();
+
+    private final RocksDB db;
+    private final DatabaseManager databaseManager;
+    private final MetadataManager metadataManager;
+    private final TableColumnFamilies columnFamilies;
+    private final KeyEncoder keyEncoder;
+    private final RowCodec rowCodec;
+
+    public StorageFormat(RocksDB db, DatabaseManager databaseManager, MetadataManager metadataManager,
+                         TableColumnFamilies columnFamilies, KeyEncoder keyEncoder, RowCodec rowCodec) {
+        this.db = db;
+        this.databaseManager = databaseManager;
+        this.metadataManager = metadataManager;
+        this.columnFamilies = columnFamilies;
+        this.keyEncoder = keyEncoder;
+        this.rowCodec = rowCodec;
+    }
+
+    /**
+     * Bring the database to the current format version.
+     * Must run after databases are loaded and before tables are cached.
+     */
+    public void upgrade() throws RocksDBException {
+        int version = readVersion();
+        if (version == CURRENT_VERSION) {
+            return;
+        }
+        if (version > CURRENT_VERSION) {
+            throw new IllegalStateException("Storage format version " + version
+                    + " is newer than supported version " + CURRENT_VERSION);
+        }
+
+        if (version == LEGACY_VERSION) {
+            migrateLegacyKeys();
+        }
+        if (version <= SHARED_COLUMN_FAMILY_VERSION) {
+            migrateToColumnFamilies();
+        }
+        if (version <= TEXT_TEMPORAL_KEY_VERSION) {
+            migrateTemporalKeys();
+        }
+        db.put(FORMAT_VERSION_KEY, String.valueOf(CURRENT_VERSION).getBytes());
+        logger.info("Storage format upgraded from version {} to {}", version, CURRENT_VERSION);
+    }
+
+    /**
+     * Get the format version stored in the database
+     */
+    public int readVersion() throws RocksDBException {
+        byte[] value = db.get(FORMAT_VERSION_KEY);
+        return value == null ? LEGACY_VERSION : Integer.parseInt(new String(value));
+    }
+
+    /**
+     * Assign table ids to tables created before ids existed and rewrite their rows
+     * under binary keys. The id is persisted before any row moves and the version
+     * marker is written last, so an interrupted migration resumes from the
+     * remaining legacy keys on the next start.
+     */
+    private void migrateLegacyKeys() throws RocksDBException {
+        for (String dbName : databaseManager.listDatabases()) {
+            DatabaseSchema dbSchema = databaseManager.getDatabaseSchema(dbName);
+            if (dbSchema == null) {
+                continue;
+            }
+            for (TableSchema table : dbSchema.getTables()) {
+                TableSchema schema = table;
+                if (schema.tableId == 0) {
+                    schema = table.withTableId(metadataManager.allocateTableId());
+                    dbSchema.replaceTable(schema);
+                    databaseManager.saveDatabaseSchema(dbSchema);
+                }
+                long rows = migrateTable(dbName + "." + schema.tableName, schema);
+                logger.info("Migrated {} row(s) of {}.{} to table id {}",
+                        rows, dbName, schema.tableName, schema.tableId);
+            }
+        }
+    }
+
+    /**
+     * Move the rows of every table from the default column family into the table's
+     * own. Rows are copied before the range is deleted from the default family, so
+     * an interrupted migration simply copies again on the next start.
+     */
+    private void migrateToColumnFamilies() throws RocksDBException {
+        for (String dbName : databaseManager.listDatabases()) {
+            DatabaseSchema dbSchema = databaseManager.getDatabaseSchema(dbName);
+            if (dbSchema == null) {
+                continue;
+            }
+            for (TableSchema schema : dbSchema.getTables()) {
+                ColumnFamilyHandle columnFamily = columnFamilies.exists(schema)
+                        ? columnFamilies.get(schema)
+                        : columnFamilies.create(dbName, schema);
+                long rows = moveTable(schema, columnFamily);
+                logger.info("Moved {} row(s) of {}.{} to their own column family",
+                        rows, dbName, schema.tableName);
+            }
+        }
+    }
+
+    /**
+     * Rewrite the rows of tables with a DATE or DATETIME primary key column under
+     * their numeric keys, and rebuild the indexes whose keys hold such a value. Keys
+     * are recomputed from the stored rows, so an interrupted migration simply runs
+     * again; rows whose keys differed only in the spelling of a value collapse into
+     * one.
+     */
+    private void migrateTemporalKeys() throws RocksDBException {
+        for (String dbName : databaseManager.listDatabases()) {
+            DatabaseSchema dbSchema = databaseManager.getDatabaseSchema(dbName);
+            if (dbSchema == null) {
+                continue;
+            }
+            for (TableSchema schema : dbSchema.getTables()) {
+                boolean temporalKey = hasTemporalColumn(schema, schema.primaryKeyColumns);
+                List<IndexSchema> indexes = new ArrayList<>();
+                for (IndexSchema index : schema.indexes) {
+                    if (temporalKey || hasTemporalColumn(schema, index.columns)) {
+                        indexes.add(index);
+                    }
+                }
+                if (!temporalKey && indexes.isEmpty()) {
+                    continue;
+                }
+                long rows = rekeyTable(schema, temporalKey, indexes);
+                logger.info("Rewrote the DATE/DATETIME keys of {} row(s) of {}.{}", rows, dbName, schema.tableName);
+            }
+        }
+    }
+
+    private static boolean hasTemporalColumn(TableSchema schema, List<String> columns) {
+        for (String name : columns) {
+            Column.ColumnType type = schema.getColumn(name).type;
+            if (type == Column.ColumnType.DATE || type == Column.ColumnType.DATETIME) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private long rekeyTable(TableSchema schema, boolean temporalKey, List<IndexSchema> indexes)
+            throws RocksDBException {
+        ColumnFamilyHandle columnFamily = columnFamilies.get(schema);
+        byte[] prefix = keyEncoder.getDataKeyPrefix(schema);
+        long rewritten = 0;
+
+        try (WriteOptions writeOptions = new WriteOptions()) {
+            List<byte[][]> indexRanges = new ArrayList<>();
+            for (IndexSchema index : indexes) {
+                byte[] indexPrefix = keyEncoder.encodeIndexPrefix(schema, index, List.of());
+                indexRanges.add(new byte[][] {indexPrefix, keyEncoder.prefixUpperBound(indexPrefix)});
+            }
+            RocksDBOperationUtils.deleteRanges(db, columnFamily, writeOptions, indexRanges, MIGRATION_BATCH_SIZE);
+
+            try (RocksIterator iterator = db.newIterator(columnFamily)) {
+                WriteBatch batch = new WriteBatch();
+                try {
+                    for (iterator.seek(prefix); iterator.isValid(); iterator.next()) {
+                        byte[] key = iterator.key();
+                        if (!keyEncoder.keyStartsWith(key, prefix)) {
+                            break;
+                        }
+                        byte[] value = iterator.value();
+                        Map<String, Object> row = rowCodec.decodeRow(schema, value);
+                        if (temporalKey) {
+                            byte[] newKey = keyEncoder.encodeDataKey(schema, keyEncoder.encodePrimaryKey(schema, row));
+                            if (!Arrays.equals(key, newKey)) {
+                                batch.delete(columnFamily, key);
+                                batch.put(columnFamily, newKey, value);
+                                rewritten++;
+                            }
+                        }
+                        for (IndexSchema index : indexes) {
+                            batch.put(columnFamily, keyEncoder.encodeIndexKey(schema, index, row), EMPTY_VALUE);
+                        }
+
+                        if (batch.count() >= MIGRATION_BATCH_SIZE) {
+                            db.write(writeOptions, batch);
+                            batch.close();
+                            batch = new WriteBatch();
+                        }
+                    }
+                    db.write(writeOptions, batch);
+                } finally {
+                    batch.close();
+                }
+            }
+        }
+        return rewritten;
+    }
+
+    private long moveTable(TableSchema schema, ColumnFamilyHandle columnFamily) throws RocksDBException {
+        byte[] prefix = keyEncoder.getDataKeyPrefix(schema);
+        long moved = 0;
+
+        try (RocksIterator iterator = db.newIterator();
+             WriteOptions writeOptions = new WriteOptions()) {
+            WriteBatch batch = new WriteBatch();
+            try {
+                for (iterator.seek(prefix); iterator.isValid(); iterator.next()) {
+                    byte[] key = iterator.key();
+                    if (!keyEncoder.keyStartsWith(key, prefix)) {
+                        break;
+                    }
+                    batch.put(columnFamily, key, iterator.value());
+                    moved++;
+
+                    if (batch.count() >= MIGRATION_BATCH_SIZE) {
+                        db.write(writeOptions, batch);
+                        batch.close();
+                        batch = new WriteBatch();
+                    }
+                }
+                db.write(writeOptions, batch);
+            } finally {
+                batch.close();
+            }
+            RocksDBOperationUtils.deleteRanges(db, db.getDefaultColumnFamily(), writeOptions,
+                    List.<byte[][]>of(new byte[][] {prefix, keyEncoder.prefixUpperBound(prefix)}),
+                    MIGRATION_BATCH_SIZE);
+        }
+        return moved;
+    }
+
+    private long migrateTable(String fullTableName, TableSchema schema) throws RocksDBException {
+        byte[] legacyPrefix = keyEncoder.getLegacyDataKeyPrefix(fullTableName);
+        long migrated = 0;
+
+        try (RocksIterator iterator = db.newIterator();
+             WriteOptions writeOptions = new WriteOptions()) {
+            WriteBatch batch = new WriteBatch();
+            try {
+                for (iterator.seek(legacyPrefix); iterator.isValid(); iterator.next()) {
+                    byte[] oldKey = iterator.key();
+                    if (!keyEncoder.keyStartsWith(oldKey, legacyPrefix)) {
+                        break;
+                    }
+                    byte[] value = iterator.value();
+                    Map<String, Object> row = rowCodec.decodeRow(schema, value);
+                    byte[] newKey = keyEncoder.encodeDataKey(schema, keyEncoder.encodePrimaryKey(schema, row));
+
+                    batch.put(newKey, value);
+                    batch.delete(oldKey);
+                    migrated++;
+
+                    if (batch.count() >= MIGRATION_BATCH_SIZE * 2) {
+                        db.write(writeOptions, batch);
+                        batch.close();
+                        batch = new WriteBatch();
+                    }
+                }
+                db.write(writeOptions, batch);
+            } finally {
+                batch.close();
+            }
+        }
+        return migrated;
+    }
+}
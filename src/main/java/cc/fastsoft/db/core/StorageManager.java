@@ -1,141 +1,592 @@
 package cc.fastsoft.db.core;
 
+import cc.fastsoft.config.ServerConfig;
+import cc.fastsoft.db.schema.IndexSchema;
 import cc.fastsoft.db.schema.TableSchema;
+import cc.fastsoft.storage.rocksdb.RocksDBOperationUtils;
+import org.rocksdb.ColumnFamilyHandle;
+import org.rocksdb.ReadOptions;
 import org.rocksdb.RocksDB;
 import org.rocksdb.RocksDBException;
 import org.rocksdb.RocksIterator;
+import org.rocksdb.Slice;
+import org.rocksdb.WriteBatch;
+import org.rocksdb.WriteOptions;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
 
 /**
  * Storage Manager - Handles data storage and retrieval operations
+ *
+ * Statements that change several rows collect their mutations in a
+ * {@link StatementBatch} and commit them at once; the single-row methods write
+ * directly. All writes use the same {@link WriteOptions}. The rows of each table
+ * live in the table's own column family, see {@link TableColumnFamilies}.
+ *
+ * On a transactional database every batch writes through a transaction, see
+ * {@link StatementBatch}. A manager bound to a session's transaction with
+ * {@link #withTransaction} also reads through it, at the transaction's snapshot.
+ *
+ * Secondary index entries are written in the same batch as the row they point to,
+ * so rows and indexes never disagree. The index keys of a row are always derived
+ * from its stored (encoded and decoded) values, which makes the entries written
+ * for a row and the entries later deleted for it identical.
  */
 public class StorageManager {
     private final RocksDB db;
+    private final TableColumnFamilies columnFamilies;
     private final KeyEncoder keyEncoder;
     private final RowCodec rowCodec;
+    private final WriteOptions writeOptions;
+    private final TableIndexes tableIndexes;
+    private final AutoIncrementSequences sequences;
+    // The session transaction reads and batches go through, or null
+    private final SessionTransaction transaction;
 
-    public StorageManager(RocksDB db, KeyEncoder keyEncoder, RowCodec rowCodec) {
+    // Index entries carry no value; the key holds the indexed values and the primary key
+    private static final byte[] EMPTY_VALUE = new byte[0];
+    static final int INDEX_BUILD_CHUNK_SIZE = 1000;
+
+    // Number of table iterators opened, exposed for diagnostics and tests
+    private final AtomicLong scanCount;
+
+    public StorageManager(RocksDB db, TableColumnFamilies columnFamilies, KeyEncoder keyEncoder,
+                          RowCodec rowCodec, WriteOptions writeOptions, TableIndexes tableIndexes,
+                          AutoIncrementSequences sequences) {
+        this(db, columnFamilies, keyEncoder, rowCodec, writeOptions, tableIndexes, sequences, null, new AtomicLong());
+    }
+
+    private StorageManager(RocksDB db, TableColumnFamilies columnFamilies, KeyEncoder keyEncoder,
+                           RowCodec rowCodec, WriteOptions writeOptions, TableIndexes tableIndexes,
+                           AutoIncrementSequences sequences, SessionTransaction transaction, AtomicLong scanCount) {
         this.db = db;
+        this.columnFamilies = columnFamilies;
         this.keyEncoder = keyEncoder;
         this.rowCodec = rowCodec;
+        this.writeOptions = writeOptions;
+        this.tableIndexes = tableIndexes;
+        this.sequences = sequences;
+        this.transaction = transaction;
+        this.scanCount = scanCount;
+    }
+
+    /**
+     * A manager that reads and writes through a session's transaction
+     */
+    public StorageManager withTransaction(SessionTransaction transaction) {
+        return new StorageManager(db, columnFamilies, keyEncoder, rowCodec, writeOptions, tableIndexes,
+                sequences, transaction, scanCount);
+    }
+
+    /**
+     * Whether reads go through a session's transaction, and so see its own writes
+     */
+    public boolean isInTransaction() {
+        return transaction != null;
+    }
+
+    /**
+     * Whether the database supports transactions
+     */
+    public boolean isTransactional() {
+        return RocksDBOperationUtils.isTransactional(db);
+    }
+
+    /**
+     * Begin a transaction reading at a snapshot taken now. The caller must close it.
+     */
+    public SessionTransaction beginTransaction() {
+        return new SessionTransaction(RocksDBOperationUtils.beginTransaction(db, writeOptions,
+                ServerConfig.getTransactionLockTimeout()), tableIndexes);
+    }
+
+    /**
+     * Start collecting the mutations of one statement. The caller must close it.
+     * In a session's transaction the statement becomes part of it; otherwise, on a
+     * transactional database, the statement is a transaction of its own.
+     */
+    public StatementBatch newBatch() throws RocksDBException {
+        if (transaction != null) {
+            return new StatementBatch(transaction, false, tableIndexes.writerLock());
+        }
+        if (isTransactional()) {
+            return new StatementBatch(beginTransaction(), true, tableIndexes.writerLock());
+        }
+        return new StatementBatch(db, writeOptions, tableIndexes.writerLock());
+    }
+
+    /**
+     * Start a bulk load into a table whose SST files are staged under {@code directory}.
+     * The caller must close it.
+     */
+    public BulkLoader newBulkLoader(TableSchema schema, File directory, long bufferLimit, boolean replace)
+            throws IOException {
+        return new BulkLoader(db, columnFamilies, tableIndexes, sequences, schema, keyEncoder, rowCodec,
+                directory, bufferLimit, replace);
+    }
+
+    /**
+     * Give a row its AUTO_INCREMENT value unless it has one, before it is inserted.
+     * Returns the generated value, or 0 when none was generated.
+     */
+    public long assignAutoIncrement(TableSchema schema, Map<String, Object> row) throws RocksDBException {
+        return sequences.assign(schema, row);
     }
 
     /**
      * Insert a row into the table
      */
-    public void insertRow(String tableName, TableSchema schema, Map<String, Object> row)
+    public void insertRow(TableSchema schema, Map<String, Object> row)
             throws RocksDBException {
-        // Encode primary key
-        String primaryKey = keyEncoder.encodePrimaryKey(schema, row);
-
-        // Encode row data
-        String rowData = rowCodec.encodeRow(schema, row);
+        Lock writerLock = tableIndexes.writerLock();
+        writerLock.lock();
+        try {
+            if (transaction == null && tableIndexes.get(schema).isEmpty()) {
+                db.put(columnFamilies.get(schema), writeOptions, dataKey(schema, row), rowCodec.encodeRow(schema, row));
+                return;
+            }
+        } finally {
+            writerLock.unlock();
+        }
+        try (StatementBatch batch = newBatch()) {
+            insertRow(batch, schema, row);
+            batch.commit();
+        }
+    }
 
-        // Store in RocksDB
-        byte[] key = keyEncoder.encodeDataKey(tableName, primaryKey);
-        db.put(key, rowData.getBytes());
+    /**
+     * Add a row insert to a statement batch. A row already stored under the same key
+     * is replaced, together with its index entries.
+     */
+    public void insertRow(StatementBatch batch, TableSchema schema, Map<String, Object> row)
+            throws RocksDBException {
+        ColumnFamilyHandle columnFamily = columnFamilies.get(schema);
+        byte[] key = dataKey(schema, row);
+        byte[] value = rowCodec.encodeRow(schema, row);
+        List<IndexSchema> indexes = tableIndexes.get(schema);
+        if (!indexes.isEmpty()) {
+            byte[] existing = batch.get(columnFamily, key);
+            Map<String, Object> oldRow = existing == null ? null : toRowMap(schema, rowCodec.decodeValues(schema, existing));
+            updateIndexEntries(batch, columnFamily, schema, indexes, oldRow,
+                    toRowMap(schema, rowCodec.decodeValues(schema, value)));
+        }
+        batch.put(columnFamily, key, value);
     }
 
     /**
      * Select a row by primary key
      */
-    public Map<String, Object> selectByPrimaryKey(String tableName, TableSchema schema,
+    public Map<String, Object> selectByPrimaryKey(TableSchema schema,
                                                    Map<String, Object> primaryKeyValues)
             throws RocksDBException {
-        String primaryKey = keyEncoder.encodePrimaryKey(schema, primaryKeyValues);
-        byte[] key = keyEncoder.encodeDataKey(tableName, primaryKey);
-        byte[] value = db.get(key);
-
+        byte[] value = getRowData(schema, primaryKeyValues);
         if (value == null) {
             return null;
         }
 
-        return rowCodec.decodeRow(schema, new String(value));
+        return rowCodec.decodeRow(schema, value);
     }
 
     /**
-     * Select all rows from a table
+     * Select a row by primary key as values in schema column order, or null if absent
      */
-    public List<Map<String, Object>> selectAll(String tableName, TableSchema schema)
+    public Object[] selectValuesByPrimaryKey(TableSchema schema,
+                                             Map<String, Object> primaryKeyValues)
             throws RocksDBException {
-        List<Map<String, Object>> results = new ArrayList<>();
-        String prefix = keyEncoder.getDataKeyPrefix(tableName);
-        byte[] prefixBytes = prefix.getBytes();
+        byte[] value = getRowData(schema, primaryKeyValues);
+        return value == null ? null : rowCodec.decodeValues(schema, value);
+    }
 
-        try (RocksIterator iterator = db.newIterator()) {
-            for (iterator.seek(prefixBytes); iterator.isValid(); iterator.next()) {
-                byte[] key = iterator.key();
+    /**
+     * Select a row by primary key as it will be after the batch is committed, in
+     * schema column order, or null if absent. Only the key columns of {@code row} are used.
+     */
+    public Object[] selectValuesByPrimaryKey(StatementBatch batch, TableSchema schema,
+                                             Map<String, Object> row) throws RocksDBException {
+        byte[] value = batch.get(columnFamilies.get(schema), dataKey(schema, row));
+        return value == null ? null : rowCodec.decodeValues(schema, value);
+    }
 
-                // Check if key still matches prefix
-                if (!keyEncoder.keyStartsWith(key, prefixBytes)) {
-                    break;
-                }
+    /**
+     * Select rows by primary key with one batched read, as values in schema column
+     * order. The result has one entry per key, null where the row is absent. The
+     * keys are read in key order, once each, so the reads share data blocks.
+     */
+    public List<Object[]> selectValuesByPrimaryKeys(TableSchema schema, List<Map<String, Object>> primaryKeyValues)
+            throws RocksDBException {
+        int count = primaryKeyValues.size();
+        byte[][] keys = new byte[count][];
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            keys[i] = dataKey(schema, primaryKeyValues.get(i));
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Arrays.compareUnsigned(keys[a], keys[b]));
 
-                byte[] value = iterator.value();
-                Map<String, Object> row = rowCodec.decodeRow(schema, new String(value));
-                results.add(row);
+        List<byte[]> distinct = new ArrayList<>(count);
+        int[] position = new int[count];
+        for (int i = 0; i < count; i++) {
+            byte[] key = keys[order[i]];
+            if (distinct.isEmpty() || !Arrays.equals(distinct.get(distinct.size() - 1), key)) {
+                distinct.add(key);
             }
+            position[order[i]] = distinct.size() - 1;
         }
+        List<ColumnFamilyHandle> handles = Collections.nCopies(distinct.size(), columnFamilies.get(schema));
+        List<byte[]> values = transaction == null ? db.multiGetAsList(handles, distinct)
+                : transaction.multiGet(handles, distinct);
 
+        List<Object[]> rows = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            byte[] value = values.get(position[i]);
+            rows.add(value == null ? null : rowCodec.decodeValues(schema, value));
+        }
+        return rows;
+    }
+
+    /**
+     * Distinct primary keys in the order of their rows in the table
+     */
+    public List<Map<String, Object>> sortPrimaryKeys(TableSchema schema, List<Map<String, Object>> primaryKeyValues) {
+        TreeMap<byte[], Map<String, Object>> sorted = new TreeMap<>(Arrays::compareUnsigned);
+        for (Map<String, Object> values : primaryKeyValues) {
+            sorted.putIfAbsent(keyEncoder.encodePrimaryKey(schema, values), values);
+        }
+        return new ArrayList<>(sorted.values());
+    }
+
+    /**
+     * Estimated number of rows of a table, from RocksDB's estimate of the keys in
+     * its column family, which also holds one entry per row for every index
+     */
+    public long estimateRowCount(TableSchema schema) throws RocksDBException {
+        long keys = db.getLongProperty(columnFamilies.get(schema), "rocksdb.estimate-num-keys");
+        return keys / (1 + schema.indexes.size());
+    }
+
+    private byte[] getRowData(TableSchema schema, Map<String, Object> primaryKeyValues)
+            throws RocksDBException {
+        byte[] key = dataKey(schema, primaryKeyValues);
+        return transaction == null ? db.get(columnFamilies.get(schema), key)
+                : transaction.get(columnFamilies.get(schema), key);
+    }
+
+    private byte[] dataKey(TableSchema schema, Map<String, Object> row) {
+        return keyEncoder.encodeDataKey(schema, keyEncoder.encodePrimaryKey(schema, row));
+    }
+
+    /**
+     * Open a streaming scan over all rows of a table. The caller must close it.
+     */
+    public TableScanner scan(TableSchema schema) {
+        return scan(schema, KeyRange.ALL, false);
+    }
+
+    /**
+     * Open a streaming scan over the rows whose leading primary key column lies in
+     * the given range. The caller must close it.
+     */
+    public TableScanner scan(TableSchema schema, KeyRange range) {
+        return scan(schema, range, false);
+    }
+
+    /**
+     * Open a streaming scan over the rows whose leading primary key column lies in
+     * the given range, in primary key order or, with {@code reverse}, backwards. Only
+     * keys inside the range are read. The caller must close it.
+     */
+    public TableScanner scan(TableSchema schema, KeyRange range, boolean reverse) {
+        scanCount.incrementAndGet();
+        byte[][] bounds = keyEncoder.encodeDataKeyRange(schema, range);
+        Slice lowerBound = new Slice(bounds[0]);
+        Slice upperBound = new Slice(bounds[1]);
+        // The bounds tell whether the range stays within one key prefix, see TableColumnFamilies
+        ReadOptions readOptions = new ReadOptions()
+                .setIterateLowerBound(lowerBound)
+                .setIterateUpperBound(upperBound)
+                .setAutoPrefixMode(true);
+        return new TableScanner(newIterator(columnFamilies.get(schema), readOptions), readOptions,
+                lowerBound, upperBound, schema, rowCodec, bounds[0], reverse);
+    }
+
+    /**
+     * Count the rows of a table whose leading primary key column lies in the given
+     * range. Only the keys are visited: no row is decoded, and the blocks read are
+     * not added to the block cache.
+     */
+    public long countRows(TableSchema schema, KeyRange range) throws RocksDBException {
+        scanCount.incrementAndGet();
+        byte[][] bounds = keyEncoder.encodeDataKeyRange(schema, range);
+        try (Slice lowerBound = new Slice(bounds[0]);
+             Slice upperBound = new Slice(bounds[1]);
+             ReadOptions readOptions = new ReadOptions()
+                     .setIterateLowerBound(lowerBound)
+                     .setIterateUpperBound(upperBound)
+                     .setAutoPrefixMode(true)
+                     .setFillCache(false);
+             RocksIterator iterator = newIterator(columnFamilies.get(schema), readOptions)) {
+            long count = 0;
+            for (iterator.seek(bounds[0]); iterator.isValid(); iterator.next()) {
+                count++;
+            }
+            iterator.status();
+            return count;
+        }
+    }
+
+    /**
+     * Open a streaming scan over the entries of an index whose leading columns equal
+     * the given values, in index order or, with {@code reverse}, backwards. The
+     * caller must close it.
+     */
+    public IndexScanner indexScan(TableSchema schema, IndexSchema index, List<Object> leadingValues,
+                                  boolean reverse) {
+        byte[] prefix = keyEncoder.encodeIndexPrefix(schema, index, leadingValues);
+        Slice lowerBound = new Slice(prefix);
+        Slice upperBound = new Slice(keyEncoder.prefixUpperBound(prefix));
+        // Every entry of the index shares the key prefix that the prefix bloom filters
+        // hold; backwards the scan starts from the upper bound, which may not
+        ReadOptions readOptions = new ReadOptions()
+                .setIterateLowerBound(lowerBound)
+                .setIterateUpperBound(upperBound);
+        if (reverse) {
+            readOptions.setAutoPrefixMode(true);
+        } else {
+            readOptions.setPrefixSameAsStart(true);
+        }
+        return new IndexScanner(newIterator(columnFamilies.get(schema), readOptions), readOptions,
+                lowerBound, upperBound, schema, index, keyEncoder, prefix, reverse);
+    }
+
+    private RocksIterator newIterator(ColumnFamilyHandle columnFamily, ReadOptions readOptions) {
+        return transaction == null ? db.newIterator(columnFamily, readOptions)
+                : transaction.newIterator(columnFamily, readOptions);
+    }
+
+    /**
+     * Select all rows from a table
+     */
+    public List<Map<String, Object>> selectAll(TableSchema schema)
+            throws RocksDBException {
+        List<Map<String, Object>> results = new ArrayList<>();
+        try (TableScanner scanner = scan(schema)) {
+            Object[] values;
+            while ((values = scanner.next()) != null) {
+                results.add(toRowMap(schema, values));
+            }
+        }
         return results;
     }
 
     /**
      * Delete a row by primary key
      */
-    public void deleteByPrimaryKey(String tableName, TableSchema schema,
+    public void deleteByPrimaryKey(TableSchema schema,
                                    Map<String, Object> primaryKeyValues)
             throws RocksDBException {
-        String primaryKey = keyEncoder.encodePrimaryKey(schema, primaryKeyValues);
-        byte[] key = keyEncoder.encodeDataKey(tableName, primaryKey);
-        db.delete(key);
+        try (StatementBatch batch = newBatch()) {
+            if (tableIndexes.get(schema).isEmpty()) {
+                batch.delete(columnFamilies.get(schema), dataKey(schema, primaryKeyValues));
+            } else {
+                Object[] existing = selectValuesByPrimaryKey(batch, schema, primaryKeyValues);
+                if (existing != null) {
+                    deleteRow(batch, schema, existing);
+                }
+            }
+            batch.commit();
+        }
+    }
+
+    /**
+     * Add the delete of a row (values in schema column order) to a statement batch
+     */
+    public void deleteRow(StatementBatch batch, TableSchema schema, Object[] values)
+            throws RocksDBException {
+        ColumnFamilyHandle columnFamily = columnFamilies.get(schema);
+        Map<String, Object> row = toRowMap(schema, values);
+        updateIndexEntries(batch, columnFamily, schema, tableIndexes.get(schema), row, null);
+        batch.delete(columnFamily, dataKey(schema, row));
     }
 
     /**
-     * Update a row by primary key
+     * Update a row by primary key. The row is read through the batch, so on a
+     * transactional database a concurrent update of it is a write conflict.
      */
-    public void updateByPrimaryKey(String tableName, TableSchema schema,
+    public void updateByPrimaryKey(TableSchema schema,
                                    Map<String, Object> primaryKeyValues,
                                    Map<String, Object> newValues)
             throws RocksDBException {
-        // First check if row exists
-        Map<String, Object> existingRow = selectByPrimaryKey(tableName, schema, primaryKeyValues);
-        if (existingRow == null) {
-            throw new IllegalStateException("Row not found for update");
+        try (StatementBatch batch = newBatch()) {
+            Object[] existing = selectValuesByPrimaryKey(batch, schema, primaryKeyValues);
+            if (existing == null) {
+                throw new IllegalStateException("Row not found for update");
+            }
+            updateRow(batch, schema, existing, newValues);
+            batch.commit();
         }
+    }
 
-        // Merge new values into existing row
-        existingRow.putAll(newValues);
+    /**
+     * Add the update of a row (current values in schema column order) to a statement
+     * batch. When the primary key changes the row moves: the old key is deleted, and
+     * the new key must not be taken by another row, including rows written earlier
+     * in the same batch.
+     */
+    public void updateRow(StatementBatch batch, TableSchema schema, Object[] currentValues,
+                          Map<String, Object> newValues) throws RocksDBException {
+        ColumnFamilyHandle columnFamily = columnFamilies.get(schema);
+        Map<String, Object> row = toRowMap(schema, currentValues);
+        byte[] oldKey = dataKey(schema, row);
+        row.putAll(newValues);
+        byte[] newKey = dataKey(schema, row);
+
+        if (!Arrays.equals(oldKey, newKey)) {
+            if (batch.get(columnFamily, newKey) != null) {
+                throw new IllegalStateException("Duplicate entry for primary key of table "
+                        + schema.tableName + ": " + keyEncoder.decodePrimaryKey(schema, newKey));
+            }
+            batch.delete(columnFamily, oldKey);
+        }
+        byte[] value = rowCodec.encodeRow(schema, row);
+        List<IndexSchema> indexes = tableIndexes.get(schema);
+        if (!indexes.isEmpty()) {
+            updateIndexEntries(batch, columnFamily, schema, indexes, toRowMap(schema, currentValues),
+                    toRowMap(schema, rowCodec.decodeValues(schema, value)));
+        }
+        batch.put(columnFamily, newKey, value);
+    }
 
-        // Update in storage
-        insertRow(tableName, schema, existingRow);
+    /**
+     * Replace the index entries of {@code oldRow} with those of {@code newRow}; either
+     * may be null. Entries that stay the same are not rewritten.
+     */
+    private void updateIndexEntries(StatementBatch batch, ColumnFamilyHandle columnFamily, TableSchema schema,
+                                    List<IndexSchema> indexes, Map<String, Object> oldRow,
+                                    Map<String, Object> newRow) throws RocksDBException {
+        for (IndexSchema index : indexes) {
+            byte[] oldKey = oldRow == null ? null : keyEncoder.encodeIndexKey(schema, index, oldRow);
+            byte[] newKey = newRow == null ? null : keyEncoder.encodeIndexKey(schema, index, newRow);
+            if (oldKey != null && newKey != null && Arrays.equals(oldKey, newKey)) {
+                continue;
+            }
+            if (oldKey != null) {
+                batch.delete(columnFamily, oldKey);
+            }
+            if (newKey != null) {
+                batch.put(columnFamily, newKey, EMPTY_VALUE);
+            }
+        }
     }
 
     /**
-     * Delete all rows from a table
+     * Build a new index over the existing rows of a table while the table stays
+     * readable and writable. {@code schema} must already contain the index.
+     *
+     * The index is first registered with no write in flight, so from then on every
+     * write maintains it. The existing rows are then read in key order in chunks of
+     * {@link #INDEX_BUILD_CHUNK_SIZE}; each chunk is read from the current data and
+     * its entries written while writers are held off, so no entry of a row can be
+     * overwritten by a stale one. Writing an entry a writer already wrote is harmless.
+     * Returns the number of rows indexed.
      */
-    public void deleteAll(String tableName) throws RocksDBException {
-        String prefix = keyEncoder.getDataKeyPrefix(tableName);
-        byte[] prefixBytes = prefix.getBytes();
-        List<byte[]> keysToDelete = new ArrayList<>();
+    public long buildIndex(TableSchema schema, IndexSchema index) throws RocksDBException {
+        Lock exclusiveLock = tableIndexes.exclusiveLock();
+        exclusiveLock.lock();
+        try {
+            tableIndexes.set(schema);
+        } finally {
+            exclusiveLock.unlock();
+        }
 
-        try (RocksIterator iterator = db.newIterator()) {
-            for (iterator.seek(prefixBytes); iterator.isValid(); iterator.next()) {
-                byte[] key = iterator.key();
-                if (!keyEncoder.keyStartsWith(key, prefixBytes)) {
-                    break;
+        ColumnFamilyHandle columnFamily = columnFamilies.get(schema);
+        byte[] prefix = keyEncoder.getDataKeyPrefix(schema);
+        byte[] lastKey = null;
+        long indexed = 0;
+        boolean more = true;
+        while (more) {
+            exclusiveLock.lock();
+            try (ReadOptions readOptions = new ReadOptions().setTotalOrderSeek(true);
+                 RocksIterator iterator = db.newIterator(columnFamily, readOptions);
+                 WriteBatch batch = new WriteBatch()) {
+                // Continue after the last row of the previous chunk
+                iterator.seek(lastKey == null ? prefix : lastKey);
+                if (lastKey != null && iterator.isValid() && Arrays.equals(iterator.key(), lastKey)) {
+                    iterator.next();
+                }
+                int rows = 0;
+                while (rows < INDEX_BUILD_CHUNK_SIZE && iterator.isValid()
+                        && keyEncoder.keyStartsWith(iterator.key(), prefix)) {
+                    Map<String, Object> row = toRowMap(schema, rowCodec.decodeValues(schema, iterator.value()));
+                    batch.put(columnFamily, keyEncoder.encodeIndexKey(schema, index, row), EMPTY_VALUE);
+                    lastKey = iterator.key();
+                    rows++;
+                    iterator.next();
                 }
-                keysToDelete.add(key);
+                iterator.status();
+                db.write(writeOptions, batch);
+                indexed += rows;
+                more = rows == INDEX_BUILD_CHUNK_SIZE;
+            } finally {
+                exclusiveLock.unlock();
             }
         }
+        return indexed;
+    }
 
-        // Delete all collected keys
-        for (byte[] key : keysToDelete) {
-            db.delete(key);
+    /**
+     * Stop maintaining a dropped index and delete its entries. {@code schema} must
+     * no longer contain the index.
+     */
+    public void dropIndex(TableSchema schema, IndexSchema index) throws RocksDBException {
+        Lock exclusiveLock = tableIndexes.exclusiveLock();
+        exclusiveLock.lock();
+        try {
+            tableIndexes.set(schema);
+        } finally {
+            exclusiveLock.unlock();
         }
+        byte[] prefix = keyEncoder.encodeIndexPrefix(schema, index, List.of());
+        RocksDBOperationUtils.deleteRanges(db, columnFamilies.get(schema), writeOptions,
+                List.<byte[][]>of(new byte[][] {prefix, keyEncoder.prefixUpperBound(prefix)}),
+                INDEX_BUILD_CHUNK_SIZE);
+    }
+
+    /**
+     * Delete all rows of a table with a single range tombstone. The deleted
+     * data is reclaimed by compaction; nothing is read or held in memory. A
+     * TransactionDB has no range tombstones, so there the keys are deleted in chunks.
+     */
+    public void truncate(TableSchema schema) throws RocksDBException {
+        List<byte[][]> ranges = new ArrayList<>();
+        for (byte[] prefix : List.of(keyEncoder.getDataKeyPrefix(schema), keyEncoder.getIndexKeyPrefix(schema))) {
+            ranges.add(new byte[][] {prefix, keyEncoder.prefixUpperBound(prefix)});
+        }
+        RocksDBOperationUtils.deleteRanges(db, columnFamilies.get(schema), writeOptions, ranges,
+                INDEX_BUILD_CHUNK_SIZE);
+    }
+
+    private Map<String, Object> toRowMap(TableSchema schema, Object[] values) {
+        Map<String, Object> row = new LinkedHashMap<>();
+        for (int i = 0; i < values.length; i++) {
+            row.put(schema.columns.get(i).name, values[i]);
+        }
+        return row;
     }
-}
 
+    /**
+     * Get the number of table scans started since startup
+     */
+    public long getScanCount() {
+        return scanCount.get();
+    }
+}
@@ -0,0 +1,192 @@
+package cc.fastsoft.db.core;
+
+import cc.fastsoft.config.ServerConfig;
+import cc.fastsoft.db.schema.TableSchema;
+import cc.fastsoft.storage.rocksdb.RocksDbHandle;
+import org.rocksdb.BlockBasedTableConfig;
+import org.rocksdb.BloomFilter;
+import org.rocksdb.Cache;
+import org.rocksdb.ColumnFamilyHandle;
+import org.rocksdb.ColumnFamilyOptions;
+import org.rocksdb.CompactionStyle;
+import org.rocksdb.CompressionType;
+import org.rocksdb.DBOptions;
+import org.rocksdb.Options;
+import org.rocksdb.RocksDBException;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Table Column Families - Maps every table to the RocksDB column family holding its rows
+ *
+ * A table's column family is named "database.table#tableId". Keeping each table
+ * apart lets DROP TABLE drop the whole column family instead of deleting keys, and
+ * lets compression, compaction style and bloom filters be set per table (see
+ * {@link ServerConfig#getTableCompression(String)}). Options are taken from the
+ * configuration every time the column family is opened.
+ *
+ * Data keys keep their table prefix, so a family holds exactly the keys under it.
+ *
+ * All families share one LRU block cache, which also holds their index and filter
+ * blocks. Their bloom filters hold whole keys, for point reads, and key prefixes of
+ * {@link KeyEncoder#INDEX_PREFIX_LENGTH} bytes. The table id prefix is the same for
+ * every key of a family, so the prefix goes on to the index id of index keys, which
+ * lets an index scan skip the files holding no entries of its index. Iterators
+ * crossing prefixes must use total order or auto prefix mode.
+ */
+public class TableColumnFamilies {
+    private static final char TABLE_ID_SEPARATOR = '#';
+
+    private final RocksDbHandle rocksDbHandle;
+    private final Cache blockCache;
+    private final Map<Long, ColumnFamilyHandle> handles = new ConcurrentHashMap<>();
+    private final Map<Long, String> names = new ConcurrentHashMap<>();
+
+    public TableColumnFamilies(RocksDbHandle rocksDbHandle, Cache blockCache) {
+        this.rocksDbHandle = rocksDbHandle;
+        this.blockCache = blockCache;
+        for (Map.Entry<String, ColumnFamilyHandle> entry : rocksDbHandle.getColumnFamilyHandles().entrySet()) {
+            long tableId = tableId(entry.getKey());
+            if (tableId > 0) {
+                handles.put(tableId, entry.getValue());
+                names.put(tableId, entry.getKey());
+            }
+        }
+    }
+
+    /**
+     * Column family holding the rows of a table
+     */
+    public ColumnFamilyHandle get(TableSchema schema) {
+        ColumnFamilyHandle handle = handles.get(schema.tableId);
+        if (handle == null) {
+            throw new IllegalStateException("No column family for table " + schema.tableName
+                    + " (id " + schema.tableId + ")");
+        }
+        return handle;
+    }
+
+    public boolean exists(TableSchema schema) {
+        return handles.containsKey(schema.tableId);
+    }
+
+    /**
+     * Create the column family of a new table
+     */
+    public ColumnFamilyHandle create(String databaseName, TableSchema schema) throws RocksDBException {
+        if (schema.tableId == 0) {
+            throw new IllegalStateException("Table id not assigned: " + schema.tableName);
+        }
+        String name = databaseName + "." + schema.tableName + TABLE_ID_SEPARATOR + schema.tableId;
+        ColumnFamilyHandle handle = rocksDbHandle.createColumnFamily(name);
+        handles.put(schema.tableId, handle);
+        names.put(schema.tableId, name);
+        return handle;
+    }
+
+    /**
+     * Drop the column family of a table together with all of its rows
+     */
+    public void drop(long tableId) throws RocksDBException {
+        String name = names.remove(tableId);
+        handles.remove(tableId);
+        if (name != null) {
+            rocksDbHandle.dropColumnFamily(name);
+        }
+    }
+
+    /**
+     * Options for SST files that are ingested into a table's column family, with
+     * the compression and filter of the column family itself. The caller must close them.
+     */
+    public Options sstFileOptions(TableSchema schema) {
+        String name = names.get(schema.tableId);
+        if (name == null) {
+            throw new IllegalStateException("No column family for table " + schema.tableName
+                    + " (id " + schema.tableId + ")");
+        }
+        try (DBOptions dbOptions = new DBOptions();
+             ColumnFamilyOptions columnFamilyOptions = options(name, blockCache)) {
+            return new Options(dbOptions, columnFamilyOptions);
+        }
+    }
+
+    /**
+     * Ids of all tables that have a column family
+     */
+    public Set<Long> tableIds() {
+        return Set.copyOf(handles.keySet());
+    }
+
+    /**
+     * Options for the column family of the given name, caching blocks in
+     * {@code blockCache}. Used by {@link RocksDbHandle} when opening and creating
+     * column families.
+     */
+    public static ColumnFamilyOptions options(String columnFamilyName, Cache blockCache) {
+        int separator = columnFamilyName.lastIndexOf(TABLE_ID_SEPARATOR);
+        String table = separator < 0 ? columnFamilyName : columnFamilyName.substring(0, separator);
+
+        ColumnFamilyOptions options = new ColumnFamilyOptions();
+        options.setCompressionType(compressionType(ServerConfig.getTableCompression(table)));
+        options.setCompactionStyle(compactionStyle(ServerConfig.getTableCompaction(table)));
+
+        BlockBasedTableConfig tableConfig = new BlockBasedTableConfig()
+                .setBlockCache(blockCache)
+                .setCacheIndexAndFilterBlocks(true)
+                .setCacheIndexAndFilterBlocksWithHighPriority(true)
+                .setPinL0FilterAndIndexBlocksInCache(true);
+        int bloomBits = ServerConfig.getTableBloomBits(table);
+        if (bloomBits > 0) {
+            tableConfig.setFilterPolicy(new BloomFilter(bloomBits, false))
+                    .setWholeKeyFiltering(true);
+            if (ServerConfig.isTablePrefixBloom(table)) {
+                options.useFixedLengthPrefixExtractor(KeyEncoder.INDEX_PREFIX_LENGTH);
+                options.setMemtablePrefixBloomSizeRatio(0.1);
+                options.setMemtableWholeKeyFiltering(true);
+            }
+        }
+        options.setTableFormatConfig(tableConfig);
+        return options;
+    }
+
+    private static long tableId(String columnFamilyName) {
+        int separator = columnFamilyName.lastIndexOf(TABLE_ID_SEPARATOR);
+        if (separator < 0) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(columnFamilyName.substring(separator + 1));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static CompressionType compressionType(String name) {
+        switch (name) {
+            case "none":
+                return CompressionType.NO_COMPRESSION;
+            case "snappy":
+                return CompressionType.SNAPPY_COMPRESSION;
+            case "lz4":
+                return CompressionType.LZ4_COMPRESSION;
+            case "zstd":
+                return CompressionType.ZSTD_COMPRESSION;
+            default:
+                throw new IllegalStateException("Unsupported table compression: " + name);
+        }
+    }
+
+    private static CompactionStyle compactionStyle(String name) {
+        switch (name) {
+            case "level":
+                return CompactionStyle.LEVEL;
+            case "universal":
+                return CompactionStyle.UNIVERSAL;
+            default:
+                throw new IllegalStateException("Unsupported table compaction style: " + name);
+        }
+    }
+}
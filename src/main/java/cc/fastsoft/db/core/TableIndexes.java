@@ -0,0 +1,73 @@
+package cc.fastsoft.db.core;
+
+import cc.fastsoft.db.schema.IndexSchema;
+import cc.fastsoft.db.schema.TableSchema;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Table Indexes - The secondary indexes every write to a table must maintain
+ *
+ * Writers look indexes up here by table id when they write, not in the schema
+ * they resolved when their statement started, so a statement that began before
+ * an index was created still maintains it. Writers hold the read lock from the
+ * first lookup until their changes are committed; index builds and drops take the
+ * write lock to change the set of indexes, or to backfill a chunk of rows, with
+ * no write in flight. Every change of a table's indexes advances a version, so a
+ * transaction can tell whether the indexes it maintained are still all there are.
+ */
+public class TableIndexes {
+    private final Map<Long, List<IndexSchema>> indexes = new ConcurrentHashMap<>();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final AtomicLong version = new AtomicLong();
+
+    /**
+     * Indexes of a table, including those still being built
+     */
+    public List<IndexSchema> get(TableSchema schema) {
+        return indexes.getOrDefault(schema.tableId, List.of());
+    }
+
+    /**
+     * Take the indexes of a table from its schema
+     */
+    public void set(TableSchema schema) {
+        if (schema.indexes.isEmpty()) {
+            indexes.remove(schema.tableId);
+        } else {
+            indexes.put(schema.tableId, schema.indexes);
+        }
+        version.incrementAndGet();
+    }
+
+    public void remove(long tableId) {
+        indexes.remove(tableId);
+        version.incrementAndGet();
+    }
+
+    /**
+     * Number of index changes so far
+     */
+    public long version() {
+        return version.get();
+    }
+
+    /**
+     * Held by writers while they read the indexes and commit their changes
+     */
+    public Lock writerLock() {
+        return lock.readLock();
+    }
+
+    /**
+     * Held while the set of indexes changes or an index build writes entries
+     */
+    public Lock exclusiveLock() {
+        return lock.writeLock();
+    }
+}
@@ -0,0 +1,82 @@
+package cc.fastsoft.db.core;
+
+import cc.fastsoft.db.schema.TableSchema;
+import org.rocksdb.ReadOptions;
+import org.rocksdb.RocksDBException;
+import org.rocksdb.RocksIterator;
+import org.rocksdb.Slice;
+
+/**
+ * Table Scanner - Streams the rows of one table in primary key order
+ *
+ * Rows are decoded one at a time from the underlying RocksDB iterator, so a scan
+ * never holds more than the current row in memory. The iterator is created with
+ * iterate lower and upper bounds covering only the scanned key range, so RocksDB
+ * stops at the end of the range instead of reading past it. A reverse scanner
+ * streams the range from its last key backwards. Must be closed to release the
+ * native iterator and its bounds.
+ */
+public class TableScanner implements AutoCloseable {
+    private final RocksIterator iterator;
+    private final ReadOptions readOptions;
+    private final Slice lowerBound;
+    private final Slice upperBound;
+    private final TableSchema schema;
+    private final RowCodec rowCodec;
+    private final byte[] start;
+    private final boolean reverse;
+    private boolean started;
+
+    TableScanner(RocksIterator iterator, ReadOptions readOptions, Slice lowerBound, Slice upperBound,
+                 TableSchema schema, RowCodec rowCodec, byte[] start, boolean reverse) {
+        this.iterator = iterator;
+        this.readOptions = readOptions;
+        this.lowerBound = lowerBound;
+        this.upperBound = upperBound;
+        this.schema = schema;
+        this.rowCodec = rowCodec;
+        this.start = start;
+        this.reverse = reverse;
+    }
+
+    /**
+     * Advance to the next row and return its values in schema column order,
+     * or null when the range is exhausted
+     */
+    public Object[] next() throws RocksDBException {
+        if (!started) {
+            if (reverse) {
+                iterator.seekToLast();
+            } else {
+                iterator.seek(start);
+            }
+            started = true;
+        } else if (reverse) {
+            iterator.prev();
+        } else {
+            iterator.next();
+        }
+
+        if (!iterator.isValid()) {
+            iterator.status();
+            return null;
+        }
+        return rowCodec.decodeValues(schema, iterator.value());
+    }
+
+    /**
+     * Key of the current row
+     */
+    public byte[] key() {
+        return iterator.key();
+    }
+
+    @Override
+    public void close() {
+        // The bounds must outlive the iterator that reads them
+        iterator.close();
+        readOptions.close();
+        lowerBound.close();
+        upperBound.close();
+    }
+}
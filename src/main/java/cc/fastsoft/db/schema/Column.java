@@ -3,10 +3,17 @@ package cc.fastsoft.db.schema;
 public class Column {
     public final String name;
     public final ColumnType type;
+    // Whether values are generated from the table's sequence when none is given
+    public final boolean autoIncrement;
 
     public Column(String name, ColumnType type) {
+        this(name, type, false);
+    }
+
+    public Column(String name, ColumnType type, boolean autoIncrement) {
         this.name = name;
         this.type = type;
+        this.autoIncrement = autoIncrement;
     }
     public static enum ColumnType {
         INT,
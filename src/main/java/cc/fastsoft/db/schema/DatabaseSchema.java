@@ -1,9 +1,9 @@
 package cc.fastsoft.db.schema;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 /**
@@ -15,7 +15,7 @@ public class DatabaseSchema {
 
     public DatabaseSchema(String databaseName) {
         this.databaseName = databaseName;
-        this.tables = new HashMap<>();
+        this.tables = new ConcurrentHashMap<>();
     }
 
     /**
@@ -28,6 +28,16 @@ public class DatabaseSchema {
         tables.put(table.tableName, table);
     }
 
+    /**
+     * Replace the definition of an existing table
+     */
+    public void replaceTable(TableSchema table) {
+        if (!tables.containsKey(table.tableName)) {
+            throw new IllegalStateException("Table does not exist: " + table.tableName);
+        }
+        tables.put(table.tableName, table);
+    }
+
     /**
      * Get a table by name
      */
@@ -0,0 +1,71 @@
+package cc.fastsoft.db.schema;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Index Schema - A secondary index of a table
+ *
+ * Index entries are stored in the table's column family under their own key space
+ * (see {@link cc.fastsoft.db.core.KeyEncoder#encodeIndexKey}). An index that is
+ * still being built is maintained by writes but not used by queries.
+ */
+public class IndexSchema {
+    public final String indexName;
+    public final List<String> columns;
+    // Compact id used in the index key prefix, unique within the table
+    public final int indexId;
+    public final boolean building;
+
+    public IndexSchema(String indexName, List<String> columns, int indexId, boolean building) {
+        this.indexName = indexName;
+        this.columns = List.copyOf(columns);
+        this.indexId = indexId;
+        this.building = building;
+    }
+
+    /**
+     * Copy of this index that queries may use
+     */
+    public IndexSchema built() {
+        return new IndexSchema(indexName, columns, indexId, false);
+    }
+
+    /**
+     * Format: name:id:column+column[:building]
+     */
+    public String serialize() {
+        return indexName + ":" + indexId + ":" + String.join("+", columns) + (building ? ":building" : "");
+    }
+
+    public static IndexSchema deserialize(String s) {
+        String[] parts = s.split(":", -1);
+        if (parts.length != 3 && parts.length != 4) {
+            throw new IllegalArgumentException("Invalid index string: " + s);
+        }
+        List<String> columns = new ArrayList<>(Arrays.asList(parts[2].split("\\+")));
+        return new IndexSchema(parts[0], columns, Integer.parseInt(parts[1]), parts.length == 4);
+    }
+
+    public String getIndexName() {
+        return indexName;
+    }
+
+    public List<String> getColumns() {
+        return columns;
+    }
+
+    public int getIndexId() {
+        return indexId;
+    }
+
+    public boolean isBuilding() {
+        return building;
+    }
+
+    @Override
+    public String toString() {
+        return indexName + columns;
+    }
+}
@@ -9,13 +9,81 @@ public class TableSchema {
     public final String tableName;
     public final List<Column> columns;
     public final List<String> primaryKeyColumns;
+    // Compact id used as the storage key prefix, 0 until assigned by MetadataManager
+    public final long tableId;
+    public final List<IndexSchema> indexes;
 
     public TableSchema(String tableName,
                        List<Column> columns,
                        List<String> primaryKeyColumns) {
+        this(tableName, columns, primaryKeyColumns, 0L);
+    }
+
+    public TableSchema(String tableName,
+                       List<Column> columns,
+                       List<String> primaryKeyColumns,
+                       long tableId) {
+        this(tableName, columns, primaryKeyColumns, tableId, List.of());
+    }
+
+    public TableSchema(String tableName,
+                       List<Column> columns,
+                       List<String> primaryKeyColumns,
+                       long tableId,
+                       List<IndexSchema> indexes) {
         this.tableName = tableName;
         this.columns = columns;
         this.primaryKeyColumns = primaryKeyColumns;
+        this.tableId = tableId;
+        this.indexes = List.copyOf(indexes);
+    }
+
+    /**
+     * Copy of this schema with the given table id
+     */
+    public TableSchema withTableId(long tableId) {
+        return new TableSchema(tableName, columns, primaryKeyColumns, tableId, indexes);
+    }
+
+    /**
+     * Copy of this schema with an index added, or replaced if one of the same name exists
+     */
+    public TableSchema withIndex(IndexSchema index) {
+        List<IndexSchema> newIndexes = new ArrayList<>(indexes);
+        newIndexes.removeIf(existing -> existing.indexName.equalsIgnoreCase(index.indexName));
+        newIndexes.add(index);
+        return new TableSchema(tableName, columns, primaryKeyColumns, tableId, newIndexes);
+    }
+
+    /**
+     * Copy of this schema without the named index
+     */
+    public TableSchema withoutIndex(String indexName) {
+        List<IndexSchema> newIndexes = new ArrayList<>(indexes);
+        newIndexes.removeIf(existing -> existing.indexName.equalsIgnoreCase(indexName));
+        return new TableSchema(tableName, columns, primaryKeyColumns, tableId, newIndexes);
+    }
+
+    /**
+     * Index of the given name (case-insensitive, as in MySQL), or null
+     */
+    public IndexSchema getIndex(String indexName) {
+        for (IndexSchema index : indexes) {
+            if (index.indexName.equalsIgnoreCase(indexName)) return index;
+        }
+        return null;
+    }
+
+    /**
+     * Id for the next index of this table, above every id in use; the entries of a
+     * dropped index are deleted before its id can be used again
+     */
+    public int nextIndexId() {
+        int max = 0;
+        for (IndexSchema index : indexes) {
+            max = Math.max(max, index.indexId);
+        }
+        return max + 1;
     }
 
     public Column getColumn(String name) {
@@ -25,18 +93,35 @@ public class TableSchema {
         return null;
     }
 
+    /**
+     * The AUTO_INCREMENT column, or null if the table has none
+     */
+    public Column getAutoIncrementColumn() {
+        for (Column c : columns) {
+            if (c.autoIncrement) return c;
+        }
+        return null;
+    }
+
     public String serialize() {
+        // Columns are name:TYPE, with :AUTO_INCREMENT appended for the generated one
         String cols = columns.stream()
-                .map(c -> c.name + ":" + c.type.name())
+                .map(c -> c.name + ":" + c.type.name() + (c.autoIncrement ? ":AUTO_INCREMENT" : ""))
                 .collect(Collectors.joining(","));
         String pks = String.join(",", primaryKeyColumns);
-        return tableName + "|" + cols + "|" + pks;
+        String serialized = tableName + "|" + cols + "|" + pks + "|" + tableId;
+        // Tables without indexes keep the four part format
+        if (!indexes.isEmpty()) {
+            serialized += "|" + indexes.stream().map(IndexSchema::serialize).collect(Collectors.joining(";"));
+        }
+        return serialized;
     }
 
 
     public static TableSchema deserialize(String s) {
         String[] parts = s.split("\\|", -1);
-        if (parts.length != 3) {
+        // Schemas written before table ids existed have three parts, with indexes five
+        if (parts.length < 3 || parts.length > 5) {
             throw new IllegalArgumentException("Invalid schema string: " + s);
         }
         String tableName = parts[0];
@@ -47,14 +132,21 @@ public class TableSchema {
         if (!colsStr.isEmpty()) {
             for (String colDef : colsStr.split(",")) {
                 String[] kv = colDef.split(":");
-                cols.add(new Column(kv[0], Column.ColumnType.valueOf(kv[1])));
+                cols.add(new Column(kv[0], Column.ColumnType.valueOf(kv[1]), kv.length > 2));
             }
         }
         List<String> pks = new ArrayList<>();
         if (!pksStr.isEmpty()) {
             pks.addAll(Arrays.asList(pksStr.split(",")));
         }
-        return new TableSchema(tableName, cols, pks);
+        long tableId = parts.length >= 4 ? Long.parseLong(parts[3]) : 0L;
+        List<IndexSchema> indexes = new ArrayList<>();
+        if (parts.length == 5 && !parts[4].isEmpty()) {
+            for (String indexDef : parts[4].split(";")) {
+                indexes.add(IndexSchema.deserialize(indexDef));
+            }
+        }
+        return new TableSchema(tableName, cols, pks, tableId, indexes);
     }
 
     public String getTableName() {
@@ -68,4 +160,12 @@ public class TableSchema {
     public List<String> getPrimaryKeyColumns() {
         return primaryKeyColumns;
     }
+
+    public long getTableId() {
+        return tableId;
+    }
+
+    public List<IndexSchema> getIndexes() {
+        return indexes;
+    }
 }
@@ -1,16 +1,29 @@
 package cc.fastsoft.jdbc;
 
+import cc.fastsoft.db.Session;
 import cc.fastsoft.jdbc.protocol.MysqlPassword;
+import cc.fastsoft.sql.PreparedSql;
 
 import java.security.SecureRandom;
+import java.util.HashMap;
+import java.util.Map;
 
 import static cc.fastsoft.jdbc.protocol.MysqlPassword.SCRAMBLE_LENGTH;
 
+/**
+ * Connect Context - State of one client connection
+ *
+ * Protocol state (user, capabilities) lives here; everything the engine needs
+ * (current database, session variables, autocommit) is in the {@link Session}.
+ */
 public class ConnectContext {
     private int connectionId = 0;
     private String userName;
-    private String database;
     private int clientCapabilities = 0;
+    private final Session session = new Session();
+    private final Map<Integer, ServerPreparedStatement> preparedStatements = new HashMap<>();
+    private int nextStatementId = 1;
+    private LocalInfileTransfer localInfileTransfer;
 
     public ConnectContext() {
 
@@ -32,12 +45,12 @@ public class ConnectContext {
         this.userName = userName;
     }
 
-    public String getDatabase() {
-        return database;
+    public Session getSession() {
+        return session;
     }
 
-    public void setDatabase(String database) {
-        this.database = database;
+    public String getDatabase() {
+        return session.getDatabase();
     }
 
     public boolean isAuthenticated() {
@@ -51,4 +64,32 @@ public class ConnectContext {
     public void setClientCapabilities(int clientCapabilities) {
         this.clientCapabilities = clientCapabilities;
     }
+
+    /**
+     * Register a prepared statement and return its new id
+     */
+    public ServerPreparedStatement registerStatement(PreparedSql preparedSql) {
+        ServerPreparedStatement statement = new ServerPreparedStatement(nextStatementId++, preparedSql);
+        preparedStatements.put(statement.getStatementId(), statement);
+        return statement;
+    }
+
+    public ServerPreparedStatement getStatement(int statementId) {
+        return preparedStatements.get(statementId);
+    }
+
+    public void closeStatement(int statementId) {
+        preparedStatements.remove(statementId);
+    }
+
+    /**
+     * The LOAD DATA LOCAL INFILE whose file is being received, or null
+     */
+    public LocalInfileTransfer getLocalInfileTransfer() {
+        return localInfileTransfer;
+    }
+
+    public void setLocalInfileTransfer(LocalInfileTransfer localInfileTransfer) {
+        this.localInfileTransfer = localInfileTransfer;
+    }
 }
@@ -0,0 +1,106 @@
+package cc.fastsoft.jdbc;
+
+import cc.fastsoft.db.core.BulkLoader;
+import cc.fastsoft.db.schema.Column;
+import cc.fastsoft.db.schema.TableSchema;
+import cc.fastsoft.sql.DelimitedRowParser;
+import cc.fastsoft.sql.LoadDataSql;
+import cc.fastsoft.sql.plan.Literals;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Local Infile Transfer - A LOAD DATA LOCAL INFILE whose file the client is sending
+ *
+ * While a transfer is active the connection's packets carry file data instead of
+ * commands. Each chunk is parsed into rows right away and handed to the bulk loader,
+ * so the file is never held in memory. After a failure the remaining data is
+ * drained and dropped, because the client sends the whole file regardless; the
+ * failure is reported once the file has ended.
+ */
+public class LocalInfileTransfer implements AutoCloseable {
+    private final LoadDataSql loadData;
+    private final BulkLoader loader;
+    private final DelimitedRowParser parser;
+    private final List<Column> columns = new ArrayList<>();
+    private Exception failure;
+
+    public LocalInfileTransfer(LoadDataSql loadData, TableSchema schema, BulkLoader loader) {
+        this.loadData = loadData;
+        this.loader = loader;
+        if (loadData.getColumns().isEmpty()) {
+            columns.addAll(schema.getColumns());
+        } else {
+            for (String name : loadData.getColumns()) {
+                Column column = schema.getColumn(name);
+                if (column == null) {
+                    throw new IllegalArgumentException("Unknown column '" + name + "' in table " + schema.tableName);
+                }
+                columns.add(column);
+            }
+        }
+        this.parser = new DelimitedRowParser(loadData, this::addRow);
+    }
+
+    public LoadDataSql getLoadData() {
+        return loadData;
+    }
+
+    /**
+     * Parse a chunk of the file; ignored once the transfer has failed
+     */
+    public void feed(ByteBuffer data) {
+        if (failure != null) {
+            return;
+        }
+        try {
+            parser.feed(data);
+        } catch (Exception e) {
+            failure = e;
+        }
+    }
+
+    /**
+     * End of file: load the parsed rows and return how many were loaded.
+     * Throws the first failure of the transfer.
+     */
+    public long finish() throws Exception {
+        if (failure != null) {
+            throw failure;
+        }
+        parser.finish();
+        return loader.finish();
+    }
+
+    /**
+     * Rows skipped because their key was a duplicate
+     */
+    public long getSkippedRows() {
+        return loader.getSkippedRows();
+    }
+
+    private void addRow(List<String> fields, long lineNumber) throws Exception {
+        // Missing fields are NULL and extra fields are dropped, as in MySQL
+        Map<String, Object> row = new HashMap<>();
+        for (int i = 0; i < columns.size(); i++) {
+            Column column = columns.get(i);
+            String field = i < fields.size() ? fields.get(i) : null;
+            try {
+                row.put(column.name, Literals.coerce(column, field));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid value '" + field + "' for column " + column.name
+                        + " at line " + lineNumber);
+            }
+        }
+        loader.add(row);
+    }
+
+    @Override
+    public void close() {
+        loader.close();
+    }
+}
@@ -1,5 +1,9 @@
 package cc.fastsoft.jdbc;
 
+import cc.fastsoft.config.ServerConfig;
+import cc.fastsoft.db.DatabaseEngine;
+import cc.fastsoft.jdbc.executor.CommandQueue;
+import cc.fastsoft.jdbc.executor.StatementExecutor;
 import cc.fastsoft.jdbc.hander.CommandHandler;
 import cc.fastsoft.jdbc.protocol.packet.AuthPacket;
 import cc.fastsoft.jdbc.protocol.packet.HandshakePacket;
@@ -7,6 +11,8 @@ import cc.fastsoft.jdbc.protocol.MysqlPassword;
 import cc.fastsoft.jdbc.protocol.packet.Packet;
 import cc.fastsoft.jdbc.protocol.PacketFactory;
 import cc.fastsoft.jdbc.protocol.PacketHelper;
+import cc.fastsoft.sql.StatementCache;
+import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.SimpleChannelInboundHandler;
 import org.slf4j.Logger;
@@ -24,18 +30,24 @@ public class ServerHandler extends SimpleChannelInboundHandler<Packet> {
     private final byte[] authPluginData;
     private final CommandHandler commandHandler;
     private final ConnectContext connectContext;
+    private final StatementExecutor statementExecutor;
+    private CommandQueue commandQueue;
 
-    public ServerHandler() {
+    public ServerHandler(StatementExecutor statementExecutor, DatabaseEngine databaseEngine,
+                         StatementCache statementCache) {
+        this.statementExecutor = statementExecutor;
         this.connectContext = new ConnectContext();
         this.authPluginData = MysqlPassword.createRandomString(SCRAMBLE_LENGTH);
         int currentConnections = activeConnections.get() + 1;
         logger.info("Creating new connection handler. Active connections: {}", currentConnections);
         this.connectContext.setConnectionId(currentConnections);
-        this.commandHandler = new CommandHandler();
+        this.commandHandler = new CommandHandler(databaseEngine, statementCache);
     }
 
     @Override
     public void channelActive(ChannelHandlerContext ctx) {
+        this.commandQueue = new CommandQueue(statementExecutor, ctx.channel(),
+                ServerConfig.getConnectionPendingLimit());
         int connectId = activeConnections.incrementAndGet();
         logger.info("Client connected: {}. Total active connections: {}",
                 ctx.channel().remoteAddress(), connectId);
@@ -61,11 +73,16 @@ public class ServerHandler extends SimpleChannelInboundHandler<Packet> {
         byte sequenceId = (byte) (packet.getSequenceId() + 1); // Response seq = request seq + 1
 
         if (this.connectContext.isAuthenticated()) {
-            commandHandler.handleCommand(ctx,
-                    packet.getPayload(),
-                    sequenceId,
-                    this.connectContext.getClientCapabilities()
-            );
+            // Statement work blocks on RocksDB, so it runs on the statement executor;
+            // the queue keeps this connection's commands in order
+            ByteBuf payload = packet.getPayload();
+            commandQueue.submit(() -> {
+                try {
+                    commandHandler.handleCommand(ctx, payload, sequenceId, connectContext);
+                } finally {
+                    payload.release();
+                }
+            });
         } else {
             try {
                 AuthPacket authPacket = PacketFactory.createAuthPacketFromBuf(packet.getPayload());
@@ -74,11 +91,17 @@ public class ServerHandler extends SimpleChannelInboundHandler<Packet> {
                 // verify username and password
                 if (MysqlPassword.verifyPassword(DEFAULT_PASSWORD, authPluginData, authPacket.getAuthResponse(), authPacket.getAuthPluginName())) {
                     this.connectContext.setUserName(authPacket.getUsername());
-                    this.connectContext.setDatabase(authPacket.getDatabase());
                     this.connectContext.setClientCapabilities(authPacket.getCapabilityFlags());
                     logger.info("User '{}' authenticated successfully from {}",
                             authPacket.getUsername(), ctx.channel().remoteAddress());
-                    PacketHelper.sendOkPacket(ctx, "Authentication successful", sequenceId);
+                    String database = authPacket.getDatabase();
+                    if (database == null || database.isEmpty()) {
+                        PacketHelper.sendOkPacket(ctx, "Authentication successful",
+                                PacketHelper.statusFlags(connectContext.getSession()), sequenceId);
+                    } else {
+                        // Database given in the handshake; switching touches storage
+                        commandQueue.submit(() -> commandHandler.handleInitDb(ctx, connectContext, database, sequenceId));
+                    }
                 } else {
                     logger.error("Authentication failed for user '{}' from {}",
                             authPacket.getUsername(), ctx.channel().remoteAddress());
@@ -88,6 +111,8 @@ public class ServerHandler extends SimpleChannelInboundHandler<Packet> {
                 logger.error("Failed to verify user name from {}: {}",
                         ctx.channel().remoteAddress(), e.getMessage());
                 PacketHelper.sendErrPacket(ctx, e.getMessage(), sequenceId);
+            } finally {
+                packet.getPayload().release();
             }
         }
     }
@@ -98,6 +123,8 @@ public class ServerHandler extends SimpleChannelInboundHandler<Packet> {
         int count = activeConnections.decrementAndGet();
         logger.info("Client disconnected: {}. Remaining active connections: {}",
                 ctx.channel().remoteAddress(), count);
+        // Runs after the commands still queued, e.g. an interrupted LOAD DATA transfer
+        commandQueue.submit(() -> commandHandler.handleDisconnect(connectContext));
     }
 
     @Override
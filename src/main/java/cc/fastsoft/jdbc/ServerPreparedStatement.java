@@ -0,0 +1,64 @@
+package cc.fastsoft.jdbc;
+
+import cc.fastsoft.sql.PreparedSql;
+
+import java.io.ByteArrayOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Server Prepared Statement - A statement registered by COM_STMT_PREPARE on one connection
+ *
+ * Besides the prepared SQL it remembers the parameter types last sent by the
+ * client, because COM_STMT_EXECUTE only repeats them when they change, and the
+ * parameter values sent in pieces by COM_STMT_SEND_LONG_DATA until the next
+ * execution or reset.
+ */
+public class ServerPreparedStatement {
+    private final int statementId;
+    private final PreparedSql preparedSql;
+    private int[] parameterTypes;
+    private final Map<Integer, ByteArrayOutputStream> longData = new HashMap<>();
+
+    public ServerPreparedStatement(int statementId, PreparedSql preparedSql) {
+        this.statementId = statementId;
+        this.preparedSql = preparedSql;
+    }
+
+    public int getStatementId() {
+        return statementId;
+    }
+
+    public PreparedSql getPreparedSql() {
+        return preparedSql;
+    }
+
+    /**
+     * Parameter types (low byte type, high byte flags) bound by the client, or null before the first bind
+     */
+    public int[] getParameterTypes() {
+        return parameterTypes;
+    }
+
+    public void setParameterTypes(int[] parameterTypes) {
+        this.parameterTypes = parameterTypes;
+    }
+
+    /**
+     * Append a piece of a parameter's value
+     */
+    public void appendLongData(int parameter, byte[] data) {
+        longData.computeIfAbsent(parameter, p -> new ByteArrayOutputStream()).writeBytes(data);
+    }
+
+    /**
+     * Parameters whose value was sent as long data
+     */
+    public Map<Integer, ByteArrayOutputStream> getLongData() {
+        return longData;
+    }
+
+    public void clearLongData() {
+        longData.clear();
+    }
+}
@@ -0,0 +1,110 @@
+package cc.fastsoft.jdbc;
+
+import cc.fastsoft.config.ServerConfig;
+import io.netty.channel.IoHandlerFactory;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollIoHandler;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.nio.NioIoHandler;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.uring.IoUring;
+import io.netty.channel.uring.IoUringIoHandler;
+import io.netty.channel.uring.IoUringServerSocketChannel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Server Transport - The Netty I/O implementation used for sockets
+ *
+ * The native transports load a JNI library and only work on Linux; when the requested
+ * one is not available the server falls back to NIO. Netty's epoll transport is always
+ * edge-triggered. Only the native transports support SO_REUSEPORT, which lets several
+ * acceptor threads listen on the same port.
+ */
+public enum ServerTransport {
+    NIO {
+        @Override
+        public boolean isAvailable() {
+            return true;
+        }
+
+        @Override
+        public IoHandlerFactory ioHandlerFactory() {
+            return NioIoHandler.newFactory();
+        }
+
+        @Override
+        public Class<? extends ServerChannel> serverChannelClass() {
+            return NioServerSocketChannel.class;
+        }
+    },
+    EPOLL {
+        @Override
+        public boolean isAvailable() {
+            return Epoll.isAvailable();
+        }
+
+        @Override
+        public IoHandlerFactory ioHandlerFactory() {
+            return EpollIoHandler.newFactory();
+        }
+
+        @Override
+        public Class<? extends ServerChannel> serverChannelClass() {
+            return EpollServerSocketChannel.class;
+        }
+    },
+    IO_URING {
+        @Override
+        public boolean isAvailable() {
+            return IoUring.isAvailable();
+        }
+
+        @Override
+        public IoHandlerFactory ioHandlerFactory() {
+            return IoUringIoHandler.newFactory();
+        }
+
+        @Override
+        public Class<? extends ServerChannel> serverChannelClass() {
+            return IoUringServerSocketChannel.class;
+        }
+    };
+
+    private static final Logger logger = LoggerFactory.getLogger(ServerTransport.class);
+
+    public abstract boolean isAvailable();
+
+    public abstract IoHandlerFactory ioHandlerFactory();
+
+    public abstract Class<? extends ServerChannel> serverChannelClass();
+
+    public boolean supportsReusePort() {
+        return this != NIO;
+    }
+
+    /**
+     * Transport for the configured type, falling back to NIO when it is not available
+     */
+    public static ServerTransport select(ServerConfig.TransportType type) {
+        switch (type) {
+            case NIO:
+                return NIO;
+            case EPOLL:
+                return availableOrNio(EPOLL);
+            case IO_URING:
+                return availableOrNio(IO_URING);
+            default:
+                return EPOLL.isAvailable() ? EPOLL : NIO;
+        }
+    }
+
+    private static ServerTransport availableOrNio(ServerTransport transport) {
+        if (transport.isAvailable()) {
+            return transport;
+        }
+        logger.warn("{} transport is not available on this platform, falling back to NIO", transport);
+        return NIO;
+    }
+}
@@ -0,0 +1,91 @@
+package cc.fastsoft.jdbc.executor;
+
+import io.netty.channel.Channel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Command Queue - Serializes the commands of one connection onto the statement executor
+ *
+ * At most one command of a connection runs at a time and commands run in arrival
+ * order, so responses are written back in the order the client sent its requests.
+ * Each command is a separate executor task, which keeps a client that pipelines
+ * many commands from monopolizing a worker.
+ *
+ * Backpressure: the channel stops being read while too many commands are queued
+ * for it, or while the executor is saturated; dispatch is then retried on the
+ * channel's event loop.
+ */
+public class CommandQueue {
+    private static final Logger logger = LoggerFactory.getLogger(CommandQueue.class);
+
+    private static final long RETRY_DELAY_MILLIS = 1;
+
+    private final StatementExecutor executor;
+    private final Channel channel;
+    private final int pendingLimit;
+
+    // Guarded by this
+    private final Deque<Runnable> pending = new ArrayDeque<>();
+    private boolean scheduled;
+
+    public CommandQueue(StatementExecutor executor, Channel channel, int pendingLimit) {
+        this.executor = executor;
+        this.channel = channel;
+        this.pendingLimit = pendingLimit;
+    }
+
+    /**
+     * Queue a command behind the commands already submitted for this connection
+     */
+    public void submit(Runnable command) {
+        boolean dispatch;
+        synchronized (this) {
+            pending.add(command);
+            if (pending.size() >= pendingLimit) {
+                channel.config().setAutoRead(false);
+            }
+            dispatch = !scheduled;
+            scheduled = true;
+        }
+        if (dispatch) {
+            dispatch();
+        }
+    }
+
+    private void dispatch() {
+        if (!executor.tryExecute(this::runNext)) {
+            // Executor saturated: stop reading this connection until a worker accepts it
+            channel.config().setAutoRead(false);
+            channel.eventLoop().schedule(this::dispatch, RETRY_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void runNext() {
+        Runnable command;
+        synchronized (this) {
+            command = pending.poll();
+        }
+        try {
+            command.run();
+        } catch (Throwable t) {
+            logger.error("Unhandled error executing command for {}", channel.remoteAddress(), t);
+        }
+
+        boolean more;
+        synchronized (this) {
+            more = !pending.isEmpty();
+            scheduled = more;
+            if (pending.size() < pendingLimit && !channel.config().isAutoRead()) {
+                channel.config().setAutoRead(true);
+            }
+        }
+        if (more) {
+            dispatch();
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package cc.fastsoft.jdbc.executor;
+
+import cc.fastsoft.config.ServerConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Statement Executor - Runs statement work (parsing, RocksDB access, row encoding)
+ * off the Netty event loops
+ *
+ * The number of accepted tasks (running plus queued) is bounded; {@link #tryExecute}
+ * returns false instead of blocking when the bound is reached so that the caller,
+ * which runs on an event loop, can apply backpressure to its connection.
+ */
+public class StatementExecutor implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(StatementExecutor.class);
+
+    private final ExecutorService executor;
+    private final Semaphore permits;
+
+    public StatementExecutor(ServerConfig.ExecutorType type, int threads, int queueSize) {
+        this.permits = new Semaphore(threads + queueSize);
+        if (type == ServerConfig.ExecutorType.VIRTUAL) {
+            ExecutorService virtual = newVirtualThreadExecutor();
+            if (virtual != null) {
+                this.executor = virtual;
+                logger.info("Statement executor: virtual threads, max {} pending statements", threads + queueSize);
+                return;
+            }
+            logger.warn("Virtual threads are not available on Java {}, using a thread pool",
+                    Runtime.version().feature());
+        }
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), new WorkerThreadFactory());
+        logger.info("Statement executor: {} threads, queue size {}", threads, queueSize);
+    }
+
+    /**
+     * Create the executor configured by {@link ServerConfig}
+     */
+    public static StatementExecutor fromConfig() {
+        return new StatementExecutor(ServerConfig.getExecutorType(),
+                ServerConfig.getExecutorThreads(),
+                ServerConfig.getExecutorQueueSize());
+    }
+
+    /**
+     * Submit a task, returning false without queuing it when the executor is saturated
+     */
+    public boolean tryExecute(Runnable task) {
+        if (!permits.tryAcquire()) {
+            return false;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    task.run();
+                } finally {
+                    permits.release();
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            permits.release();
+            return false;
+        }
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Executors.newVirtualThreadPerTaskExecutor() looked up reflectively so the
+     * server still builds and runs on Java 17
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            return null;
+        }
+    }
+
+    private static class WorkerThreadFactory implements ThreadFactory {
+        private final AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "statement-worker-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
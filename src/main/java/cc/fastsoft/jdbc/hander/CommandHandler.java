@@ -1,8 +1,14 @@
 package cc.fastsoft.jdbc.hander;
 
+import cc.fastsoft.db.DatabaseEngine;
+import cc.fastsoft.jdbc.ConnectContext;
 import cc.fastsoft.jdbc.protocol.PacketHelper;
+import cc.fastsoft.sql.LexedSql;
+import cc.fastsoft.sql.SqlLexer;
+import cc.fastsoft.sql.StatementCache;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
+import org.rocksdb.RocksDBException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -13,15 +19,24 @@ public class CommandHandler {
     private static final Logger logger = LoggerFactory.getLogger(CommandHandler.class);
 
     private final QueryHandler queryHandler;
+    private final PreparedStatementHandler preparedStatementHandler;
+    private final LoadDataHandler loadDataHandler;
 
-    public CommandHandler() {
-        this.queryHandler = new QueryHandler();
+    public CommandHandler(DatabaseEngine databaseEngine, StatementCache statementCache) {
+        this.queryHandler = new QueryHandler(databaseEngine, statementCache);
+        this.preparedStatementHandler = new PreparedStatementHandler(queryHandler);
+        this.loadDataHandler = new LoadDataHandler(queryHandler);
     }
 
     /**
      * Handle MySQL command packet
      */
-    public void handleCommand(ChannelHandlerContext ctx, ByteBuf payload, byte sequenceId, int clientCapabilities) {
+    public void handleCommand(ChannelHandlerContext ctx, ByteBuf payload, byte sequenceId, ConnectContext connectContext) {
+        if (connectContext.getLocalInfileTransfer() != null) {
+            // While a LOAD DATA LOCAL INFILE runs, packets carry the file instead of commands
+            loadDataHandler.handleData(ctx, payload, sequenceId, connectContext);
+            return;
+        }
         byte command = payload.readByte();
 
         switch (command) {
@@ -32,20 +47,46 @@ public class CommandHandler {
             case 0x02: // COM_INIT_DB (USE database)
                 String dbName = PacketHelper.readString(payload);
                 logger.info("Switching to database '{}' from {}", dbName, ctx.channel().remoteAddress());
-                queryHandler.handleInitDb(ctx, dbName, sequenceId);
+                queryHandler.handleInitDb(ctx, connectContext.getSession(), dbName, sequenceId);
                 break;
 
             case 0x03: // COM_QUERY
-                String sql = PacketHelper.readString(payload);
-                // Clean SQL: remove comments, extract real SQL
-                sql = cleanSql(sql);
-                logger.info("Executing SQL from {}: {}", ctx.channel().remoteAddress(), sql);
-                queryHandler.handleQuery(ctx, sql, sequenceId, clientCapabilities);
+                // Strip comments and classify the statement in one pass
+                LexedSql lexedSql = SqlLexer.lex(PacketHelper.readString(payload));
+                logger.info("Executing SQL from {}: {}", ctx.channel().remoteAddress(), lexedSql);
+                if (lexedSql.isWord(0, "LOAD")) {
+                    loadDataHandler.handleLoadData(ctx, lexedSql, sequenceId, connectContext);
+                } else {
+                    queryHandler.handleQuery(ctx, lexedSql, sequenceId, connectContext);
+                }
                 break;
 
             case 0x0E: // COM_PING
                 logger.debug("Received COM_PING from {}", ctx.channel().remoteAddress());
-                PacketHelper.sendOkPacket(ctx, "PONG", sequenceId);
+                PacketHelper.sendOkPacket(ctx, "PONG", PacketHelper.statusFlags(connectContext.getSession()),
+                        sequenceId);
+                break;
+
+            case 0x16: // COM_STMT_PREPARE
+                String prepareSql = PacketHelper.readString(payload);
+                logger.info("Preparing SQL from {}: {}", ctx.channel().remoteAddress(), prepareSql);
+                preparedStatementHandler.handlePrepare(ctx, prepareSql, sequenceId, connectContext);
+                break;
+
+            case 0x17: // COM_STMT_EXECUTE
+                preparedStatementHandler.handleExecute(ctx, payload, sequenceId, connectContext);
+                break;
+
+            case 0x18: // COM_STMT_SEND_LONG_DATA (no response)
+                preparedStatementHandler.handleSendLongData(payload, connectContext);
+                break;
+
+            case 0x19: // COM_STMT_CLOSE (no response)
+                preparedStatementHandler.handleClose(payload, connectContext);
+                break;
+
+            case 0x1A: // COM_STMT_RESET
+                preparedStatementHandler.handleReset(ctx, payload, sequenceId, connectContext);
                 break;
 
             default:
@@ -55,26 +96,22 @@ public class CommandHandler {
     }
 
     /**
-     * Clean SQL by removing comments
+     * Release what the connection still holds after it was closed
      */
-    private String cleanSql(String sql) {
-        if (sql == null || sql.isEmpty()) {
-            return sql;
+    public void handleDisconnect(ConnectContext connectContext) {
+        loadDataHandler.abort(connectContext);
+        // A transaction left open by the client is rolled back
+        try {
+            queryHandler.getDatabaseEngine().rollback(connectContext.getSession());
+        } catch (RocksDBException e) {
+            logger.warn("Failed to roll back the transaction of a closed connection", e);
         }
+    }
 
-        // Remove /* ... */ comments
-        sql = sql.replaceAll("/\\*.*?\\*/", " ");
-
-        // Remove -- single line comments
-        sql = sql.replaceAll("--[^\n]*", " ");
-
-        // Remove # single line comments
-        sql = sql.replaceAll("#[^\n]*", " ");
-
-        // Remove extra whitespace
-        sql = sql.trim().replaceAll("\\s+", " ");
-
-        return sql;
+    /**
+     * Switch the database, as requested by COM_INIT_DB or the handshake response
+     */
+    public void handleInitDb(ChannelHandlerContext ctx, ConnectContext connectContext, String dbName, byte sequenceId) {
+        queryHandler.handleInitDb(ctx, connectContext.getSession(), dbName, sequenceId);
     }
 }
-
@@ -0,0 +1,113 @@
+package cc.fastsoft.jdbc.hander;
+
+import cc.fastsoft.db.DatabaseEngine;
+import cc.fastsoft.db.Session;
+import cc.fastsoft.db.core.BulkLoader;
+import cc.fastsoft.db.schema.TableSchema;
+import cc.fastsoft.jdbc.ConnectContext;
+import cc.fastsoft.jdbc.LocalInfileTransfer;
+import cc.fastsoft.jdbc.protocol.Constants;
+import cc.fastsoft.jdbc.protocol.PacketHelper;
+import cc.fastsoft.sql.LexedSql;
+import cc.fastsoft.sql.LoadDataSql;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Handles LOAD DATA LOCAL INFILE
+ *
+ * Protocol exchange: the server answers the COM_QUERY with a LOCAL INFILE request
+ * (0xFB followed by the file name), the client sends the file as a series of raw
+ * packets and ends it with an empty packet, and the server replies with OK or ERR.
+ * Rows are loaded through {@link BulkLoader}, i.e. written to SST files and ingested.
+ */
+public class LoadDataHandler {
+    private static final Logger logger = LoggerFactory.getLogger(LoadDataHandler.class);
+
+    private static final int LOCAL_INFILE_REQUEST = 0xFB;
+
+    private final QueryHandler queryHandler;
+
+    public LoadDataHandler(QueryHandler queryHandler) {
+        this.queryHandler = queryHandler;
+    }
+
+    /**
+     * Start a LOAD DATA LOCAL INFILE: prepare the bulk load and ask the client for the file
+     */
+    public void handleLoadData(ChannelHandlerContext ctx, LexedSql lexedSql, byte sequenceId,
+                               ConnectContext connectContext) {
+        LocalInfileTransfer transfer;
+        try {
+            LoadDataSql loadData = LoadDataSql.parse(lexedSql.getSql());
+            if (!loadData.isLocal()) {
+                throw new IllegalArgumentException("Only LOAD DATA LOCAL INFILE is supported");
+            }
+            if ((connectContext.getClientCapabilities() & Constants.CLIENT_LOCAL_FILES) == 0) {
+                throw new IllegalStateException(
+                        "Loading local data is disabled; this must be enabled on both the client and server sides");
+            }
+            DatabaseEngine databaseEngine = queryHandler.getDatabaseEngine();
+            Session session = connectContext.getSession();
+            TableSchema schema = databaseEngine.getTableSchema(session, loadData.getTableName());
+            BulkLoader loader = databaseEngine.newBulkLoader(session, loadData.getTableName(), loadData.isReplace());
+            try {
+                transfer = new LocalInfileTransfer(loadData, schema, loader);
+            } catch (RuntimeException e) {
+                loader.close();
+                throw e;
+            }
+        } catch (Exception e) {
+            logger.warn("Cannot start LOAD DATA: {}", lexedSql, e);
+            PacketHelper.sendErrPacket(ctx, "Error: " + e.getMessage(), sequenceId);
+            return;
+        }
+
+        logger.info("Requesting local file '{}' from {}", transfer.getLoadData().getFileName(),
+                ctx.channel().remoteAddress());
+        connectContext.setLocalInfileTransfer(transfer);
+        ByteBuf request = ctx.alloc().buffer();
+        request.writeByte(LOCAL_INFILE_REQUEST);
+        request.writeBytes(transfer.getLoadData().getFileName().getBytes(StandardCharsets.UTF_8));
+        PacketHelper.sendPacket(ctx, request, sequenceId);
+    }
+
+    /**
+     * A packet of the file being transferred; the empty packet ends the file
+     */
+    public void handleData(ChannelHandlerContext ctx, ByteBuf payload, byte sequenceId,
+                           ConnectContext connectContext) {
+        LocalInfileTransfer transfer = connectContext.getLocalInfileTransfer();
+        if (payload.isReadable()) {
+            transfer.feed(payload.nioBuffer());
+            return;
+        }
+
+        connectContext.setLocalInfileTransfer(null);
+        try (transfer) {
+            long loaded = transfer.finish();
+            logger.info("LOAD DATA into {} loaded {} rows, {} skipped",
+                    transfer.getLoadData().getTableName(), loaded, transfer.getSkippedRows());
+            PacketHelper.sendOkPacket(ctx, loaded, 0, PacketHelper.statusFlags(connectContext.getSession()),
+                    sequenceId);
+        } catch (Exception e) {
+            logger.warn("LOAD DATA into {} failed", transfer.getLoadData().getTableName(), e);
+            PacketHelper.sendErrPacket(ctx, "Error: " + e.getMessage(), sequenceId);
+        }
+    }
+
+    /**
+     * Drop the transfer of a connection that closed while sending its file
+     */
+    public void abort(ConnectContext connectContext) {
+        LocalInfileTransfer transfer = connectContext.getLocalInfileTransfer();
+        if (transfer != null) {
+            connectContext.setLocalInfileTransfer(null);
+            transfer.close();
+        }
+    }
+}
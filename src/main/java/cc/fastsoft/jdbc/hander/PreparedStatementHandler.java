@@ -0,0 +1,202 @@
+package cc.fastsoft.jdbc.hander;
+
+import cc.fastsoft.jdbc.ConnectContext;
+import cc.fastsoft.jdbc.ServerPreparedStatement;
+import cc.fastsoft.jdbc.protocol.BinaryProtocol;
+import cc.fastsoft.jdbc.protocol.Constants;
+import cc.fastsoft.jdbc.protocol.PacketHelper;
+import cc.fastsoft.jdbc.protocol.PacketWriter;
+import cc.fastsoft.sql.PreparedSql;
+import cc.fastsoft.sql.SqlData;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Handles server-side prepared statements (COM_STMT_PREPARE / SEND_LONG_DATA / EXECUTE / RESET / CLOSE)
+ *
+ * A statement is parsed once at prepare time and kept in the connection's registry;
+ * executions only decode the binary parameters and run the parsed statement.
+ */
+public class PreparedStatementHandler {
+    private static final Logger logger = LoggerFactory.getLogger(PreparedStatementHandler.class);
+
+    private final QueryHandler queryHandler;
+
+    public PreparedStatementHandler(QueryHandler queryHandler) {
+        this.queryHandler = queryHandler;
+    }
+
+    /**
+     * COM_STMT_PREPARE: parse the statement and describe its parameters and result columns
+     */
+    public void handlePrepare(ChannelHandlerContext ctx, String sql, byte sequenceId, ConnectContext connectContext) {
+        PreparedSql preparedSql;
+        try {
+            preparedSql = PreparedSql.prepare(sql, queryHandler.getDatabaseEngine(), connectContext.getSession());
+        } catch (Exception e) {
+            logger.warn("Failed to prepare statement: {}", sql, e);
+            PacketHelper.sendErrPacket(ctx, "Error: " + e.getMessage(), sequenceId);
+            return;
+        }
+        ServerPreparedStatement statement = connectContext.registerStatement(preparedSql);
+        logger.debug("Prepared statement {}: {}", statement.getStatementId(), sql);
+
+        int paramCount = preparedSql.getParameterCount();
+        String[] columns = preparedSql.getColumns() == null
+                ? new String[0] : preparedSql.getColumns().toArray(new String[0]);
+
+        PacketWriter writer = new PacketWriter(ctx);
+        ByteBuf ok = writer.begin(sequenceId++);
+        ok.writeByte(0x00); // status
+        ok.writeIntLE(statement.getStatementId()); // statement_id
+        ok.writeShortLE(columns.length); // num_columns
+        ok.writeShortLE(paramCount); // num_params
+        ok.writeByte(0x00); // reserved
+        ok.writeShortLE(0); // warning_count
+        writer.end();
+
+        boolean deprecateEof = (connectContext.getClientCapabilities() & Constants.CLIENT_DEPRECATE_EOF) != 0;
+        int statusFlags = PacketHelper.statusFlags(connectContext.getSession());
+        if (paramCount > 0) {
+            String[] paramNames = new String[paramCount];
+            Arrays.fill(paramNames, "?");
+            sequenceId = ResultSetWriter.writeColumnDefinitions(writer, paramNames,
+                    ResultSetWriter.columnTypes(paramCount, null), sequenceId);
+            if (!deprecateEof) {
+                ResultSetWriter.writeEof(writer, sequenceId++, statusFlags);
+            }
+        }
+        if (columns.length > 0) {
+            sequenceId = ResultSetWriter.writeColumnDefinitions(writer, columns,
+                    ResultSetWriter.columnTypes(columns.length, preparedSql.getColumnTypes()), sequenceId);
+            if (!deprecateEof) {
+                ResultSetWriter.writeEof(writer, sequenceId, statusFlags);
+            }
+        }
+        writer.flush();
+    }
+
+    /**
+     * COM_STMT_EXECUTE: decode the binary parameters and run the prepared statement
+     */
+    public void handleExecute(ChannelHandlerContext ctx, ByteBuf payload, byte sequenceId, ConnectContext connectContext) {
+        int statementId = payload.readIntLE();
+        ServerPreparedStatement statement = connectContext.getStatement(statementId);
+        if (statement == null) {
+            PacketHelper.sendErrPacket(ctx, "Unknown prepared statement handler (" + statementId + ")", sequenceId);
+            return;
+        }
+        try {
+            payload.readByte(); // flags (cursor type); results are always sent in full
+            payload.readIntLE(); // iteration_count, always 1
+            List<Object> params = readParameters(payload, statement);
+
+            SqlData sqlData = statement.getPreparedSql().execute(queryHandler.getDatabaseEngine(),
+                    connectContext.getSession(), params);
+            queryHandler.sendSqlData(ctx, sqlData, connectContext.getSession(), sequenceId,
+                    connectContext.getClientCapabilities(), true);
+        } catch (Exception e) {
+            logger.error("Error executing prepared statement: {}", statement.getPreparedSql().getSql(), e);
+            PacketHelper.sendErrPacket(ctx, "Error: " + e.getMessage(), sequenceId);
+        } finally {
+            // Long data is used by one execution
+            statement.clearLongData();
+        }
+    }
+
+    /**
+     * COM_STMT_SEND_LONG_DATA: append a piece of a parameter's value, used by the
+     * next execution; the protocol sends no response
+     */
+    public void handleSendLongData(ByteBuf payload, ConnectContext connectContext) {
+        int statementId = payload.readIntLE();
+        int parameter = payload.readUnsignedShortLE();
+        ServerPreparedStatement statement = connectContext.getStatement(statementId);
+        if (statement == null) {
+            // Nothing to report it with; the execution will fail on the unknown statement
+            logger.debug("Long data for unknown statement {}", statementId);
+            return;
+        }
+        byte[] data = new byte[payload.readableBytes()];
+        payload.readBytes(data);
+        statement.appendLongData(parameter, data);
+    }
+
+    /**
+     * COM_STMT_RESET: drop the long data sent since the last execution
+     */
+    public void handleReset(ChannelHandlerContext ctx, ByteBuf payload, byte sequenceId, ConnectContext connectContext) {
+        int statementId = payload.readIntLE();
+        ServerPreparedStatement statement = connectContext.getStatement(statementId);
+        if (statement == null) {
+            PacketHelper.sendErrPacket(ctx, "Unknown prepared statement handler (" + statementId + ")", sequenceId);
+            return;
+        }
+        statement.clearLongData();
+        PacketHelper.sendOkPacket(ctx, 0, 0, PacketHelper.statusFlags(connectContext.getSession()), sequenceId);
+    }
+
+    /**
+     * COM_STMT_CLOSE: drop the statement; the protocol sends no response
+     */
+    public void handleClose(ByteBuf payload, ConnectContext connectContext) {
+        int statementId = payload.readIntLE();
+        connectContext.closeStatement(statementId);
+        logger.debug("Closed statement {}", statementId);
+    }
+
+    /**
+     * Read the NULL bitmap, the parameter types (when re-bound) and the parameter
+     * values. A parameter sent as long data has no value in the packet.
+     */
+    private List<Object> readParameters(ByteBuf payload, ServerPreparedStatement statement) {
+        int paramCount = statement.getPreparedSql().getParameterCount();
+        Map<Integer, ByteArrayOutputStream> longData = statement.getLongData();
+        for (int parameter : longData.keySet()) {
+            if (parameter >= paramCount) {
+                throw new IllegalArgumentException("Long data sent for parameter " + parameter
+                        + " of a statement with " + paramCount);
+            }
+        }
+        List<Object> params = new ArrayList<>(paramCount);
+        if (paramCount == 0) {
+            return params;
+        }
+
+        byte[] nullBitmap = new byte[(paramCount + 7) / 8];
+        payload.readBytes(nullBitmap);
+        boolean newParamsBound = payload.readByte() == 1;
+        if (newParamsBound) {
+            int[] types = new int[paramCount];
+            for (int i = 0; i < paramCount; i++) {
+                types[i] = payload.readUnsignedShortLE();
+            }
+            statement.setParameterTypes(types);
+        }
+        int[] types = statement.getParameterTypes();
+        if (types == null) {
+            throw new IllegalStateException("Parameter types were never bound");
+        }
+
+        for (int i = 0; i < paramCount; i++) {
+            ByteArrayOutputStream data = longData.get(i);
+            if (data != null) {
+                params.add(data.toString(StandardCharsets.UTF_8));
+            } else if ((nullBitmap[i / 8] & (1 << (i % 8))) != 0) {
+                params.add(null);
+            } else {
+                params.add(BinaryProtocol.readParameter(payload, types[i]));
+            }
+        }
+        return params;
+    }
+}
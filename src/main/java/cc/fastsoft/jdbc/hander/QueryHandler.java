@@ -1,17 +1,23 @@
 package cc.fastsoft.jdbc.hander;
 
 import cc.fastsoft.db.DatabaseEngine;
+import cc.fastsoft.db.Session;
 import cc.fastsoft.db.schema.TableSchema;
+import cc.fastsoft.jdbc.ConnectContext;
+import cc.fastsoft.jdbc.protocol.Constants;
 import cc.fastsoft.jdbc.protocol.PacketHelper;
+import cc.fastsoft.jdbc.protocol.PacketWriter;
+import cc.fastsoft.sql.LexedSql;
 import cc.fastsoft.sql.SqlData;
 import cc.fastsoft.sql.SqlParse;
-import io.netty.buffer.ByteBuf;
-import io.netty.buffer.Unpooled;
+import cc.fastsoft.sql.StatementCache;
+import cc.fastsoft.sql.exec.Operator;
 import io.netty.channel.ChannelHandlerContext;
 import org.rocksdb.RocksDBException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
@@ -20,43 +26,69 @@ import java.util.Map;
  */
 public class QueryHandler {
     private static final Logger logger = LoggerFactory.getLogger(QueryHandler.class);
-    private static final DatabaseEngine databaseEngine = new DatabaseEngine();
+    private static final String MOCK_DB_QUERY = "SELECT * FROM USERS - MOCK_DB";
+    // Transaction characteristics drivers query before running statements
+    private static final Map<String, String> TRANSACTION_VARIABLES = Map.of(
+            "transaction_read_only", "0",
+            "tx_read_only", "0",
+            "transaction_isolation", "REPEATABLE-READ",
+            "tx_isolation", "REPEATABLE-READ");
+    private final DatabaseEngine databaseEngine;
+    private final StatementCache statementCache;
+
+    public QueryHandler(DatabaseEngine databaseEngine, StatementCache statementCache) {
+        this.databaseEngine = databaseEngine;
+        this.statementCache = statementCache;
+    }
+
+    DatabaseEngine getDatabaseEngine() {
+        return databaseEngine;
+    }
 
     /**
      * Handle SQL query
      */
-    public void handleQuery(ChannelHandlerContext ctx, String sql, byte sequenceId, int clientCapabilities) {
-        String sqlUpper = sql.trim().toUpperCase();
+    public void handleQuery(ChannelHandlerContext ctx, LexedSql lexedSql, byte sequenceId, ConnectContext connectContext) {
+        String sql = lexedSql.getSql();
+        Session session = connectContext.getSession();
+        int clientCapabilities = connectContext.getClientCapabilities();
 
         try {
-            if (sqlUpper.startsWith("SELECT 1")) {
-                sendResultSet(ctx, new String[]{"value"}, new String[][]{{"1"}}, sequenceId, clientCapabilities);
-            } else if (sqlUpper.equals("SHOW DATABASES") || sqlUpper.equals("SHOW SCHEMAS")) {
-                handleShowDatabases(ctx, sequenceId, clientCapabilities);
-            } else if (sqlUpper.startsWith("SELECT @@") || sqlUpper.startsWith("SELECT DATABASE()")) {
-                handleSystemVariableQuery(ctx, sql, sequenceId, clientCapabilities);
-            } else if (sqlUpper.startsWith("SHOW ENGINES") || sqlUpper.startsWith("SHOW CHARSET") ||
-                    sqlUpper.startsWith("SHOW COLLATION") || sqlUpper.startsWith("SHOW PLUGINS")) {
-                sendEmptyResultSet(ctx, sql, sequenceId, clientCapabilities);
-            } else if (sqlUpper.startsWith("SHOW VARIABLES")) {
-                handleShowVariables(ctx, sql, sequenceId, clientCapabilities);
-            } else if (sqlUpper.startsWith("SET ")) {
-                PacketHelper.sendOkPacket(ctx, "OK", sequenceId);
-            } else if (sqlUpper.startsWith("SELECT * FROM USERS - MOCK_DB")) {
-                handleMockDbQuery(ctx, sequenceId, clientCapabilities, sql);
-            } else {
-                SqlData sqlData = SqlParse.parseSql(sql, databaseEngine);
-                String[] columnNames = sqlData.getColumns().toArray(new String[0]);
-                List<Map<String, Object>> selectedRow = sqlData.getRows();
-                String[][] dataList = new String[selectedRow.size()][columnNames.length];
-                for (int i = 0; i < selectedRow.size(); i++) {
-                    Map<String, Object> row = selectedRow.get(i);
-                    for (int j = 0; j < columnNames.length; j++) {
-                        Object value = row.get(columnNames[j]);
-                        dataList[i][j] = value == null ? "" : value.toString();
+            switch (lexedSql.getType()) {
+                case SELECT:
+                    if (lexedSql.isWord(1, "1")) {
+                        sendResultSet(ctx, session, new String[]{"value"}, new String[][]{{"1"}}, sequenceId, clientCapabilities);
+                    } else if (lexedSql.wordStartsWith(1, "@@") || lexedSql.wordStartsWith(1, "DATABASE()")
+                            || lexedSql.wordStartsWith(1, "LAST_INSERT_ID()")) {
+                        handleSystemVariableQuery(ctx, session, sql, sequenceId, clientCapabilities);
+                    } else if (sql.regionMatches(true, 0, MOCK_DB_QUERY, 0, MOCK_DB_QUERY.length())) {
+                        handleMockDbQuery(ctx, session, sequenceId, clientCapabilities, sql);
+                    } else {
+                        executeStatement(ctx, sql, session, sequenceId, clientCapabilities);
                     }
-                }
-                sendResultSet(ctx, columnNames, dataList, sequenceId, clientCapabilities);
+                    break;
+                case SHOW:
+                    handleShow(ctx, lexedSql, session, sequenceId, clientCapabilities);
+                    break;
+                case SET:
+                    handleSet(session, lexedSql.textAfterWords(1));
+                    PacketHelper.sendOkPacket(ctx, "OK", PacketHelper.statusFlags(session), sequenceId);
+                    break;
+                case TRANSACTION:
+                    handleTransaction(lexedSql, session);
+                    PacketHelper.sendOkPacket(ctx, "OK", PacketHelper.statusFlags(session), sequenceId);
+                    break;
+                case USE:
+                    handleInitDb(ctx, session, unquoteIdentifier(lexedSql.textAfterWords(1)), sequenceId);
+                    break;
+                case DDL:
+                    // Schema changes run once; caching their plans would only evict useful ones
+                    sendSqlData(ctx, SqlParse.parseSql(sql, databaseEngine, session), session, sequenceId,
+                            clientCapabilities, false);
+                    break;
+                default:
+                    executeStatement(ctx, sql, session, sequenceId, clientCapabilities);
+                    break;
             }
         } catch (Exception e) {
             logger.error("Error handling query: {}", sql, e);
@@ -64,36 +96,77 @@ public class QueryHandler {
         }
     }
 
+    /**
+     * Run a statement through the parser and storage engine
+     */
+    private void executeStatement(ChannelHandlerContext ctx, String sql, Session session, byte sequenceId,
+                                  int clientCapabilities) throws Exception {
+        SqlData sqlData = statementCache.execute(sql, session);
+        sendSqlData(ctx, sqlData, session, sequenceId, clientCapabilities, false);
+    }
+
+    /**
+     * Handle SHOW commands
+     */
+    private void handleShow(ChannelHandlerContext ctx, LexedSql lexedSql, Session session, byte sequenceId,
+                            int clientCapabilities) throws Exception {
+        String sql = lexedSql.getSql();
+        // SHOW [SESSION | GLOBAL] VARIABLES / STATUS
+        int what = lexedSql.isWord(1, "SESSION") || lexedSql.isWord(1, "GLOBAL") ? 2 : 1;
+        if (lexedSql.isWord(1, "DATABASES") || lexedSql.isWord(1, "SCHEMAS")) {
+            handleShowDatabases(ctx, session, sequenceId, clientCapabilities);
+        } else if (lexedSql.isWord(what, "VARIABLES")) {
+            handleShowVariables(ctx, session, sql, sequenceId, clientCapabilities);
+        } else if (lexedSql.isWord(what, "STATUS")) {
+            handleShowStatus(ctx, session, sql, sequenceId, clientCapabilities);
+        } else if (lexedSql.isWord(1, "ENGINES") || lexedSql.isWord(1, "CHARSET")
+                || lexedSql.isWord(1, "COLLATION") || lexedSql.isWord(1, "PLUGINS")) {
+            sendEmptyResultSet(ctx, lexedSql, session, sequenceId, clientCapabilities);
+        } else {
+            executeStatement(ctx, sql, session, sequenceId, clientCapabilities);
+        }
+    }
+
     /**
      * Handle SHOW DATABASES command
      */
-    private void handleShowDatabases(ChannelHandlerContext ctx, byte sequenceId, int clientCapabilities) {
+    private void handleShowDatabases(ChannelHandlerContext ctx, Session session, byte sequenceId,
+                                     int clientCapabilities) {
         String[] databases = {"information_schema", "mysql", "performance_schema", "sys", "test_db", "my_database"};
         String[][] rows = new String[databases.length][1];
         for (int i = 0; i < databases.length; i++) {
             rows[i][0] = databases[i];
         }
-        sendResultSet(ctx, new String[]{"Database"}, rows, sequenceId, clientCapabilities);
+        sendResultSet(ctx, session, new String[]{"Database"}, rows, sequenceId, clientCapabilities);
     }
 
     /**
      * Handle system variable queries
      */
-    private void handleSystemVariableQuery(ChannelHandlerContext ctx, String sql, byte sequenceId, int clientCapabilities) {
+    private void handleSystemVariableQuery(ChannelHandlerContext ctx, Session session, String sql, byte sequenceId, int clientCapabilities) {
         String sqlUpper = sql.toUpperCase();
 
         if (sqlUpper.contains("DATABASE()")) {
-            sendResultSet(ctx, new String[]{"DATABASE()"}, new String[][]{{"test_db"}}, sequenceId, clientCapabilities);
+            sendResultSet(ctx, session, new String[]{"DATABASE()"}, new String[][]{{session.getDatabase()}}, sequenceId, clientCapabilities);
+        } else if (sqlUpper.contains("LAST_INSERT_ID()")) {
+            sendResultSet(ctx, session, new String[]{extractColumnNames(sql)[0]},
+                    new String[][]{{String.valueOf(session.getLastInsertId())}}, sequenceId, clientCapabilities);
         } else if (sqlUpper.contains("@@VERSION_COMMENT")) {
-            sendResultSet(ctx, new String[]{"@@version_comment"}, new String[][]{{"MySQL Mock Server"}}, sequenceId, clientCapabilities);
+            sendResultSet(ctx, session, new String[]{"@@version_comment"}, new String[][]{{"MySQL Mock Server"}}, sequenceId, clientCapabilities);
         } else {
             // Return multi-column system variable query result
             String[] columns = extractColumnNames(sql);
             String[][] data = new String[1][columns.length];
             for (int i = 0; i < columns.length; i++) {
-                data[0][i] = "mock_value";
+                String name = columns[i].replaceFirst("(?i)^(SESSION|LOCAL)\\.", "").toLowerCase();
+                String value = name.equals("autocommit") ? (session.isAutocommit() ? "1" : "0")
+                        : session.getVariable(name);
+                if (value == null) {
+                    value = TRANSACTION_VARIABLES.get(name);
+                }
+                data[0][i] = value != null ? value : "mock_value";
             }
-            sendResultSet(ctx, columns, data, sequenceId, clientCapabilities);
+            sendResultSet(ctx, session, columns, data, sequenceId, clientCapabilities);
         }
     }
 
@@ -116,70 +189,95 @@ public class QueryHandler {
     }
 
     /**
-     * Send simple result set
+     * Send the result of an executed statement: an OK packet with the update count,
+     * or a result set whose rows are encoded as the operator produces them.
+     * Rows use the binary format for COM_STMT_EXECUTE and the text format otherwise.
+     * The packets of a result set are coalesced and flushed once at the end.
      */
-    private void sendResultSet(ChannelHandlerContext ctx, String[] columnNames, String[][] rows, byte sequenceId, int clientCapabilities) {
-        boolean deprecateEof = (clientCapabilities & 0x01000000) != 0; // CLIENT_DEPRECATE_EOF
-
-        // Column Count
-        ByteBuf columnCount = Unpooled.buffer().writeByte(columnNames.length);
-        PacketHelper.sendPacket(ctx, columnCount, sequenceId++);
-
-        // Column Definitions
-        for (String colName : columnNames) {
-            ByteBuf colDef = Unpooled.buffer();
-            PacketHelper.writeLengthEncodedString(colDef, "def"); // catalog
-            PacketHelper.writeLengthEncodedString(colDef, ""); // schema
-            PacketHelper.writeLengthEncodedString(colDef, ""); // table
-            PacketHelper.writeLengthEncodedString(colDef, ""); // org_table
-            PacketHelper.writeLengthEncodedString(colDef, colName); // name
-            PacketHelper.writeLengthEncodedString(colDef, colName); // org_name
-            colDef.writeByte(0x0C); // next_length
-            colDef.writeShortLE(33); // character_set
-            colDef.writeIntLE(256); // column_length
-            colDef.writeByte(0xFD); // column_type (VAR_STRING)
-            colDef.writeShortLE(0); // flags
-            colDef.writeByte(0); // decimals
-            colDef.writeBytes(new byte[2]); // filler
-            PacketHelper.sendPacket(ctx, colDef, sequenceId++);
-            logger.debug("Sent column definition for '{}', seq={}", colName, sequenceId - 1);
+    void sendSqlData(ChannelHandlerContext ctx, SqlData sqlData, Session session, byte sequenceId,
+                     int clientCapabilities, boolean binary) throws Exception {
+        int statusFlags = PacketHelper.statusFlags(session);
+        if (!sqlData.isResultSet()) {
+            PacketHelper.sendOkPacket(ctx, sqlData.getAffectedRows(), sqlData.getLastInsertId(), statusFlags,
+                    sequenceId);
+            return;
         }
 
-        // EOF after column definitions (only if CLIENT_DEPRECATE_EOF is NOT set)
-        if (!deprecateEof) {
-            PacketHelper.sendEofPacket(ctx, sequenceId++);
+        String[] columnNames = sqlData.getColumns().toArray(new String[0]);
+        byte[] mysqlTypes = binary
+                ? ResultSetWriter.columnTypes(columnNames.length, sqlData.getColumnTypes())
+                : ResultSetWriter.columnTypes(columnNames.length, null);
+        boolean deprecateEof = (clientCapabilities & Constants.CLIENT_DEPRECATE_EOF) != 0;
+        Operator operator = sqlData.getOperator();
+        PacketWriter writer = new PacketWriter(ctx);
+        if (operator == null) {
+            // Materialized result
+            sequenceId = ResultSetWriter.writeHeader(writer, columnNames, mysqlTypes, sequenceId, deprecateEof,
+                    statusFlags);
+            for (Map<String, Object> row : sqlData.getRows()) {
+                Object[] values = new Object[columnNames.length];
+                for (int j = 0; j < columnNames.length; j++) {
+                    values[j] = row.get(columnNames[j]);
+                }
+                writeRow(writer, values, mysqlTypes, sequenceId++, binary);
+            }
+            ResultSetWriter.writeEnd(writer, sequenceId, deprecateEof, statusFlags);
+            writer.flush();
+            return;
         }
 
-        // Row Data
-        for (String[] row : rows) {
-            ByteBuf rowBuf = Unpooled.buffer();
-            for (String value : row) {
-                PacketHelper.writeLengthEncodedString(rowBuf, value == null ? "" : value);
+        try (operator) {
+            // Open before sending any header so that planning errors still produce an ERR packet
+            operator.open();
+            sequenceId = ResultSetWriter.writeHeader(writer, columnNames, mysqlTypes, sequenceId, deprecateEof,
+                    statusFlags);
+
+            Object[] row;
+            while ((row = operator.next()) != null) {
+                writeRow(writer, row, mysqlTypes, sequenceId++, binary);
             }
-            PacketHelper.sendPacket(ctx, rowBuf, sequenceId++);
+
+            ResultSetWriter.writeEnd(writer, sequenceId, deprecateEof, statusFlags);
+            writer.flush();
+        } finally {
+            // Drops whatever was not handed to the channel if the scan failed
+            writer.discard();
         }
+    }
 
-        // Final packet: OK if CLIENT_DEPRECATE_EOF, otherwise EOF
-        if (deprecateEof) {
-            PacketHelper.sendResultSetOkPacket(ctx, sequenceId);
+    private void writeRow(PacketWriter writer, Object[] row, byte[] mysqlTypes, byte sequenceId, boolean binary) {
+        if (binary) {
+            ResultSetWriter.writeBinaryRow(writer, row, mysqlTypes, sequenceId);
         } else {
-            PacketHelper.sendEofPacket(ctx, sequenceId);
+            ResultSetWriter.writeTextRow(writer, row, sequenceId);
         }
     }
 
     /**
-     * Handle SHOW VARIABLES command
+     * Send simple result set
      */
-    private void handleShowVariables(ChannelHandlerContext ctx, String sql, byte sequenceId, int clientCapabilities) {
-        // Check if it's filtered with LIKE clause
-        String likePattern = null;
-        if (sql.toUpperCase().contains(" LIKE ")) {
-            String[] parts = sql.split("(?i)LIKE");
-            if (parts.length > 1) {
-                likePattern = parts[1].trim().replaceAll("'", "").replaceAll("%", ".*").toLowerCase();
-            }
+    private void sendResultSet(ChannelHandlerContext ctx, Session session, String[] columnNames, String[][] rows,
+                               byte sequenceId, int clientCapabilities) {
+        boolean deprecateEof = (clientCapabilities & Constants.CLIENT_DEPRECATE_EOF) != 0;
+        int statusFlags = PacketHelper.statusFlags(session);
+
+        PacketWriter writer = new PacketWriter(ctx);
+        sequenceId = ResultSetWriter.writeHeader(writer, columnNames,
+                ResultSetWriter.columnTypes(columnNames.length, null), sequenceId, deprecateEof, statusFlags);
+
+        // Row Data
+        for (String[] row : rows) {
+            ResultSetWriter.writeTextRow(writer, row, sequenceId++);
         }
 
+        ResultSetWriter.writeEnd(writer, sequenceId, deprecateEof, statusFlags);
+        writer.flush();
+    }
+
+    /**
+     * Handle SHOW VARIABLES command
+     */
+    private void handleShowVariables(ChannelHandlerContext ctx, Session session, String sql, byte sequenceId, int clientCapabilities) {
         // Common MySQL variables
         String[][] allVariables = {
                 {"autocommit", "ON"},
@@ -214,27 +312,61 @@ public class QueryHandler {
                 {"wait_timeout", "28800"}
         };
 
-        // Filter variables if LIKE pattern exists
-        if (likePattern != null) {
-            java.util.List<String[]> filtered = new java.util.ArrayList<>();
-            final String pattern = likePattern;
-            for (String[] var : allVariables) {
-                if (var[0].toLowerCase().matches(pattern)) {
-                    filtered.add(var);
-                }
+        // Values changed with SET in this session
+        for (String[] var : allVariables) {
+            String value = session.getVariable(var[0]);
+            if (value != null) {
+                var[1] = value;
             }
-            String[][] filteredArray = filtered.toArray(new String[0][0]);
-            sendResultSet(ctx, new String[]{"Variable_name", "Value"}, filteredArray, sequenceId, clientCapabilities);
-        } else {
-            sendResultSet(ctx, new String[]{"Variable_name", "Value"}, allVariables, sequenceId, clientCapabilities);
         }
+        allVariables[0][1] = session.isAutocommit() ? "ON" : "OFF";
+
+        sendResultSet(ctx, session, new String[]{"Variable_name", "Value"}, filterLike(allVariables, sql), sequenceId, clientCapabilities);
     }
 
-    private void handleMockDbQuery(ChannelHandlerContext ctx, byte sequenceId, int clientCapabilities, String query) throws RocksDBException {
-        databaseEngine.useDatabase("demo");
-        TableSchema tableSchema = databaseEngine.getTableSchema("users");
+    /**
+     * Handle SHOW STATUS command (statement cache counters)
+     */
+    private void handleShowStatus(ChannelHandlerContext ctx, Session session, String sql, byte sequenceId,
+                                  int clientCapabilities) {
+        String[][] status = {
+                {"Statement_cache_entries", String.valueOf(statementCache.size())},
+                {"Statement_cache_evictions", String.valueOf(statementCache.getEvictions())},
+                {"Statement_cache_hits", String.valueOf(statementCache.getHits())},
+                {"Statement_cache_misses", String.valueOf(statementCache.getMisses())}
+        };
+        sendResultSet(ctx, session, new String[]{"Variable_name", "Value"}, filterLike(status, sql), sequenceId, clientCapabilities);
+    }
+
+    /**
+     * Keep the name/value rows whose name matches the statement's LIKE pattern, if any
+     */
+    private String[][] filterLike(String[][] rows, String sql) {
+        // Check if it's filtered with LIKE clause
+        if (!sql.toUpperCase().contains(" LIKE ")) {
+            return rows;
+        }
+        String[] parts = sql.split("(?i)LIKE");
+        if (parts.length < 2) {
+            return rows;
+        }
+        String pattern = parts[1].trim().replaceAll("'", "").replaceAll("%", ".*").toLowerCase();
+        java.util.List<String[]> filtered = new java.util.ArrayList<>();
+        for (String[] row : rows) {
+            if (row[0].toLowerCase().matches(pattern)) {
+                filtered.add(row);
+            }
+        }
+        return filtered.toArray(new String[0][0]);
+    }
+
+    private void handleMockDbQuery(ChannelHandlerContext ctx, Session session, byte sequenceId, int clientCapabilities,
+                                   String query) throws RocksDBException {
+        Session demoSession = new Session();
+        databaseEngine.useDatabase(demoSession, "demo");
+        TableSchema tableSchema = databaseEngine.getTableSchema(demoSession, "users");
         String[] columnNames = tableSchema.getColumns().stream().map(c -> c.name).toArray(String[]::new);
-        List<Map<String, Object>> selectedRow = databaseEngine.selectAll("users");
+        List<Map<String, Object>> selectedRow = databaseEngine.selectAll(demoSession, "users");
         String[][] dataList = new String[selectedRow.size()][columnNames.length];
         for (int i = 0; i < selectedRow.size(); i++) {
             Map<String, Object> row = selectedRow.get(i);
@@ -244,44 +376,124 @@ public class QueryHandler {
                 dataList[i][j] = value == null ? "" : value.toString();
             }
         }
-        sendResultSet(ctx, columnNames, dataList, sequenceId, clientCapabilities);
+        sendResultSet(ctx, session, columnNames, dataList, sequenceId, clientCapabilities);
     }
 
     /**
      * Send empty result set
      */
-    private void sendEmptyResultSet(ChannelHandlerContext ctx, String sql, byte sequenceId, int clientCapabilities) {
-        String sqlUpper = sql.toUpperCase();
-
-        if (sqlUpper.startsWith("SHOW ENGINES")) {
-            sendResultSet(ctx, new String[]{"Engine", "Support", "Comment"}, new String[0][0], sequenceId, clientCapabilities);
-        } else if (sqlUpper.startsWith("SHOW CHARSET")) {
-            sendResultSet(ctx, new String[]{"Charset", "Description"}, new String[0][0], sequenceId, clientCapabilities);
-        } else if (sqlUpper.startsWith("SHOW COLLATION")) {
-            sendResultSet(ctx, new String[]{"Collation", "Charset"}, new String[0][0], sequenceId, clientCapabilities);
-        } else if (sqlUpper.startsWith("SHOW PLUGINS")) {
-            sendResultSet(ctx, new String[]{"Name", "Status"}, new String[0][0], sequenceId, clientCapabilities);
-        } else if (sqlUpper.startsWith("SHOW VARIABLES")) {
-            handleShowVariables(ctx, sql, sequenceId, clientCapabilities);
+    private void sendEmptyResultSet(ChannelHandlerContext ctx, LexedSql lexedSql, Session session, byte sequenceId,
+                                    int clientCapabilities) {
+        if (lexedSql.isWord(1, "ENGINES")) {
+            sendResultSet(ctx, session, new String[]{"Engine", "Support", "Comment"}, new String[0][0], sequenceId, clientCapabilities);
+        } else if (lexedSql.isWord(1, "CHARSET")) {
+            sendResultSet(ctx, session, new String[]{"Charset", "Description"}, new String[0][0], sequenceId, clientCapabilities);
+        } else if (lexedSql.isWord(1, "COLLATION")) {
+            sendResultSet(ctx, session, new String[]{"Collation", "Charset"}, new String[0][0], sequenceId, clientCapabilities);
+        } else if (lexedSql.isWord(1, "PLUGINS")) {
+            sendResultSet(ctx, session, new String[]{"Name", "Status"}, new String[0][0], sequenceId, clientCapabilities);
         } else {
-            PacketHelper.sendOkPacket(ctx, "OK", sequenceId);
+            PacketHelper.sendOkPacket(ctx, "OK", PacketHelper.statusFlags(session), sequenceId);
         }
     }
 
     /**
      * Handle COM_INIT_DB command (USE database)
      */
-    public void handleInitDb(ChannelHandlerContext ctx, String databaseName, byte sequenceId) {
+    public void handleInitDb(ChannelHandlerContext ctx, Session session, String databaseName, byte sequenceId) {
         try {
             logger.info("Switching to database: {}", databaseName);
-            databaseEngine.useDatabase(databaseName);
-            PacketHelper.sendOkPacket(ctx, "Database changed", sequenceId);
+            databaseEngine.useDatabase(session, databaseName);
+            PacketHelper.sendOkPacket(ctx, "Database changed", PacketHelper.statusFlags(session), sequenceId);
         } catch (Exception e) {
             logger.error("Error switching database: {}", databaseName, e);
             PacketHelper.sendErrPacket(ctx, "Unknown database '" + databaseName + "'", sequenceId);
         }
     }
 
+    /**
+     * Handle BEGIN, START TRANSACTION, COMMIT and ROLLBACK. The optional WORK, AND
+     * CHAIN and RELEASE words and START TRANSACTION's characteristics are ignored.
+     */
+    private void handleTransaction(LexedSql lexedSql, Session session) throws Exception {
+        if (lexedSql.isWord(0, "COMMIT")) {
+            databaseEngine.commit(session);
+        } else if (lexedSql.isWord(0, "ROLLBACK")) {
+            if (lexedSql.isWord(1, "TO") || lexedSql.isWord(2, "TO")) {
+                throw new Exception("Savepoints are not supported");
+            }
+            databaseEngine.rollback(session);
+        } else {
+            databaseEngine.beginTransaction(session);
+        }
+    }
 
-}
+    /**
+     * Apply "SET name = value, ..." to the session. SET NAMES / CHARACTER SET are accepted and ignored.
+     */
+    private void handleSet(Session session, String assignments) throws RocksDBException {
+        for (String assignment : splitAssignments(assignments)) {
+            int eq = assignment.indexOf('=');
+            if (eq < 0) {
+                continue;
+            }
+            String name = assignment.substring(0, eq).trim().toLowerCase();
+            String value = assignment.substring(eq + 1).trim();
+            if (name.startsWith("@@")) {
+                name = name.substring(2);
+            }
+            name = name.replaceFirst("^(session|local)(\\.|\\s+)", "");
+            if (name.startsWith("global")) {
+                continue; // Global variables are not settable
+            }
+            if (value.length() >= 2 && (value.charAt(0) == '\'' || value.charAt(0) == '"')) {
+                value = value.substring(1, value.length() - 1);
+            }
+            if (name.equals("autocommit")) {
+                boolean autocommit = value.equals("1") || value.equalsIgnoreCase("ON") || value.equalsIgnoreCase("TRUE");
+                if (autocommit && !session.isAutocommit()) {
+                    // Turning autocommit on commits the open transaction
+                    databaseEngine.commit(session);
+                }
+                session.setAutocommit(autocommit);
+            } else {
+                session.setVariable(name, value);
+            }
+        }
+    }
 
+    /**
+     * Split a SET list on commas outside of quoted values
+     */
+    private List<String> splitAssignments(String assignments) {
+        List<String> result = new ArrayList<>();
+        char quote = 0;
+        int start = 0;
+        for (int i = 0; i < assignments.length(); i++) {
+            char c = assignments.charAt(i);
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '\'' || c == '"') {
+                quote = c;
+            } else if (c == ',') {
+                result.add(assignments.substring(start, i));
+                start = i + 1;
+            }
+        }
+        result.add(assignments.substring(start));
+        return result;
+    }
+
+    private String unquoteIdentifier(String name) {
+        name = name.trim();
+        if (name.endsWith(";")) {
+            name = name.substring(0, name.length() - 1).trim();
+        }
+        if (name.length() >= 2 && name.charAt(0) == '`' && name.charAt(name.length() - 1) == '`') {
+            name = name.substring(1, name.length() - 1);
+        }
+        return name;
+    }
+}
@@ -0,0 +1,133 @@
+package cc.fastsoft.jdbc.hander;
+
+import cc.fastsoft.db.schema.Column;
+import cc.fastsoft.jdbc.protocol.BinaryProtocol;
+import cc.fastsoft.jdbc.protocol.Constants;
+import cc.fastsoft.jdbc.protocol.PacketHelper;
+import cc.fastsoft.jdbc.protocol.PacketWriter;
+import io.netty.buffer.ByteBuf;
+
+import java.util.List;
+
+/**
+ * Result Set Writer - Writes result set packets in the text (COM_QUERY) or
+ * binary (COM_STMT_EXECUTE) row format
+ *
+ * Everything is encoded straight into the {@link PacketWriter}'s buffer; the
+ * caller flushes the writer once the response is complete.
+ */
+final class ResultSetWriter {
+    private static final int CHARSET_UTF8 = 33;
+    private static final int CHARSET_BINARY = 63;
+
+    private ResultSetWriter() {
+    }
+
+    /**
+     * MySQL types of the result columns; columns of unknown type are sent as strings
+     */
+    static byte[] columnTypes(int columnCount, List<Column.ColumnType> types) {
+        byte[] mysqlTypes = new byte[columnCount];
+        for (int i = 0; i < columnCount; i++) {
+            mysqlTypes[i] = BinaryProtocol.columnType(types == null ? null : types.get(i));
+        }
+        return mysqlTypes;
+    }
+
+    /**
+     * Write column count, column definitions and (unless deprecated) the EOF after them.
+     * Returns the next sequence id.
+     */
+    static byte writeHeader(PacketWriter writer, String[] columnNames, byte[] mysqlTypes,
+                            byte sequenceId, boolean deprecateEof, int statusFlags) {
+        // Column Count
+        PacketHelper.writeLengthEncodedInteger(writer.begin(sequenceId++), columnNames.length);
+        writer.end();
+
+        sequenceId = writeColumnDefinitions(writer, columnNames, mysqlTypes, sequenceId);
+
+        // EOF after column definitions (only if CLIENT_DEPRECATE_EOF is NOT set)
+        if (!deprecateEof) {
+            writeEof(writer, sequenceId++, statusFlags);
+        }
+        return sequenceId;
+    }
+
+    /**
+     * Write one column definition packet per column. Returns the next sequence id.
+     */
+    static byte writeColumnDefinitions(PacketWriter writer, String[] columnNames, byte[] mysqlTypes,
+                                       byte sequenceId) {
+        for (int i = 0; i < columnNames.length; i++) {
+            byte type = mysqlTypes[i];
+            boolean string = type == Constants.MYSQL_TYPE_VAR_STRING;
+            ByteBuf colDef = writer.begin(sequenceId++);
+            PacketHelper.writeLengthEncodedString(colDef, "def"); // catalog
+            PacketHelper.writeLengthEncodedString(colDef, ""); // schema
+            PacketHelper.writeLengthEncodedString(colDef, ""); // table
+            PacketHelper.writeLengthEncodedString(colDef, ""); // org_table
+            PacketHelper.writeLengthEncodedString(colDef, columnNames[i]); // name
+            PacketHelper.writeLengthEncodedString(colDef, columnNames[i]); // org_name
+            colDef.writeByte(0x0C); // next_length
+            colDef.writeShortLE(string ? CHARSET_UTF8 : CHARSET_BINARY); // character_set
+            colDef.writeIntLE(string ? 256 : 20); // column_length
+            colDef.writeByte(type); // column_type
+            colDef.writeShortLE(0); // flags
+            colDef.writeByte(type == Constants.MYSQL_TYPE_DOUBLE ? 31 : 0); // decimals
+            colDef.writeShortLE(0); // filler
+            writer.end();
+        }
+        return sequenceId;
+    }
+
+    /**
+     * Text protocol row: every value as a length-encoded string, NULL as 0xFB
+     */
+    static void writeTextRow(PacketWriter writer, Object[] row, byte sequenceId) {
+        ByteBuf rowBuf = writer.begin(sequenceId);
+        for (Object value : row) {
+            if (value == null) {
+                rowBuf.writeByte(0xFB); // NULL
+            } else {
+                PacketHelper.writeLengthEncodedString(rowBuf, value.toString());
+            }
+        }
+        writer.end();
+    }
+
+    /**
+     * Binary protocol row: 0x00 header, NULL bitmap (offset 2), then the non-null values
+     */
+    static void writeBinaryRow(PacketWriter writer, Object[] row, byte[] mysqlTypes, byte sequenceId) {
+        ByteBuf rowBuf = writer.begin(sequenceId);
+        rowBuf.writeByte(0x00);
+        int bitmapStart = rowBuf.writerIndex();
+        rowBuf.writeZero((row.length + 7 + 2) / 8);
+        for (int i = 0; i < row.length; i++) {
+            if (row[i] == null) {
+                int index = bitmapStart + (i + 2) / 8;
+                rowBuf.setByte(index, rowBuf.getByte(index) | (1 << ((i + 2) % 8)));
+            } else {
+                BinaryProtocol.writeValue(rowBuf, row[i], mysqlTypes[i]);
+            }
+        }
+        writer.end();
+    }
+
+    static void writeEof(PacketWriter writer, byte sequenceId, int statusFlags) {
+        PacketHelper.writeEof(writer.begin(sequenceId), statusFlags);
+        writer.end();
+    }
+
+    /**
+     * Final packet: OK if CLIENT_DEPRECATE_EOF, otherwise EOF
+     */
+    static void writeEnd(PacketWriter writer, byte sequenceId, boolean deprecateEof, int statusFlags) {
+        if (deprecateEof) {
+            PacketHelper.writeResultSetOk(writer.begin(sequenceId), statusFlags);
+            writer.end();
+        } else {
+            writeEof(writer, sequenceId, statusFlags);
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package cc.fastsoft.jdbc.protocol;
+
+import cc.fastsoft.db.schema.Column;
+import io.netty.buffer.ByteBuf;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.temporal.ChronoField;
+
+/**
+ * Binary Protocol - Encoding of values in prepared statement parameters and result rows
+ *
+ * Integers and floating point values travel as little-endian fixed width numbers,
+ * temporal values as a length byte followed by their fields, everything else as a
+ * length-encoded string.
+ */
+public final class BinaryProtocol {
+
+    /** Flag set in the high byte of a parameter type for unsigned integers */
+    public static final int UNSIGNED_FLAG = 0x8000;
+
+    private static final DateTimeFormatter DATETIME_FORMAT = new DateTimeFormatterBuilder()
+            .appendPattern("yyyy-MM-dd[ ]['T']HH:mm:ss")
+            .optionalStart()
+            .appendFraction(ChronoField.MICRO_OF_SECOND, 0, 6, true)
+            .optionalEnd()
+            .toFormatter();
+
+    private BinaryProtocol() {
+    }
+
+    /**
+     * MySQL column type used to describe and encode values of a column type
+     */
+    public static byte columnType(Column.ColumnType type) {
+        if (type == null) {
+            return Constants.MYSQL_TYPE_VAR_STRING;
+        }
+        switch (type) {
+            case INT:
+                return Constants.MYSQL_TYPE_LONG;
+            case LONG:
+                return Constants.MYSQL_TYPE_LONGLONG;
+            case FLOAT:
+            case DOUBLE:
+                return Constants.MYSQL_TYPE_DOUBLE;
+            case BOOLEAN:
+                return Constants.MYSQL_TYPE_TINY;
+            case DATE:
+                return Constants.MYSQL_TYPE_DATE;
+            case DATETIME:
+                return Constants.MYSQL_TYPE_DATETIME;
+            default:
+                return Constants.MYSQL_TYPE_VAR_STRING;
+        }
+    }
+
+    /**
+     * Read one parameter value of COM_STMT_EXECUTE. {@code type} holds the type in
+     * its low byte and the flags (e.g. {@link #UNSIGNED_FLAG}) in its high byte.
+     */
+    public static Object readParameter(ByteBuf buf, int type) {
+        boolean unsigned = (type & UNSIGNED_FLAG) != 0;
+        switch ((byte) type) {
+            case Constants.MYSQL_TYPE_NULL:
+                return null;
+            case Constants.MYSQL_TYPE_TINY:
+                return unsigned ? (int) buf.readUnsignedByte() : (int) buf.readByte();
+            case Constants.MYSQL_TYPE_SHORT:
+            case Constants.MYSQL_TYPE_YEAR:
+                return unsigned ? buf.readUnsignedShortLE() : (int) buf.readShortLE();
+            case Constants.MYSQL_TYPE_LONG:
+            case Constants.MYSQL_TYPE_INT24:
+                return unsigned ? (Object) buf.readUnsignedIntLE() : (Object) buf.readIntLE();
+            case Constants.MYSQL_TYPE_LONGLONG:
+                long value = buf.readLongLE();
+                if (unsigned && value < 0) {
+                    return Long.toUnsignedString(value);
+                }
+                return value;
+            case Constants.MYSQL_TYPE_FLOAT:
+                return (double) buf.readFloatLE();
+            case Constants.MYSQL_TYPE_DOUBLE:
+                return buf.readDoubleLE();
+            case Constants.MYSQL_TYPE_DATE:
+            case Constants.MYSQL_TYPE_DATETIME:
+            case Constants.MYSQL_TYPE_TIMESTAMP:
+                return readDateTime(buf, (byte) type == Constants.MYSQL_TYPE_DATE);
+            case Constants.MYSQL_TYPE_TIME:
+                return readTime(buf);
+            default:
+                return PacketHelper.readLengthEncodedString(buf);
+        }
+    }
+
+    /**
+     * Write a non-null value of a binary result row using the encoding of {@code mysqlType}
+     */
+    public static void writeValue(ByteBuf buf, Object value, byte mysqlType) {
+        switch (mysqlType) {
+            case Constants.MYSQL_TYPE_TINY:
+                buf.writeByte(toBoolean(value) ? 1 : 0);
+                break;
+            case Constants.MYSQL_TYPE_LONG:
+                buf.writeIntLE(value instanceof Number ? ((Number) value).intValue() : Integer.parseInt(value.toString()));
+                break;
+            case Constants.MYSQL_TYPE_LONGLONG:
+                buf.writeLongLE(value instanceof Number ? ((Number) value).longValue() : Long.parseLong(value.toString()));
+                break;
+            case Constants.MYSQL_TYPE_DOUBLE:
+                buf.writeDoubleLE(value instanceof Number ? ((Number) value).doubleValue() : Double.parseDouble(value.toString()));
+                break;
+            case Constants.MYSQL_TYPE_DATE:
+                writeDate(buf, LocalDate.parse(value.toString().substring(0, 10)));
+                break;
+            case Constants.MYSQL_TYPE_DATETIME:
+                writeDateTime(buf, parseDateTime(value.toString()));
+                break;
+            default:
+                PacketHelper.writeLengthEncodedString(buf, value.toString());
+                break;
+        }
+    }
+
+    private static boolean toBoolean(Object value) {
+        if (value instanceof Boolean) {
+            return (Boolean) value;
+        }
+        if (value instanceof Number) {
+            return ((Number) value).intValue() != 0;
+        }
+        String s = value.toString();
+        return s.equals("1") || Boolean.parseBoolean(s);
+    }
+
+    private static LocalDateTime parseDateTime(String s) {
+        return s.length() == 10 ? LocalDate.parse(s).atStartOfDay() : LocalDateTime.parse(s, DATETIME_FORMAT);
+    }
+
+    private static void writeDate(ByteBuf buf, LocalDate date) {
+        buf.writeByte(4);
+        buf.writeShortLE(date.getYear());
+        buf.writeByte(date.getMonthValue());
+        buf.writeByte(date.getDayOfMonth());
+    }
+
+    private static void writeDateTime(ByteBuf buf, LocalDateTime dateTime) {
+        int micros = dateTime.getNano() / 1_000;
+        buf.writeByte(micros == 0 ? 7 : 11);
+        buf.writeShortLE(dateTime.getYear());
+        buf.writeByte(dateTime.getMonthValue());
+        buf.writeByte(dateTime.getDayOfMonth());
+        buf.writeByte(dateTime.getHour());
+        buf.writeByte(dateTime.getMinute());
+        buf.writeByte(dateTime.getSecond());
+        if (micros != 0) {
+            buf.writeIntLE(micros);
+        }
+    }
+
+    /**
+     * DATE/DATETIME parameter as "yyyy-MM-dd[ HH:mm:ss[.ffffff]]"
+     */
+    private static String readDateTime(ByteBuf buf, boolean dateOnly) {
+        int length = buf.readUnsignedByte();
+        int year = 0, month = 0, day = 0, hour = 0, minute = 0, second = 0, micros = 0;
+        if (length >= 4) {
+            year = buf.readUnsignedShortLE();
+            month = buf.readUnsignedByte();
+            day = buf.readUnsignedByte();
+        }
+        if (length >= 7) {
+            hour = buf.readUnsignedByte();
+            minute = buf.readUnsignedByte();
+            second = buf.readUnsignedByte();
+        }
+        if (length >= 11) {
+            micros = (int) buf.readUnsignedIntLE();
+        }
+        String date = String.format("%04d-%02d-%02d", year, month, day);
+        if (dateOnly) {
+            return date;
+        }
+        String dateTime = String.format("%s %02d:%02d:%02d", date, hour, minute, second);
+        return micros == 0 ? dateTime : dateTime + String.format(".%06d", micros);
+    }
+
+    /**
+     * TIME parameter as "[-]HH:mm:ss[.ffffff]", days folded into the hours
+     */
+    private static String readTime(ByteBuf buf) {
+        int length = buf.readUnsignedByte();
+        if (length == 0) {
+            return "00:00:00";
+        }
+        boolean negative = buf.readByte() != 0;
+        long days = buf.readUnsignedIntLE();
+        int hour = buf.readUnsignedByte();
+        int minute = buf.readUnsignedByte();
+        int second = buf.readUnsignedByte();
+        int micros = length >= 12 ? (int) buf.readUnsignedIntLE() : 0;
+        String time = String.format("%s%02d:%02d:%02d", negative ? "-" : "", days * 24 + hour, minute, second);
+        return micros == 0 ? time : time + String.format(".%06d", micros);
+    }
+}
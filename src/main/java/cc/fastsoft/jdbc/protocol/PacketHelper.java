@@ -1,8 +1,9 @@
 package cc.fastsoft.jdbc.protocol;
 
+import cc.fastsoft.db.Session;
 import cc.fastsoft.jdbc.protocol.packet.MysqlPacket;
-import cc.fastsoft.jdbc.protocol.packet.Packet;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
 import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelHandlerContext;
 import org.slf4j.Logger;
@@ -18,50 +19,99 @@ public class PacketHelper {
     private static Logger logger = LoggerFactory.getLogger(PacketHelper.class);
 
     /**
-     * Send a MySQL packet
+     * Send a MySQL packet. The packet is framed into one pooled buffer and the
+     * payload buffer is released.
      */
     public static void sendPacket(ChannelHandlerContext ctx, ByteBuf payload, byte seq) {
-        ctx.writeAndFlush(new Packet(payload.readableBytes(), seq, payload));
+        int payloadLength = payload.readableBytes();
+        ByteBuf packet = ctx.alloc().ioBuffer(4 + payloadLength);
+        try {
+            packet.writeMediumLE(payloadLength);
+            packet.writeByte(seq);
+            packet.writeBytes(payload);
+        } finally {
+            payload.release();
+        }
+        ctx.writeAndFlush(packet);
+    }
+
+    /**
+     * Status flags of OK and EOF packets for a session: whether autocommit is on
+     * and whether a transaction is open
+     */
+    public static int statusFlags(Session session) {
+        int flags = session.isAutocommit() ? Constants.SERVER_STATUS_AUTOCOMMIT : 0;
+        if (session.isInTransaction()) {
+            flags |= Constants.SERVER_STATUS_IN_TRANS;
+        }
+        return flags;
     }
 
     /**
      * Send OK packet
      */
-    public static void sendOkPacket(ChannelHandlerContext ctx, String message, byte sequenceId) {
+    public static void sendOkPacket(ChannelHandlerContext ctx, String message, int statusFlags, byte sequenceId) {
         ByteBuf ok = Unpooled.buffer();
         ok.writeByte(0); // OK
         ok.writeByte(0); // affected_rows
         ok.writeByte(0); // last_insert_id
-        ok.writeShortLE(0); // status_flags
+        ok.writeShortLE(statusFlags); // status_flags
         ok.writeShortLE(0); // warnings
         writeLengthEncodedString(ok, message); // info
         sendPacket(ctx, ok, sequenceId);
     }
 
+    /**
+     * Send OK packet reporting the result of a data-changing statement
+     */
+    public static void sendOkPacket(ChannelHandlerContext ctx, long affectedRows, long lastInsertId, int statusFlags,
+                                    byte sequenceId) {
+        ByteBuf ok = Unpooled.buffer();
+        ok.writeByte(0); // OK
+        writeLengthEncodedInteger(ok, affectedRows); // affected_rows
+        writeLengthEncodedInteger(ok, lastInsertId); // last_insert_id
+        ok.writeShortLE(statusFlags); // status_flags
+        ok.writeShortLE(0); // warnings
+        sendPacket(ctx, ok, sequenceId);
+    }
+
     /**
      * Send OK packet for result set end (CLIENT_DEPRECATE_EOF mode)
      */
-    public static void sendResultSetOkPacket(ChannelHandlerContext ctx, byte sequenceId) {
+    public static void sendResultSetOkPacket(ChannelHandlerContext ctx, int statusFlags, byte sequenceId) {
         ByteBuf ok = Unpooled.buffer();
+        writeResultSetOk(ok, statusFlags);
+        sendPacket(ctx, ok, sequenceId);
+    }
+
+    /**
+     * Write the payload of the OK packet ending a result set (CLIENT_DEPRECATE_EOF mode)
+     */
+    public static void writeResultSetOk(ByteBuf ok, int statusFlags) {
         ok.writeByte(0xFE); // OK header for result set end
         writeLengthEncodedInteger(ok, 0); // affected_rows
         writeLengthEncodedInteger(ok, 0); // last_insert_id
-        ok.writeShortLE(0x0002); // status_flags (SERVER_STATUS_AUTOCOMMIT)
+        ok.writeShortLE(statusFlags); // status_flags
         ok.writeShortLE(0); // warnings
-        sendPacket(ctx, ok, sequenceId);
     }
 
     /**
      * Send result set EOF packet
      */
-    public static void sendEofPacket(ChannelHandlerContext ctx, byte sequenceId) {
+    public static void sendEofPacket(ChannelHandlerContext ctx, int statusFlags, byte sequenceId) {
         ByteBuf eof = Unpooled.buffer();
-        eof.writeByte(0xFE); // 0xFE = EOF packet marker
-        eof.writeShortLE(0); // warnings
-        eof.writeShortLE(0); // status_flags
+        writeEof(eof, statusFlags);
         PacketHelper.sendPacket(ctx, eof, sequenceId);
-        logger.info("Sent EOF packet for seq={}", sequenceId);
+        logger.debug("Sent EOF packet for seq={}", sequenceId);
+    }
 
+    /**
+     * Write the payload of an EOF packet
+     */
+    public static void writeEof(ByteBuf eof, int statusFlags) {
+        eof.writeByte(0xFE); // 0xFE = EOF packet marker
+        eof.writeShortLE(0); // warnings
+        eof.writeShortLE(statusFlags); // status_flags
     }
 
     /**
@@ -101,12 +151,11 @@ public class PacketHelper {
     }
 
     /**
-     * Write length-encoded string
+     * Write length-encoded string (UTF-8, encoded straight into the buffer)
      */
     public static void writeLengthEncodedString(ByteBuf buf, String str) {
-        byte[] bytes = str.getBytes(StandardCharsets.US_ASCII);
-        writeLengthEncodedInteger(buf, bytes.length);
-        buf.writeBytes(bytes);
+        writeLengthEncodedInteger(buf, ByteBufUtil.utf8Bytes(str));
+        ByteBufUtil.writeUtf8(buf, str);
     }
 
     /**
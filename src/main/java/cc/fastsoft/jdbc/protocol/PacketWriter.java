@@ -0,0 +1,118 @@
+package cc.fastsoft.jdbc.protocol;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+
+/**
+ * Packet Writer - Coalesces the packets of one response into large pooled buffers
+ *
+ * Packets are framed (3-byte length, sequence id) directly into a buffer from the
+ * channel's allocator. A buffer is handed to the channel once it reaches
+ * {@link #CHUNK_SIZE}, and the channel is only flushed at the end of the response
+ * or when its outbound buffer passes the high write watermark. In that case the
+ * writing thread waits for the data to drain, so a large result set never sits in
+ * memory as a whole.
+ */
+public final class PacketWriter {
+
+    /** Size at which a chunk of packets is written to the channel */
+    public static final int CHUNK_SIZE = 64 * 1024;
+
+    private static final int HEADER_SIZE = 4;
+
+    private final ChannelHandlerContext ctx;
+    private ByteBuf buffer;
+    private int packetStart = -1;
+
+    public PacketWriter(ChannelHandlerContext ctx) {
+        this.ctx = ctx;
+    }
+
+    /**
+     * Start a packet and return the buffer its payload is written to
+     */
+    public ByteBuf begin(byte sequenceId) {
+        if (packetStart >= 0) {
+            throw new IllegalStateException("Previous packet was not ended");
+        }
+        if (buffer == null) {
+            buffer = ctx.alloc().ioBuffer(CHUNK_SIZE);
+        }
+        packetStart = buffer.writerIndex();
+        buffer.writeMedium(0); // length, filled in by end()
+        buffer.writeByte(sequenceId);
+        return buffer;
+    }
+
+    /**
+     * Finish the current packet, passing the chunk on to the channel once it is full
+     */
+    public void end() {
+        int payloadLength = buffer.writerIndex() - packetStart - HEADER_SIZE;
+        if (payloadLength >= 0xFFFFFF) {
+            throw new IllegalStateException("Packet payload too large: " + payloadLength);
+        }
+        buffer.setMediumLE(packetStart, payloadLength);
+        packetStart = -1;
+        if (buffer.readableBytes() >= CHUNK_SIZE) {
+            writeChunk();
+        }
+    }
+
+    /**
+     * Append a complete payload as one packet; the payload buffer is released
+     */
+    public void write(ByteBuf payload, byte sequenceId) {
+        try {
+            begin(sequenceId).writeBytes(payload);
+            end();
+        } finally {
+            payload.release();
+        }
+    }
+
+    /**
+     * Write everything buffered so far and flush the channel
+     */
+    public void flush() {
+        if (buffer != null && buffer.isReadable()) {
+            ChannelFuture future = ctx.write(buffer);
+            buffer = null;
+            ctx.flush();
+            awaitIfUnwritable(future);
+        } else {
+            ctx.flush();
+        }
+    }
+
+    /**
+     * Release packets that were not handed to the channel yet (after a failure)
+     */
+    public void discard() {
+        if (buffer != null) {
+            buffer.release();
+            buffer = null;
+        }
+        packetStart = -1;
+    }
+
+    private void writeChunk() {
+        ChannelFuture future = ctx.write(buffer);
+        buffer = null;
+        if (!ctx.channel().isWritable()) {
+            ctx.flush();
+            awaitIfUnwritable(future);
+        }
+    }
+
+    /**
+     * Block until the chunk reached the socket while the channel is above its high
+     * watermark. Never blocks an event loop thread, which would have to do the writing.
+     */
+    private void awaitIfUnwritable(ChannelFuture future) {
+        if (!ctx.channel().isWritable() && !ctx.executor().inEventLoop()) {
+            future.awaitUninterruptibly();
+        }
+    }
+}
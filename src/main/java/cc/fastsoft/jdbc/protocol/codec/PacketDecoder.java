@@ -15,9 +15,9 @@ public class PacketDecoder extends ByteToMessageDecoder {
     @Override
     protected void decode(ChannelHandlerContext channelHandlerContext, ByteBuf in, List<Object> out) throws Exception {
 
-        // Ensure there are at least 4 bytes to read the header
+        // Wait until the 4-byte header is complete; a read may end anywhere in a packet
         if (in.readableBytes() < 4) {
-            throw new Exception("packet length less than 4 bytes");
+            return;
         }
 
         // Mark the current reader index
@@ -39,6 +39,6 @@ public class PacketDecoder extends ByteToMessageDecoder {
         ByteBuf payload = in.readSlice(payloadLength);
         out.add(new Packet(payloadLength, sequenceId, payload.retainedDuplicate()));
 
-        logger.info("[IN]Decoded packet: length={} seq={}", payloadLength, sequenceId);
+        logger.debug("[IN]Decoded packet: length={} seq={}", payloadLength, sequenceId);
     }
 }
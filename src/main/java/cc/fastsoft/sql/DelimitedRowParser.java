@@ -0,0 +1,214 @@
+package cc.fastsoft.sql;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Delimited Row Parser - Splits the data of LOAD DATA into rows of fields
+ *
+ * Data is fed in chunks of any size, e.g. as the client's packets arrive; a field,
+ * an escape or a terminator may span chunks. Fields are collected as bytes and
+ * decoded as UTF-8 once complete. Follows the MySQL rules for the given
+ * {@link LoadDataSql} options: {@code \N} (and an unenclosed {@code NULL} when an
+ * enclosing character is set) reads as null, the escape character introduces
+ * {@code \0 \b \n \r \t \Z} or takes the next byte literally, and a doubled
+ * enclosing character inside an enclosed field is one literal character.
+ */
+public final class DelimitedRowParser {
+
+    /**
+     * Receives the fields of each row; null fields are SQL NULL
+     */
+    public interface RowHandler {
+        void row(List<String> fields, long lineNumber) throws Exception;
+    }
+
+    private final byte[] fieldTerminator;
+    private final byte[] lineTerminator;
+    private final int enclosedBy;
+    private final int escapedBy;
+    private final RowHandler handler;
+    private long linesToSkip;
+
+    private byte[] field = new byte[256];
+    private int fieldLength;
+    // Bytes of the field that came from escapes or enclosed text and cannot end it
+    private int protectedLength;
+    private boolean escaped;
+    private boolean enclosed;
+    private boolean inEnclosure;
+    private boolean enclosureEndSeen;
+    private boolean nullField;
+    private List<String> fields = new ArrayList<>();
+    private long lineNumber = 1;
+    private long rows;
+
+    public DelimitedRowParser(LoadDataSql options, RowHandler handler) {
+        this.fieldTerminator = options.getFieldTerminator().getBytes(StandardCharsets.UTF_8);
+        this.lineTerminator = options.getLineTerminator().getBytes(StandardCharsets.UTF_8);
+        this.enclosedBy = options.getEnclosedBy();
+        this.escapedBy = options.getEscapedBy();
+        this.linesToSkip = options.getIgnoreLines();
+        this.handler = handler;
+    }
+
+    /**
+     * Parse the next chunk of data
+     */
+    public void feed(ByteBuffer data) throws Exception {
+        while (data.hasRemaining()) {
+            accept(data.get());
+        }
+    }
+
+    /**
+     * End of data: emit a last line that has no terminator
+     */
+    public void finish() throws Exception {
+        if (escaped) {
+            append(escapedBy);
+            escaped = false;
+        }
+        if (fieldLength > 0 || !fields.isEmpty() || enclosed) {
+            endField();
+            endRow();
+        }
+    }
+
+    /**
+     * Rows handed to the handler so far
+     */
+    public long getRows() {
+        return rows;
+    }
+
+    private void accept(byte b) throws Exception {
+        int c = b & 0xFF;
+        if (escaped) {
+            escaped = false;
+            if (c == 'N' && fieldLength == 0 && !enclosed) {
+                nullField = true;
+            } else {
+                append(unescape(c));
+            }
+            protectedLength = fieldLength;
+            return;
+        }
+        if (enclosureEndSeen) {
+            enclosureEndSeen = false;
+            if (c == enclosedBy) {
+                // Doubled enclosing character: a literal one, still inside the field
+                append(c);
+                protectedLength = fieldLength;
+                inEnclosure = true;
+                return;
+            }
+        }
+        if (c == escapedBy) {
+            escaped = true;
+            return;
+        }
+        if (inEnclosure) {
+            if (c == enclosedBy) {
+                inEnclosure = false;
+                enclosureEndSeen = true;
+            } else {
+                append(c);
+                protectedLength = fieldLength;
+            }
+            return;
+        }
+        if (c == enclosedBy && fieldLength == 0 && !enclosed && !nullField) {
+            enclosed = true;
+            inEnclosure = true;
+            return;
+        }
+
+        append(c);
+        if (endsWith(lineTerminator)) {
+            fieldLength -= lineTerminator.length;
+            endField();
+            endRow();
+        } else if (endsWith(fieldTerminator)) {
+            fieldLength -= fieldTerminator.length;
+            endField();
+        }
+    }
+
+    private boolean endsWith(byte[] terminator) {
+        int start = fieldLength - terminator.length;
+        if (start < protectedLength || start < 0) {
+            return false;
+        }
+        for (int i = 0; i < terminator.length; i++) {
+            if (field[start + i] != terminator[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void append(int c) {
+        if (fieldLength == field.length) {
+            field = Arrays.copyOf(field, field.length * 2);
+        }
+        field[fieldLength++] = (byte) c;
+    }
+
+    private void endField() {
+        String value;
+        if (nullField && fieldLength == 0) {
+            value = null;
+        } else {
+            value = new String(field, 0, fieldLength, StandardCharsets.UTF_8);
+            if (!enclosed && enclosedBy >= 0 && value.equals("NULL")) {
+                value = null;
+            }
+        }
+        fields.add(value);
+        fieldLength = 0;
+        protectedLength = 0;
+        enclosed = false;
+        inEnclosure = false;
+        enclosureEndSeen = false;
+        nullField = false;
+    }
+
+    private void endRow() throws Exception {
+        List<String> row = fields;
+        fields = new ArrayList<>(row.size());
+        long line = lineNumber++;
+        if (row.size() == 1 && "".equals(row.get(0))) {
+            // Blank line
+            return;
+        }
+        if (linesToSkip > 0) {
+            linesToSkip--;
+            return;
+        }
+        rows++;
+        handler.row(row, line);
+    }
+
+    private static int unescape(int c) {
+        switch (c) {
+            case '0':
+                return 0;
+            case 'b':
+                return '\b';
+            case 'n':
+                return '\n';
+            case 'r':
+                return '\r';
+            case 't':
+                return '\t';
+            case 'Z':
+                return 0x1A;
+            default:
+                return c;
+        }
+    }
+}
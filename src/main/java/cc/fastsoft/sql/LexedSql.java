@@ -0,0 +1,68 @@
+package cc.fastsoft.sql;
+
+/**
+ * Lexed SQL - A statement with its comments stripped, its type and its leading words
+ *
+ * @see SqlLexer
+ */
+public final class LexedSql {
+    private final String sql;
+    private final String original;
+    private final int[] wordStarts;
+    private final int[] wordEnds;
+    private final int wordCount;
+    private final SqlLexer.StatementType type;
+
+    LexedSql(String sql, String original, int[] wordStarts, int[] wordEnds, int wordCount) {
+        this.sql = sql;
+        this.original = original;
+        this.wordStarts = wordStarts;
+        this.wordEnds = wordEnds;
+        this.wordCount = wordCount;
+        this.type = wordCount == 0 ? SqlLexer.StatementType.OTHER
+                : SqlLexer.classify(original, wordStarts[0], wordEnds[0]);
+    }
+
+    /**
+     * Statement text without comments, whitespace collapsed outside of quoted text
+     */
+    public String getSql() {
+        return sql;
+    }
+
+    public SqlLexer.StatementType getType() {
+        return type;
+    }
+
+    /**
+     * Whether leading word {@code index} (0-based, at most {@link SqlLexer#MAX_WORDS}) is
+     * {@code word}, ignoring case; {@code word} must be upper case
+     */
+    public boolean isWord(int index, String word) {
+        return index < wordCount && SqlLexer.is(original, wordStarts[index], wordEnds[index], word);
+    }
+
+    /**
+     * Whether leading word {@code index} starts with {@code prefix}, ignoring case
+     */
+    public boolean wordStartsWith(int index, String prefix) {
+        return index < wordCount && wordEnds[index] - wordStarts[index] >= prefix.length()
+                && original.regionMatches(true, wordStarts[index], prefix, 0, prefix.length());
+    }
+
+    /**
+     * Statement text following the first {@code count} words
+     */
+    public String textAfterWords(int count) {
+        int offset = 0;
+        for (int i = 0; i < count && i < wordCount; i++) {
+            offset += wordEnds[i] - wordStarts[i] + 1;
+        }
+        return offset >= sql.length() ? "" : sql.substring(offset);
+    }
+
+    @Override
+    public String toString() {
+        return sql;
+    }
+}
@@ -0,0 +1,312 @@
+package cc.fastsoft.sql;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Load Data SQL - A parsed LOAD DATA [LOCAL] INFILE statement
+ *
+ * Supported syntax:
+ * <pre>
+ * LOAD DATA [LOW_PRIORITY | CONCURRENT] [LOCAL] INFILE 'file'
+ *     [REPLACE | IGNORE] INTO TABLE tbl [CHARACTER SET charset]
+ *     [{FIELDS | COLUMNS} [TERMINATED BY 'string'] [[OPTIONALLY] ENCLOSED BY 'char'] [ESCAPED BY 'char']]
+ *     [LINES TERMINATED BY 'string']
+ *     [IGNORE number {LINES | ROWS}]
+ *     [(column, ...)]
+ * </pre>
+ * The defaults are those of MySQL: tab separated fields, no enclosing character,
+ * backslash escapes and newline terminated lines. The file is read as UTF-8.
+ */
+public final class LoadDataSql {
+    private boolean local;
+    private String fileName;
+    private boolean replace;
+    private String tableName;
+    private String fieldTerminator = "\t";
+    private int enclosedBy = -1;
+    private int escapedBy = '\\';
+    private String lineTerminator = "\n";
+    private long ignoreLines;
+    private List<String> columns = Collections.emptyList();
+
+    private LoadDataSql() {
+    }
+
+    /**
+     * Parse a LOAD DATA statement
+     */
+    public static LoadDataSql parse(String sql) {
+        Tokens tokens = new Tokens(sql);
+        LoadDataSql load = new LoadDataSql();
+        tokens.expect("LOAD");
+        tokens.expect("DATA");
+        if (!tokens.accept("LOW_PRIORITY")) {
+            tokens.accept("CONCURRENT");
+        }
+        load.local = tokens.accept("LOCAL");
+        tokens.expect("INFILE");
+        load.fileName = tokens.string();
+        if (tokens.accept("REPLACE")) {
+            load.replace = true;
+        } else {
+            tokens.accept("IGNORE");
+        }
+        tokens.expect("INTO");
+        tokens.expect("TABLE");
+        load.tableName = tokens.identifier();
+        if (tokens.accept("CHARACTER")) {
+            tokens.expect("SET");
+            String charset = tokens.identifier();
+            if (!charset.toLowerCase().startsWith("utf8") && !charset.equalsIgnoreCase("binary")) {
+                throw new IllegalArgumentException("Unsupported LOAD DATA character set: " + charset);
+            }
+        }
+        if (tokens.accept("FIELDS") || tokens.accept("COLUMNS")) {
+            boolean any = false;
+            while (true) {
+                if (tokens.accept("TERMINATED")) {
+                    tokens.expect("BY");
+                    load.fieldTerminator = nonEmpty(tokens.string(), "FIELDS TERMINATED BY");
+                } else if (tokens.accept("OPTIONALLY") || tokens.peekIs("ENCLOSED")) {
+                    tokens.expect("ENCLOSED");
+                    tokens.expect("BY");
+                    load.enclosedBy = singleByte(tokens.string(), "ENCLOSED BY");
+                } else if (tokens.accept("ESCAPED")) {
+                    tokens.expect("BY");
+                    load.escapedBy = singleByte(tokens.string(), "ESCAPED BY");
+                } else {
+                    break;
+                }
+                any = true;
+            }
+            if (!any) {
+                throw new IllegalArgumentException("FIELDS needs TERMINATED BY, ENCLOSED BY or ESCAPED BY");
+            }
+        }
+        if (tokens.accept("LINES")) {
+            if (tokens.peekIs("STARTING")) {
+                throw new IllegalArgumentException("LINES STARTING BY is not supported");
+            }
+            tokens.expect("TERMINATED");
+            tokens.expect("BY");
+            load.lineTerminator = nonEmpty(tokens.string(), "LINES TERMINATED BY");
+        }
+        if (tokens.accept("IGNORE")) {
+            load.ignoreLines = Long.parseLong(tokens.next());
+            if (!tokens.accept("LINES")) {
+                tokens.expect("ROWS");
+            }
+        }
+        if (tokens.accept("(")) {
+            List<String> columns = new ArrayList<>();
+            do {
+                columns.add(tokens.identifier());
+            } while (tokens.accept(","));
+            tokens.expect(")");
+            load.columns = columns;
+        }
+        if (tokens.peekIs("SET")) {
+            throw new IllegalArgumentException("LOAD DATA ... SET is not supported");
+        }
+        tokens.accept(";");
+        tokens.expectEnd();
+        return load;
+    }
+
+    public boolean isLocal() {
+        return local;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    /**
+     * Whether rows replace existing rows with the same key (REPLACE) instead of being skipped (IGNORE)
+     */
+    public boolean isReplace() {
+        return replace;
+    }
+
+    public String getTableName() {
+        return tableName;
+    }
+
+    public String getFieldTerminator() {
+        return fieldTerminator;
+    }
+
+    /**
+     * Character that may enclose fields, or -1 for none
+     */
+    public int getEnclosedBy() {
+        return enclosedBy;
+    }
+
+    /**
+     * Escape character, or -1 for none
+     */
+    public int getEscapedBy() {
+        return escapedBy;
+    }
+
+    public String getLineTerminator() {
+        return lineTerminator;
+    }
+
+    public long getIgnoreLines() {
+        return ignoreLines;
+    }
+
+    /**
+     * Target columns in field order, empty for all columns of the table
+     */
+    public List<String> getColumns() {
+        return columns;
+    }
+
+    private static String nonEmpty(String value, String clause) {
+        if (value.isEmpty()) {
+            throw new IllegalArgumentException(clause + " must not be empty");
+        }
+        return value;
+    }
+
+    private static int singleByte(String value, String clause) {
+        if (value.isEmpty()) {
+            return -1;
+        }
+        if (value.length() != 1 || value.charAt(0) > 0x7F) {
+            throw new IllegalArgumentException(clause + " must be a single ASCII character: " + value);
+        }
+        return value.charAt(0);
+    }
+
+    /**
+     * Words, quoted strings and punctuation of the statement
+     */
+    private static final class Tokens {
+        private final List<String> tokens = new ArrayList<>();
+        private final List<Boolean> quoted = new ArrayList<>();
+        private int position;
+
+        Tokens(String sql) {
+            int i = 0;
+            int length = sql.length();
+            while (i < length) {
+                char c = sql.charAt(i);
+                if (c <= ' ') {
+                    i++;
+                } else if (c == '\'' || c == '"') {
+                    StringBuilder value = new StringBuilder();
+                    i = readQuoted(sql, i, c, value);
+                    add(value.toString(), true);
+                } else if (c == '`') {
+                    int end = SqlLexer.skipQuoted(sql, i, c);
+                    add(sql.substring(i + 1, end - 1).replace("``", "`"), false);
+                    i = end;
+                } else if (c == '(' || c == ')' || c == ',' || c == ';') {
+                    add(String.valueOf(c), false);
+                    i++;
+                } else {
+                    int start = i;
+                    while (i < length && sql.charAt(i) > ' ' && "'\"`(),;".indexOf(sql.charAt(i)) < 0) {
+                        i++;
+                    }
+                    add(sql.substring(start, i), false);
+                }
+            }
+        }
+
+        private void add(String token, boolean isQuoted) {
+            tokens.add(token);
+            quoted.add(isQuoted);
+        }
+
+        /**
+         * Read a quoted string with MySQL escapes into {@code value}; returns the index after it
+         */
+        private static int readQuoted(String sql, int start, char quote, StringBuilder value) {
+            int i = start + 1;
+            while (i < sql.length()) {
+                char c = sql.charAt(i);
+                if (c == '\\' && i + 1 < sql.length()) {
+                    char escaped = sql.charAt(i + 1);
+                    switch (escaped) {
+                        case 'n': value.append('\n'); break;
+                        case 't': value.append('\t'); break;
+                        case 'r': value.append('\r'); break;
+                        case '0': value.append('\0'); break;
+                        case 'b': value.append('\b'); break;
+                        case 'Z': value.append((char) 0x1A); break;
+                        default: value.append(escaped); break;
+                    }
+                    i += 2;
+                } else if (c == quote) {
+                    if (i + 1 < sql.length() && sql.charAt(i + 1) == quote) {
+                        value.append(quote);
+                        i += 2;
+                    } else {
+                        return i + 1;
+                    }
+                } else {
+                    value.append(c);
+                    i++;
+                }
+            }
+            throw new IllegalArgumentException("Unterminated string in LOAD DATA statement");
+        }
+
+        boolean peekIs(String word) {
+            return position < tokens.size() && !quoted.get(position) && tokens.get(position).equalsIgnoreCase(word);
+        }
+
+        boolean accept(String word) {
+            if (peekIs(word)) {
+                position++;
+                return true;
+            }
+            return false;
+        }
+
+        void expect(String word) {
+            if (!accept(word)) {
+                throw new IllegalArgumentException("Expected " + word + " in LOAD DATA statement near "
+                        + (position < tokens.size() ? "'" + tokens.get(position) + "'" : "end"));
+            }
+        }
+
+        String next() {
+            if (position >= tokens.size()) {
+                throw new IllegalArgumentException("Unexpected end of LOAD DATA statement");
+            }
+            return tokens.get(position++);
+        }
+
+        String string() {
+            if (position >= tokens.size() || !quoted.get(position)) {
+                throw new IllegalArgumentException("Expected a quoted string in LOAD DATA statement");
+            }
+            return tokens.get(position++);
+        }
+
+        String identifier() {
+            if (position < tokens.size() && quoted.get(position)) {
+                throw new IllegalArgumentException("Expected a name in LOAD DATA statement");
+            }
+            String name = next();
+            if (name.indexOf('.') >= 0) {
+                throw new IllegalArgumentException("Qualified names are not supported in LOAD DATA: " + name);
+            }
+            return name;
+        }
+
+        void expectEnd() {
+            if (position < tokens.size()) {
+                throw new IllegalArgumentException("Unexpected '" + tokens.get(position) + "' in LOAD DATA statement");
+            }
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package cc.fastsoft.sql;
+
+import cc.fastsoft.db.DatabaseEngine;
+import cc.fastsoft.db.Session;
+import cc.fastsoft.db.schema.Column;
+import net.sf.jsqlparser.statement.Statement;
+
+import java.util.List;
+
+/**
+ * Prepared SQL - A statement parsed once and executed many times with different parameters
+ *
+ * Holds the parsed statement together with the number of {@code ?} markers and,
+ * for queries, the result column names and types resolved at prepare time.
+ */
+public class PreparedSql {
+    private final String sql;
+    private final Statement statement;
+    private final int parameterCount;
+    private final List<String> columns;
+    private final List<Column.ColumnType> columnTypes;
+
+    private PreparedSql(String sql, Statement statement, int parameterCount,
+                        List<String> columns, List<Column.ColumnType> columnTypes) {
+        this.sql = sql;
+        this.statement = statement;
+        this.parameterCount = parameterCount;
+        this.columns = columns;
+        this.columnTypes = columnTypes;
+    }
+
+    /**
+     * Parse a statement and resolve its result columns against the session's database
+     */
+    public static PreparedSql prepare(String sql, DatabaseEngine databaseEngine, Session session) throws Exception {
+        Statement statement = SqlParse.parse(sql);
+        SqlData description = SqlParse.describe(statement, databaseEngine, session);
+        return new PreparedSql(sql, statement, countParameters(sql),
+                description.getColumns(), description.getColumnTypes());
+    }
+
+    /**
+     * Execute with the given parameter values, one per marker in marker order
+     */
+    public SqlData execute(DatabaseEngine databaseEngine, Session session, List<Object> params) throws Exception {
+        if (params.size() != parameterCount) {
+            throw new IllegalStateException("Expected " + parameterCount + " parameters, got " + params.size());
+        }
+        return SqlParse.execute(statement, databaseEngine, session, params);
+    }
+
+    public String getSql() {
+        return sql;
+    }
+
+    public int getParameterCount() {
+        return parameterCount;
+    }
+
+    /**
+     * Result column names; empty for statements that return an update count
+     */
+    public List<String> getColumns() {
+        return columns;
+    }
+
+    public List<Column.ColumnType> getColumnTypes() {
+        return columnTypes;
+    }
+
+    /**
+     * Count the {@code ?} markers outside of quoted strings, identifiers and comments
+     */
+    static int countParameters(String sql) {
+        int count = 0;
+        int length = sql.length();
+        for (int i = 0; i < length; i++) {
+            char c = sql.charAt(i);
+            if (c == '\'' || c == '"' || c == '`') {
+                for (i++; i < length; i++) {
+                    char q = sql.charAt(i);
+                    if (q == '\\' && c != '`') {
+                        i++;
+                    } else if (q == c) {
+                        break;
+                    }
+                }
+            } else if (c == '-' && i + 1 < length && sql.charAt(i + 1) == '-' || c == '#') {
+                while (i < length && sql.charAt(i) != '\n') {
+                    i++;
+                }
+            } else if (c == '/' && i + 1 < length && sql.charAt(i + 1) == '*') {
+                int end = sql.indexOf("*/", i + 2);
+                i = end < 0 ? length : end + 1;
+            } else if (c == '?') {
+                count++;
+            }
+        }
+        return count;
+    }
+}
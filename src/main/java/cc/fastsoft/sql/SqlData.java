@@ -1,11 +1,51 @@
 package cc.fastsoft.sql;
 
+import cc.fastsoft.db.schema.Column;
+import cc.fastsoft.sql.exec.Operator;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
+/**
+ * Result of executing a statement
+ *
+ * A query result is backed either by an {@link Operator} that streams its rows
+ * (consumers should pull them with {@link #getOperator()}) or by a materialized
+ * row list. Statements without a result set report the number of affected rows.
+ */
 public class SqlData {
     private List<String> columns;
+    private List<Column.ColumnType> columnTypes;
     private List<Map<String, Object>> rows;
+    private Operator operator;
+    private boolean resultSet = true;
+    private long affectedRows;
+    private long lastInsertId;
+
+    /**
+     * Create the result of a statement that returns no rows (INSERT, UPDATE, DELETE)
+     */
+    public static SqlData affected(long affectedRows) {
+        SqlData result = new SqlData();
+        result.setColumns(Collections.emptyList());
+        result.setRows(Collections.emptyList());
+        result.resultSet = false;
+        result.affectedRows = affectedRows;
+        return result;
+    }
+
+    /**
+     * Create the result of an INSERT that generated AUTO_INCREMENT values, the first
+     * of which is reported to the client
+     */
+    public static SqlData inserted(long affectedRows, long lastInsertId) {
+        SqlData result = affected(affectedRows);
+        result.lastInsertId = lastInsertId;
+        return result;
+    }
 
     public List<String> getColumns() {
         return columns;
@@ -15,11 +55,77 @@ public class SqlData {
         this.columns = columns;
     }
 
+    /**
+     * Types of the result columns; an entry is null when the column is not a
+     * plain table column (e.g. an expression)
+     */
+    public List<Column.ColumnType> getColumnTypes() {
+        return columnTypes;
+    }
+
+    public void setColumnTypes(List<Column.ColumnType> columnTypes) {
+        this.columnTypes = columnTypes;
+    }
+
+    /**
+     * Get all rows keyed by column name. Drains and closes the operator of a
+     * streaming result, so use {@link #getOperator()} for large results.
+     */
     public List<Map<String, Object>> getRows() {
+        if (rows == null && operator != null) {
+            rows = materialize();
+        }
         return rows;
     }
 
     public void setRows(List<Map<String, Object>> rows) {
         this.rows = rows;
     }
+
+    /**
+     * Operator streaming the result rows, or null for a materialized result
+     */
+    public Operator getOperator() {
+        return rows == null ? operator : null;
+    }
+
+    public void setOperator(Operator operator) {
+        this.operator = operator;
+    }
+
+    /**
+     * Whether the statement produced a result set (as opposed to an update count)
+     */
+    public boolean isResultSet() {
+        return resultSet;
+    }
+
+    public long getAffectedRows() {
+        return affectedRows;
+    }
+
+    /**
+     * First AUTO_INCREMENT value generated by the statement, or 0
+     */
+    public long getLastInsertId() {
+        return lastInsertId;
+    }
+
+    private List<Map<String, Object>> materialize() {
+        List<Map<String, Object>> result = new ArrayList<>();
+        try (Operator op = operator) {
+            op.open();
+            Object[] values;
+            while ((values = op.next()) != null) {
+                Map<String, Object> row = new LinkedHashMap<>();
+                for (int i = 0; i < columns.size(); i++) {
+                    row.put(columns.get(i), values[i]);
+                }
+                result.add(row);
+            }
+        } catch (Exception e) {
+            throw new IllegalStateException("Failed to read result rows", e);
+        }
+        return result;
+    }
 }
@@ -0,0 +1,164 @@
+package cc.fastsoft.sql;
+
+/**
+ * SQL Lexer - One pass over a COM_QUERY statement that strips comments, collapses
+ * whitespace outside of quoted text and classifies the statement by its leading words
+ *
+ * The statement text is only copied when there is something to strip; the leading
+ * words are kept as positions into the text and compared without case conversion.
+ */
+public final class SqlLexer {
+
+    /** Leading words remembered for dispatch, e.g. SHOW SESSION STATUS */
+    static final int MAX_WORDS = 3;
+
+    private SqlLexer() {
+    }
+
+    /**
+     * Statement category, decided by the first word
+     */
+    public enum StatementType {
+        SELECT, SHOW, SET, USE, DML, DDL, TRANSACTION, OTHER
+    }
+
+    /**
+     * Lex a statement
+     */
+    public static LexedSql lex(String sql) {
+        if (sql == null) {
+            sql = "";
+        }
+        int length = sql.length();
+        StringBuilder out = null; // only created once the text has to change
+        boolean pendingSpace = false;
+        boolean previousSeparator = false;
+        boolean executableComment = false;
+        int[] wordStarts = new int[MAX_WORDS];
+        int[] wordEnds = new int[MAX_WORDS];
+        int words = 0;
+        boolean inWord = false;
+
+        int i = 0;
+        while (i < length) {
+            char c = sql.charAt(i);
+            int end;
+            boolean separator = true;
+            if (c == '\'' || c == '"' || c == '`') {
+                end = skipQuoted(sql, i, c);
+                separator = false;
+            } else if (c == '#' || c == '-' && sql.startsWith("--", i)
+                    && (i + 2 == length || sql.charAt(i + 2) <= ' ')) {
+                int newline = sql.indexOf('\n', i);
+                end = newline < 0 ? length : newline;
+            } else if (c == '/' && sql.startsWith("/*!", i)) {
+                // Executable comment /*!50003 ... */: keep the content, drop the markers
+                end = i + 3;
+                while (end < length && Character.isDigit(sql.charAt(end))) {
+                    end++;
+                }
+                executableComment = true;
+            } else if (c == '/' && sql.startsWith("/*", i)) {
+                int close = sql.indexOf("*/", i + 2);
+                end = close < 0 ? length : close + 2;
+            } else if (c == '*' && executableComment && sql.startsWith("*/", i)) {
+                end = i + 2;
+                executableComment = false;
+            } else if (c <= ' ') {
+                end = i + 1;
+                while (end < length && sql.charAt(end) <= ' ') {
+                    end++;
+                }
+            } else {
+                end = i + 1;
+                separator = false;
+            }
+
+            if (separator) {
+                if (inWord) {
+                    wordEnds[words++] = i;
+                    inWord = false;
+                }
+                // Anything but a single blank between two tokens changes the text
+                if (out == null && (i == 0 || end == length || previousSeparator || end - i != 1 || c != ' ')) {
+                    out = new StringBuilder(length);
+                    out.append(sql, 0, previousSeparator ? i - 1 : i);
+                }
+                pendingSpace = true;
+            } else {
+                if (!inWord && words < MAX_WORDS) {
+                    wordStarts[words] = i;
+                    inWord = true;
+                }
+                if (out != null) {
+                    if (pendingSpace && out.length() > 0) {
+                        out.append(' ');
+                    }
+                    out.append(sql, i, end);
+                }
+                pendingSpace = false;
+            }
+            previousSeparator = separator;
+            i = end;
+        }
+        if (inWord) {
+            wordEnds[words++] = length;
+        }
+        return new LexedSql(out == null ? sql : out.toString(), sql, wordStarts, wordEnds, words);
+    }
+
+    /**
+     * Index just past the closing quote of the quoted text starting at {@code start}
+     */
+    static int skipQuoted(String sql, int start, char quote) {
+        int length = sql.length();
+        int i = start + 1;
+        while (i < length) {
+            char c = sql.charAt(i);
+            if (c == '\\' && quote != '`') {
+                i += 2;
+            } else if (c == quote) {
+                if (i + 1 < length && sql.charAt(i + 1) == quote) {
+                    i += 2;
+                } else {
+                    return i + 1;
+                }
+            } else {
+                i++;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Statement type of a first word
+     */
+    static StatementType classify(String sql, int start, int end) {
+        if (is(sql, start, end, "SELECT") || is(sql, start, end, "WITH")) {
+            return StatementType.SELECT;
+        } else if (is(sql, start, end, "SHOW") || is(sql, start, end, "DESC") || is(sql, start, end, "DESCRIBE")) {
+            return StatementType.SHOW;
+        } else if (is(sql, start, end, "SET")) {
+            return StatementType.SET;
+        } else if (is(sql, start, end, "USE")) {
+            return StatementType.USE;
+        } else if (is(sql, start, end, "INSERT") || is(sql, start, end, "UPDATE") || is(sql, start, end, "DELETE")
+                || is(sql, start, end, "REPLACE") || is(sql, start, end, "LOAD")) {
+            return StatementType.DML;
+        } else if (is(sql, start, end, "CREATE") || is(sql, start, end, "DROP") || is(sql, start, end, "ALTER")
+                || is(sql, start, end, "TRUNCATE") || is(sql, start, end, "RENAME")) {
+            return StatementType.DDL;
+        } else if (is(sql, start, end, "BEGIN") || is(sql, start, end, "START") || is(sql, start, end, "COMMIT")
+                || is(sql, start, end, "ROLLBACK")) {
+            return StatementType.TRANSACTION;
+        }
+        return StatementType.OTHER;
+    }
+
+    /**
+     * Case-insensitive comparison of sql[start, end) with an upper case word
+     */
+    static boolean is(String sql, int start, int end, String word) {
+        return end - start == word.length() && sql.regionMatches(true, start, word, 0, word.length());
+    }
+}
@@ -0,0 +1,228 @@
+package cc.fastsoft.sql;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * SQL Normalizer - Replaces the literals of a statement with parameter markers
+ *
+ * {@code SELECT * FROM t WHERE id = 1} and {@code ... WHERE id = 2} both normalize to
+ * {@code SELECT * FROM t WHERE id = ?}, with the literal values returned separately in
+ * marker order, so that they can share one parsed statement.
+ *
+ * Only literals in value positions are replaced (after WHERE, VALUES, SET, LIMIT, ...).
+ * The select list and ORDER BY / GROUP BY keep their literals, because there a literal
+ * names a result column or a column position rather than a value.
+ */
+final class SqlNormalizer {
+
+    /** Keywords after which literals are values */
+    private static final Set<String> VALUE_CLAUSES = Set.of("WHERE", "VALUES", "VALUE", "SET", "LIMIT", "OFFSET",
+            "HAVING", "ON");
+    /** Keywords after which literals are kept as written */
+    private static final Set<String> VERBATIM_CLAUSES = Set.of("SELECT", "ORDER", "GROUP");
+
+    private SqlNormalizer() {
+    }
+
+    /**
+     * Normalized statement text and the literal values taken out of it
+     */
+    static final class Normalized {
+        final String sql;
+        final List<Object> literals;
+
+        Normalized(String sql, List<Object> literals) {
+            this.sql = sql;
+            this.literals = literals;
+        }
+    }
+
+    /**
+     * Normalize a statement, or return null when it already contains parameter markers
+     */
+    static Normalized normalize(String sql) {
+        StringBuilder out = new StringBuilder(sql.length());
+        List<Object> literals = new ArrayList<>();
+        boolean values = false;
+        int length = sql.length();
+        int i = 0;
+        while (i < length) {
+            char c = sql.charAt(i);
+            if (c == '\'') {
+                int end = skipQuoted(sql, i, c);
+                if (values && !isIdentifierPart(previous(sql, i))) {
+                    literals.add(unescape(sql, i + 1, end - 1));
+                    out.append('?');
+                } else {
+                    // Introducers and hex/bit literals (_utf8'..', x'..') stay as written
+                    out.append(sql, i, end);
+                }
+                i = end;
+            } else if (c == '"' || c == '`') {
+                int end = skipQuoted(sql, i, c);
+                out.append(sql, i, end);
+                i = end;
+            } else if (c == '#' || c == '-' && i + 1 < length && sql.charAt(i + 1) == '-') {
+                int end = sql.indexOf('\n', i);
+                end = end < 0 ? length : end;
+                out.append(sql, i, end);
+                i = end;
+            } else if (c == '/' && i + 1 < length && sql.charAt(i + 1) == '*') {
+                int end = sql.indexOf("*/", i + 2);
+                end = end < 0 ? length : end + 2;
+                out.append(sql, i, end);
+                i = end;
+            } else if (isDigit(c) && !isIdentifierPart(previous(sql, i)) && previous(sql, i) != '.') {
+                int end = scanNumber(sql, i);
+                Object number = end < length && isIdentifierPart(sql.charAt(end)) ? null : parseNumber(sql, i, end);
+                if (number == null) {
+                    // Hex literal, identifier starting with a digit, or out of range
+                    while (end < length && isIdentifierPart(sql.charAt(end))) {
+                        end++;
+                    }
+                    out.append(sql, i, end);
+                } else if (values) {
+                    literals.add(number);
+                    out.append('?');
+                } else {
+                    out.append(sql, i, end);
+                }
+                i = end;
+            } else if (Character.isLetter(c) || c == '_') {
+                int end = i + 1;
+                while (end < length && isIdentifierPart(sql.charAt(end))) {
+                    end++;
+                }
+                String word = sql.substring(i, end).toUpperCase(Locale.ROOT);
+                if (VALUE_CLAUSES.contains(word)) {
+                    values = true;
+                } else if (VERBATIM_CLAUSES.contains(word)) {
+                    values = false;
+                }
+                out.append(sql, i, end);
+                i = end;
+            } else if (c == '?') {
+                return null;
+            } else {
+                out.append(c);
+                i++;
+            }
+        }
+        return new Normalized(out.toString(), literals);
+    }
+
+    /**
+     * Index just past the closing quote of the quoted text starting at {@code start}
+     */
+    private static int skipQuoted(String sql, int start, char quote) {
+        int length = sql.length();
+        int i = start + 1;
+        while (i < length) {
+            char c = sql.charAt(i);
+            if (c == '\\' && quote != '`') {
+                i += 2;
+            } else if (c == quote) {
+                if (i + 1 < length && sql.charAt(i + 1) == quote) {
+                    i += 2;
+                } else {
+                    return i + 1;
+                }
+            } else {
+                i++;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * String literal content with MySQL escapes ({@code ''}, {@code \'}, {@code \n}, ...) resolved
+     */
+    private static String unescape(String sql, int start, int end) {
+        StringBuilder value = new StringBuilder(Math.max(0, end - start));
+        for (int i = start; i < end; i++) {
+            char c = sql.charAt(i);
+            if (c == '\\' && i + 1 < end) {
+                char next = sql.charAt(++i);
+                switch (next) {
+                    case 'n': value.append('\n'); break;
+                    case 't': value.append('\t'); break;
+                    case 'r': value.append('\r'); break;
+                    case 'b': value.append('\b'); break;
+                    case '0': value.append('\0'); break;
+                    case 'Z': value.append('\u001A'); break;
+                    // LIKE wildcards keep their backslash
+                    case '%':
+                    case '_': value.append('\\').append(next); break;
+                    default: value.append(next); break;
+                }
+            } else if (c == '\'' && i + 1 < end && sql.charAt(i + 1) == '\'') {
+                value.append('\'');
+                i++;
+            } else {
+                value.append(c);
+            }
+        }
+        return value.toString();
+    }
+
+    private static int scanNumber(String sql, int start) {
+        int length = sql.length();
+        int i = start;
+        while (i < length && isDigit(sql.charAt(i))) {
+            i++;
+        }
+        if (i + 1 < length && sql.charAt(i) == '.' && isDigit(sql.charAt(i + 1))) {
+            i++;
+            while (i < length && isDigit(sql.charAt(i))) {
+                i++;
+            }
+        }
+        if (i < length && (sql.charAt(i) == 'e' || sql.charAt(i) == 'E')) {
+            int exponent = i + 1;
+            if (exponent < length && (sql.charAt(exponent) == '+' || sql.charAt(exponent) == '-')) {
+                exponent++;
+            }
+            if (exponent < length && isDigit(sql.charAt(exponent))) {
+                i = exponent;
+                while (i < length && isDigit(sql.charAt(i))) {
+                    i++;
+                }
+            }
+        }
+        return i;
+    }
+
+    /**
+     * Same Java types the parser produces for the literal: Integer, Long or Double
+     */
+    private static Object parseNumber(String sql, int start, int end) {
+        String text = sql.substring(start, end);
+        try {
+            if (text.indexOf('.') >= 0 || text.indexOf('e') >= 0 || text.indexOf('E') >= 0) {
+                return Double.parseDouble(text);
+            }
+            long value = Long.parseLong(text);
+            if (value <= Integer.MAX_VALUE) {
+                return (int) value;
+            }
+            return value;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static char previous(String sql, int i) {
+        return i == 0 ? ' ' : sql.charAt(i - 1);
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isIdentifierPart(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '$';
+    }
+}
@@ -1,83 +1,980 @@
 package cc.fastsoft.sql;
 
 
+import cc.fastsoft.config.ServerConfig;
 import cc.fastsoft.db.DatabaseEngine;
+import cc.fastsoft.db.Session;
+import cc.fastsoft.db.core.SessionTransaction;
+import cc.fastsoft.db.core.StatementBatch;
+import cc.fastsoft.db.core.StorageManager;
+import cc.fastsoft.db.schema.IndexSchema;
 import cc.fastsoft.db.schema.TableSchema;
+import cc.fastsoft.sql.exec.EvaluateOperator;
+import cc.fastsoft.sql.exec.ExpressionCompiler;
+import cc.fastsoft.sql.exec.ExpressionPredicate;
+import cc.fastsoft.sql.exec.FilterOperator;
+import cc.fastsoft.sql.exec.HashAggregateOperator;
+import cc.fastsoft.sql.exec.HashJoinOperator;
+import cc.fastsoft.sql.exec.IndexNestedLoopJoinOperator;
+import cc.fastsoft.sql.exec.IndexScanOperator;
+import cc.fastsoft.sql.exec.LimitOperator;
+import cc.fastsoft.sql.exec.MultiGetOperator;
+import cc.fastsoft.sql.exec.Operator;
+import cc.fastsoft.sql.exec.PointLookupOperator;
+import cc.fastsoft.sql.exec.ProjectOperator;
+import cc.fastsoft.sql.exec.RowComparator;
+import cc.fastsoft.sql.exec.RowCountOperator;
+import cc.fastsoft.sql.exec.RowEvaluator;
+import cc.fastsoft.sql.exec.SortOperator;
+import cc.fastsoft.sql.exec.TableScanOperator;
+import cc.fastsoft.sql.exec.TopNOperator;
+import cc.fastsoft.sql.plan.AccessPath;
+import cc.fastsoft.sql.plan.AccessPathPlanner;
+import cc.fastsoft.sql.plan.Literals;
+import net.sf.jsqlparser.expression.BinaryExpression;
 import net.sf.jsqlparser.expression.Expression;
+import net.sf.jsqlparser.expression.ExpressionVisitorAdapter;
+import net.sf.jsqlparser.expression.Function;
+import net.sf.jsqlparser.expression.LongValue;
+import net.sf.jsqlparser.expression.NotExpression;
+import net.sf.jsqlparser.expression.operators.conditional.AndExpression;
+import net.sf.jsqlparser.expression.operators.conditional.OrExpression;
+import net.sf.jsqlparser.expression.operators.conditional.XorExpression;
 import net.sf.jsqlparser.expression.operators.relational.EqualsTo;
+import net.sf.jsqlparser.expression.operators.relational.ExpressionList;
+import net.sf.jsqlparser.expression.operators.relational.InExpression;
+import net.sf.jsqlparser.expression.operators.relational.ParenthesedExpressionList;
 import net.sf.jsqlparser.parser.CCJSqlParserUtil;
 import net.sf.jsqlparser.schema.Column;
+import net.sf.jsqlparser.schema.Table;
 import net.sf.jsqlparser.statement.Statement;
+import net.sf.jsqlparser.statement.create.index.CreateIndex;
+import net.sf.jsqlparser.statement.create.table.ColumnDefinition;
+import net.sf.jsqlparser.statement.create.table.CreateTable;
+import net.sf.jsqlparser.statement.create.table.Index;
 import net.sf.jsqlparser.statement.delete.Delete;
+import net.sf.jsqlparser.statement.drop.Drop;
 import net.sf.jsqlparser.statement.insert.Insert;
 import net.sf.jsqlparser.statement.select.*;
+import net.sf.jsqlparser.statement.truncate.Truncate;
 import net.sf.jsqlparser.statement.update.Update;
 import net.sf.jsqlparser.statement.update.UpdateSet;
+import org.rocksdb.RocksDBException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.stream.Collectors;
 
 public class SqlParse {
     private static Logger logger = LoggerFactory.getLogger(SqlParse.class);
 
+    // Cost of a primary key lookup relative to reading one row of a scan
+    private static final int LOOKUP_COST = 3;
 
-    public static SqlData parseSql(String sql, DatabaseEngine databaseEngine) throws Exception {
+
+    public static SqlData parseSql(String sql, DatabaseEngine databaseEngine, Session session) throws Exception {
         // Parse SQL statement
-        Statement stmt = CCJSqlParserUtil.parse(sql);
+        Statement stmt = parse(sql);
         logger.info("Parsed SQL Statement: {}", stmt.getClass().getSimpleName());
+        return execute(stmt, databaseEngine, session, Collections.emptyList());
+    }
 
-        if (stmt instanceof Select) {
-            return handleSelectStatement((Select) stmt, databaseEngine);
-        } else if (stmt instanceof Insert) {
-            return handleInsertStatement((Insert) stmt, databaseEngine);
+    /**
+     * Parse a statement. JSqlParser reads {@code a IN (1, 2) AND b = 3} as
+     * {@code a IN ((1, 2) AND b = 3)}; conditions holding such IN predicates are
+     * rebuilt with the precedence of their AND / XOR / OR connectives.
+     */
+    public static Statement parse(String sql) throws Exception {
+        Statement stmt = CCJSqlParserUtil.parse(sql);
+        if (stmt instanceof Select && ((Select) stmt).getPlainSelect() != null) {
+            PlainSelect plainSelect = ((Select) stmt).getPlainSelect();
+            plainSelect.setWhere(repairInLists(plainSelect.getWhere()));
+            plainSelect.setHaving(repairInLists(plainSelect.getHaving()));
+            if (plainSelect.getJoins() != null) {
+                for (Join join : plainSelect.getJoins()) {
+                    if (join.getOnExpressions() != null && !join.getOnExpressions().isEmpty()) {
+                        List<Expression> on = new ArrayList<>();
+                        for (Expression expr : join.getOnExpressions()) {
+                            on.add(repairInLists(expr));
+                        }
+                        join.setOnExpressions(on);
+                    }
+                }
+            }
         } else if (stmt instanceof Update) {
-            return handleUpdateStatement((Update) stmt, databaseEngine);
+            ((Update) stmt).setWhere(repairInLists(((Update) stmt).getWhere()));
         } else if (stmt instanceof Delete) {
-            return handleDeleteStatement((Delete) stmt, databaseEngine);
+            ((Delete) stmt).setWhere(repairInLists(((Delete) stmt).getWhere()));
+        }
+        return stmt;
+    }
+
+    /**
+     * Rebuild the AND / OR / XOR chain an expression belongs to with MySQL's
+     * precedence. JSqlParser lets an IN list swallow everything after it, with a
+     * leading NOT, so an IN predicate may hold the rest of its chain; the chain is
+     * flattened into its operands and connectives, the IN and NOT taking back only
+     * their first operand, and associated again.
+     */
+    private static Expression repairInLists(Expression expr) {
+        if (expr == null) {
+            return null;
+        }
+        List<Expression> operands = new ArrayList<>();
+        List<Connective> connectives = new ArrayList<>();
+        flattenConnectives(expr, operands, connectives);
+        return associate(operands, connectives, 0, operands.size() - 1, Connective.OR);
+    }
+
+    /**
+     * Add the operands of a chain in source order, and the connective between each
+     * operand and the next
+     */
+    private static void flattenConnectives(Expression expr, List<Expression> operands,
+                                           List<Connective> connectives) {
+        Connective connective = Connective.of(expr);
+        if (connective != null) {
+            BinaryExpression binary = (BinaryExpression) expr;
+            flattenConnectives(binary.getLeftExpression(), operands, connectives);
+            connectives.add(connective);
+            flattenConnectives(binary.getRightExpression(), operands, connectives);
+        } else if (expr instanceof InExpression && Connective.of(((InExpression) expr).getRightExpression()) != null) {
+            // The IN list is the first operand of the swallowed chain
+            InExpression in = (InExpression) expr;
+            int first = operands.size();
+            flattenConnectives(in.getRightExpression(), operands, connectives);
+            in.setRightExpression(operands.get(first));
+            operands.set(first, in);
+        } else if (expr instanceof NotExpression) {
+            // NOT binds tighter than AND, so it only negates the first operand
+            NotExpression not = (NotExpression) expr;
+            int first = operands.size();
+            flattenConnectives(not.getExpression(), operands, connectives);
+            not.setExpression(operands.get(first));
+            operands.set(first, not);
+        } else if (expr instanceof ParenthesedExpressionList && ((ParenthesedExpressionList<?>) expr).size() == 1) {
+            @SuppressWarnings("unchecked")
+            ParenthesedExpressionList<Expression> list = (ParenthesedExpressionList<Expression>) expr;
+            list.set(0, repairInLists(list.get(0)));
+            operands.add(list);
+        } else {
+            operands.add(expr);
+        }
+    }
+
+    /**
+     * Associate operands {@code from} to {@code to} of a flattened chain, splitting
+     * at the connectives of {@code level} and associating the parts between them at
+     * the next tighter level
+     */
+    private static Expression associate(List<Expression> operands, List<Connective> connectives,
+                                        int from, int to, Connective level) {
+        if (level == null) {
+            return operands.get(from);
+        }
+        Expression result = null;
+        int start = from;
+        for (int i = from; i <= to; i++) {
+            if (i == to || connectives.get(i) == level) {
+                Expression part = associate(operands, connectives, start, i, level.tighter());
+                result = result == null ? part : level.combine(result, part);
+                start = i + 1;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Boolean connectives from the loosest to the tightest binding
+     */
+    private enum Connective {
+        OR, XOR, AND;
+
+        static Connective of(Expression expr) {
+            if (expr instanceof OrExpression) return OR;
+            if (expr instanceof XorExpression) return XOR;
+            if (expr instanceof AndExpression) return AND;
+            return null;
+        }
+
+        Connective tighter() {
+            return this == AND ? null : values()[ordinal() + 1];
+        }
+
+        Expression combine(Expression left, Expression right) {
+            switch (this) {
+                case OR:
+                    return new OrExpression(left, right);
+                case XOR:
+                    return new XorExpression(left, right);
+                default:
+                    return new AndExpression(left, right);
+            }
+        }
+    }
+
+    /**
+     * Execute an already parsed statement. {@code params} holds the values bound to
+     * the statement's parameter markers, in marker order.
+     */
+    public static SqlData execute(Statement stmt, DatabaseEngine databaseEngine, Session session,
+                                  List<Object> params) throws Exception {
+        if (stmt instanceof Select) {
+            return handleSelectStatement((Select) stmt, databaseEngine, session, params);
+        } else if (stmt instanceof Insert || stmt instanceof Update || stmt instanceof Delete) {
+            return executeWrite(stmt, databaseEngine, session, params);
+        }
+        // DDL is not transactional: it commits the session's open transaction first
+        databaseEngine.commit(session);
+        if (stmt instanceof CreateTable) {
+            return handleCreateTableStatement((CreateTable) stmt, databaseEngine, session);
+        } else if (stmt instanceof CreateIndex) {
+            return handleCreateIndexStatement((CreateIndex) stmt, databaseEngine, session);
+        } else if (stmt instanceof Drop) {
+            return handleDropStatement((Drop) stmt, databaseEngine, session);
+        } else if (stmt instanceof Truncate) {
+            return handleTruncateStatement((Truncate) stmt, databaseEngine, session);
         } else {
             logger.warn("Unsupported SQL statement type: {}", stmt.getClass().getSimpleName());
             throw new Exception("Unsupported SQL statement type: " + stmt.getClass().getSimpleName());
         }
     }
 
-    private static SqlData handleSelectStatement(Select selectStmt, DatabaseEngine databaseEngine) throws Exception {
+    /**
+     * Execute an INSERT, UPDATE or DELETE. A statement running as its own transaction
+     * is run again when it conflicts with a concurrent one, up to
+     * {@link ServerConfig#getWriteConflictRetries()} times; in a session's transaction
+     * the conflict is left to the client, which must restart the transaction.
+     */
+    private static SqlData executeWrite(Statement stmt, DatabaseEngine databaseEngine, Session session,
+                                        List<Object> params) throws Exception {
+        int retries = session.isAutocommit() && !session.isInTransaction() ? ServerConfig.getWriteConflictRetries() : 0;
+        for (int attempt = 0; ; attempt++) {
+            try {
+                if (stmt instanceof Insert) {
+                    return handleInsertStatement((Insert) stmt, databaseEngine, session, params);
+                } else if (stmt instanceof Update) {
+                    return handleUpdateStatement((Update) stmt, databaseEngine, session, params);
+                }
+                return handleDeleteStatement((Delete) stmt, databaseEngine, session, params);
+            } catch (RocksDBException e) {
+                if (attempt >= retries || !SessionTransaction.isConflict(e)) {
+                    throw e;
+                }
+                logger.debug("Write conflict, running statement again (attempt {})", attempt + 1);
+                // Back off a little, so that colliding statements do not collide again
+                Thread.sleep(ThreadLocalRandom.current().nextInt(1 << Math.min(attempt, 5)) + 1);
+            }
+        }
+    }
+
+    /**
+     * Describe the result of a statement without executing it: the result columns
+     * and their types for a SELECT, an empty update count otherwise
+     */
+    public static SqlData describe(Statement stmt, DatabaseEngine databaseEngine, Session session) throws Exception {
+        if (!(stmt instanceof Select)) {
+            return SqlData.affected(0);
+        }
+        PlainSelect plainSelect = plainSelect((Select) stmt);
+        TableSchema schema = isJoin(plainSelect) ? joinedSchema(joinTables(plainSelect, databaseEngine, session))
+                : tableSchema(tableName(plainSelect.getFromItem()), databaseEngine, session);
+        SqlData result = new SqlData();
+        describeSelect(plainSelect, schema, result);
+        return result;
+    }
+
+    private static SqlData handleSelectStatement(Select selectStmt, DatabaseEngine databaseEngine, Session session,
+                                                 List<Object> params) throws Exception {
         logger.info("Handling SELECT statement");
 
+        PlainSelect plainSelect = plainSelect(selectStmt);
+
+        // Get the table, or the tables of a join whose rows hold the columns of all of them
+        List<JoinTable> joinTables = isJoin(plainSelect) ? joinTables(plainSelect, databaseEngine, session) : null;
+        String tableName = joinTables == null ? tableName(plainSelect.getFromItem()) : null;
+        logger.info("Table name: {}", joinTables == null ? tableName : plainSelect.getFromItem() + " " + plainSelect.getJoins());
+        TableSchema schema = joinTables == null ? tableSchema(tableName, databaseEngine, session)
+                : joinedSchema(joinTables);
+
+        SqlData result = new SqlData();
+        boolean isSelectAll = describeSelect(plainSelect, schema, result);
+        List<SelectItem<?>> selectItems = plainSelect.getSelectItems();
+        logger.info("Column names: {}", result.getColumns());
+
+        if (isAggregate(plainSelect)) {
+            result.setOperator(buildAggregatePlan(plainSelect, tableName, joinTables, schema, databaseEngine, session,
+                    params));
+            return result;
+        }
+
+        // Build the operator tree: access path -> filter -> sort -> limit -> project
+        Expression where = plainSelect.getWhere();
+        List<OrderByElement> orderBy = resolveOrderBy(plainSelect, schema, isSelectAll);
+        Set<String> requiredColumns = null;
+        if (!isSelectAll) {
+            requiredColumns = new HashSet<>();
+            for (SelectItem<?> item : selectItems) {
+                collectColumns(item.getExpression(), requiredColumns);
+            }
+            if (where != null) {
+                collectColumns(where, requiredColumns);
+            }
+            if (orderBy != null) {
+                for (OrderByElement element : orderBy) {
+                    collectColumns(element.getExpression(), requiredColumns);
+                }
+            }
+        }
+
+        Operator plan;
+        boolean ordered = false;
+        if (joinTables == null) {
+            boolean limited = plainSelect.getLimit() != null && plainSelect.getLimit().getRowCount() != null;
+            AccessPath accessPath = AccessPathPlanner.plan(schema, where, params, orderBy, limited);
+            plan = buildScan(tableName, schema, where, accessPath, requiredColumns, databaseEngine, session, params);
+            ordered = accessPath.isOrdered();
+        } else {
+            plan = buildJoin(plainSelect, joinTables, databaseEngine, session, params);
+        }
+
+        // Sort unless the access path already reads the rows in order
+        RowComparator comparator = orderBy == null || ordered ? null : new RowComparator(orderBy, schema, params);
+        plan = sortAndLimit(plan, comparator, plainSelect, databaseEngine, params);
+
+        // Project columns (handle column selection and aliases)
+        if (!isSelectAll) {
+            int[] projection = new int[selectItems.size()];
+            for (int i = 0; i < selectItems.size(); i++) {
+                Expression expr = selectItems.get(i).getExpression();
+                projection[i] = expr instanceof Column ? ExpressionCompiler.columnOrdinal(schema, (Column) expr) : -1;
+            }
+            plan = new ProjectOperator(plan, projection);
+        }
+
+        result.setOperator(plan);
+        return result;
+    }
+
+    private static PlainSelect plainSelect(Select selectStmt) throws Exception {
         PlainSelect plainSelect = selectStmt.getPlainSelect();
-        if (plainSelect == null) {
+        if (plainSelect == null || plainSelect.getFromItem() == null) {
             throw new Exception("Only simple SELECT statements are supported");
         }
+        return plainSelect;
+    }
 
-        // Get table name
-        String tableName = plainSelect.getFromItem().toString();
-        logger.info("Table name: {}", tableName);
+    /**
+     * Name of the table a FROM item reads
+     */
+    private static String tableName(FromItem fromItem) throws Exception {
+        if (!(fromItem instanceof Table)) {
+            throw new Exception("Only tables are supported in FROM: " + fromItem);
+        }
+        return ((Table) fromItem).getName();
+    }
 
-        // Get table schema
-        TableSchema schema = databaseEngine.getTableSchema(tableName);
+    private static TableSchema tableSchema(String tableName, DatabaseEngine databaseEngine, Session session)
+            throws Exception {
+        TableSchema schema = databaseEngine.getTableSchema(session, tableName);
         if (schema == null) {
             throw new Exception("Table not found: " + tableName);
         }
+        return schema;
+    }
+
+    // ==================== Joins ====================
+
+    /**
+     * A table of a join: its position in the FROM clause and the name its columns
+     * are qualified with in the query
+     */
+    private static final class JoinTable {
+        final int index;
+        final String tableName;
+        final String qualifier;
+        final TableSchema schema;
+
+        JoinTable(int index, String tableName, String qualifier, TableSchema schema) {
+            this.index = index;
+            this.tableName = tableName;
+            this.qualifier = qualifier;
+            this.schema = schema;
+        }
+    }
+
+    private static boolean isJoin(PlainSelect plainSelect) {
+        return plainSelect.getJoins() != null && !plainSelect.getJoins().isEmpty();
+    }
+
+    /**
+     * The tables of a join in FROM clause order
+     */
+    private static List<JoinTable> joinTables(PlainSelect plainSelect, DatabaseEngine databaseEngine,
+                                              Session session) throws Exception {
+        List<FromItem> fromItems = new ArrayList<>();
+        fromItems.add(plainSelect.getFromItem());
+        for (Join join : plainSelect.getJoins()) {
+            if (join.isRight() || join.isFull() || join.isNatural() || join.isCross() && join.getOnExpressions() != null
+                    && !join.getOnExpressions().isEmpty()
+                    || join.getUsingColumns() != null && !join.getUsingColumns().isEmpty()) {
+                throw new Exception("Unsupported join: " + join);
+            }
+            fromItems.add(join.getFromItem());
+        }
+        List<JoinTable> tables = new ArrayList<>();
+        for (FromItem fromItem : fromItems) {
+            String tableName = tableName(fromItem);
+            TableSchema schema = tableSchema(tableName, databaseEngine, session);
+            String qualifier = fromItem.getAlias() != null ? unquote(fromItem.getAlias().getName()) : unquote(tableName);
+            for (JoinTable table : tables) {
+                if (table.qualifier.equals(qualifier)) {
+                    throw new Exception("Not unique table/alias: '" + qualifier + "'");
+                }
+            }
+            tables.add(new JoinTable(tables.size(), tableName, qualifier, schema));
+        }
+        return tables;
+    }
+
+    private static TableSchema joinedSchema(List<JoinTable> tables) {
+        return joinedSchema(tables, tables.size());
+    }
+
+    /**
+     * Schema of the rows joining the first {@code count} tables, with columns named
+     * {@code qualifier.column}
+     */
+    private static TableSchema joinedSchema(List<JoinTable> tables, int count) {
+        List<cc.fastsoft.db.schema.Column> columns = new ArrayList<>();
+        for (JoinTable table : tables.subList(0, count)) {
+            for (cc.fastsoft.db.schema.Column column : table.schema.columns) {
+                columns.add(new cc.fastsoft.db.schema.Column(table.qualifier + "." + column.name, column.type));
+            }
+        }
+        return new TableSchema(tables.get(0).tableName, columns, List.of());
+    }
+
+    /**
+     * Build the operator tree joining the tables of a SELECT, left to right, with
+     * its WHERE clause applied
+     *
+     * A WHERE conjunct on a single table is evaluated by that table's scan, unless
+     * a LEFT JOIN can NULL-extend the table. ON conjuncts on the joined table alone
+     * restrict its scan; equalities between it and the tables before it are the
+     * join keys. If the joined table's whole primary key is a join key and the rows
+     * joined so far are few compared to the table, each row looks up its match by
+     * primary key (index nested loop join). Otherwise the table is scanned and
+     * hash joined, building the hash table from the smaller estimated input.
+     */
+    private static Operator buildJoin(PlainSelect plainSelect, List<JoinTable> tables, DatabaseEngine databaseEngine,
+                                      Session session, List<Object> params) throws Exception {
+        List<Join> joins = plainSelect.getJoins();
+        boolean[] nullExtended = new boolean[tables.size()];
+        for (int i = 0; i < joins.size(); i++) {
+            nullExtended[i + 1] = joins.get(i).isLeft();
+        }
+
+        // WHERE conjuncts on one table restrict its scan; those on several are joined
+        // on by the inner join of the last of them
+        List<List<Expression>> pushed = new ArrayList<>();
+        List<List<Expression>> joinedOn = new ArrayList<>();
+        for (int i = 0; i < tables.size(); i++) {
+            pushed.add(new ArrayList<>());
+            joinedOn.add(new ArrayList<>());
+        }
+        List<Expression> remaining = new ArrayList<>();
+        if (plainSelect.getWhere() != null) {
+            for (Expression conjunct : AccessPathPlanner.splitConjuncts(plainSelect.getWhere())) {
+                Set<Integer> referenced = referencedTables(conjunct, tables);
+                int last = referenced.isEmpty() ? -1 : Collections.max(referenced);
+                if (last < 0 || nullExtended[last]) {
+                    remaining.add(conjunct);
+                } else if (referenced.size() == 1) {
+                    pushed.get(last).add(conjunct);
+                } else {
+                    joinedOn.get(last).add(conjunct);
+                }
+            }
+        }
+
+        StorageManager storage = databaseEngine.getStorageManager(session);
+        JoinTable first = tables.get(0);
+        Expression firstWhere = conjunction(pushed.get(0));
+        AccessPath firstPath = AccessPathPlanner.plan(first.schema, firstWhere, params);
+        Operator plan = buildScan(first.tableName, first.schema, firstWhere, firstPath, null, databaseEngine, session,
+                params);
+        double rows = estimateRows(storage, first.schema, firstPath, firstWhere);
+
+        for (int i = 1; i < tables.size(); i++) {
+            JoinTable inner = tables.get(i);
+            TableSchema leftSchema = joinedSchema(tables, i);
+            List<Expression> leftKeys = new ArrayList<>();
+            List<Expression> rightKeys = new ArrayList<>();
+            List<Expression> innerConjuncts = new ArrayList<>(pushed.get(i));
+            List<Expression> residual = new ArrayList<>();
+            List<Expression> conditions = new ArrayList<>(joinedOn.get(i));
+            Collection<Expression> onExpressions = joins.get(i - 1).getOnExpressions();
+            for (Expression on : onExpressions == null ? List.<Expression>of() : onExpressions) {
+                conditions.addAll(AccessPathPlanner.splitConjuncts(on));
+            }
+            for (Expression conjunct : conditions) {
+                Set<Integer> referenced = referencedTables(conjunct, tables);
+                if (referenced.stream().anyMatch(table -> table > inner.index)) {
+                    throw new Exception("Unknown column in 'on clause': " + conjunct);
+                }
+                if (referenced.equals(Set.of(i))) {
+                    innerConjuncts.add(conjunct);
+                    continue;
+                }
+                if (conjunct instanceof EqualsTo) {
+                    Expression left = ((EqualsTo) conjunct).getLeftExpression();
+                    Expression right = ((EqualsTo) conjunct).getRightExpression();
+                    Set<Integer> leftTables = referencedTables(left, tables);
+                    Set<Integer> rightTables = referencedTables(right, tables);
+                    if (!leftTables.isEmpty() && !leftTables.contains(i) && rightTables.equals(Set.of(i))) {
+                        leftKeys.add(left);
+                        rightKeys.add(right);
+                        continue;
+                    }
+                    if (!rightTables.isEmpty() && !rightTables.contains(i) && leftTables.equals(Set.of(i))) {
+                        leftKeys.add(right);
+                        rightKeys.add(left);
+                        continue;
+                    }
+                }
+                residual.add(conjunct);
+            }
+
+            Expression innerWhere = conjunction(innerConjuncts);
+            AccessPath innerPath = AccessPathPlanner.plan(inner.schema, innerWhere, params);
+            double innerScanRows = estimateRows(storage, inner.schema, innerPath, null);
+            double innerRows = estimateRows(storage, inner.schema, innerPath, innerWhere);
+            TableSchema joinedSchema = joinedSchema(tables, i + 1);
+
+            // Index nested loop join: the primary key of the inner row follows from the left row,
+            // by keys whose lookup finds what their equality matches
+            Map<String, Expression> primaryKeyValues = new HashMap<>();
+            Map<String, RowEvaluator> lookupKeyValues = new HashMap<>();
+            for (int k = 0; k < rightKeys.size(); k++) {
+                Expression rightKey = rightKeys.get(k);
+                if (rightKey instanceof Column) {
+                    String column = unquote(((Column) rightKey).getColumnName());
+                    if (inner.schema.primaryKeyColumns.contains(column) && !primaryKeyValues.containsKey(column)) {
+                        RowEvaluator key = ExpressionCompiler.compileValue(leftKeys.get(k), leftSchema, params);
+                        if (IndexNestedLoopJoinOperator.canLookUp(key, inner.schema.getColumn(column).type)) {
+                            primaryKeyValues.put(column, leftKeys.get(k));
+                            lookupKeyValues.put(column, key);
+                        }
+                    }
+                }
+            }
+            if (primaryKeyValues.size() == inner.schema.primaryKeyColumns.size()
+                    && rows * LOOKUP_COST < rows + innerScanRows) {
+                List<RowEvaluator> lookupKeys = new ArrayList<>();
+                for (String column : inner.schema.primaryKeyColumns) {
+                    lookupKeys.add(lookupKeyValues.get(column));
+                }
+                // Key equalities not used for the lookup are checked on the joined row
+                for (int k = 0; k < rightKeys.size(); k++) {
+                    Expression rightKey = rightKeys.get(k);
+                    if (!(rightKey instanceof Column)
+                            || primaryKeyValues.get(unquote(((Column) rightKey).getColumnName())) != leftKeys.get(k)) {
+                        residual.add(new EqualsTo(leftKeys.get(k), rightKey));
+                    }
+                }
+                logger.info("Join {}: index nested loop on primary key", inner.qualifier);
+                plan = new IndexNestedLoopJoinOperator(plan, storage, inner.schema, lookupKeys,
+                        innerWhere == null ? null : new ExpressionPredicate(innerWhere, inner.schema, params),
+                        joinCondition(residual, joinedSchema, params), nullExtended[i],
+                        ServerConfig.getMultiGetBatchSize());
+                continue;
+            }
+
+            List<RowEvaluator> leftKeyValues = new ArrayList<>();
+            List<RowEvaluator> rightKeyValues = new ArrayList<>();
+            for (int k = 0; k < leftKeys.size(); k++) {
+                leftKeyValues.add(ExpressionCompiler.compileValue(leftKeys.get(k), leftSchema, params));
+                rightKeyValues.add(ExpressionCompiler.compileValue(rightKeys.get(k), inner.schema, params));
+            }
+            boolean buildLeft = !nullExtended[i] && rows < innerRows;
+            logger.info("Join {}: hash join on {} building {}", inner.qualifier, rightKeys,
+                    buildLeft ? "the left input" : inner.qualifier);
+            Operator innerPlan = buildScan(inner.tableName, inner.schema, innerWhere, innerPath, null,
+                    databaseEngine, session, params);
+            plan = new HashJoinOperator(plan, innerPlan, leftKeyValues, rightKeyValues,
+                    joinCondition(residual, joinedSchema, params), nullExtended[i], inner.schema.columns.size(),
+                    buildLeft, ServerConfig.getJoinBufferSize(), databaseEngine.getSpillDirectory());
+            rows = leftKeys.isEmpty() ? rows * innerRows : Math.max(rows, innerRows);
+        }
+
+        if (!remaining.isEmpty()) {
+            plan = new FilterOperator(plan, new ExpressionPredicate(conjunction(remaining), joinedSchema(tables), params));
+        }
+        return plan;
+    }
+
+    private static RowEvaluator joinCondition(List<Expression> conjuncts, TableSchema joinedSchema,
+                                              List<Object> params) {
+        return conjuncts.isEmpty() ? null
+                : ExpressionCompiler.compileCondition(conjunction(conjuncts), joinedSchema, params);
+    }
+
+    /**
+     * Estimated number of rows an access path produces, assuming a range or index
+     * seek keeps a tenth of the table and a further filter half of the rest
+     */
+    private static double estimateRows(StorageManager storage, TableSchema schema, AccessPath accessPath,
+                                       Expression filter) throws Exception {
+        if (accessPath.isPointLookup()) {
+            return 1;
+        }
+        if (accessPath.isMultiGet()) {
+            return Math.max(1, accessPath.getPrimaryKeys().size());
+        }
+        double rows = storage.estimateRowCount(schema);
+        if (accessPath.isRangeScan() || accessPath.isIndexSeek()) {
+            rows *= 0.1;
+        }
+        if (filter != null) {
+            rows *= 0.5;
+        }
+        return Math.max(1, rows);
+    }
+
+    /**
+     * Positions of the join tables an expression refers to
+     */
+    private static Set<Integer> referencedTables(Expression expr, List<JoinTable> tables) {
+        Set<Integer> referenced = new HashSet<>();
+        expr.accept(new ExpressionVisitorAdapter<Void>() {
+            @Override
+            public <S> Void visit(Column column, S context) {
+                String name = unquote(column.getColumnName());
+                String qualifier = column.getTable() == null || column.getTable().getName() == null ? null
+                        : unquote(column.getTable().getName());
+                int found = -1;
+                for (int i = 0; i < tables.size(); i++) {
+                    JoinTable table = tables.get(i);
+                    if ((qualifier == null || table.qualifier.equals(qualifier)) && table.schema.getColumn(name) != null) {
+                        if (found >= 0) {
+                            throw new IllegalArgumentException("Column '" + name + "' is ambiguous");
+                        }
+                        found = i;
+                    }
+                }
+                if (found < 0) {
+                    throw new IllegalArgumentException("Unknown column '" + column + "'");
+                }
+                referenced.add(found);
+                return null;
+            }
+        }, null);
+        return referenced;
+    }
+
+    private static Expression conjunction(List<Expression> conjuncts) {
+        Expression result = null;
+        for (Expression conjunct : conjuncts) {
+            result = result == null ? conjunct : new AndExpression(result, conjunct);
+        }
+        return result;
+    }
+
+    /**
+     * Sort the rows of a plan with the comparator, if any, and apply the LIMIT of the
+     * SELECT. With a small LIMIT only the first rows are kept while sorting.
+     */
+    private static Operator sortAndLimit(Operator plan, RowComparator comparator, PlainSelect plainSelect,
+                                         DatabaseEngine databaseEngine, List<Object> params) throws Exception {
+        Limit limit = plainSelect.getLimit();
+        boolean limited = limit != null && limit.getRowCount() != null;
+        long limitCount = limited ? limitValue(limit.getRowCount(), params) : 0;
+        long offset = 0;
+        if (limited && limit.getOffset() != null) {
+            offset = limitValue(limit.getOffset(), params);
+        } else if (limited && plainSelect.getOffset() != null) {
+            // LIMIT n OFFSET m is parsed as a separate clause
+            offset = limitValue(plainSelect.getOffset().getOffset(), params);
+        }
+
+        if (comparator != null) {
+            if (limited && limitCount <= TopNOperator.MAX_ROWS && offset <= TopNOperator.MAX_ROWS - limitCount) {
+                plan = new TopNOperator(plan, comparator, offset + limitCount);
+            } else {
+                plan = new SortOperator(plan, comparator, ServerConfig.getSortBufferSize(),
+                        databaseEngine.getSpillDirectory());
+            }
+        }
+        if (limited) {
+            plan = new LimitOperator(plan, offset, limitCount);
+        }
+        return plan;
+    }
+
+    /**
+     * Whether a SELECT groups rows: it has GROUP BY or HAVING, or calls an aggregate function
+     */
+    private static boolean isAggregate(PlainSelect plainSelect) {
+        if (plainSelect.getGroupBy() != null || plainSelect.getHaving() != null) {
+            return true;
+        }
+        List<Function> calls = new ArrayList<>();
+        for (SelectItem<?> item : plainSelect.getSelectItems()) {
+            collectAggregates(item.getExpression(), calls);
+        }
+        return !calls.isEmpty();
+    }
+
+    /**
+     * Build the operator tree of a grouping SELECT:
+     * access path -> filter -> hash aggregate -> having -> sort -> limit -> evaluate.
+     * Rows after the aggregation hold the GROUP BY values followed by the aggregate
+     * results, and the later clauses are compiled over them.
+     */
+    private static Operator buildAggregatePlan(PlainSelect plainSelect, String tableName, List<JoinTable> joinTables,
+                                               TableSchema schema, DatabaseEngine databaseEngine,
+                                               Session session, List<Object> params) throws Exception {
+        List<SelectItem<?>> selectItems = plainSelect.getSelectItems();
+        Expression where = plainSelect.getWhere();
+        Expression having = plainSelect.getHaving();
+        for (SelectItem<?> item : selectItems) {
+            if (item.getExpression() instanceof AllColumns) {
+                throw new Exception("SELECT * is not supported with GROUP BY or aggregate functions");
+            }
+        }
+
+        // SELECT COUNT(*) FROM t counts keys without decoding rows
+        if (joinTables == null && plainSelect.getGroupBy() == null && where == null && having == null
+                && selectItems.size() == 1
+                && isCountAll(selectItems.get(0).getExpression())) {
+            Operator plan = new RowCountOperator(databaseEngine.getStorageManager(session), schema);
+            return sortAndLimit(plan, null, plainSelect, databaseEngine, params);
+        }
+
+        List<Expression> groupBy = resolveGroupBy(plainSelect, schema);
+        List<OrderByElement> orderBy = resolveOrderBy(plainSelect, schema, false);
+        List<Function> aggregates = new ArrayList<>();
+        for (SelectItem<?> item : selectItems) {
+            collectAggregates(item.getExpression(), aggregates);
+        }
+        if (having != null) {
+            collectAggregates(having, aggregates);
+        }
+        if (orderBy != null) {
+            for (OrderByElement element : orderBy) {
+                collectAggregates(element.getExpression(), aggregates);
+            }
+        }
+
+        // Columns of the grouped rows, named after the expressions they hold
+        List<cc.fastsoft.db.schema.Column> groupColumns = new ArrayList<>();
+        List<RowEvaluator> groupKeys = new ArrayList<>();
+        List<HashAggregateOperator.Call> calls = new ArrayList<>();
+        Set<String> requiredColumns = new HashSet<>();
+        for (Expression expr : groupBy) {
+            groupColumns.add(new cc.fastsoft.db.schema.Column(ExpressionCompiler.groupedName(expr),
+                    columnType(expr, schema)));
+            groupKeys.add(ExpressionCompiler.compileValue(expr, schema, params));
+            collectColumns(expr, requiredColumns);
+        }
+        for (Function aggregate : aggregates) {
+            groupColumns.add(new cc.fastsoft.db.schema.Column(ExpressionCompiler.groupedName(aggregate),
+                    aggregateType(aggregate, schema)));
+            calls.add(aggregateCall(aggregate, schema, params));
+            if (!isCountAll(aggregate)) {
+                collectColumns(aggregate, requiredColumns);
+            }
+        }
+        TableSchema groupSchema = new TableSchema(schema.tableName, groupColumns, List.of());
+        if (where != null) {
+            collectColumns(where, requiredColumns);
+        }
+
+        Operator plan = joinTables != null ? buildJoin(plainSelect, joinTables, databaseEngine, session, params)
+                : buildScan(tableName, schema, where, AccessPathPlanner.plan(schema, where, params, null, false),
+                requiredColumns, databaseEngine, session, params);
+        plan = new HashAggregateOperator(plan, groupKeys, calls, ServerConfig.getAggregateBufferSize(),
+                databaseEngine.getSpillDirectory());
+        if (having != null) {
+            RowEvaluator condition = ExpressionCompiler.compileGroupedCondition(having, groupSchema, params);
+            plan = new FilterOperator(plan, row -> Boolean.TRUE.equals(condition.evaluate(row)));
+        }
+        RowComparator comparator = orderBy == null ? null : RowComparator.grouped(orderBy, groupSchema, params);
+        plan = sortAndLimit(plan, comparator, plainSelect, databaseEngine, params);
+
+        RowEvaluator[] outputs = new RowEvaluator[selectItems.size()];
+        for (int i = 0; i < outputs.length; i++) {
+            outputs[i] = ExpressionCompiler.compileGroupedValue(selectItems.get(i).getExpression(), groupSchema, params);
+        }
+        return new EvaluateOperator(plan, outputs);
+    }
+
+    /**
+     * GROUP BY expressions with select list positions and aliases replaced by the
+     * expressions they name, without duplicates
+     */
+    private static List<Expression> resolveGroupBy(PlainSelect plainSelect, TableSchema schema) throws Exception {
+        GroupByElement groupBy = plainSelect.getGroupBy();
+        if (groupBy == null) {
+            return List.of();
+        }
+        List<SelectItem<?>> selectItems = plainSelect.getSelectItems();
+        Map<String, Expression> resolved = new LinkedHashMap<>();
+        for (Object element : groupBy.getGroupByExpressionList()) {
+            Expression expr = (Expression) element;
+            if (expr instanceof LongValue) {
+                long position = ((LongValue) expr).getValue();
+                if (position < 1 || position > selectItems.size()) {
+                    throw new Exception("Unknown column '" + position + "' in 'group statement'");
+                }
+                expr = selectItems.get((int) position - 1).getExpression();
+            } else if (expr instanceof Column && ExpressionCompiler.columnOrdinal(schema, (Column) expr) < 0) {
+                String name = unquote(((Column) expr).getColumnName());
+                for (SelectItem<?> item : selectItems) {
+                    if (item.getAlias() != null && unquote(item.getAlias().getName()).equalsIgnoreCase(name)) {
+                        expr = item.getExpression();
+                        break;
+                    }
+                }
+            }
+            if (!collectAggregates(expr, new ArrayList<>()).isEmpty()) {
+                throw new Exception("Can't group on '" + expr + "'");
+            }
+            resolved.putIfAbsent(ExpressionCompiler.groupedName(expr), expr);
+        }
+        return new ArrayList<>(resolved.values());
+    }
+
+    /**
+     * Add the aggregate function calls in an expression, each once
+     */
+    private static List<Function> collectAggregates(Expression expr, List<Function> calls) {
+        expr.accept(new ExpressionVisitorAdapter<Void>() {
+            @Override
+            public <S> Void visit(Function function, S context) {
+                if (HashAggregateOperator.Function.of(function.getName()) == null) {
+                    return super.visit(function, context);
+                }
+                String name = ExpressionCompiler.groupedName(function);
+                if (calls.stream().noneMatch(call -> ExpressionCompiler.groupedName(call).equals(name))) {
+                    calls.add(function);
+                }
+                return null;
+            }
+        }, null);
+        return calls;
+    }
+
+    private static boolean isCountAll(Expression expr) {
+        if (!(expr instanceof Function)) {
+            return false;
+        }
+        Function function = (Function) expr;
+        return "COUNT".equalsIgnoreCase(function.getName()) && !function.isDistinct()
+                && (function.isAllColumns() || (function.getParameters() != null
+                && function.getParameters().size() == 1 && function.getParameters().get(0) instanceof AllColumns));
+    }
+
+    /**
+     * Compile an aggregate function call over rows of the table
+     */
+    private static HashAggregateOperator.Call aggregateCall(Function function, TableSchema schema,
+                                                            List<Object> params) throws Exception {
+        HashAggregateOperator.Function aggregate = HashAggregateOperator.Function.of(function.getName());
+        if (function.isDistinct()) {
+            throw new Exception("Unsupported aggregate: " + function);
+        }
+        if (isCountAll(function)) {
+            return new HashAggregateOperator.Call(aggregate, null, null);
+        }
+        Expression argument = aggregateArgument(function);
+        if (argument == null) {
+            throw new Exception("Incorrect parameter count in the call to " + function.getName());
+        }
+        return new HashAggregateOperator.Call(aggregate, ExpressionCompiler.compileValue(argument, schema, params),
+                columnType(argument, schema));
+    }
+
+    /**
+     * The single argument of an aggregate function call, or null
+     */
+    private static Expression aggregateArgument(Function function) {
+        ExpressionList<?> parameters = function.getParameters();
+        if (parameters == null || parameters.size() != 1 || parameters.get(0) instanceof AllColumns) {
+            return null;
+        }
+        return parameters.get(0);
+    }
+
+    /**
+     * Result type of an aggregate function call, or null when it depends on the rows
+     */
+    private static cc.fastsoft.db.schema.Column.ColumnType aggregateType(Function function, TableSchema schema) {
+        HashAggregateOperator.Function aggregate = HashAggregateOperator.Function.of(function.getName());
+        Expression argument = aggregateArgument(function);
+        cc.fastsoft.db.schema.Column.ColumnType argumentType = argument == null ? null : columnType(argument, schema);
+        switch (aggregate) {
+            case COUNT:
+                return cc.fastsoft.db.schema.Column.ColumnType.LONG;
+            case AVG:
+                return cc.fastsoft.db.schema.Column.ColumnType.DOUBLE;
+            case SUM:
+                if (argumentType == cc.fastsoft.db.schema.Column.ColumnType.INT
+                        || argumentType == cc.fastsoft.db.schema.Column.ColumnType.LONG) {
+                    return cc.fastsoft.db.schema.Column.ColumnType.LONG;
+                }
+                return argumentType == cc.fastsoft.db.schema.Column.ColumnType.DOUBLE ? argumentType : null;
+            default:
+                return argumentType;
+        }
+    }
+
+    /**
+     * Type of a plain column reference, or null for any other expression
+     */
+    private static cc.fastsoft.db.schema.Column.ColumnType columnType(Expression expr, TableSchema schema) {
+        if (!(expr instanceof Column)) {
+            return null;
+        }
+        int ordinal = ExpressionCompiler.columnOrdinal(schema, (Column) expr);
+        return ordinal < 0 ? null : schema.columns.get(ordinal).type;
+    }
 
+    /**
+     * Set the result column names and types of a SELECT; returns whether it is SELECT *
+     */
+    private static boolean describeSelect(PlainSelect plainSelect, TableSchema schema, SqlData result) {
         // Get column names (handle SELECT * and specific columns with aliases)
         List<String> columnNames = new ArrayList<>();
+        List<cc.fastsoft.db.schema.Column.ColumnType> columnTypes = new ArrayList<>();
         List<SelectItem<?>> selectItems = plainSelect.getSelectItems();
 
         boolean isSelectAll = false;
         for (SelectItem<?> item : selectItems) {
             // Check if it's SELECT *
-            String itemStr = item.toString();
-            if ("*".equals(itemStr) || item.toString().contains("*")) {
+            if (item.getExpression() instanceof AllColumns) {
                 // SELECT *
                 isSelectAll = true;
+                // Columns of a join are named table.column; the result shows the column name
                 columnNames = schema.getColumns().stream()
-                        .map(c -> c.name)
+                        .map(c -> c.name.substring(c.name.indexOf('.') + 1))
+                        .collect(Collectors.toList());
+                columnTypes = schema.getColumns().stream()
+                        .map(c -> c.type)
                         .collect(Collectors.toList());
                 break;
             } else {
                 // SELECT column or SELECT column AS alias
                 String fullExpression = item.toString();
+                Expression expr = item.getExpression();
+                if (expr instanceof Function && HashAggregateOperator.Function.of(((Function) expr).getName()) != null) {
+                    columnTypes.add(aggregateType((Function) expr, schema));
+                } else {
+                    columnTypes.add(columnType(expr, schema));
+                }
 
                 // Check if there's an alias (pattern: "column AS alias" or "column alias")
                 if (fullExpression.toLowerCase().contains(" as ")) {
@@ -86,7 +983,6 @@ public class SqlParse {
                     columnNames.add(parts[1].trim());
                 } else {
                     // No alias, use column name
-                    Expression expr = item.getExpression();
                     if (expr instanceof Column) {
                         columnNames.add(((Column) expr).getColumnName());
                     } else {
@@ -96,70 +992,31 @@ public class SqlParse {
             }
         }
 
-        logger.info("Column names: {}", columnNames);
-
-        // Fetch all rows
-        List<Map<String, Object>> allRows = databaseEngine.selectAll(tableName);
-        logger.info("Fetched {} rows", allRows.size());
-
-        // Handle WHERE clause if present
-        Expression where = plainSelect.getWhere();
-        if (where != null) {
-            allRows = filterRows(allRows, where);
-            logger.info("After WHERE filter: {} rows", allRows.size());
-        }
-
-        // Handle LIMIT clause if present
-        Limit limit = plainSelect.getLimit();
-        if (limit != null && limit.getRowCount() instanceof net.sf.jsqlparser.expression.LongValue) {
-            long limitCount = ((net.sf.jsqlparser.expression.LongValue) limit.getRowCount()).getValue();
-            if (allRows.size() > limitCount) {
-                allRows = allRows.subList(0, (int) limitCount);
-            }
-            logger.info("After LIMIT: {} rows", allRows.size());
-        }
-
-        // Project columns (handle column selection and aliases)
-        List<Map<String, Object>> projectedRows = new ArrayList<>();
-        if (!isSelectAll) {
-            for (Map<String, Object> row : allRows) {
-                Map<String, Object> projectedRow = new HashMap<>();
-                int index = 0;
-                for (SelectItem<?> item : selectItems) {
-                    Expression expr = item.getExpression();
-                    String outputName = columnNames.get(index);
-                    String sourceColumn = null;
-
-                    if (expr instanceof Column) {
-                        sourceColumn = ((Column) expr).getColumnName();
-                    }
-
-                    if (sourceColumn != null && row.containsKey(sourceColumn)) {
-                        projectedRow.put(outputName, row.get(sourceColumn));
-                    }
-                    index++;
-                }
-                projectedRows.add(projectedRow);
-            }
-        } else {
-            projectedRows = allRows;
-        }
-
-        SqlData result = new SqlData();
         result.setColumns(columnNames);
-        result.setRows(projectedRows);
+        result.setColumnTypes(columnTypes);
+        return isSelectAll;
+    }
 
-        return result;
+    /**
+     * Evaluate a LIMIT or OFFSET operand (a number or a bound parameter)
+     */
+    private static long limitValue(Expression expr, List<Object> params) throws Exception {
+        Object value = Literals.valueOf(expr, params);
+        if (!(value instanceof Number)) {
+            throw new Exception("Invalid LIMIT value: " + expr);
+        }
+        return ((Number) value).longValue();
     }
 
-    private static SqlData handleInsertStatement(Insert insertStmt, DatabaseEngine databaseEngine) throws Exception {
+    private static SqlData handleInsertStatement(Insert insertStmt, DatabaseEngine databaseEngine, Session session,
+                                                 List<Object> params) throws Exception {
         logger.info("Handling INSERT statement");
 
         String tableName = insertStmt.getTable().getName();
         logger.info("Table name: {}", tableName);
 
         // Get table schema
-        TableSchema schema = databaseEngine.getTableSchema(tableName);
+        TableSchema schema = databaseEngine.getTableSchema(session, tableName);
         if (schema == null) {
             throw new Exception("Table not found: " + tableName);
         }
@@ -173,230 +1030,582 @@ public class SqlParse {
             columnNames = schema.getColumns().stream().map(c -> c.name).collect(Collectors.toList());
         }
 
-        // Parse the INSERT statement string to extract values
-        // This is a simplified approach for jsqlparser 5.3
-        String insertStr = insertStmt.toString();
-        logger.info("INSERT string: {}", insertStr);
-
-        // Check if this is INSERT ... SELECT
-        if (insertStr.toUpperCase().contains("INSERT") &&
-            insertStr.toUpperCase().contains("SELECT") &&
-            !insertStr.toUpperCase().contains("VALUES")) {
+        if (insertStmt.getValues() == null) {
             throw new Exception("INSERT ... SELECT is not supported yet");
         }
+        List<ExpressionList<?>> tuples = valueTuples(insertStmt.getValues().getExpressions());
+        Map<String, RowEvaluator> duplicateUpdates = insertStmt.getDuplicateUpdateSets() == null ? Map.of()
+                : compileDuplicateUpdates(insertStmt.getDuplicateUpdateSets(), schema, params);
+        boolean ignoreDuplicates = insertStmt.isModifierIgnore();
+
+        // Every tuple goes into one batch, so the rows are committed together or not at all.
+        // The batch also answers the duplicate checks, so a key repeated within the
+        // statement counts as a duplicate just like one already stored.
+        StorageManager storage = databaseEngine.getStorageManager(session);
+        long affected = 0;
+        // First AUTO_INCREMENT value the statement generated
+        long firstGenerated = 0;
+        try (StatementBatch batch = storage.newBatch()) {
+            for (ExpressionList<?> values : tuples) {
+                if (columnNames.size() != values.size()) {
+                    throw new Exception("Column count doesn't match value count: "
+                            + columnNames.size() + " vs " + values.size());
+                }
 
-        // Extract values between VALUES and the closing parenthesis
-        int valuesIdx = insertStr.toUpperCase().indexOf("VALUES");
-        if (valuesIdx < 0) {
-            throw new Exception("No VALUES clause found in INSERT statement");
-        }
+                // Build row map
+                Map<String, Object> row = new HashMap<>();
+                for (int i = 0; i < columnNames.size(); i++) {
+                    row.put(columnNames.get(i), evaluateValue(values.get(i), params));
+                }
+                long generated = storage.assignAutoIncrement(schema, row);
+                if (firstGenerated == 0) {
+                    firstGenerated = generated;
+                }
 
-        String valuesStr = insertStr.substring(valuesIdx + 6).trim();
-        // Remove leading ( and trailing )
-        if (valuesStr.startsWith("(")) {
-            valuesStr = valuesStr.substring(1);
-        }
-        if (valuesStr.endsWith(")")) {
-            valuesStr = valuesStr.substring(0, valuesStr.length() - 1);
+                Object[] existing = storage.selectValuesByPrimaryKey(batch, schema, row);
+                if (existing == null) {
+                    storage.insertRow(batch, schema, row);
+                    affected++;
+                } else if (!duplicateUpdates.isEmpty()) {
+                    Map<String, Object> newValues = duplicateUpdateValues(duplicateUpdates, schema, existing, row);
+                    if (!Arrays.equals(existing, mergedValues(schema, existing, newValues))) {
+                        storage.updateRow(batch, schema, existing, newValues);
+                        // MySQL reports an updated duplicate as two affected rows
+                        affected += 2;
+                    }
+                } else if (!ignoreDuplicates) {
+                    throw new IllegalStateException("Duplicate entry for primary key of table "
+                            + schema.tableName + ": " + primaryKeyText(schema, row));
+                }
+            }
+            batch.commit();
         }
+        logger.info("Inserted {} of {} rows", affected, tuples.size());
 
-        // Split by comma (simple parsing - doesn't handle nested commas in strings properly)
-        String[] valueParts = valuesStr.split(",");
-
-        if (columnNames.size() != valueParts.length) {
-            throw new Exception("Column count doesn't match value count: " + columnNames.size() + " vs " + valueParts.length);
+        // Return empty result (INSERT doesn't return data)
+        if (firstGenerated > 0) {
+            session.setLastInsertId(firstGenerated);
+            return SqlData.inserted(affected, firstGenerated);
         }
+        return SqlData.affected(affected);
+    }
 
-        // Build row map
-        Map<String, Object> row = new HashMap<>();
-        for (int i = 0; i < columnNames.size(); i++) {
-            String colName = columnNames.get(i);
-            String valueStr = valueParts[i].trim();
-            Object value = parseValueString(valueStr);
-            row.put(colName, value);
+    /**
+     * Split the VALUES of an INSERT into its row tuples. A single-row INSERT has the
+     * tuple's values directly; a multi-row INSERT has one parenthesized list per row.
+     */
+    private static List<ExpressionList<?>> valueTuples(ExpressionList<?> values) {
+        List<ExpressionList<?>> tuples = new ArrayList<>();
+        if (!values.isEmpty() && values.get(0) instanceof ParenthesedExpressionList) {
+            for (Expression tuple : values) {
+                tuples.add((ExpressionList<?>) tuple);
+            }
+        } else {
+            tuples.add(values);
         }
+        return tuples;
+    }
 
-        logger.info("Inserting row: {}", row);
+    /**
+     * The ON DUPLICATE KEY UPDATE assignments by column, compiled over the values
+     * of the existing row followed by those of the row that was to be inserted.
+     * Columns refer to the existing row and VALUES(column) to the inserted one.
+     */
+    private static Map<String, RowEvaluator> compileDuplicateUpdates(List<UpdateSet> updateSets, TableSchema schema,
+                                                                     List<Object> params) throws Exception {
+        Map<String, RowEvaluator> assignments = new LinkedHashMap<>();
+        for (UpdateSet updateSet : updateSets) {
+            List<Column> columns = updateSet.getColumns();
+            for (int i = 0; i < columns.size(); i++) {
+                String columnName = columns.get(i).getColumnName();
+                if (schema.getColumn(columnName) == null) {
+                    throw new Exception("Unknown column in ON DUPLICATE KEY UPDATE: " + columnName);
+                }
+                assignments.put(columnName,
+                        ExpressionCompiler.compileDuplicateUpdateValue(updateSet.getValue(i), schema, params));
+            }
+        }
+        return assignments;
+    }
 
-        // Insert into database
-        databaseEngine.insert(tableName, row);
+    /**
+     * Values assigned by ON DUPLICATE KEY UPDATE to a row that already exists
+     */
+    private static Map<String, Object> duplicateUpdateValues(Map<String, RowEvaluator> assignments,
+                                                             TableSchema schema, Object[] existing,
+                                                             Map<String, Object> inserted) {
+        List<cc.fastsoft.db.schema.Column> columns = schema.getColumns();
+        Object[] values = Arrays.copyOf(existing, columns.size() * 2);
+        for (int i = 0; i < columns.size(); i++) {
+            values[columns.size() + i] = Literals.coerce(columns.get(i), inserted.get(columns.get(i).name));
+        }
+        Map<String, Object> newValues = new HashMap<>();
+        for (Map.Entry<String, RowEvaluator> assignment : assignments.entrySet()) {
+            newValues.put(assignment.getKey(), Literals.coerce(schema.getColumn(assignment.getKey()),
+                    assignment.getValue().evaluate(values)));
+        }
+        return newValues;
+    }
 
-        // Return empty result (INSERT doesn't return data)
-        SqlData result = new SqlData();
-        result.setColumns(Collections.emptyList());
-        result.setRows(Collections.emptyList());
+    /**
+     * The values of a row in schema column order after applying an update
+     */
+    private static Object[] mergedValues(TableSchema schema, Object[] current, Map<String, Object> newValues) {
+        Object[] merged = current.clone();
+        Map<String, Integer> ordinals = columnOrdinals(schema);
+        for (Map.Entry<String, Object> entry : newValues.entrySet()) {
+            Integer ordinal = ordinals.get(entry.getKey());
+            if (ordinal != null) {
+                merged[ordinal] = entry.getValue();
+            }
+        }
+        return merged;
+    }
 
-        return result;
+    private static String primaryKeyText(TableSchema schema, Map<String, Object> row) {
+        return schema.getPrimaryKeyColumns().stream()
+                .map(column -> String.valueOf(row.get(column)))
+                .collect(Collectors.joining("-"));
     }
 
-    private static SqlData handleUpdateStatement(Update updateStmt, DatabaseEngine databaseEngine) throws Exception {
+    private static SqlData handleUpdateStatement(Update updateStmt, DatabaseEngine databaseEngine, Session session,
+                                                 List<Object> params) throws Exception {
         logger.info("Handling UPDATE statement");
 
         String tableName = updateStmt.getTable().getName();
         logger.info("Table name: {}", tableName);
 
         // Get table schema
-        TableSchema schema = databaseEngine.getTableSchema(tableName);
+        TableSchema schema = databaseEngine.getTableSchema(session, tableName);
         if (schema == null) {
             throw new Exception("Table not found: " + tableName);
         }
 
-        // Get all rows to update
-        List<Map<String, Object>> allRows = databaseEngine.selectAll(tableName);
-
-        // Filter rows by WHERE clause
-        Expression where = updateStmt.getWhere();
-        List<Map<String, Object>> rowsToUpdate = where != null
-                ? filterRows(allRows, where)
-                : allRows;
-
-        logger.info("Found {} rows to update", rowsToUpdate.size());
-
         // Get update values
         List<UpdateSet> updateSets = updateStmt.getUpdateSets();
         Map<String, Object> newValues = new HashMap<>();
 
         for (UpdateSet updateSet : updateSets) {
             List<Column> columns = updateSet.getColumns();
-            // Get expressions from the update set
-            // In jsqlparser 5.x, we need to parse from toString or use getList
             for (int i = 0; i < columns.size(); i++) {
-                String colName = columns.get(i).getColumnName();
-                // Parse from string representation as a workaround
-                String updateStr = updateSet.toString();
-                String[] parts = updateStr.split("=");
-                if (parts.length == 2) {
-                    String valueStr = parts[1].trim();
-                    Object value = parseValueString(valueStr);
-                    newValues.put(colName, value);
-                }
+                newValues.put(columns.get(i).getColumnName(), evaluateValue(updateSet.getValue(i), params));
             }
         }
 
         logger.info("Update values: {}", newValues);
 
-        // Update each matching row
-        for (Map<String, Object> row : rowsToUpdate) {
-            // Extract primary key values
-            Map<String, Object> pkValues = new HashMap<>();
-            for (String pkCol : schema.getPrimaryKeyColumns()) {
-                pkValues.put(pkCol, row.get(pkCol));
-            }
-
-            // Update the row
-            databaseEngine.update(tableName, pkValues, newValues);
+        // Collect the update of each matching row while streaming through the candidates;
+        // the scan does not see the batch, so moved rows are not visited twice
+        StorageManager storage = databaseEngine.getStorageManager(session);
+        long updated;
+        try (StatementBatch batch = storage.newBatch();
+             Operator rows = buildScan(tableName, schema, updateStmt.getWhere(), null, databaseEngine, session,
+                     params)) {
+            updated = forEachMatch(storage, rows, row -> storage.updateRow(batch, schema, row, newValues));
+            batch.commit();
         }
+        logger.info("Updated {} rows", updated);
 
         // Return empty result (UPDATE doesn't return data)
-        SqlData result = new SqlData();
-        result.setColumns(Collections.emptyList());
-        result.setRows(Collections.emptyList());
-
-        return result;
+        return SqlData.affected(updated);
     }
 
-    private static SqlData handleDeleteStatement(Delete deleteStmt, DatabaseEngine databaseEngine) throws Exception {
+    private static SqlData handleDeleteStatement(Delete deleteStmt, DatabaseEngine databaseEngine, Session session,
+                                                 List<Object> params) throws Exception {
         logger.info("Handling DELETE statement");
 
         String tableName = deleteStmt.getTable().getName();
         logger.info("Table name: {}", tableName);
 
         // Get table schema
-        TableSchema schema = databaseEngine.getTableSchema(tableName);
+        TableSchema schema = databaseEngine.getTableSchema(session, tableName);
         if (schema == null) {
             throw new Exception("Table not found: " + tableName);
         }
 
-        // Get all rows
-        List<Map<String, Object>> allRows = databaseEngine.selectAll(tableName);
+        // Collect the delete of each matching row while streaming through the candidates
+        StorageManager storage = databaseEngine.getStorageManager(session);
+        long deleted;
+        try (StatementBatch batch = storage.newBatch();
+             Operator rows = buildScan(tableName, schema, deleteStmt.getWhere(), null, databaseEngine, session,
+                     params)) {
+            deleted = forEachMatch(storage, rows, row -> storage.deleteRow(batch, schema, row));
+            batch.commit();
+        }
+        logger.info("Deleted {} rows", deleted);
 
-        // Filter rows by WHERE clause
-        Expression where = deleteStmt.getWhere();
-        List<Map<String, Object>> rowsToDelete = where != null
-                ? filterRows(allRows, where)
-                : allRows;
+        // Return empty result (DELETE doesn't return data)
+        return SqlData.affected(deleted);
+    }
 
-        logger.info("Found {} rows to delete", rowsToDelete.size());
+    /**
+     * Change of one row matched by an UPDATE or DELETE
+     */
+    private interface RowAction {
+        void apply(Object[] row) throws Exception;
+    }
 
-        // Delete each matching row
-        for (Map<String, Object> row : rowsToDelete) {
-            // Extract primary key values
-            Map<String, Object> pkValues = new HashMap<>();
-            for (String pkCol : schema.getPrimaryKeyColumns()) {
-                pkValues.put(pkCol, row.get(pkCol));
+    /**
+     * Apply an action to every row of a plan and count them. Inside a session's
+     * transaction the scan sees the transaction's own writes, so the rows are all
+     * read before the first one is changed; otherwise they are changed as they stream.
+     */
+    private static long forEachMatch(StorageManager storage, Operator rows, RowAction action) throws Exception {
+        rows.open();
+        long count = 0;
+        Object[] row;
+        if (storage.isInTransaction()) {
+            List<Object[]> matches = new ArrayList<>();
+            while ((row = rows.next()) != null) {
+                matches.add(row);
+            }
+            for (Object[] match : matches) {
+                action.apply(match);
+                count++;
             }
+            return count;
+        }
+        while ((row = rows.next()) != null) {
+            action.apply(row);
+            count++;
+        }
+        return count;
+    }
 
-            // Delete the row
-            databaseEngine.delete(tableName, pkValues);
+    private static SqlData handleCreateTableStatement(CreateTable createStmt, DatabaseEngine databaseEngine,
+                                                      Session session) throws Exception {
+        String tableName = unquote(createStmt.getTable().getName());
+        logger.info("Handling CREATE TABLE {}", tableName);
+
+        if (databaseEngine.tableExists(session, tableName)) {
+            if (createStmt.isIfNotExists()) {
+                return SqlData.affected(0);
+            }
+            throw new Exception("Table already exists: " + tableName);
+        }
+        if (createStmt.getColumnDefinitions() == null) {
+            throw new Exception("CREATE TABLE needs column definitions");
         }
 
-        // Return empty result (DELETE doesn't return data)
-        SqlData result = new SqlData();
-        result.setColumns(Collections.emptyList());
-        result.setRows(Collections.emptyList());
+        List<cc.fastsoft.db.schema.Column> columns = new ArrayList<>();
+        List<String> pkColumns = new ArrayList<>();
+        String autoIncrementColumn = null;
+        for (ColumnDefinition definition : createStmt.getColumnDefinitions()) {
+            String columnName = unquote(definition.getColumnName());
+            List<String> specs = definition.getColumnSpecs();
+            String specText = specs == null ? "" : String.join(" ", specs).toUpperCase();
+            cc.fastsoft.db.schema.Column.ColumnType type = columnType(definition.getColDataType().getDataType());
+            boolean autoIncrement = specText.contains("AUTO_INCREMENT");
+            if (autoIncrement) {
+                if (type != cc.fastsoft.db.schema.Column.ColumnType.INT
+                        && type != cc.fastsoft.db.schema.Column.ColumnType.LONG) {
+                    throw new Exception("Incorrect column specifier for column '" + columnName + "'");
+                }
+                if (autoIncrementColumn != null) {
+                    throw new Exception("Incorrect table definition; there can be only one auto column "
+                            + "and it must be defined as a key");
+                }
+                autoIncrementColumn = columnName;
+            }
+            columns.add(new cc.fastsoft.db.schema.Column(columnName, type, autoIncrement));
+            if (specText.contains("PRIMARY KEY")) {
+                pkColumns.add(columnName);
+            }
+        }
+        List<IndexSchema> indexes = new ArrayList<>();
+        if (createStmt.getIndexes() != null) {
+            for (Index index : createStmt.getIndexes()) {
+                String type = index.getType() == null ? "" : index.getType().toUpperCase();
+                if ("PRIMARY KEY".equals(type)) {
+                    for (String columnName : index.getColumnsNames()) {
+                        pkColumns.add(unquote(columnName));
+                    }
+                } else if (type.endsWith("KEY") || type.endsWith("INDEX")) {
+                    List<String> indexColumns = indexColumns(index);
+                    String indexName = index.getName() == null ? indexColumns.get(0) : unquote(index.getName());
+                    for (String column : indexColumns) {
+                        if (columns.stream().noneMatch(c -> c.name.equals(column))) {
+                            throw new Exception("Key column '" + column + "' doesn't exist in table " + tableName);
+                        }
+                    }
+                    indexes.add(new IndexSchema(indexName, indexColumns, indexes.size() + 1, false));
+                }
+            }
+        }
+        // Rows are stored under their primary key, so every table needs one
+        if (pkColumns.isEmpty()) {
+            throw new Exception("Table " + tableName + " must have a PRIMARY KEY");
+        }
+        // As in MySQL the generated column must lead a key, so that it can be looked up
+        if (autoIncrementColumn != null) {
+            boolean leadsKey = autoIncrementColumn.equals(pkColumns.get(0));
+            for (IndexSchema index : indexes) {
+                leadsKey |= autoIncrementColumn.equals(index.columns.get(0));
+            }
+            if (!leadsKey) {
+                throw new Exception("Incorrect table definition; there can be only one auto column "
+                        + "and it must be defined as a key");
+            }
+        }
 
-        return result;
+        databaseEngine.createTable(session, tableName, columns, pkColumns, indexes);
+        return SqlData.affected(0);
+    }
+
+    private static SqlData handleCreateIndexStatement(CreateIndex createStmt, DatabaseEngine databaseEngine,
+                                                      Session session) throws Exception {
+        String tableName = unquote(createStmt.getTable().getName());
+        Index index = createStmt.getIndex();
+        String indexName = unquote(index.getName());
+        logger.info("Handling CREATE INDEX {} ON {}", indexName, tableName);
+
+        if (!databaseEngine.tableExists(session, tableName)) {
+            throw new Exception("Table not found: " + tableName);
+        }
+        databaseEngine.createIndex(session, tableName, indexName, indexColumns(index));
+        return SqlData.affected(0);
     }
 
     /**
-     * Filter rows based on WHERE clause expression
+     * Column names of an index definition. Uniqueness is not enforced, so a UNIQUE
+     * index is created as a plain index.
      */
-    private static List<Map<String, Object>> filterRows(List<Map<String, Object>> rows, Expression where) {
-        List<Map<String, Object>> filtered = new ArrayList<>();
+    private static List<String> indexColumns(Index index) {
+        if (index.getType() != null && index.getType().toUpperCase().startsWith("UNIQUE")) {
+            logger.warn("UNIQUE is not enforced for index {}", index.getName());
+        }
+        List<String> columns = new ArrayList<>();
+        for (String columnName : index.getColumnsNames()) {
+            columns.add(unquote(columnName));
+        }
+        return columns;
+    }
 
-        for (Map<String, Object> row : rows) {
-            if (evaluateCondition(row, where)) {
-                filtered.add(row);
-            }
+    private static SqlData handleDropStatement(Drop dropStmt, DatabaseEngine databaseEngine,
+                                               Session session) throws Exception {
+        if ("INDEX".equalsIgnoreCase(dropStmt.getType())) {
+            return handleDropIndexStatement(dropStmt, databaseEngine, session);
         }
+        if (!"TABLE".equalsIgnoreCase(dropStmt.getType())) {
+            throw new Exception("Unsupported DROP " + dropStmt.getType());
+        }
+        String tableName = unquote(dropStmt.getName().getName());
+        logger.info("Handling DROP TABLE {}", tableName);
 
-        return filtered;
+        if (!databaseEngine.tableExists(session, tableName)) {
+            if (dropStmt.isIfExists()) {
+                return SqlData.affected(0);
+            }
+            throw new Exception("Table not found: " + tableName);
+        }
+        databaseEngine.dropTable(session, tableName);
+        return SqlData.affected(0);
     }
 
     /**
-     * Evaluate WHERE condition for a row
+     * DROP INDEX index ON table
      */
-    private static boolean evaluateCondition(Map<String, Object> row, Expression expr) {
-        if (expr instanceof EqualsTo) {
-            EqualsTo equals = (EqualsTo) expr;
-            Expression left = equals.getLeftExpression();
-            Expression right = equals.getRightExpression();
+    private static SqlData handleDropIndexStatement(Drop dropStmt, DatabaseEngine databaseEngine,
+                                                    Session session) throws Exception {
+        List<String> parameters = dropStmt.getParameters();
+        if (parameters == null || parameters.size() != 2 || !"ON".equalsIgnoreCase(parameters.get(0))) {
+            throw new Exception("DROP INDEX needs ON table");
+        }
+        String indexName = unquote(dropStmt.getName().getName());
+        String tableName = unquote(parameters.get(1));
+        logger.info("Handling DROP INDEX {} ON {}", indexName, tableName);
 
-            if (left instanceof Column) {
-                String colName = ((Column) left).getColumnName();
-                Object rowValue = row.get(colName);
-                Object compareValue = extractValue(right);
+        if (!databaseEngine.tableExists(session, tableName)) {
+            throw new Exception("Table not found: " + tableName);
+        }
+        databaseEngine.dropIndex(session, tableName, indexName);
+        return SqlData.affected(0);
+    }
 
-                return Objects.equals(rowValue, compareValue);
-            }
+    private static SqlData handleTruncateStatement(Truncate truncateStmt, DatabaseEngine databaseEngine,
+                                                   Session session) throws Exception {
+        String tableName = unquote(truncateStmt.getTable().getName());
+        logger.info("Handling TRUNCATE TABLE {}", tableName);
+
+        if (!databaseEngine.tableExists(session, tableName)) {
+            throw new Exception("Table not found: " + tableName);
+        }
+        databaseEngine.truncateTable(session, tableName);
+        return SqlData.affected(0);
+    }
+
+    /**
+     * Storage type for a SQL column type; length and precision are ignored
+     */
+    private static cc.fastsoft.db.schema.Column.ColumnType columnType(String sqlType) throws Exception {
+        String baseType = sqlType.trim().split("[^A-Za-z]", 2)[0];
+        switch (baseType.toUpperCase()) {
+            case "TINYINT":
+            case "SMALLINT":
+            case "MEDIUMINT":
+            case "INT":
+            case "INTEGER":
+                return cc.fastsoft.db.schema.Column.ColumnType.INT;
+            case "BIGINT":
+                return cc.fastsoft.db.schema.Column.ColumnType.LONG;
+            case "FLOAT":
+                return cc.fastsoft.db.schema.Column.ColumnType.FLOAT;
+            case "DOUBLE":
+            case "REAL":
+            case "DECIMAL":
+            case "NUMERIC":
+                return cc.fastsoft.db.schema.Column.ColumnType.DOUBLE;
+            case "CHAR":
+            case "VARCHAR":
+                return cc.fastsoft.db.schema.Column.ColumnType.VARCHAR;
+            case "TEXT":
+            case "TINYTEXT":
+            case "MEDIUMTEXT":
+            case "LONGTEXT":
+                return cc.fastsoft.db.schema.Column.ColumnType.TEXT;
+            case "DATE":
+                return cc.fastsoft.db.schema.Column.ColumnType.DATE;
+            case "DATETIME":
+            case "TIMESTAMP":
+                return cc.fastsoft.db.schema.Column.ColumnType.DATETIME;
+            case "BOOL":
+            case "BOOLEAN":
+                return cc.fastsoft.db.schema.Column.ColumnType.BOOLEAN;
+            default:
+                throw new Exception("Unsupported column type: " + sqlType);
         }
+    }
 
-        // For unsupported expressions, return true (no filtering)
-        logger.warn("Unsupported WHERE expression type: {}", expr.getClass().getSimpleName());
-        return true;
+    /**
+     * Strip MySQL identifier quotes
+     */
+    private static String unquote(String identifier) {
+        if (identifier.length() > 1 && identifier.startsWith("`") && identifier.endsWith("`")) {
+            return identifier.substring(1, identifier.length() - 1);
+        }
+        return identifier;
     }
 
     /**
-     * Extract value from SQL expression
+     * Build the operator producing the rows that satisfy the WHERE clause.
+     * Uses a primary key point lookup when the predicate binds the whole key,
+     * batched multiGets when it binds the key columns to IN-lists, an index seek
+     * when it binds leading columns of an index, a key range scan when it bounds
+     * the leading primary key column, otherwise a full table scan; the WHERE
+     * filter is applied on top of any of them. When every column in
+     * {@code requiredColumns} is held by the index, the rows are not fetched; null
+     * means the whole row is required.
      */
-    private static Object extractValue(Expression expr) {
-        String str = expr.toString();
+    private static Operator buildScan(String tableName, TableSchema schema,
+                                      Expression where, Set<String> requiredColumns,
+                                      DatabaseEngine databaseEngine, Session session,
+                                      List<Object> params) throws Exception {
+        return buildScan(tableName, schema, where, AccessPathPlanner.plan(schema, where, params), requiredColumns,
+                databaseEngine, session, params);
+    }
 
-        // Remove quotes for string values
-        if (str.startsWith("'") && str.endsWith("'")) {
-            return str.substring(1, str.length() - 1);
+    /**
+     * Build the scan operator for an access path that is already planned
+     */
+    private static Operator buildScan(String tableName, TableSchema schema, Expression where,
+                                      AccessPath accessPath, Set<String> requiredColumns,
+                                      DatabaseEngine databaseEngine, Session session,
+                                      List<Object> params) throws Exception {
+        logger.info("Access path for {}: {}", tableName, accessPath);
+
+        StorageManager storage = databaseEngine.getStorageManager(session);
+        Operator scan;
+        if (accessPath.isPointLookup()) {
+            scan = new PointLookupOperator(storage, schema, accessPath.getPrimaryKeyValues());
+        } else if (accessPath.isMultiGet()) {
+            scan = new MultiGetOperator(storage, schema, accessPath.getPrimaryKeys(), accessPath.isReverse(),
+                    ServerConfig.getMultiGetBatchSize());
+        } else if (accessPath.isIndexSeek()) {
+            IndexSchema index = accessPath.getIndex();
+            boolean covering = requiredColumns != null && requiredColumns.stream()
+                    .allMatch(column -> index.columns.contains(column) || schema.primaryKeyColumns.contains(column));
+            scan = new IndexScanOperator(storage, schema, index, accessPath.getIndexValues(), covering,
+                    accessPath.isReverse());
+        } else {
+            scan = new TableScanOperator(storage, schema, accessPath.getKeyRange(), accessPath.isReverse());
+        }
+        if (where == null) {
+            return scan;
         }
+        return new FilterOperator(scan, new ExpressionPredicate(where, schema, params));
+    }
 
-        // Try to parse as number
-        try {
-            if (str.contains(".")) {
-                return Double.parseDouble(str);
-            } else {
-                return Integer.parseInt(str);
+    /**
+     * ORDER BY items with select aliases and positions (ORDER BY 2) replaced by the
+     * expressions they stand for, or null without ORDER BY
+     */
+    private static List<OrderByElement> resolveOrderBy(PlainSelect plainSelect, TableSchema schema,
+                                                       boolean isSelectAll) throws Exception {
+        List<OrderByElement> orderBy = plainSelect.getOrderByElements();
+        if (orderBy == null || orderBy.isEmpty()) {
+            return null;
+        }
+        List<SelectItem<?>> selectItems = plainSelect.getSelectItems();
+        List<OrderByElement> resolved = new ArrayList<>();
+        for (OrderByElement element : orderBy) {
+            Expression expr = element.getExpression();
+            if (expr instanceof LongValue) {
+                long position = ((LongValue) expr).getValue();
+                int count = isSelectAll ? schema.columns.size() : selectItems.size();
+                if (position < 1 || position > count) {
+                    throw new Exception("Unknown column '" + position + "' in 'order clause'");
+                }
+                expr = isSelectAll ? new Column(schema.columns.get((int) position - 1).name)
+                        : selectItems.get((int) position - 1).getExpression();
+            } else if (expr instanceof Column && ExpressionCompiler.columnOrdinal(schema, (Column) expr) < 0) {
+                String name = unquote(((Column) expr).getColumnName());
+                for (SelectItem<?> item : selectItems) {
+                    if (item.getAlias() != null && unquote(item.getAlias().getName()).equalsIgnoreCase(name)) {
+                        expr = item.getExpression();
+                        break;
+                    }
+                }
             }
-        } catch (NumberFormatException e) {
-            return str;
+            OrderByElement copy = new OrderByElement();
+            copy.setExpression(expr);
+            copy.setAsc(element.isAsc());
+            copy.setAscDescPresent(element.isAscDescPresent());
+            copy.setNullOrdering(element.getNullOrdering());
+            resolved.add(copy);
         }
+        return resolved;
+    }
+
+    /**
+     * Add the names of the columns an expression refers to
+     */
+    private static void collectColumns(Expression expr, Set<String> columns) {
+        expr.accept(new ExpressionVisitorAdapter<Void>() {
+            @Override
+            public <S> Void visit(Column column, S context) {
+                columns.add(unquote(column.getColumnName()));
+                return null;
+            }
+        }, null);
+    }
+
+    /**
+     * Map column names to their position in rows of the table
+     */
+    private static Map<String, Integer> columnOrdinals(TableSchema schema) {
+        Map<String, Integer> ordinals = new HashMap<>();
+        for (int i = 0; i < schema.columns.size(); i++) {
+            ordinals.put(schema.columns.get(i).name, i);
+        }
+        return ordinals;
+    }
+
+    /**
+     * Value of an INSERT/UPDATE expression: a literal or bound parameter, otherwise its SQL text
+     */
+    private static Object evaluateValue(Expression expr, List<Object> params) {
+        Object value = Literals.valueOf(expr, params);
+        return value == Literals.NOT_A_LITERAL ? parseValueString(expr.toString()) : value;
     }
 
     /**
@@ -1,6 +1,7 @@
 package cc.fastsoft.sql;
 
 import cc.fastsoft.db.DatabaseEngine;
+import cc.fastsoft.db.Session;
 import cc.fastsoft.db.schema.Column;
 
 import java.util.List;
@@ -18,7 +19,8 @@ public class SqlParseExample {
 
             // Create database
             engine.createDatabase("demo_db");
-            engine.useDatabase("demo_db");
+            Session session = new Session();
+            engine.useDatabase(session, "demo_db");
             System.out.println("✓ Created database: demo_db");
 
             // Create table
@@ -28,7 +30,7 @@ public class SqlParseExample {
                     new Column("email", Column.ColumnType.STRING),
                     new Column("age", Column.ColumnType.INT)
             );
-            engine.createTable("users", columns, List.of("id"));
+            engine.createTable(session, "users", columns, List.of("id"));
             System.out.println("✓ Created table: users");
             System.out.println();
 
@@ -42,7 +44,7 @@ public class SqlParseExample {
             };
 
             for (String sql : insertSqls) {
-                SqlParse.parseSql(sql, engine);
+                SqlParse.parseSql(sql, engine, session);
                 System.out.println("✓ " + sql);
             }
             System.out.println();
@@ -50,59 +52,59 @@ public class SqlParseExample {
             // SELECT ALL
             System.out.println("--- SELECT * FROM users ---");
             String selectAllSql = "SELECT * FROM users";
-            SqlData result = SqlParse.parseSql(selectAllSql, engine);
+            SqlData result = SqlParse.parseSql(selectAllSql, engine, session);
             printResult(result);
             System.out.println();
 
             // SELECT with specific columns
             System.out.println("--- SELECT id, name FROM users ---");
             String selectColumnsSql = "SELECT id, name FROM users";
-            result = SqlParse.parseSql(selectColumnsSql, engine);
+            result = SqlParse.parseSql(selectColumnsSql, engine, session);
             printResult(result);
             System.out.println();
 
             // SELECT with alias
             System.out.println("--- SELECT id AS user_id, name AS user_name FROM users ---");
             String selectAliasSql = "SELECT id AS user_id, name AS user_name FROM users";
-            result = SqlParse.parseSql(selectAliasSql, engine);
+            result = SqlParse.parseSql(selectAliasSql, engine, session);
             printResult(result);
             System.out.println();
 
             // SELECT with WHERE
             System.out.println("--- SELECT * FROM users WHERE id = 2 ---");
             String selectWhereSql = "SELECT * FROM users WHERE id = 2";
-            result = SqlParse.parseSql(selectWhereSql, engine);
+            result = SqlParse.parseSql(selectWhereSql, engine, session);
             printResult(result);
             System.out.println();
 
             // SELECT with LIMIT
             System.out.println("--- SELECT * FROM users LIMIT 2 ---");
             String selectLimitSql = "SELECT * FROM users LIMIT 2";
-            result = SqlParse.parseSql(selectLimitSql, engine);
+            result = SqlParse.parseSql(selectLimitSql, engine, session);
             printResult(result);
             System.out.println();
 
             // UPDATE operation
             System.out.println("--- UPDATE users SET age = 31 WHERE id = 1 ---");
             String updateSql = "UPDATE users SET age = 31 WHERE id = 1";
-            SqlParse.parseSql(updateSql, engine);
+            SqlParse.parseSql(updateSql, engine, session);
             System.out.println("✓ Updated user with id = 1");
 
             // Verify update
             String verifyUpdateSql = "SELECT * FROM users WHERE id = 1";
-            result = SqlParse.parseSql(verifyUpdateSql, engine);
+            result = SqlParse.parseSql(verifyUpdateSql, engine, session);
             printResult(result);
             System.out.println();
 
             // DELETE operation
             System.out.println("--- DELETE FROM users WHERE id = 4 ---");
             String deleteSql = "DELETE FROM users WHERE id = 4";
-            SqlParse.parseSql(deleteSql, engine);
+            SqlParse.parseSql(deleteSql, engine, session);
             System.out.println("✓ Deleted user with id = 4");
 
             // Verify delete
             System.out.println("\n--- SELECT * FROM users (after delete) ---");
-            result = SqlParse.parseSql(selectAllSql, engine);
+            result = SqlParse.parseSql(selectAllSql, engine, session);
             printResult(result);
 
             System.out.println("\n=== Example completed successfully! ===");
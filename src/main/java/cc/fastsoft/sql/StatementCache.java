@@ -0,0 +1,109 @@
+package cc.fastsoft.sql;
+
+import cc.fastsoft.db.DatabaseEngine;
+import cc.fastsoft.db.Session;
+import net.sf.jsqlparser.JSQLParserException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Statement Cache - Parsed statements of COM_QUERY, keyed by normalized SQL text
+ *
+ * Literals are taken out of the statement ({@link SqlNormalizer}) and bound as
+ * parameters, so queries that differ only in their constants share one parsed and
+ * described {@link PreparedSql}; only the access path, which depends on the values,
+ * is planned per execution. The cache is bounded with LRU eviction, shared by all
+ * connections, and entries built against an older schema version are rebuilt.
+ */
+public class StatementCache {
+    private static final Logger logger = LoggerFactory.getLogger(StatementCache.class);
+
+    private final DatabaseEngine databaseEngine;
+    private final Map<String, Entry> entries;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    private static final class Entry {
+        final PreparedSql preparedSql;
+        final long schemaVersion;
+
+        Entry(PreparedSql preparedSql, long schemaVersion) {
+            this.preparedSql = preparedSql;
+            this.schemaVersion = schemaVersion;
+        }
+    }
+
+    public StatementCache(DatabaseEngine databaseEngine, int capacity) {
+        this.databaseEngine = databaseEngine;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() > capacity) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Execute a statement, reusing the parsed form of an earlier statement with the same shape
+     */
+    public SqlData execute(String sql, Session session) throws Exception {
+        SqlNormalizer.Normalized normalized = SqlNormalizer.normalize(sql);
+        if (normalized == null) {
+            misses.increment();
+            return SqlParse.parseSql(sql, databaseEngine, session);
+        }
+
+        // Result columns are resolved against the session's database, so it is part of the key
+        String key = session.getDatabase() + "\0" + normalized.sql;
+        long schemaVersion = databaseEngine.getMetadataManager().getSchemaVersion();
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+        }
+        if (entry != null && entry.schemaVersion == schemaVersion) {
+            hits.increment();
+            return entry.preparedSql.execute(databaseEngine, session, normalized.literals);
+        }
+
+        misses.increment();
+        PreparedSql preparedSql;
+        try {
+            preparedSql = PreparedSql.prepare(normalized.sql, databaseEngine, session);
+        } catch (JSQLParserException e) {
+            // Some literals cannot be markers (e.g. DATE '2024-01-01'); run the original text
+            logger.debug("Not caching statement, normalized form does not parse: {}", normalized.sql);
+            return SqlParse.parseSql(sql, databaseEngine, session);
+        }
+        synchronized (entries) {
+            entries.put(key, new Entry(preparedSql, schemaVersion));
+        }
+        return preparedSql.execute(databaseEngine, session, normalized.literals);
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+}
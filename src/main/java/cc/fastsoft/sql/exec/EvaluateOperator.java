@@ -0,0 +1,38 @@
+package cc.fastsoft.sql.exec;
+
+/**
+ * Evaluate Operator - Computes each output column from an expression over its
+ * child's rows
+ */
+public class EvaluateOperator implements Operator {
+    private final Operator child;
+    private final RowEvaluator[] columns;
+
+    public EvaluateOperator(Operator child, RowEvaluator[] columns) {
+        this.child = child;
+        this.columns = columns;
+    }
+
+    @Override
+    public void open() throws Exception {
+        child.open();
+    }
+
+    @Override
+    public Object[] next() throws Exception {
+        Object[] row = child.next();
+        if (row == null) {
+            return null;
+        }
+        Object[] values = new Object[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            values[i] = columns[i].evaluate(row);
+        }
+        return values;
+    }
+
+    @Override
+    public void close() {
+        child.close();
+    }
+}
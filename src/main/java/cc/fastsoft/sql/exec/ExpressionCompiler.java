@@ -0,0 +1,1248 @@
+package cc.fastsoft.sql.exec;
+
+import cc.fastsoft.db.core.RowCodec;
+import cc.fastsoft.db.schema.Column.ColumnType;
+import cc.fastsoft.db.schema.TableSchema;
+import cc.fastsoft.sql.plan.Literals;
+import net.sf.jsqlparser.expression.BinaryExpression;
+import net.sf.jsqlparser.expression.Expression;
+import net.sf.jsqlparser.expression.Function;
+import net.sf.jsqlparser.expression.NotExpression;
+import net.sf.jsqlparser.expression.SignedExpression;
+import net.sf.jsqlparser.expression.operators.arithmetic.Addition;
+import net.sf.jsqlparser.expression.operators.arithmetic.Division;
+import net.sf.jsqlparser.expression.operators.arithmetic.IntegerDivision;
+import net.sf.jsqlparser.expression.operators.arithmetic.Modulo;
+import net.sf.jsqlparser.expression.operators.arithmetic.Multiplication;
+import net.sf.jsqlparser.expression.operators.arithmetic.Subtraction;
+import net.sf.jsqlparser.expression.operators.conditional.AndExpression;
+import net.sf.jsqlparser.expression.operators.conditional.OrExpression;
+import net.sf.jsqlparser.expression.operators.relational.Between;
+import net.sf.jsqlparser.expression.operators.relational.ComparisonOperator;
+import net.sf.jsqlparser.expression.operators.relational.EqualsTo;
+import net.sf.jsqlparser.expression.operators.relational.ExpressionList;
+import net.sf.jsqlparser.expression.operators.relational.GreaterThan;
+import net.sf.jsqlparser.expression.operators.relational.GreaterThanEquals;
+import net.sf.jsqlparser.expression.operators.relational.InExpression;
+import net.sf.jsqlparser.expression.operators.relational.IsNullExpression;
+import net.sf.jsqlparser.expression.operators.relational.LikeExpression;
+import net.sf.jsqlparser.expression.operators.relational.MinorThan;
+import net.sf.jsqlparser.expression.operators.relational.MinorThanEquals;
+import net.sf.jsqlparser.expression.operators.relational.NotEqualsTo;
+import net.sf.jsqlparser.expression.operators.relational.ParenthesedExpressionList;
+import net.sf.jsqlparser.schema.Column;
+
+import java.time.DateTimeException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Expression Compiler - Turns a WHERE clause into a tree of {@link RowEvaluator}s
+ *
+ * An expression is compiled once per statement: columns are bound to row
+ * ordinals, literals and parameter markers are converted to the type of the
+ * column they are compared with, IN lists become sorted arrays or hash sets,
+ * LIKE patterns are translated, and subtrees made only of constants are folded.
+ * A comparison of a column with a constant gets a node specialized for the
+ * column type, so evaluating a row walks no SQL syntax tree and parses no strings.
+ *
+ * Supported: AND, OR, NOT, =, <>, <, <=, >, >=, [NOT] BETWEEN, [NOT] IN (list),
+ * [NOT] LIKE, IS [NOT] NULL, +, -, *, /, DIV, %, unary minus. Conditions follow
+ * SQL three-valued logic. Anything else is rejected when compiling.
+ *
+ * Expressions evaluated after GROUP BY are compiled over grouped rows instead:
+ * a GROUP BY expression or aggregate call is bound as a whole to the grouped row
+ * column named after it, and any other column reference is an error.
+ */
+public final class ExpressionCompiler {
+
+    private final TableSchema schema;
+    private final List<Object> params;
+    private final boolean grouped;
+    private final boolean insertValues;
+
+    private ExpressionCompiler(TableSchema schema, List<Object> params, boolean grouped, boolean insertValues) {
+        this.schema = schema;
+        this.params = params;
+        this.grouped = grouped;
+        this.insertValues = insertValues;
+    }
+
+    /**
+     * Compile a condition over rows of the table
+     */
+    public static RowEvaluator compileCondition(Expression expr, TableSchema schema, List<Object> params) {
+        return new ExpressionCompiler(schema, params, false, false).condition(expr);
+    }
+
+    /**
+     * Compile a value expression over rows of the table
+     */
+    public static RowEvaluator compileValue(Expression expr, TableSchema schema, List<Object> params) {
+        return new ExpressionCompiler(schema, params, false, false).value(expr);
+    }
+
+    /**
+     * Compile a condition over grouped rows, whose columns are named by
+     * {@link #groupedName} after the GROUP BY expressions and aggregate calls
+     * they hold (e.g. a HAVING clause)
+     */
+    public static RowEvaluator compileGroupedCondition(Expression expr, TableSchema groupSchema, List<Object> params) {
+        return new ExpressionCompiler(groupSchema, params, true, false).condition(expr);
+    }
+
+    /**
+     * Compile a value expression over grouped rows
+     */
+    public static RowEvaluator compileGroupedValue(Expression expr, TableSchema groupSchema, List<Object> params) {
+        return new ExpressionCompiler(groupSchema, params, true, false).value(expr);
+    }
+
+    /**
+     * Compile an ON DUPLICATE KEY UPDATE value over rows holding the values of the
+     * existing row followed by those of the row that was to be inserted, both in
+     * the table's column order. Columns refer to the existing row and
+     * VALUES(column) to the inserted one.
+     */
+    public static RowEvaluator compileDuplicateUpdateValue(Expression expr, TableSchema schema, List<Object> params) {
+        return new ExpressionCompiler(schema, params, false, true).value(expr);
+    }
+
+    /**
+     * Position of a column reference in rows of the schema, or -1 if there is no
+     * such column. Columns of a joined schema are named {@code table.column}; an
+     * unqualified reference to them must match exactly one. The qualifier of a
+     * reference to a single table's column is not checked.
+     */
+    public static int columnOrdinal(TableSchema schema, Column column) {
+        String name = unquote(column.getColumnName());
+        String qualifier = column.getTable() == null || column.getTable().getName() == null ? null
+                : unquote(column.getTable().getName());
+        int found = -1;
+        for (int i = 0; i < schema.columns.size(); i++) {
+            String columnName = schema.columns.get(i).name;
+            int dot = columnName.indexOf('.');
+            boolean matches = dot < 0 ? columnName.equals(name)
+                    : columnName.substring(dot + 1).equals(name)
+                    && (qualifier == null || columnName.substring(0, dot).equals(qualifier));
+            if (matches) {
+                if (found >= 0) {
+                    throw new IllegalArgumentException("Column '" + name + "' is ambiguous");
+                }
+                found = i;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Name of the grouped row column holding the value of an expression
+     */
+    public static String groupedName(Expression expr) {
+        return unwrap(expr).toString().toLowerCase(Locale.ROOT);
+    }
+
+    // ==================== Compilation ====================
+
+    private RowEvaluator condition(Expression expr) {
+        Expression inner = unwrap(expr);
+        if (inner != expr) {
+            return condition(inner);
+        }
+        if (grouped) {
+            RowEvaluator bound = groupedColumn(expr);
+            if (bound != null) {
+                return truth(bound);
+            }
+        }
+        if (expr instanceof AndExpression) {
+            AndExpression and = (AndExpression) expr;
+            return and(condition(and.getLeftExpression()), condition(and.getRightExpression()));
+        }
+        if (expr instanceof OrExpression) {
+            OrExpression or = (OrExpression) expr;
+            return or(condition(or.getLeftExpression()), condition(or.getRightExpression()));
+        }
+        if (expr instanceof NotExpression) {
+            return not(condition(((NotExpression) expr).getExpression()));
+        }
+        if (expr instanceof ComparisonOperator) {
+            CompareOp op = CompareOp.of((ComparisonOperator) expr);
+            if (op == null) {
+                throw unsupported(expr);
+            }
+            BinaryExpression comparison = (BinaryExpression) expr;
+            return comparison(op, value(comparison.getLeftExpression()), value(comparison.getRightExpression()));
+        }
+        if (expr instanceof Between) {
+            Between between = (Between) expr;
+            RowEvaluator operand = value(between.getLeftExpression());
+            RowEvaluator inRange = and(comparison(CompareOp.GE, operand, value(between.getBetweenExpressionStart())),
+                    comparison(CompareOp.LE, operand, value(between.getBetweenExpressionEnd())));
+            return between.isNot() ? not(inRange) : inRange;
+        }
+        if (expr instanceof InExpression) {
+            return in((InExpression) expr);
+        }
+        if (expr instanceof LikeExpression) {
+            return like((LikeExpression) expr);
+        }
+        if (expr instanceof IsNullExpression) {
+            IsNullExpression isNull = (IsNullExpression) expr;
+            return fold(new IsNull(value(isNull.getLeftExpression()), isNull.isNot()));
+        }
+        return truth(value(expr));
+    }
+
+    private RowEvaluator value(Expression expr) {
+        Expression inner = unwrap(expr);
+        if (inner != expr) {
+            return value(inner);
+        }
+        if (grouped) {
+            RowEvaluator bound = groupedColumn(expr);
+            if (bound != null) {
+                return bound;
+            }
+            if (expr instanceof Column) {
+                throw new IllegalArgumentException("Column '" + unquote(((Column) expr).getColumnName())
+                        + "' isn't in GROUP BY");
+            }
+        }
+        if (insertValues && expr instanceof Function && "VALUES".equalsIgnoreCase(((Function) expr).getName())) {
+            return insertedColumn((Function) expr);
+        }
+        if (expr instanceof Column) {
+            int ordinal = columnOrdinal(schema, (Column) expr);
+            if (ordinal < 0) {
+                throw new IllegalArgumentException("Unknown column '" + expr + "' in 'where clause'");
+            }
+            return new ColumnValue(ordinal, schema.columns.get(ordinal).type);
+        }
+        Object literal = Literals.valueOf(expr, params);
+        if (literal != Literals.NOT_A_LITERAL) {
+            return new Constant(literal);
+        }
+        if (expr instanceof SignedExpression) {
+            SignedExpression signed = (SignedExpression) expr;
+            if (signed.getSign() == '+') {
+                return value(signed.getExpression());
+            }
+            if (signed.getSign() == '-') {
+                return fold(new Negate(value(signed.getExpression())));
+            }
+            throw unsupported(expr);
+        }
+        ArithmeticOp arithmeticOp = ArithmeticOp.of(expr);
+        if (arithmeticOp != null) {
+            BinaryExpression binary = (BinaryExpression) expr;
+            return fold(new Arithmetic(arithmeticOp, value(binary.getLeftExpression()),
+                    value(binary.getRightExpression())));
+        }
+        if (expr instanceof AndExpression || expr instanceof OrExpression || expr instanceof NotExpression
+                || expr instanceof ComparisonOperator || expr instanceof Between || expr instanceof InExpression
+                || expr instanceof LikeExpression || expr instanceof IsNullExpression) {
+            return condition(expr);
+        }
+        throw unsupported(expr);
+    }
+
+    /**
+     * VALUES(column): the column of the row that was to be inserted, which follows
+     * the existing row's columns
+     */
+    private RowEvaluator insertedColumn(Function values) {
+        ExpressionList<?> arguments = values.getParameters();
+        if (arguments == null || arguments.size() != 1 || !(arguments.get(0) instanceof Column)) {
+            throw new IllegalArgumentException("VALUES() takes one column: " + values);
+        }
+        int ordinal = columnOrdinal(schema, (Column) arguments.get(0));
+        if (ordinal < 0) {
+            throw new IllegalArgumentException("Unknown column '" + arguments.get(0) + "' in VALUES()");
+        }
+        return new ColumnValue(schema.columns.size() + ordinal, schema.columns.get(ordinal).type);
+    }
+
+    /**
+     * The grouped row column holding an expression, or null
+     */
+    private RowEvaluator groupedColumn(Expression expr) {
+        String name = groupedName(expr);
+        for (int i = 0; i < schema.columns.size(); i++) {
+            if (schema.columns.get(i).name.equals(name)) {
+                return new ColumnValue(i, schema.columns.get(i).type);
+            }
+        }
+        return null;
+    }
+
+    private RowEvaluator comparison(CompareOp op, RowEvaluator left, RowEvaluator right) {
+        if (left instanceof ColumnValue && right instanceof Constant) {
+            return columnComparison((ColumnValue) left, op, ((Constant) right).value);
+        }
+        if (right instanceof ColumnValue && left instanceof Constant) {
+            return columnComparison((ColumnValue) right, op.flip(), ((Constant) left).value);
+        }
+        return fold(new Comparison(op, left, right));
+    }
+
+    /**
+     * Compare a column with a constant converted once to the column's type
+     */
+    private RowEvaluator columnComparison(ColumnValue column, CompareOp op, Object constant) {
+        if (constant == null) {
+            return Constant.UNKNOWN;
+        }
+        if (column.type == null) {
+            return new Comparison(op, column, new Constant(constant));
+        }
+        switch (column.type) {
+            case INT:
+            case LONG:
+            case FLOAT:
+            case DOUBLE: {
+                Number number = toNumber(constant);
+                if (number == null) {
+                    break;
+                }
+                if (isIntegral(number) && (column.type == ColumnType.INT || column.type == ColumnType.LONG)) {
+                    return new LongComparison(column.ordinal, op, number.longValue());
+                }
+                return new DoubleComparison(column.ordinal, op, number.doubleValue());
+            }
+            case BOOLEAN:
+                break;
+            default:
+                constant = temporalConstant(column.type, constant);
+                if (constant instanceof String) {
+                    return new StringComparison(column.ordinal, op, (String) constant);
+                }
+                break;
+        }
+        return new Comparison(op, column, new Constant(constant));
+    }
+
+    /**
+     * A string compared with a DATE or DATETIME column, spelled as the column's
+     * values are, so that e.g. '2024-01-05' equals '2024-01-05 00:00:00'. Other
+     * constants, and text that is not a date, are returned as they are.
+     */
+    private static Object temporalConstant(ColumnType type, Object constant) {
+        if ((type == ColumnType.DATE || type == ColumnType.DATETIME) && constant instanceof String) {
+            try {
+                return RowCodec.formatTemporal(type, constant);
+            } catch (DateTimeException e) {
+                // compared as text
+            }
+        }
+        return constant;
+    }
+
+    private RowEvaluator in(InExpression in) {
+        Expression right = in.getRightExpression();
+        if (!(right instanceof ExpressionList)) {
+            throw unsupported(in);
+        }
+        RowEvaluator operand = value(in.getLeftExpression());
+        List<RowEvaluator> items = new ArrayList<>();
+        for (Object item : (ExpressionList<?>) right) {
+            items.add(value((Expression) item));
+        }
+        if (items.size() == 1) {
+            return comparison(in.isNot() ? CompareOp.NE : CompareOp.EQ, operand, items.get(0));
+        }
+
+        RowEvaluator membership = null;
+        if (operand instanceof ColumnValue && ((ColumnValue) operand).type != null && items.stream().allMatch(item -> item instanceof Constant)) {
+            membership = constantMembership((ColumnValue) operand, items);
+        }
+        if (membership == null) {
+            membership = fold(new InList(operand, items.toArray(new RowEvaluator[0])));
+        }
+        return in.isNot() ? not(membership) : membership;
+    }
+
+    /**
+     * Membership of a column in a list of constants, as a sorted array or hash set
+     * of values of the column's type, or null if the constants do not convert
+     */
+    private static RowEvaluator constantMembership(ColumnValue column, List<RowEvaluator> items) {
+        boolean hasNull = false;
+        List<Object> constants = new ArrayList<>();
+        for (RowEvaluator item : items) {
+            Object constant = ((Constant) item).value;
+            if (constant == null) {
+                hasNull = true;
+            } else {
+                constants.add(constant);
+            }
+        }
+        switch (column.type) {
+            case INT:
+            case LONG: {
+                long[] values = new long[constants.size()];
+                int count = 0;
+                for (Object constant : constants) {
+                    Number number = toNumber(constant);
+                    if (number == null) {
+                        return null;
+                    }
+                    // A fractional value never equals an integer column
+                    if (isIntegral(number) || number.doubleValue() == Math.rint(number.doubleValue())) {
+                        values[count++] = number.longValue();
+                    }
+                }
+                values = Arrays.copyOf(values, count);
+                Arrays.sort(values);
+                return new LongInList(column.ordinal, values, hasNull);
+            }
+            case FLOAT:
+            case DOUBLE: {
+                double[] values = new double[constants.size()];
+                for (int i = 0; i < values.length; i++) {
+                    Number number = toNumber(constants.get(i));
+                    if (number == null) {
+                        return null;
+                    }
+                    values[i] = number.doubleValue();
+                }
+                Arrays.sort(values);
+                return new DoubleInList(column.ordinal, values, hasNull);
+            }
+            case BOOLEAN:
+                return null;
+            default: {
+                Set<String> values = new HashSet<>();
+                for (Object constant : constants) {
+                    constant = temporalConstant(column.type, constant);
+                    if (!(constant instanceof String)) {
+                        return null;
+                    }
+                    values.add((String) constant);
+                }
+                return new StringInList(column.ordinal, values, hasNull);
+            }
+        }
+    }
+
+    private RowEvaluator like(LikeExpression like) {
+        if (like.getLikeKeyWord() != LikeExpression.KeyWord.LIKE) {
+            throw unsupported(like);
+        }
+        char escape = '\\';
+        if (like.getEscape() != null) {
+            Object escapeValue = Literals.valueOf(like.getEscape(), params);
+            if (!(escapeValue instanceof String) || ((String) escapeValue).length() != 1) {
+                throw new IllegalArgumentException("Incorrect arguments to ESCAPE: " + like.getEscape());
+            }
+            escape = ((String) escapeValue).charAt(0);
+        }
+        RowEvaluator operand = value(like.getLeftExpression());
+        RowEvaluator pattern = value(like.getRightExpression());
+        RowEvaluator match;
+        if (pattern instanceof Constant) {
+            Object text = ((Constant) pattern).value;
+            match = text == null ? Constant.UNKNOWN : fold(new Like(operand, LikePattern.compile(text.toString(), escape)));
+        } else {
+            match = new DynamicLike(operand, pattern, escape);
+        }
+        return like.isNot() ? not(match) : match;
+    }
+
+    private static RowEvaluator and(RowEvaluator left, RowEvaluator right) {
+        if (left instanceof Constant || right instanceof Constant) {
+            RowEvaluator constant = left instanceof Constant ? left : right;
+            RowEvaluator other = constant == left ? right : left;
+            Object value = ((Constant) constant).value;
+            if (Boolean.FALSE.equals(value)) {
+                return Constant.FALSE;
+            }
+            if (Boolean.TRUE.equals(value)) {
+                return other;
+            }
+        }
+        return fold(new And(left, right));
+    }
+
+    private static RowEvaluator or(RowEvaluator left, RowEvaluator right) {
+        if (left instanceof Constant || right instanceof Constant) {
+            RowEvaluator constant = left instanceof Constant ? left : right;
+            RowEvaluator other = constant == left ? right : left;
+            Object value = ((Constant) constant).value;
+            if (Boolean.TRUE.equals(value)) {
+                return Constant.TRUE;
+            }
+            if (Boolean.FALSE.equals(value)) {
+                return other;
+            }
+        }
+        return fold(new Or(left, right));
+    }
+
+    private static RowEvaluator not(RowEvaluator condition) {
+        return fold(new Not(condition));
+    }
+
+    private static RowEvaluator truth(RowEvaluator value) {
+        return value instanceof Condition ? value : fold(new Truth(value));
+    }
+
+    /**
+     * Replace a node whose operands are all constants by its value
+     */
+    private static RowEvaluator fold(Node node) {
+        for (RowEvaluator operand : node.operands()) {
+            if (!(operand instanceof Constant)) {
+                return node;
+            }
+        }
+        return new Constant(node.evaluate(null));
+    }
+
+    private static Expression unwrap(Expression expr) {
+        if (expr instanceof ParenthesedExpressionList && ((ParenthesedExpressionList<?>) expr).size() == 1) {
+            return ((ParenthesedExpressionList<?>) expr).get(0);
+        }
+        return expr;
+    }
+
+    private static IllegalArgumentException unsupported(Expression expr) {
+        return new IllegalArgumentException("Unsupported expression: " + expr);
+    }
+
+    private static String unquote(String identifier) {
+        if (identifier.length() > 1 && identifier.startsWith("`") && identifier.endsWith("`")) {
+            return identifier.substring(1, identifier.length() - 1);
+        }
+        return identifier;
+    }
+
+    // ==================== Value semantics ====================
+
+    /**
+     * Compare two values in SQL order, or return null when either is NULL.
+     * Numbers compare by numeric value; a string compared with a number is
+     * converted to a number when it parses as one; other values compare as strings.
+     */
+    static Integer compareValues(Object a, Object b) {
+        if (a == null || b == null) {
+            return null;
+        }
+        if (a instanceof Boolean) {
+            a = (Boolean) a ? 1 : 0;
+        }
+        if (b instanceof Boolean) {
+            b = (Boolean) b ? 1 : 0;
+        }
+        if (a instanceof Number || b instanceof Number) {
+            Number left = toNumber(a);
+            Number right = toNumber(b);
+            if (left != null && right != null) {
+                if (isIntegral(left) && isIntegral(right)) {
+                    return Long.compare(left.longValue(), right.longValue());
+                }
+                return Double.compare(left.doubleValue(), right.doubleValue());
+            }
+        }
+        if (a instanceof String && b instanceof String) {
+            return ((String) a).compareTo((String) b);
+        }
+        return a.toString().compareTo(b.toString());
+    }
+
+    static Number toNumber(Object value) {
+        if (value instanceof Number) {
+            return (Number) value;
+        }
+        if (value instanceof Boolean) {
+            return (Boolean) value ? 1L : 0L;
+        }
+        String str = value.toString().trim();
+        try {
+            return Long.parseLong(str);
+        } catch (NumberFormatException e) {
+            // not an integer, try a decimal
+        }
+        try {
+            return Double.parseDouble(str);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Whether a compiled value always evaluates to a number (or NULL), so that
+     * values compared with it are compared as numbers
+     */
+    static boolean isNumeric(RowEvaluator value) {
+        if (value instanceof ColumnValue) {
+            ColumnType type = ((ColumnValue) value).type;
+            return type == ColumnType.INT || type == ColumnType.LONG || type == ColumnType.FLOAT
+                    || type == ColumnType.DOUBLE || type == ColumnType.BOOLEAN;
+        }
+        if (value instanceof Constant) {
+            Object constant = ((Constant) value).value;
+            return constant instanceof Number || constant instanceof Boolean;
+        }
+        return value instanceof Arithmetic || value instanceof Negate || value instanceof Condition;
+    }
+
+    /**
+     * The type of the column a compiled value reads, or null when it is not a column
+     */
+    static ColumnType columnType(RowEvaluator value) {
+        return value instanceof ColumnValue ? ((ColumnValue) value).type : null;
+    }
+
+    static boolean isIntegral(Number number) {
+        return number instanceof Integer || number instanceof Long || number instanceof Short
+                || number instanceof Byte;
+    }
+
+    private static Boolean truthValue(Object value) {
+        if (value == null) {
+            return null;
+        }
+        if (value instanceof Boolean) {
+            return (Boolean) value;
+        }
+        Number number = toNumber(value);
+        return number != null && number.doubleValue() != 0;
+    }
+
+    // ==================== Operators ====================
+
+    enum CompareOp {
+        EQ, NE, LT, LE, GT, GE;
+
+        static CompareOp of(ComparisonOperator comparison) {
+            if (comparison instanceof EqualsTo) {
+                return EQ;
+            }
+            if (comparison instanceof NotEqualsTo) {
+                return NE;
+            }
+            if (comparison instanceof MinorThan) {
+                return LT;
+            }
+            if (comparison instanceof MinorThanEquals) {
+                return LE;
+            }
+            if (comparison instanceof GreaterThan) {
+                return GT;
+            }
+            if (comparison instanceof GreaterThanEquals) {
+                return GE;
+            }
+            return null;
+        }
+
+        /**
+         * The operator with its operands swapped: {@code a < b} is {@code b > a}
+         */
+        CompareOp flip() {
+            switch (this) {
+                case LT:
+                    return GT;
+                case LE:
+                    return GE;
+                case GT:
+                    return LT;
+                case GE:
+                    return LE;
+                default:
+                    return this;
+            }
+        }
+
+        boolean test(int order) {
+            switch (this) {
+                case EQ:
+                    return order == 0;
+                case NE:
+                    return order != 0;
+                case LT:
+                    return order < 0;
+                case LE:
+                    return order <= 0;
+                case GT:
+                    return order > 0;
+                default:
+                    return order >= 0;
+            }
+        }
+    }
+
+    enum ArithmeticOp {
+        ADD, SUBTRACT, MULTIPLY, DIVIDE, INTEGER_DIVIDE, MODULO;
+
+        static ArithmeticOp of(Expression expr) {
+            if (expr instanceof Addition) {
+                return ADD;
+            }
+            if (expr instanceof Subtraction) {
+                return SUBTRACT;
+            }
+            if (expr instanceof Multiplication) {
+                return MULTIPLY;
+            }
+            if (expr instanceof Division) {
+                return DIVIDE;
+            }
+            if (expr instanceof IntegerDivision) {
+                return INTEGER_DIVIDE;
+            }
+            if (expr instanceof Modulo) {
+                return MODULO;
+            }
+            return null;
+        }
+
+        /**
+         * Apply to two non-null values. Integers stay integers except for /;
+         * division by zero is NULL as in MySQL.
+         */
+        Object apply(Object a, Object b) {
+            Number x = numeric(a);
+            Number y = numeric(b);
+            boolean integral = isIntegral(x) && isIntegral(y);
+            switch (this) {
+                case ADD:
+                    return integral ? (Object) Math.addExact(x.longValue(), y.longValue())
+                            : (Object) (x.doubleValue() + y.doubleValue());
+                case SUBTRACT:
+                    return integral ? (Object) Math.subtractExact(x.longValue(), y.longValue())
+                            : (Object) (x.doubleValue() - y.doubleValue());
+                case MULTIPLY:
+                    return integral ? (Object) Math.multiplyExact(x.longValue(), y.longValue())
+                            : (Object) (x.doubleValue() * y.doubleValue());
+                case DIVIDE:
+                    return y.doubleValue() == 0 ? null : x.doubleValue() / y.doubleValue();
+                case INTEGER_DIVIDE:
+                    if (y.doubleValue() == 0) {
+                        return null;
+                    }
+                    return integral ? x.longValue() / y.longValue() : (long) (x.doubleValue() / y.doubleValue());
+                default:
+                    if (y.doubleValue() == 0) {
+                        return null;
+                    }
+                    return integral ? (Object) (x.longValue() % y.longValue())
+                            : (Object) (x.doubleValue() % y.doubleValue());
+            }
+        }
+
+        private static Number numeric(Object value) {
+            Number number = toNumber(value);
+            // MySQL evaluates a string that is not a number as 0
+            return number == null ? 0L : number;
+        }
+    }
+
+    // ==================== Nodes ====================
+
+    /**
+     * A compiled node with the nodes it evaluates first
+     */
+    private abstract static class Node implements RowEvaluator {
+        private final RowEvaluator[] operands;
+
+        Node(RowEvaluator... operands) {
+            this.operands = operands;
+        }
+
+        RowEvaluator[] operands() {
+            return operands;
+        }
+    }
+
+    /**
+     * A node that always evaluates to TRUE, FALSE or unknown
+     */
+    private abstract static class Condition extends Node {
+        Condition(RowEvaluator... operands) {
+            super(operands);
+        }
+    }
+
+    private static final class Constant implements RowEvaluator {
+        static final Constant TRUE = new Constant(Boolean.TRUE);
+        static final Constant FALSE = new Constant(Boolean.FALSE);
+        static final Constant UNKNOWN = new Constant(null);
+
+        final Object value;
+
+        Constant(Object value) {
+            this.value = value;
+        }
+
+        @Override
+        public Object evaluate(Object[] row) {
+            return value;
+        }
+    }
+
+    private static final class ColumnValue implements RowEvaluator {
+        final int ordinal;
+        final ColumnType type;
+
+        ColumnValue(int ordinal, ColumnType type) {
+            this.ordinal = ordinal;
+            this.type = type;
+        }
+
+        @Override
+        public Object evaluate(Object[] row) {
+            return row[ordinal];
+        }
+    }
+
+    private static final class Arithmetic extends Node {
+        private final ArithmeticOp op;
+        private final RowEvaluator left;
+        private final RowEvaluator right;
+
+        Arithmetic(ArithmeticOp op, RowEvaluator left, RowEvaluator right) {
+            super(left, right);
+            this.op = op;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public Object evaluate(Object[] row) {
+            Object a = left.evaluate(row);
+            if (a == null) {
+                return null;
+            }
+            Object b = right.evaluate(row);
+            return b == null ? null : op.apply(a, b);
+        }
+    }
+
+    private static final class Negate extends Node {
+        private final RowEvaluator operand;
+
+        Negate(RowEvaluator operand) {
+            super(operand);
+            this.operand = operand;
+        }
+
+        @Override
+        public Object evaluate(Object[] row) {
+            Object value = operand.evaluate(row);
+            return value == null ? null : ArithmeticOp.SUBTRACT.apply(0L, value);
+        }
+    }
+
+    private static final class Truth extends Condition {
+        private final RowEvaluator operand;
+
+        Truth(RowEvaluator operand) {
+            super(operand);
+            this.operand = operand;
+        }
+
+        @Override
+        public Object evaluate(Object[] row) {
+            return truthValue(operand.evaluate(row));
+        }
+    }
+
+    private static final class And extends Condition {
+        private final RowEvaluator left;
+        private final RowEvaluator right;
+
+        And(RowEvaluator left, RowEvaluator right) {
+            super(left, right);
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public Object evaluate(Object[] row) {
+            Object a = left.evaluate(row);
+            if (Boolean.FALSE.equals(a)) {
+                return Boolean.FALSE;
+            }
+            Object b = right.evaluate(row);
+            if (Boolean.FALSE.equals(b)) {
+                return Boolean.FALSE;
+            }
+            return a == null || b == null ? null : Boolean.TRUE;
+        }
+    }
+
+    private static final class Or extends Condition {
+        private final RowEvaluator left;
+        private final RowEvaluator right;
+
+        Or(RowEvaluator left, RowEvaluator right) {
+            super(left, right);
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public Object evaluate(Object[] row) {
+            Object a = left.evaluate(row);
+            if (Boolean.TRUE.equals(a)) {
+                return Boolean.TRUE;
+            }
+            Object b = right.evaluate(row);
+            if (Boolean.TRUE.equals(b)) {
+                return Boolean.TRUE;
+            }
+            return a == null || b == null ? null : Boolean.FALSE;
+        }
+    }
+
+    private static final class Not extends Condition {
+        private final RowEvaluator operand;
+
+        Not(RowEvaluator operand) {
+            super(operand);
+            this.operand = operand;
+        }
+
+        @Override
+        public Object evaluate(Object[] row) {
+            Boolean value = truthValue(operand.evaluate(row));
+            return value == null ? null : !value;
+        }
+    }
+
+    private static final class IsNull extends Condition {
+        private final RowEvaluator operand;
+        private final boolean not;
+
+        IsNull(RowEvaluator operand, boolean not) {
+            super(operand);
+            this.operand = operand;
+            this.not = not;
+        }
+
+        @Override
+        public Object evaluate(Object[] row) {
+            return (operand.evaluate(row) == null) != not;
+        }
+    }
+
+    private static final class Comparison extends Condition {
+        private final CompareOp op;
+        private final RowEvaluator left;
+        private final RowEvaluator right;
+
+        Comparison(CompareOp op, RowEvaluator left, RowEvaluator right) {
+            super(left, right);
+            this.op = op;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public Object evaluate(Object[] row) {
+            Integer order = compareValues(left.evaluate(row), right.evaluate(row));
+            return order == null ? null : op.test(order);
+        }
+    }
+
+    private static final class LongComparison extends Condition {
+        private final int ordinal;
+        private final CompareOp op;
+        private final long constant;
+
+        LongComparison(int ordinal, CompareOp op, long constant) {
+            this.ordinal = ordinal;
+            this.op = op;
+            this.constant = constant;
+        }
+
+        @Override
+        public Object evaluate(Object[] row) {
+            Object value = row[ordinal];
+            if (value instanceof Number) {
+                return op.test(Long.compare(((Number) value).longValue(), constant));
+            }
+            Integer order = compareValues(value, constant);
+            return order == null ? null : op.test(order);
+        }
+    }
+
+    private static final class DoubleComparison extends Condition {
+        private final int ordinal;
+        private final CompareOp op;
+        private final double constant;
+
+        DoubleComparison(int ordinal, CompareOp op, double constant) {
+            this.ordinal = ordinal;
+            this.op = op;
+            this.constant = constant;
+        }
+
+        @Override
+        public Object evaluate(Object[] row) {
+            Object value = row[ordinal];
+            if (value instanceof Number) {
+                return op.test(Double.compare(((Number) value).doubleValue(), constant));
+            }
+            Integer order = compareValues(value, constant);
+            return order == null ? null : op.test(order);
+        }
+    }
+
+    private static final class StringComparison extends Condition {
+        private final int ordinal;
+        private final CompareOp op;
+        private final String constant;
+
+        StringComparison(int ordinal, CompareOp op, String constant) {
+            this.ordinal = ordinal;
+            this.op = op;
+            this.constant = constant;
+        }
+
+        @Override
+        public Object evaluate(Object[] row) {
+            Object value = row[ordinal];
+            if (value instanceof String) {
+                return op.test(((String) value).compareTo(constant));
+            }
+            Integer order = compareValues(value, constant);
+            return order == null ? null : op.test(order);
+        }
+    }
+
+    private static final class InList extends Condition {
+        private final RowEvaluator operand;
+        private final RowEvaluator[] items;
+
+        InList(RowEvaluator operand, RowEvaluator[] items) {
+            super(concat(operand, items));
+            this.operand = operand;
+            this.items = items;
+        }
+
+        private static RowEvaluator[] concat(RowEvaluator operand, RowEvaluator[] items) {
+            RowEvaluator[] all = new RowEvaluator[items.length + 1];
+            all[0] = operand;
+            System.arraycopy(items, 0, all, 1, items.length);
+            return all;
+        }
+
+        @Override
+        public Object evaluate(Object[] row) {
+            Object value = operand.evaluate(row);
+            if (value == null) {
+                return null;
+            }
+            boolean sawNull = false;
+            for (RowEvaluator item : items) {
+                Integer order = compareValues(value, item.evaluate(row));
+                if (order == null) {
+                    sawNull = true;
+                } else if (order == 0) {
+                    return Boolean.TRUE;
+                }
+            }
+            return sawNull ? null : Boolean.FALSE;
+        }
+    }
+
+    private static final class LongInList extends Condition {
+        private final int ordinal;
+        private final long[] values;
+        private final boolean hasNull;
+
+        LongInList(int ordinal, long[] values, boolean hasNull) {
+            this.ordinal = ordinal;
+            this.values = values;
+            this.hasNull = hasNull;
+        }
+
+        @Override
+        public Object evaluate(Object[] row) {
+            Object value = row[ordinal];
+            if (value == null) {
+                return null;
+            }
+            boolean found = value instanceof Number
+                    && Arrays.binarySearch(values, ((Number) value).longValue()) >= 0;
+            return found ? Boolean.TRUE : (hasNull ? null : Boolean.FALSE);
+        }
+    }
+
+    private static final class DoubleInList extends Condition {
+        private final int ordinal;
+        private final double[] values;
+        private final boolean hasNull;
+
+        DoubleInList(int ordinal, double[] values, boolean hasNull) {
+            this.ordinal = ordinal;
+            this.values = values;
+            this.hasNull = hasNull;
+        }
+
+        @Override
+        public Object evaluate(Object[] row) {
+            Object value = row[ordinal];
+            if (value == null) {
+                return null;
+            }
+            boolean found = value instanceof Number
+                    && Arrays.binarySearch(values, ((Number) value).doubleValue()) >= 0;
+            return found ? Boolean.TRUE : (hasNull ? null : Boolean.FALSE);
+        }
+    }
+
+    private static final class StringInList extends Condition {
+        private final int ordinal;
+        private final Set<String> values;
+        private final boolean hasNull;
+
+        StringInList(int ordinal, Set<String> values, boolean hasNull) {
+            this.ordinal = ordinal;
+            this.values = values;
+            this.hasNull = hasNull;
+        }
+
+        @Override
+        public Object evaluate(Object[] row) {
+            Object value = row[ordinal];
+            if (value == null) {
+                return null;
+            }
+            return values.contains(value.toString()) ? Boolean.TRUE : (hasNull ? null : Boolean.FALSE);
+        }
+    }
+
+    private static final class Like extends Condition {
+        private final RowEvaluator operand;
+        private final LikePattern pattern;
+
+        Like(RowEvaluator operand, LikePattern pattern) {
+            super(operand);
+            this.operand = operand;
+            this.pattern = pattern;
+        }
+
+        @Override
+        public Object evaluate(Object[] row) {
+            Object value = operand.evaluate(row);
+            return value == null ? null : pattern.matches(value.toString());
+        }
+    }
+
+    /**
+     * LIKE with a pattern that is not a constant, translated for every row
+     */
+    private static final class DynamicLike extends Condition {
+        private final RowEvaluator operand;
+        private final RowEvaluator pattern;
+        private final char escape;
+
+        DynamicLike(RowEvaluator operand, RowEvaluator pattern, char escape) {
+            super(operand, pattern);
+            this.operand = operand;
+            this.pattern = pattern;
+            this.escape = escape;
+        }
+
+        @Override
+        public Object evaluate(Object[] row) {
+            Object value = operand.evaluate(row);
+            Object text = pattern.evaluate(row);
+            if (value == null || text == null) {
+                return null;
+            }
+            return LikePattern.compile(text.toString(), escape).matches(value.toString());
+        }
+    }
+
+    /**
+     * A translated LIKE pattern. Patterns whose only wildcards are a leading and/or
+     * trailing % are matched with plain string operations, others with a regex.
+     */
+    private static final class LikePattern {
+        private enum Kind { EXACT, PREFIX, SUFFIX, CONTAINS, REGEX }
+
+        private final Kind kind;
+        private final String text;
+        private final Pattern regex;
+
+        private LikePattern(Kind kind, String text, Pattern regex) {
+            this.kind = kind;
+            this.text = text;
+            this.regex = regex;
+        }
+
+        static LikePattern compile(String pattern, char escape) {
+            StringBuilder literal = new StringBuilder();
+            StringBuilder regex = new StringBuilder();
+            boolean leadingPercent = false;
+            boolean trailingPercent = false;
+            boolean simple = true;
+            for (int i = 0; i < pattern.length(); i++) {
+                char c = pattern.charAt(i);
+                if (c == escape && i + 1 < pattern.length()) {
+                    c = pattern.charAt(++i);
+                    if (trailingPercent) {
+                        simple = false;
+                    }
+                    literal.append(c);
+                    regex.append(Pattern.quote(String.valueOf(c)));
+                } else if (c == '%') {
+                    if (literal.length() == 0 && !trailingPercent) {
+                        leadingPercent = true;
+                    } else {
+                        trailingPercent = true;
+                    }
+                    regex.append(".*");
+                } else if (c == '_') {
+                    simple = false;
+                    regex.append('.');
+                } else {
+                    if (trailingPercent) {
+                        simple = false;
+                    }
+                    literal.append(c);
+                    regex.append(Pattern.quote(String.valueOf(c)));
+                }
+            }
+            if (!simple) {
+                return new LikePattern(Kind.REGEX, null, Pattern.compile(regex.toString(), Pattern.DOTALL));
+            }
+            Kind kind;
+            if (leadingPercent && trailingPercent) {
+                kind = Kind.CONTAINS;
+            } else if (leadingPercent) {
+                kind = Kind.SUFFIX;
+            } else if (trailingPercent) {
+                kind = Kind.PREFIX;
+            } else {
+                kind = Kind.EXACT;
+            }
+            return new LikePattern(kind, literal.toString(), null);
+        }
+
+        boolean matches(String value) {
+            switch (kind) {
+                case EXACT:
+                    return value.equals(text);
+                case PREFIX:
+                    return value.startsWith(text);
+                case SUFFIX:
+                    return value.endsWith(text);
+                case CONTAINS:
+                    return value.contains(text);
+                default:
+                    return regex.matcher(value).matches();
+            }
+        }
+    }
+}
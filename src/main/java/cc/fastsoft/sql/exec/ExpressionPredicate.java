@@ -0,0 +1,32 @@
+package cc.fastsoft.sql.exec;
+
+import cc.fastsoft.db.schema.TableSchema;
+import net.sf.jsqlparser.expression.Expression;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Expression Predicate - Evaluates a WHERE clause expression against rows
+ *
+ * The expression is compiled once, when the predicate is created, see
+ * {@link ExpressionCompiler}; parameter markers take the bound parameter values.
+ * A row passes only when the condition is true, not when it is false or unknown.
+ */
+public class ExpressionPredicate implements RowPredicate {
+
+    private final RowEvaluator condition;
+
+    public ExpressionPredicate(Expression where, TableSchema schema) {
+        this(where, schema, Collections.emptyList());
+    }
+
+    public ExpressionPredicate(Expression where, TableSchema schema, List<Object> params) {
+        this.condition = ExpressionCompiler.compileCondition(where, schema, params);
+    }
+
+    @Override
+    public boolean test(Object[] row) {
+        return Boolean.TRUE.equals(condition.evaluate(row));
+    }
+}
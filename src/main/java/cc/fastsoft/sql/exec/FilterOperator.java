@@ -0,0 +1,35 @@
+package cc.fastsoft.sql.exec;
+
+/**
+ * Filter Operator - Passes through the rows of its child that satisfy a predicate
+ */
+public class FilterOperator implements Operator {
+    private final Operator child;
+    private final RowPredicate predicate;
+
+    public FilterOperator(Operator child, RowPredicate predicate) {
+        this.child = child;
+        this.predicate = predicate;
+    }
+
+    @Override
+    public void open() throws Exception {
+        child.open();
+    }
+
+    @Override
+    public Object[] next() throws Exception {
+        Object[] row;
+        while ((row = child.next()) != null) {
+            if (predicate.test(row)) {
+                return row;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void close() {
+        child.close();
+    }
+}
@@ -0,0 +1,663 @@
+package cc.fastsoft.sql.exec;
+
+import cc.fastsoft.db.schema.Column.ColumnType;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Hash Aggregate Operator - Groups the rows of its child and computes aggregate
+ * functions for every group
+ *
+ * Each child row is reduced to a tuple of its group key values and aggregate
+ * arguments, and its group is found in an open-addressing hash table. Every
+ * aggregate keeps the state of all groups in primitive arrays indexed by group
+ * number, so accumulating a row updates array slots instead of allocating. Output
+ * rows hold the group key values followed by the aggregate results. Without group
+ * keys there is exactly one output row, even for an empty input.
+ *
+ * Once the estimated size of the table reaches {@code memoryBudget} no group is
+ * added: tuples of groups already in memory are still accumulated, the others are
+ * written to one of {@link #PARTITIONS} files under {@code spillDirectory} by hash
+ * of their key. After the groups in memory are emitted, each partition is
+ * aggregated the same way with other bits of the hash, so an oversized partition
+ * splits again. Every group is aggregated entirely in memory or entirely within
+ * one partition. Partition files are deleted as they are read and on close.
+ */
+public class HashAggregateOperator implements Operator {
+
+    private static final int PARTITIONS = 16;
+    private static final int PARTITION_BITS = 4;
+    // Past this many rounds of partitioning a partition is aggregated in memory whatever its size
+    private static final int MAX_SPILL_DEPTH = 4;
+    // Estimated heap footprint of a group's hash table entry and of one aggregate's state for it
+    private static final int GROUP_OVERHEAD = 48;
+    private static final int ACCUMULATOR_OVERHEAD = 16;
+
+    /**
+     * Supported aggregate functions
+     */
+    public enum Function {
+        COUNT, SUM, AVG, MIN, MAX;
+
+        /**
+         * The aggregate function with the given name, or null
+         */
+        public static Function of(String name) {
+            for (Function function : values()) {
+                if (function.name().equalsIgnoreCase(name)) {
+                    return function;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * An aggregate function call: the function, its compiled argument (null for
+     * COUNT(*)) and the argument's column type when it is known
+     */
+    public static final class Call {
+        final Function function;
+        final RowEvaluator argument;
+        final ColumnType argumentType;
+
+        public Call(Function function, RowEvaluator argument, ColumnType argumentType) {
+            this.function = function;
+            this.argument = argument;
+            this.argumentType = argumentType;
+        }
+    }
+
+    private final Operator child;
+    private final RowEvaluator[] groupKeys;
+    private final List<Call> calls;
+    private final long memoryBudget;
+    private final File spillDirectory;
+    private final Deque<Partition> partitions = new ArrayDeque<>();
+    private GroupTable groups;
+    private int position;
+    private int spilledPartitions;
+
+    public HashAggregateOperator(Operator child, List<RowEvaluator> groupKeys, List<Call> calls, long memoryBudget,
+                                 File spillDirectory) {
+        this.child = child;
+        this.groupKeys = groupKeys.toArray(new RowEvaluator[0]);
+        this.calls = calls;
+        this.memoryBudget = memoryBudget;
+        this.spillDirectory = spillDirectory;
+    }
+
+    @Override
+    public void open() throws Exception {
+        child.open();
+        Object[] tuple = new Object[groupKeys.length + calls.size()];
+        groups = aggregate(() -> {
+            Object[] row = child.next();
+            if (row == null) {
+                return null;
+            }
+            for (int i = 0; i < groupKeys.length; i++) {
+                tuple[i] = groupKeys[i].evaluate(row);
+            }
+            for (int i = 0; i < calls.size(); i++) {
+                RowEvaluator argument = calls.get(i).argument;
+                tuple[groupKeys.length + i] = argument == null ? null : argument.evaluate(row);
+            }
+            return tuple;
+        }, 0);
+        position = 0;
+    }
+
+    @Override
+    public Object[] next() throws Exception {
+        while (groups == null || position >= groups.size()) {
+            Partition partition = partitions.poll();
+            if (partition == null) {
+                return null;
+            }
+            groups = null;
+            try (DataInputStream in = SpillFiles.openReader(partition.file)) {
+                groups = aggregate(() -> SpillFiles.readRow(in), partition.depth + 1);
+            } finally {
+                partition.file.delete();
+            }
+            position = 0;
+        }
+        return groups.row(position++);
+    }
+
+    @Override
+    public void close() {
+        groups = null;
+        for (Partition partition : partitions) {
+            partition.file.delete();
+        }
+        partitions.clear();
+        child.close();
+    }
+
+    /**
+     * Number of partition files written to disk
+     */
+    int spilledPartitions() {
+        return spilledPartitions;
+    }
+
+    /**
+     * Aggregate the tuples of a source into a new table, spilling the tuples of
+     * groups that do not fit to partition files
+     */
+    private GroupTable aggregate(TupleSource source, int depth) throws Exception {
+        GroupTable table = new GroupTable();
+        PartitionWriter spill = null;
+        try {
+            Object[] tuple;
+            while ((tuple = source.next()) != null) {
+                int hash = hashKey(tuple);
+                int group = table.find(tuple, hash);
+                if (group < 0) {
+                    if (spill == null && (table.bytes < memoryBudget || depth >= MAX_SPILL_DEPTH)) {
+                        group = table.add(tuple, hash);
+                    } else {
+                        if (spill == null) {
+                            spill = new PartitionWriter(depth);
+                        }
+                        spill.write(tuple, hash);
+                        continue;
+                    }
+                }
+                table.accumulate(group, tuple);
+            }
+            if (spill != null) {
+                spill.finish();
+            }
+        } catch (Exception e) {
+            if (spill != null) {
+                spill.abort();
+            }
+            throw e;
+        }
+        if (groupKeys.length == 0 && depth == 0 && table.size() == 0) {
+            table.add(new Object[calls.size()], 0);
+        }
+        return table;
+    }
+
+    private int hashKey(Object[] tuple) {
+        int hash = 1;
+        for (int i = 0; i < groupKeys.length; i++) {
+            hash = 31 * hash + Objects.hashCode(tuple[i]);
+        }
+        // Spread the bits: the table uses the low bits, partitioning the high bits
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        return hash ^ (hash >>> 16);
+    }
+
+    private interface TupleSource {
+        /**
+         * The next tuple, or null at the end; a tuple may be reused by the next call
+         */
+        Object[] next() throws Exception;
+    }
+
+    private static final class Partition {
+        final File file;
+        final int depth;
+
+        Partition(File file, int depth) {
+            this.file = file;
+            this.depth = depth;
+        }
+    }
+
+    /**
+     * Writes spilled tuples to partition files, each created on its first tuple
+     */
+    private final class PartitionWriter {
+        private final int depth;
+        private final File[] files = new File[PARTITIONS];
+        private final DataOutputStream[] outputs = new DataOutputStream[PARTITIONS];
+
+        PartitionWriter(int depth) {
+            this.depth = depth;
+        }
+
+        void write(Object[] tuple, int hash) throws IOException {
+            int partition = (hash >>> (Integer.SIZE - PARTITION_BITS * (depth + 1))) & (PARTITIONS - 1);
+            if (outputs[partition] == null) {
+                files[partition] = SpillFiles.create(spillDirectory, "group-");
+                outputs[partition] = SpillFiles.openWriter(files[partition]);
+            }
+            SpillFiles.writeRow(outputs[partition], tuple);
+        }
+
+        void finish() throws IOException {
+            for (int i = 0; i < PARTITIONS; i++) {
+                if (outputs[i] != null) {
+                    outputs[i].close();
+                    partitions.add(new Partition(files[i], depth));
+                    spilledPartitions++;
+                }
+            }
+        }
+
+        void abort() {
+            for (int i = 0; i < PARTITIONS; i++) {
+                if (outputs[i] != null) {
+                    try {
+                        outputs[i].close();
+                    } catch (IOException e) {
+                        // the file is deleted next
+                    }
+                    files[i].delete();
+                }
+            }
+        }
+    }
+
+    /**
+     * Groups found so far with their key values and aggregate states
+     */
+    private final class GroupTable {
+        // Group number + 1 per slot, 0 for an empty slot
+        private int[] slots = new int[16];
+        private int[] hashes = new int[16];
+        private final List<Object[]> keys = new ArrayList<>();
+        private final Accumulator[] accumulators = new Accumulator[calls.size()];
+        long bytes;
+
+        GroupTable() {
+            for (int i = 0; i < accumulators.length; i++) {
+                accumulators[i] = Accumulator.of(calls.get(i));
+            }
+        }
+
+        int size() {
+            return keys.size();
+        }
+
+        /**
+         * Number of the group of a tuple, or -1 if it is not in the table
+         */
+        int find(Object[] tuple, int hash) {
+            int mask = slots.length - 1;
+            for (int i = hash & mask; slots[i] != 0; i = (i + 1) & mask) {
+                int group = slots[i] - 1;
+                if (hashes[group] == hash && sameKey(keys.get(group), tuple)) {
+                    return group;
+                }
+            }
+            return -1;
+        }
+
+        int add(Object[] tuple, int hash) {
+            int group = keys.size();
+            Object[] key = Arrays.copyOf(tuple, groupKeys.length);
+            keys.add(key);
+            if (group == hashes.length) {
+                hashes = Arrays.copyOf(hashes, group * 2);
+            }
+            hashes[group] = hash;
+            for (Accumulator accumulator : accumulators) {
+                accumulator.ensureCapacity(group + 1);
+            }
+            if (keys.size() * 2 > slots.length) {
+                slots = new int[slots.length * 2];
+                for (int i = 0; i < keys.size(); i++) {
+                    insert(i);
+                }
+            } else {
+                insert(group);
+            }
+            bytes += SpillFiles.estimateSize(key) + GROUP_OVERHEAD + (long) ACCUMULATOR_OVERHEAD * accumulators.length;
+            return group;
+        }
+
+        private void insert(int group) {
+            int mask = slots.length - 1;
+            int i = hashes[group] & mask;
+            while (slots[i] != 0) {
+                i = (i + 1) & mask;
+            }
+            slots[i] = group + 1;
+        }
+
+        private boolean sameKey(Object[] key, Object[] tuple) {
+            for (int i = 0; i < key.length; i++) {
+                if (!Objects.equals(key[i], tuple[i])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        void accumulate(int group, Object[] tuple) {
+            for (int i = 0; i < accumulators.length; i++) {
+                accumulators[i].add(group, tuple[groupKeys.length + i]);
+            }
+        }
+
+        Object[] row(int group) {
+            Object[] key = keys.get(group);
+            Object[] row = Arrays.copyOf(key, key.length + accumulators.length);
+            for (int i = 0; i < accumulators.length; i++) {
+                row[key.length + i] = accumulators[i].result(group);
+            }
+            return row;
+        }
+    }
+
+    // ==================== Accumulators ====================
+
+    /**
+     * State of one aggregate for every group of a table
+     */
+    private abstract static class Accumulator {
+
+        static Accumulator of(Call call) {
+            switch (call.function) {
+                case COUNT:
+                    return call.argument == null ? new CountAll() : new Count();
+                case SUM:
+                    return new Sum();
+                case AVG:
+                    return new Avg();
+                default:
+                    boolean max = call.function == Function.MAX;
+                    if (call.argumentType == ColumnType.INT || call.argumentType == ColumnType.LONG) {
+                        return new LongExtreme(max, call.argumentType == ColumnType.INT);
+                    }
+                    if (call.argumentType == ColumnType.DOUBLE) {
+                        return new DoubleExtreme(max);
+                    }
+                    return new ValueExtreme(max);
+            }
+        }
+
+        static int grownLength(int length, int groups) {
+            return Math.max(groups, length * 2);
+        }
+
+        /**
+         * Make room for the state of this many groups
+         */
+        abstract void ensureCapacity(int groups);
+
+        /**
+         * Accumulate the argument value of a row of the group
+         */
+        abstract void add(int group, Object value);
+
+        abstract Object result(int group);
+    }
+
+    private static final class CountAll extends Accumulator {
+        long[] counts = new long[16];
+
+        @Override
+        void ensureCapacity(int groups) {
+            if (groups > counts.length) {
+                counts = Arrays.copyOf(counts, grownLength(counts.length, groups));
+            }
+        }
+
+        @Override
+        void add(int group, Object value) {
+            counts[group]++;
+        }
+
+        @Override
+        Object result(int group) {
+            return counts[group];
+        }
+    }
+
+    private static final class Count extends Accumulator {
+        long[] counts = new long[16];
+
+        @Override
+        void ensureCapacity(int groups) {
+            if (groups > counts.length) {
+                counts = Arrays.copyOf(counts, grownLength(counts.length, groups));
+            }
+        }
+
+        @Override
+        void add(int group, Object value) {
+            if (value != null) {
+                counts[group]++;
+            }
+        }
+
+        @Override
+        Object result(int group) {
+            return counts[group];
+        }
+    }
+
+    /**
+     * SUM: exact over integers, switching a group to floating point on its first
+     * fractional value or on overflow. NULL for a group without values.
+     */
+    private static final class Sum extends Accumulator {
+        private static final byte EMPTY = 0;
+        private static final byte INTEGRAL = 1;
+        private static final byte FRACTIONAL = 2;
+
+        long[] longSums = new long[16];
+        double[] doubleSums = new double[16];
+        byte[] states = new byte[16];
+
+        @Override
+        void ensureCapacity(int groups) {
+            if (groups > states.length) {
+                int length = grownLength(states.length, groups);
+                longSums = Arrays.copyOf(longSums, length);
+                doubleSums = Arrays.copyOf(doubleSums, length);
+                states = Arrays.copyOf(states, length);
+            }
+        }
+
+        @Override
+        void add(int group, Object value) {
+            if (value == null) {
+                return;
+            }
+            Number number = ExpressionCompiler.toNumber(value);
+            if (number == null) {
+                // MySQL sums a string that is not a number as 0
+                number = 0L;
+            }
+            if (states[group] != FRACTIONAL && ExpressionCompiler.isIntegral(number)) {
+                long sum = longSums[group];
+                long added = sum + number.longValue();
+                if (((sum ^ added) & (number.longValue() ^ added)) >= 0) {
+                    longSums[group] = added;
+                    states[group] = INTEGRAL;
+                    return;
+                }
+            }
+            if (states[group] == INTEGRAL) {
+                doubleSums[group] = longSums[group];
+            }
+            doubleSums[group] += number.doubleValue();
+            states[group] = FRACTIONAL;
+        }
+
+        @Override
+        Object result(int group) {
+            switch (states[group]) {
+                case INTEGRAL:
+                    return longSums[group];
+                case FRACTIONAL:
+                    return doubleSums[group];
+                default:
+                    return null;
+            }
+        }
+    }
+
+    private static final class Avg extends Accumulator {
+        double[] sums = new double[16];
+        long[] counts = new long[16];
+
+        @Override
+        void ensureCapacity(int groups) {
+            if (groups > counts.length) {
+                int length = grownLength(counts.length, groups);
+                sums = Arrays.copyOf(sums, length);
+                counts = Arrays.copyOf(counts, length);
+            }
+        }
+
+        @Override
+        void add(int group, Object value) {
+            if (value == null) {
+                return;
+            }
+            Number number = ExpressionCompiler.toNumber(value);
+            sums[group] += number == null ? 0 : number.doubleValue();
+            counts[group]++;
+        }
+
+        @Override
+        Object result(int group) {
+            return counts[group] == 0 ? null : sums[group] / counts[group];
+        }
+    }
+
+    /**
+     * MIN or MAX of an INT or LONG column
+     */
+    private static final class LongExtreme extends Accumulator {
+        private final boolean max;
+        private final boolean intResult;
+        long[] values = new long[16];
+        boolean[] seen = new boolean[16];
+
+        LongExtreme(boolean max, boolean intResult) {
+            this.max = max;
+            this.intResult = intResult;
+        }
+
+        @Override
+        void ensureCapacity(int groups) {
+            if (groups > values.length) {
+                int length = grownLength(values.length, groups);
+                values = Arrays.copyOf(values, length);
+                seen = Arrays.copyOf(seen, length);
+            }
+        }
+
+        @Override
+        void add(int group, Object value) {
+            if (value == null) {
+                return;
+            }
+            long number = ((Number) value).longValue();
+            if (!seen[group] || (max ? number > values[group] : number < values[group])) {
+                values[group] = number;
+                seen[group] = true;
+            }
+        }
+
+        @Override
+        Object result(int group) {
+            if (!seen[group]) {
+                return null;
+            }
+            return intResult ? (Object) (int) values[group] : (Object) values[group];
+        }
+    }
+
+    /**
+     * MIN or MAX of a DOUBLE column
+     */
+    private static final class DoubleExtreme extends Accumulator {
+        private final boolean max;
+        double[] values = new double[16];
+        boolean[] seen = new boolean[16];
+
+        DoubleExtreme(boolean max) {
+            this.max = max;
+        }
+
+        @Override
+        void ensureCapacity(int groups) {
+            if (groups > values.length) {
+                int length = grownLength(values.length, groups);
+                values = Arrays.copyOf(values, length);
+                seen = Arrays.copyOf(seen, length);
+            }
+        }
+
+        @Override
+        void add(int group, Object value) {
+            if (value == null) {
+                return;
+            }
+            double number = ((Number) value).doubleValue();
+            if (!seen[group] || (max ? number > values[group] : number < values[group])) {
+                values[group] = number;
+                seen[group] = true;
+            }
+        }
+
+        @Override
+        Object result(int group) {
+            return seen[group] ? values[group] : null;
+        }
+    }
+
+    /**
+     * MIN or MAX of values of any other type, in SQL order
+     */
+    private static final class ValueExtreme extends Accumulator {
+        private final boolean max;
+        Object[] values = new Object[16];
+
+        ValueExtreme(boolean max) {
+            this.max = max;
+        }
+
+        @Override
+        void ensureCapacity(int groups) {
+            if (groups > values.length) {
+                values = Arrays.copyOf(values, grownLength(values.length, groups));
+            }
+        }
+
+        @Override
+        void add(int group, Object value) {
+            if (value == null) {
+                return;
+            }
+            Object current = values[group];
+            if (current == null) {
+                values[group] = value;
+                return;
+            }
+            int order = ExpressionCompiler.compareValues(value, current);
+            if (max ? order > 0 : order < 0) {
+                values[group] = value;
+            }
+        }
+
+        @Override
+        Object result(int group) {
+            return values[group];
+        }
+    }
+}
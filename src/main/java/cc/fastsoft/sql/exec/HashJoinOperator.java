@@ -0,0 +1,377 @@
+package cc.fastsoft.sql.exec;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Hash Join Operator - Joins two inputs on equal key values
+ *
+ * The build input is read into a hash table on its key values; the probe input is
+ * then streamed and each row is joined with the build rows of its key that also
+ * satisfy the optional {@code condition}, evaluated over the joined row. Joined
+ * rows hold the left row's values followed by the right row's, whichever side is
+ * built. For a left outer join the right input is built, and a left row without a
+ * match is joined with NULLs.
+ *
+ * Key values compare as the {@code =} of a WHERE clause: a NULL key never matches,
+ * numbers of different types are equal when their values are, and when either key
+ * of a pair is numeric the other is compared as a number too, so a string '1'
+ * matches 1. If the build rows exceed
+ * {@code memoryBudget} (estimated) bytes, both inputs are split into
+ * {@link #PARTITIONS} files under {@code spillDirectory} by hash of their key, and
+ * each pair of partitions is joined in memory in turn. Partition files are deleted
+ * as they are consumed and on close.
+ */
+public class HashJoinOperator implements Operator {
+
+    private static final int PARTITIONS = 16;
+    // Estimated heap footprint of a build row's hash table entry
+    private static final int ENTRY_OVERHEAD = 48;
+
+    private final Operator left;
+    private final Operator right;
+    private final RowEvaluator[] leftKeys;
+    private final RowEvaluator[] rightKeys;
+    // Key pairs compared as numbers
+    private final boolean[] numericKeys;
+    private final RowEvaluator condition;
+    private final boolean leftOuter;
+    private final int rightWidth;
+    private final boolean buildLeft;
+    private final long memoryBudget;
+    private final File spillDirectory;
+
+    private Map<JoinKey, List<Object[]>> table;
+    private RowSource probeRows;
+    private File[] buildPartitions;
+    private File[] probePartitions;
+    private DataInputStream probeInput;
+    private int partition;
+    private int spilledPartitions;
+
+    // Probe row being joined and its remaining build rows
+    private Object[] probeRow;
+    private List<Object[]> matches = Collections.emptyList();
+    private int matchPosition;
+    private boolean matched;
+
+    /**
+     * @param leftKeys   key values of left rows, compared pairwise with {@code rightKeys}
+     * @param rightKeys  key values of right rows
+     * @param condition  further join condition over joined rows, or null
+     * @param leftOuter  whether left rows without a match are joined with NULLs
+     * @param rightWidth number of columns of right rows
+     * @param buildLeft  build the hash table from the left input; not for outer joins
+     */
+    public HashJoinOperator(Operator left, Operator right, List<RowEvaluator> leftKeys, List<RowEvaluator> rightKeys,
+                            RowEvaluator condition, boolean leftOuter, int rightWidth, boolean buildLeft,
+                            long memoryBudget, File spillDirectory) {
+        if (leftOuter && buildLeft) {
+            throw new IllegalArgumentException("An outer join must build its inner (right) input");
+        }
+        this.left = left;
+        this.right = right;
+        this.leftKeys = leftKeys.toArray(new RowEvaluator[0]);
+        this.rightKeys = rightKeys.toArray(new RowEvaluator[0]);
+        this.numericKeys = new boolean[this.leftKeys.length];
+        for (int i = 0; i < numericKeys.length; i++) {
+            numericKeys[i] = ExpressionCompiler.isNumeric(this.leftKeys[i])
+                    || ExpressionCompiler.isNumeric(this.rightKeys[i]);
+        }
+        this.condition = condition;
+        this.leftOuter = leftOuter;
+        this.rightWidth = rightWidth;
+        this.buildLeft = buildLeft;
+        this.memoryBudget = memoryBudget;
+        this.spillDirectory = spillDirectory;
+    }
+
+    @Override
+    public void open() throws Exception {
+        Operator build = buildLeft ? left : right;
+        Operator probe = buildLeft ? right : left;
+        RowEvaluator[] buildKeys = buildLeft ? leftKeys : rightKeys;
+        RowEvaluator[] probeKeys = buildLeft ? rightKeys : leftKeys;
+
+        build.open();
+        table = new HashMap<>();
+        long bytes = 0;
+        Object[] row;
+        while ((row = build.next()) != null) {
+            JoinKey key = JoinKey.of(row, buildKeys, numericKeys);
+            if (key == null) {
+                continue;
+            }
+            table.computeIfAbsent(key, k -> new ArrayList<>(1)).add(row);
+            bytes += SpillFiles.estimateSize(row) + ENTRY_OVERHEAD;
+            if (bytes > memoryBudget) {
+                buildPartitions = spillBuild(build, buildKeys);
+                table = null;
+                break;
+            }
+        }
+
+        probe.open();
+        if (buildPartitions == null) {
+            probeRows = probe::next;
+        } else {
+            probePartitions = partition(probe::next, probeKeys, true);
+            partition = -1;
+            probeRows = () -> null;
+        }
+        probeRow = null;
+    }
+
+    @Override
+    public Object[] next() throws Exception {
+        RowEvaluator[] probeKeys = buildLeft ? rightKeys : leftKeys;
+        while (true) {
+            while (matchPosition < matches.size()) {
+                Object[] joined = join(probeRow, matches.get(matchPosition++));
+                if (condition == null || Boolean.TRUE.equals(condition.evaluate(joined))) {
+                    matched = true;
+                    return joined;
+                }
+            }
+            if (probeRow != null && leftOuter && !matched) {
+                Object[] joined = Arrays.copyOf(probeRow, probeRow.length + rightWidth);
+                probeRow = null;
+                return joined;
+            }
+
+            probeRow = probeRows.next();
+            while (probeRow == null) {
+                if (!nextPartition()) {
+                    return null;
+                }
+                probeRow = probeRows.next();
+            }
+            JoinKey key = JoinKey.of(probeRow, probeKeys, numericKeys);
+            List<Object[]> rows = key == null ? null : table.get(key);
+            matches = rows == null ? Collections.emptyList() : rows;
+            matchPosition = 0;
+            matched = false;
+        }
+    }
+
+    @Override
+    public void close() {
+        table = null;
+        probeRows = null;
+        closeProbeInput();
+        deleteFiles(buildPartitions);
+        deleteFiles(probePartitions);
+        left.close();
+        right.close();
+    }
+
+    /**
+     * Number of partitions the build input was split into
+     */
+    int spilledPartitions() {
+        return spilledPartitions;
+    }
+
+    private Object[] join(Object[] probe, Object[] build) {
+        Object[] leftRow = buildLeft ? build : probe;
+        Object[] rightRow = buildLeft ? probe : build;
+        Object[] joined = Arrays.copyOf(leftRow, leftRow.length + rightRow.length);
+        System.arraycopy(rightRow, 0, joined, leftRow.length, rightRow.length);
+        return joined;
+    }
+
+    /**
+     * Write the build rows read so far and the rest of the build input to partitions
+     */
+    private File[] spillBuild(Operator build, RowEvaluator[] buildKeys) throws Exception {
+        List<Object[]> buffered = new ArrayList<>();
+        for (List<Object[]> rows : table.values()) {
+            buffered.addAll(rows);
+        }
+        table.clear();
+        int[] position = {0};
+        return partition(() -> {
+            if (position[0] < buffered.size()) {
+                Object[] row = buffered.get(position[0]);
+                buffered.set(position[0]++, null);
+                return row;
+            }
+            return build.next();
+        }, buildKeys, false);
+    }
+
+    /**
+     * Split rows into partition files by hash of their key. Rows with a NULL key
+     * are dropped from the build side; on the probe side they still produce a row
+     * when joining with NULLs.
+     */
+    private File[] partition(RowSource rows, RowEvaluator[] keys, boolean probe) throws Exception {
+        File[] files = new File[PARTITIONS];
+        DataOutputStream[] outputs = new DataOutputStream[PARTITIONS];
+        try {
+            Object[] row;
+            while ((row = rows.next()) != null) {
+                JoinKey key = JoinKey.of(row, keys, numericKeys);
+                if (key == null && !(probe && leftOuter)) {
+                    continue;
+                }
+                int index = key == null ? 0 : Math.floorMod(key.hashCode(), PARTITIONS);
+                if (outputs[index] == null) {
+                    files[index] = SpillFiles.create(spillDirectory, "join-");
+                    outputs[index] = SpillFiles.openWriter(files[index]);
+                    if (!probe) {
+                        spilledPartitions++;
+                    }
+                }
+                SpillFiles.writeRow(outputs[index], row);
+            }
+        } finally {
+            for (DataOutputStream output : outputs) {
+                if (output != null) {
+                    output.close();
+                }
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Load the next build partition into the hash table and stream the matching
+     * probe partition; false when all partitions are joined
+     */
+    private boolean nextPartition() throws Exception {
+        if (probePartitions == null) {
+            return false;
+        }
+        probeRows = () -> null;
+        closeProbeInput();
+        if (partition >= 0) {
+            deleteFile(buildPartitions, partition);
+            deleteFile(probePartitions, partition);
+        }
+        RowEvaluator[] buildKeys = buildLeft ? leftKeys : rightKeys;
+        while (++partition < PARTITIONS) {
+            if (probePartitions[partition] == null) {
+                deleteFile(buildPartitions, partition);
+                continue;
+            }
+            table = new HashMap<>();
+            if (buildPartitions[partition] != null) {
+                try (DataInputStream in = SpillFiles.openReader(buildPartitions[partition])) {
+                    Object[] row;
+                    while ((row = SpillFiles.readRow(in)) != null) {
+                        table.computeIfAbsent(JoinKey.of(row, buildKeys, numericKeys), k -> new ArrayList<>(1)).add(row);
+                    }
+                }
+            }
+            DataInputStream in = SpillFiles.openReader(probePartitions[partition]);
+            probeInput = in;
+            probeRows = () -> SpillFiles.readRow(in);
+            return true;
+        }
+        table = null;
+        return false;
+    }
+
+    private void closeProbeInput() {
+        if (probeInput != null) {
+            try {
+                probeInput.close();
+            } catch (IOException e) {
+                // the file is deleted next
+            }
+            probeInput = null;
+        }
+    }
+
+    private static void deleteFile(File[] files, int index) {
+        if (files != null && files[index] != null) {
+            files[index].delete();
+            files[index] = null;
+        }
+    }
+
+    private static void deleteFiles(File[] files) {
+        if (files != null) {
+            for (int i = 0; i < files.length; i++) {
+                deleteFile(files, i);
+            }
+        }
+    }
+
+    private interface RowSource {
+        Object[] next() throws Exception;
+    }
+
+    /**
+     * Key values of a row, normalized so that equal SQL values are equal keys
+     */
+    private static final class JoinKey {
+        private final Object[] values;
+        private final int hash;
+
+        private JoinKey(Object[] values) {
+            this.values = values;
+            this.hash = Arrays.hashCode(values);
+        }
+
+        /**
+         * The key of a row, or null if a key value is NULL
+         */
+        static JoinKey of(Object[] row, RowEvaluator[] keys, boolean[] numeric) {
+            Object[] values = new Object[keys.length];
+            for (int i = 0; i < keys.length; i++) {
+                Object value = keys[i].evaluate(row);
+                if (value == null) {
+                    return null;
+                }
+                values[i] = numeric[i] ? normalizeNumber(value) : normalize(value);
+            }
+            return new JoinKey(values);
+        }
+
+        /**
+         * A value compared with a number: strings that parse as one become that
+         * number, others keep comparing as their text
+         */
+        private static Object normalizeNumber(Object value) {
+            Number number = ExpressionCompiler.toNumber(value);
+            return number == null ? value.toString() : normalize(number);
+        }
+
+        private static Object normalize(Object value) {
+            if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+                return ((Number) value).longValue();
+            }
+            if (value instanceof Float || value instanceof Double) {
+                double number = ((Number) value).doubleValue();
+                if (number == Math.rint(number) && Math.abs(number) < 0x1p63) {
+                    return (long) number;
+                }
+                return number;
+            }
+            if (value instanceof Boolean) {
+                return (Boolean) value ? 1L : 0L;
+            }
+            return value;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof JoinKey && Arrays.equals(values, ((JoinKey) o).values);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
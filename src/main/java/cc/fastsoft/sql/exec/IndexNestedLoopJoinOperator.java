@@ -0,0 +1,195 @@
+package cc.fastsoft.sql.exec;
+
+import cc.fastsoft.db.core.RowCodec;
+import cc.fastsoft.db.core.StorageManager;
+import cc.fastsoft.db.schema.Column.ColumnType;
+import cc.fastsoft.db.schema.TableSchema;
+
+import java.time.DateTimeException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Index Nested Loop Join Operator - Joins the rows of its child with the rows of
+ * a table found by primary key
+ *
+ * For every left row the primary key of the matching inner row is computed from
+ * {@code keys}, one value per primary key column. Left rows are read in batches of
+ * {@code batchSize} and the inner rows of a batch are fetched with a single
+ * RocksDB multiGet, in key order, so the inner table is never scanned. A fetched row must pass
+ * the optional {@code innerFilter} (over inner rows) and {@code condition} (over
+ * joined rows). Joined rows hold the left row's values followed by the inner
+ * row's, in the order of the left rows; for a left outer join a left row without
+ * a match is joined with NULLs. Only keys for which {@link #canLookUp} holds find
+ * the rows their equality matches.
+ */
+public class IndexNestedLoopJoinOperator implements Operator {
+
+    private final Operator child;
+    private final StorageManager storageManager;
+    private final TableSchema schema;
+    private final RowEvaluator[] keys;
+    private final RowPredicate innerFilter;
+    private final RowEvaluator condition;
+    private final boolean leftOuter;
+    private final int batchSize;
+    private final Deque<Object[]> output = new ArrayDeque<>();
+    private boolean exhausted;
+
+    public IndexNestedLoopJoinOperator(Operator child, StorageManager storageManager, TableSchema schema,
+                                       List<RowEvaluator> keys, RowPredicate innerFilter, RowEvaluator condition,
+                                       boolean leftOuter, int batchSize) {
+        this.child = child;
+        this.storageManager = storageManager;
+        this.schema = schema;
+        this.keys = keys.toArray(new RowEvaluator[0]);
+        this.innerFilter = innerFilter;
+        this.condition = condition;
+        this.leftOuter = leftOuter;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Whether looking up the values of {@code key} in a primary key column of the
+     * given type finds exactly the rows {@code key = column} matches. A number
+     * equals every string that parses as it ('01', '1.0'), and a DATE or DATETIME
+     * column equals text only as spelled, so those are left to a hash join.
+     */
+    public static boolean canLookUp(RowEvaluator key, ColumnType type) {
+        switch (type) {
+            case INT:
+            case LONG:
+            case FLOAT:
+            case DOUBLE:
+            case BOOLEAN:
+                return true;
+            case DATE:
+            case DATETIME:
+                return ExpressionCompiler.columnType(key) == type;
+            default:
+                return !ExpressionCompiler.isNumeric(key);
+        }
+    }
+
+    @Override
+    public void open() throws Exception {
+        child.open();
+        output.clear();
+        exhausted = false;
+    }
+
+    @Override
+    public Object[] next() throws Exception {
+        while (output.isEmpty() && !exhausted) {
+            joinBatch();
+        }
+        return output.poll();
+    }
+
+    @Override
+    public void close() {
+        output.clear();
+        child.close();
+    }
+
+    /**
+     * Read the next batch of left rows and queue their joined rows
+     */
+    private void joinBatch() throws Exception {
+        List<Object[]> leftRows = new ArrayList<>(batchSize);
+        List<Map<String, Object>> lookups = new ArrayList<>(batchSize);
+        int[] lookupOf = new int[batchSize];
+        Object[] row;
+        while (leftRows.size() < batchSize && (row = child.next()) != null) {
+            Map<String, Object> primaryKey = primaryKey(row);
+            lookupOf[leftRows.size()] = primaryKey == null ? -1 : lookups.size();
+            if (primaryKey != null) {
+                lookups.add(primaryKey);
+            }
+            leftRows.add(row);
+        }
+        if (leftRows.size() < batchSize) {
+            exhausted = true;
+        }
+        List<Object[]> innerRows = lookups.isEmpty() ? List.of()
+                : storageManager.selectValuesByPrimaryKeys(schema, lookups);
+
+        for (int i = 0; i < leftRows.size(); i++) {
+            Object[] left = leftRows.get(i);
+            Object[] inner = lookupOf[i] < 0 ? null : innerRows.get(lookupOf[i]);
+            if (inner != null && (innerFilter == null || innerFilter.test(inner))) {
+                Object[] joined = Arrays.copyOf(left, left.length + inner.length);
+                System.arraycopy(inner, 0, joined, left.length, inner.length);
+                if (condition == null || Boolean.TRUE.equals(condition.evaluate(joined))) {
+                    output.add(joined);
+                    continue;
+                }
+            }
+            if (leftOuter) {
+                output.add(Arrays.copyOf(left, left.length + schema.columns.size()));
+            }
+        }
+    }
+
+    /**
+     * The primary key of the inner row a left row joins, or null when a key value
+     * is NULL or cannot equal any value of its column
+     */
+    private Map<String, Object> primaryKey(Object[] row) {
+        Map<String, Object> primaryKey = new HashMap<>();
+        for (int i = 0; i < keys.length; i++) {
+            String column = schema.primaryKeyColumns.get(i);
+            Object value = keyValue(keys[i].evaluate(row), schema.getColumn(column).type);
+            if (value == null) {
+                return null;
+            }
+            primaryKey.put(column, value);
+        }
+        return primaryKey;
+    }
+
+    private static Object keyValue(Object value, ColumnType type) {
+        if (value == null) {
+            return null;
+        }
+        switch (type) {
+            case INT:
+            case LONG: {
+                Number number = ExpressionCompiler.toNumber(value);
+                if (number == null) {
+                    return null;
+                }
+                if (!ExpressionCompiler.isIntegral(number) && number.doubleValue() != Math.rint(number.doubleValue())) {
+                    return null;
+                }
+                long key = number.longValue();
+                if (type == ColumnType.INT && (key < Integer.MIN_VALUE || key > Integer.MAX_VALUE)) {
+                    return null;
+                }
+                return key;
+            }
+            case FLOAT:
+            case DOUBLE: {
+                Number number = ExpressionCompiler.toNumber(value);
+                return number == null ? null : number.doubleValue();
+            }
+            case BOOLEAN:
+                return value;
+            case DATE:
+            case DATETIME:
+                try {
+                    return RowCodec.formatTemporal(type, value);
+                } catch (DateTimeException e) {
+                    // not a date, so no key equals it
+                    return null;
+                }
+            default:
+                return value.toString();
+        }
+    }
+}
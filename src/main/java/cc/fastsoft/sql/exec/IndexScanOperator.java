@@ -0,0 +1,80 @@
+package cc.fastsoft.sql.exec;
+
+import cc.fastsoft.db.core.IndexScanner;
+import cc.fastsoft.db.core.StorageManager;
+import cc.fastsoft.db.schema.IndexSchema;
+import cc.fastsoft.db.schema.TableSchema;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Index Scan Operator - Produces the rows whose leading index columns equal the given values
+ *
+ * Rows are found through the entries of a secondary index. A covering scan returns
+ * the values held by the index entry itself (the indexed and primary key columns,
+ * all other columns null); otherwise the full row is fetched by its primary key.
+ * A reverse scan produces the rows in descending index order.
+ */
+public class IndexScanOperator implements Operator {
+    private final StorageManager storageManager;
+    private final TableSchema schema;
+    private final IndexSchema index;
+    private final List<Object> leadingValues;
+    private final boolean covering;
+    private final boolean reverse;
+    private final int[] primaryKeyOrdinals;
+    private IndexScanner scanner;
+
+    public IndexScanOperator(StorageManager storageManager, TableSchema schema, IndexSchema index,
+                             List<Object> leadingValues, boolean covering) {
+        this(storageManager, schema, index, leadingValues, covering, false);
+    }
+
+    public IndexScanOperator(StorageManager storageManager, TableSchema schema, IndexSchema index,
+                             List<Object> leadingValues, boolean covering, boolean reverse) {
+        this.storageManager = storageManager;
+        this.schema = schema;
+        this.index = index;
+        this.leadingValues = leadingValues;
+        this.covering = covering;
+        this.reverse = reverse;
+        this.primaryKeyOrdinals = new int[schema.primaryKeyColumns.size()];
+        for (int i = 0; i < primaryKeyOrdinals.length; i++) {
+            primaryKeyOrdinals[i] = schema.columns.indexOf(schema.getColumn(schema.primaryKeyColumns.get(i)));
+        }
+    }
+
+    @Override
+    public void open() {
+        scanner = storageManager.indexScan(schema, index, leadingValues, reverse);
+    }
+
+    @Override
+    public Object[] next() throws Exception {
+        Object[] entry;
+        while ((entry = scanner.next()) != null) {
+            if (covering) {
+                return entry;
+            }
+            Map<String, Object> primaryKeyValues = new HashMap<>();
+            for (int i = 0; i < primaryKeyOrdinals.length; i++) {
+                primaryKeyValues.put(schema.primaryKeyColumns.get(i), entry[primaryKeyOrdinals[i]]);
+            }
+            Object[] row = storageManager.selectValuesByPrimaryKey(schema, primaryKeyValues);
+            if (row != null) {
+                return row;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void close() {
+        if (scanner != null) {
+            scanner.close();
+            scanner = null;
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package cc.fastsoft.sql.exec;
+
+/**
+ * Limit Operator - Skips {@code offset} rows and stops after {@code limit} rows
+ *
+ * Once the limit is reached the child is no longer pulled, so an underlying
+ * table scan stops reading from RocksDB immediately.
+ */
+public class LimitOperator implements Operator {
+    private final Operator child;
+    private final long offset;
+    private final long limit;
+    private long produced;
+
+    public LimitOperator(Operator child, long offset, long limit) {
+        this.child = child;
+        this.offset = offset;
+        this.limit = limit;
+    }
+
+    @Override
+    public void open() throws Exception {
+        child.open();
+        produced = 0;
+        for (long skipped = 0; skipped < offset; skipped++) {
+            if (child.next() == null) {
+                produced = limit;
+                return;
+            }
+        }
+    }
+
+    @Override
+    public Object[] next() throws Exception {
+        if (produced >= limit) {
+            return null;
+        }
+        Object[] row = child.next();
+        if (row != null) {
+            produced++;
+        }
+        return row;
+    }
+
+    @Override
+    public void close() {
+        child.close();
+    }
+}
@@ -0,0 +1,69 @@
+package cc.fastsoft.sql.exec;
+
+import cc.fastsoft.db.core.StorageManager;
+import cc.fastsoft.db.schema.TableSchema;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Multi Get Operator - Produces the rows matching a list of primary keys
+ *
+ * The keys are deduplicated and sorted into key order, then read {@code batchSize}
+ * at a time with one RocksDB multiGet per batch. Rows come in primary key order,
+ * as a table scan produces them, or in reverse order when {@code reverse} is set.
+ * Keys without a row are skipped.
+ */
+public class MultiGetOperator implements Operator {
+    private final StorageManager storageManager;
+    private final TableSchema schema;
+    private final List<Map<String, Object>> primaryKeys;
+    private final boolean reverse;
+    private final int batchSize;
+    private final Deque<Object[]> output = new ArrayDeque<>();
+    private List<Map<String, Object>> sortedKeys;
+    private int position;
+
+    public MultiGetOperator(StorageManager storageManager, TableSchema schema, List<Map<String, Object>> primaryKeys,
+                            boolean reverse, int batchSize) {
+        this.storageManager = storageManager;
+        this.schema = schema;
+        this.primaryKeys = primaryKeys;
+        this.reverse = reverse;
+        this.batchSize = batchSize;
+    }
+
+    @Override
+    public void open() {
+        sortedKeys = storageManager.sortPrimaryKeys(schema, primaryKeys);
+        if (reverse) {
+            Collections.reverse(sortedKeys);
+        }
+        position = 0;
+        output.clear();
+    }
+
+    @Override
+    public Object[] next() throws Exception {
+        while (output.isEmpty() && position < sortedKeys.size()) {
+            List<Map<String, Object>> batch = sortedKeys.subList(position,
+                    Math.min(position + batchSize, sortedKeys.size()));
+            position += batch.size();
+            for (Object[] row : storageManager.selectValuesByPrimaryKeys(schema, batch)) {
+                if (row != null) {
+                    output.add(row);
+                }
+            }
+        }
+        return output.poll();
+    }
+
+    @Override
+    public void close() {
+        output.clear();
+        sortedKeys = null;
+    }
+}
@@ -0,0 +1,27 @@
+package cc.fastsoft.sql.exec;
+
+/**
+ * Operator - A node of the pull-based (Volcano style) execution tree
+ *
+ * Rows are produced one at a time as Object[] arrays. Consumers call
+ * {@link #open()} once, then {@link #next()} until it returns null, and always
+ * {@link #close()} the operator, even when they stop early (e.g. for LIMIT).
+ */
+public interface Operator extends AutoCloseable {
+
+    /**
+     * Prepare the operator and its children for producing rows
+     */
+    void open() throws Exception;
+
+    /**
+     * Produce the next row, or null when there are no more rows
+     */
+    Object[] next() throws Exception;
+
+    /**
+     * Release resources held by this operator and its children
+     */
+    @Override
+    void close();
+}
@@ -0,0 +1,41 @@
+package cc.fastsoft.sql.exec;
+
+import cc.fastsoft.db.core.StorageManager;
+import cc.fastsoft.db.schema.TableSchema;
+
+import java.util.Map;
+
+/**
+ * Point Lookup Operator - Produces the single row matching a primary key, if any
+ */
+public class PointLookupOperator implements Operator {
+    private final StorageManager storageManager;
+    private final TableSchema schema;
+    private final Map<String, Object> primaryKeyValues;
+    private boolean done;
+
+    public PointLookupOperator(StorageManager storageManager, TableSchema schema,
+                               Map<String, Object> primaryKeyValues) {
+        this.storageManager = storageManager;
+        this.schema = schema;
+        this.primaryKeyValues = primaryKeyValues;
+    }
+
+    @Override
+    public void open() {
+        done = false;
+    }
+
+    @Override
+    public Object[] next() throws Exception {
+        if (done) {
+            return null;
+        }
+        done = true;
+        return storageManager.selectValuesByPrimaryKey(schema, primaryKeyValues);
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,41 @@
+package cc.fastsoft.sql.exec;
+
+/**
+ * Project Operator - Selects and reorders columns of its child's rows
+ *
+ * Each output column is the child column at the given ordinal, or NULL for
+ * ordinal -1 (an expression that cannot be evaluated).
+ */
+public class ProjectOperator implements Operator {
+    private final Operator child;
+    private final int[] ordinals;
+
+    public ProjectOperator(Operator child, int[] ordinals) {
+        this.child = child;
+        this.ordinals = ordinals;
+    }
+
+    @Override
+    public void open() throws Exception {
+        child.open();
+    }
+
+    @Override
+    public Object[] next() throws Exception {
+        Object[] row = child.next();
+        if (row == null) {
+            return null;
+        }
+        Object[] projected = new Object[ordinals.length];
+        for (int i = 0; i < ordinals.length; i++) {
+            int ordinal = ordinals[i];
+            projected[i] = ordinal < 0 ? null : row[ordinal];
+        }
+        return projected;
+    }
+
+    @Override
+    public void close() {
+        child.close();
+    }
+}
@@ -0,0 +1,73 @@
+package cc.fastsoft.sql.exec;
+
+import cc.fastsoft.db.schema.TableSchema;
+import net.sf.jsqlparser.statement.select.OrderByElement;
+
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Row Comparator - Orders rows by the items of an ORDER BY clause
+ *
+ * Each item is compiled once with {@link ExpressionCompiler}. Values compare in
+ * SQL order; NULL sorts before every value, so it comes first in ascending and
+ * last in descending order as in MySQL, unless NULLS FIRST/LAST says otherwise.
+ */
+public class RowComparator implements Comparator<Object[]> {
+    private final RowEvaluator[] keys;
+    private final boolean[] descending;
+    private final boolean[] nullsFirst;
+
+    public RowComparator(List<OrderByElement> orderBy, TableSchema schema, List<Object> params) {
+        this(orderBy, schema, params, false);
+    }
+
+    /**
+     * Order grouped rows, as produced by {@link HashAggregateOperator}
+     *
+     * @see ExpressionCompiler#compileGroupedValue
+     */
+    public static RowComparator grouped(List<OrderByElement> orderBy, TableSchema groupSchema, List<Object> params) {
+        return new RowComparator(orderBy, groupSchema, params, true);
+    }
+
+    private RowComparator(List<OrderByElement> orderBy, TableSchema schema, List<Object> params, boolean grouped) {
+        int count = orderBy.size();
+        keys = new RowEvaluator[count];
+        descending = new boolean[count];
+        nullsFirst = new boolean[count];
+        for (int i = 0; i < count; i++) {
+            OrderByElement element = orderBy.get(i);
+            keys[i] = grouped ? ExpressionCompiler.compileGroupedValue(element.getExpression(), schema, params)
+                    : ExpressionCompiler.compileValue(element.getExpression(), schema, params);
+            descending[i] = !element.isAsc();
+            nullsFirst[i] = element.getNullOrdering() == null
+                    ? !descending[i]
+                    : element.getNullOrdering() == OrderByElement.NullOrdering.NULLS_FIRST;
+        }
+    }
+
+    @Override
+    public int compare(Object[] a, Object[] b) {
+        for (int i = 0; i < keys.length; i++) {
+            Object left = keys[i].evaluate(a);
+            Object right = keys[i].evaluate(b);
+            int order;
+            if (left == null || right == null) {
+                if (left == right) {
+                    continue;
+                }
+                order = (left == null) == nullsFirst[i] ? -1 : 1;
+            } else {
+                order = ExpressionCompiler.compareValues(left, right);
+                if (descending[i]) {
+                    order = -order;
+                }
+            }
+            if (order != 0) {
+                return order;
+            }
+        }
+        return 0;
+    }
+}
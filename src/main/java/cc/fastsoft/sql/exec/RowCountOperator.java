@@ -0,0 +1,40 @@
+package cc.fastsoft.sql.exec;
+
+import cc.fastsoft.db.core.KeyRange;
+import cc.fastsoft.db.core.StorageManager;
+import cc.fastsoft.db.schema.TableSchema;
+
+/**
+ * Row Count Operator - Produces a single row holding the number of rows of a table
+ *
+ * Answers SELECT COUNT(*) without a WHERE clause by counting keys, so no row is
+ * decoded.
+ */
+public class RowCountOperator implements Operator {
+    private final StorageManager storageManager;
+    private final TableSchema schema;
+    private boolean done;
+
+    public RowCountOperator(StorageManager storageManager, TableSchema schema) {
+        this.storageManager = storageManager;
+        this.schema = schema;
+    }
+
+    @Override
+    public void open() {
+        done = false;
+    }
+
+    @Override
+    public Object[] next() throws Exception {
+        if (done) {
+            return null;
+        }
+        done = true;
+        return new Object[] {storageManager.countRows(schema, KeyRange.ALL)};
+    }
+
+    @Override
+    public void close() {
+    }
+}
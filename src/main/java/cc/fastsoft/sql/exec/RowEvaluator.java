@@ -0,0 +1,13 @@
+package cc.fastsoft.sql.exec;
+
+/**
+ * Row Evaluator - A compiled expression evaluated against a row
+ *
+ * Conditions evaluate to {@link Boolean#TRUE}, {@link Boolean#FALSE}, or null
+ * when the result is unknown; other expressions to their value, null for NULL.
+ */
+@FunctionalInterface
+public interface RowEvaluator {
+
+    Object evaluate(Object[] row);
+}
@@ -0,0 +1,10 @@
+package cc.fastsoft.sql.exec;
+
+/**
+ * Row Predicate - A boolean condition evaluated against a row
+ */
+@FunctionalInterface
+public interface RowPredicate {
+
+    boolean test(Object[] row);
+}
@@ -0,0 +1,167 @@
+package cc.fastsoft.sql.exec;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Sort Operator - Produces the rows of its child in sort order
+ *
+ * Rows are buffered in memory up to {@code memoryBudget} (estimated) bytes. If
+ * the whole input fits, it is sorted in memory. Otherwise every full buffer is
+ * sorted and written to a run file under {@code spillDirectory}, and the runs,
+ * together with the last buffer, are merged with a heap while rows are pulled.
+ * Run files are deleted when the operator is closed.
+ */
+public class SortOperator implements Operator {
+
+    private final Operator child;
+    private final Comparator<Object[]> comparator;
+    private final long memoryBudget;
+    private final File spillDirectory;
+    private final List<File> runFiles = new ArrayList<>();
+    private final List<Run> runs = new ArrayList<>();
+    private PriorityQueue<Run> queue;
+
+    public SortOperator(Operator child, Comparator<Object[]> comparator, long memoryBudget, File spillDirectory) {
+        this.child = child;
+        this.comparator = comparator;
+        this.memoryBudget = memoryBudget;
+        this.spillDirectory = spillDirectory;
+    }
+
+    @Override
+    public void open() throws Exception {
+        child.open();
+        List<Object[]> buffer = new ArrayList<>();
+        long bufferedBytes = 0;
+        Object[] row;
+        while ((row = child.next()) != null) {
+            buffer.add(row);
+            bufferedBytes += SpillFiles.estimateSize(row);
+            if (bufferedBytes >= memoryBudget) {
+                spill(buffer);
+                buffer = new ArrayList<>();
+                bufferedBytes = 0;
+            }
+        }
+        buffer.sort(comparator);
+        runs.add(new MemoryRun(buffer));
+        for (File file : runFiles) {
+            runs.add(new FileRun(file));
+        }
+
+        queue = new PriorityQueue<>(runs.size(), (a, b) -> comparator.compare(a.current, b.current));
+        for (Run run : runs) {
+            if (run.advance()) {
+                queue.add(run);
+            }
+        }
+    }
+
+    @Override
+    public Object[] next() throws Exception {
+        Run run = queue.poll();
+        if (run == null) {
+            return null;
+        }
+        Object[] row = run.current;
+        if (run.advance()) {
+            queue.add(run);
+        }
+        return row;
+    }
+
+    @Override
+    public void close() {
+        for (Run run : runs) {
+            run.close();
+        }
+        runs.clear();
+        queue = null;
+        for (File file : runFiles) {
+            file.delete();
+        }
+        runFiles.clear();
+        child.close();
+    }
+
+    /**
+     * Number of runs written to disk
+     */
+    int spilledRuns() {
+        return runFiles.size();
+    }
+
+    /**
+     * Sort the buffered rows and write them to a new run file
+     */
+    private void spill(List<Object[]> buffer) throws IOException {
+        buffer.sort(comparator);
+        File file = SpillFiles.create(spillDirectory, "sort-");
+        runFiles.add(file);
+        try (DataOutputStream out = SpillFiles.openWriter(file)) {
+            for (Object[] row : buffer) {
+                SpillFiles.writeRow(out, row);
+            }
+        }
+    }
+
+    /**
+     * A sorted sequence of rows taking part in the merge, positioned on {@code current}
+     */
+    private abstract static class Run {
+        Object[] current;
+
+        /**
+         * Move to the next row; false when the run is exhausted
+         */
+        abstract boolean advance() throws IOException;
+
+        void close() {
+        }
+    }
+
+    private static final class MemoryRun extends Run {
+        private final List<Object[]> rows;
+        private int position;
+
+        MemoryRun(List<Object[]> rows) {
+            this.rows = rows;
+        }
+
+        @Override
+        boolean advance() {
+            current = position < rows.size() ? rows.get(position++) : null;
+            return current != null;
+        }
+    }
+
+    private static final class FileRun extends Run {
+        private final DataInputStream in;
+
+        FileRun(File file) throws IOException {
+            in = SpillFiles.openReader(file);
+        }
+
+        @Override
+        boolean advance() throws IOException {
+            current = SpillFiles.readRow(in);
+            return current != null;
+        }
+
+        @Override
+        void close() {
+            try {
+                in.close();
+            } catch (IOException e) {
+                // the file is deleted next
+            }
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package cc.fastsoft.sql.exec;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/**
+ * Spill Files - Temporary files of rows written by operators that exceed their
+ * memory budget
+ *
+ * Rows are stored as a column count followed by one tagged value per column, so
+ * values read back with the same Java type they were written with.
+ */
+final class SpillFiles {
+
+    // Estimated heap footprint of a row array and of a boxed value
+    private static final int ROW_OVERHEAD = 32;
+    private static final int VALUE_OVERHEAD = 24;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final byte NULL = 0;
+    private static final byte INT = 1;
+    private static final byte LONG = 2;
+    private static final byte DOUBLE = 3;
+    private static final byte BOOLEAN = 4;
+    private static final byte STRING = 5;
+
+    private SpillFiles() {
+    }
+
+    /**
+     * Create an empty spill file in the directory, creating the directory if needed
+     */
+    static File create(File directory, String prefix) throws IOException {
+        directory.mkdirs();
+        return Files.createTempFile(directory.toPath(), prefix, ".run").toFile();
+    }
+
+    static DataOutputStream openWriter(File file) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE));
+    }
+
+    static DataInputStream openReader(File file) throws IOException {
+        return new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE));
+    }
+
+    /**
+     * Estimated number of heap bytes a buffered row takes
+     */
+    static long estimateSize(Object[] row) {
+        long size = ROW_OVERHEAD + 8L * row.length;
+        for (Object value : row) {
+            if (value instanceof String) {
+                size += VALUE_OVERHEAD + ((String) value).length();
+            } else if (value != null) {
+                size += VALUE_OVERHEAD;
+            }
+        }
+        return size;
+    }
+
+    static void writeRow(DataOutputStream out, Object[] row) throws IOException {
+        out.writeShort(row.length);
+        for (Object value : row) {
+            if (value == null) {
+                out.writeByte(NULL);
+            } else if (value instanceof Integer) {
+                out.writeByte(INT);
+                out.writeInt((Integer) value);
+            } else if (value instanceof Long) {
+                out.writeByte(LONG);
+                out.writeLong((Long) value);
+            } else if (value instanceof Double) {
+                out.writeByte(DOUBLE);
+                out.writeDouble((Double) value);
+            } else if (value instanceof Boolean) {
+                out.writeByte(BOOLEAN);
+                out.writeBoolean((Boolean) value);
+            } else {
+                byte[] bytes = value.toString().getBytes(StandardCharsets.UTF_8);
+                out.writeByte(STRING);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+        }
+    }
+
+    /**
+     * Read the next row of a spill file, or null at its end
+     */
+    static Object[] readRow(DataInputStream in) throws IOException {
+        int length;
+        try {
+            length = in.readUnsignedShort();
+        } catch (EOFException e) {
+            return null;
+        }
+        Object[] row = new Object[length];
+        for (int i = 0; i < length; i++) {
+            byte tag = in.readByte();
+            switch (tag) {
+                case NULL:
+                    break;
+                case INT:
+                    row[i] = in.readInt();
+                    break;
+                case LONG:
+                    row[i] = in.readLong();
+                    break;
+                case DOUBLE:
+                    row[i] = in.readDouble();
+                    break;
+                case BOOLEAN:
+                    row[i] = in.readBoolean();
+                    break;
+                case STRING:
+                    byte[] bytes = new byte[in.readInt()];
+                    in.readFully(bytes);
+                    row[i] = new String(bytes, StandardCharsets.UTF_8);
+                    break;
+                default:
+                    throw new IOException("Corrupt spill file, unknown value tag " + tag);
+            }
+        }
+        return row;
+    }
+}
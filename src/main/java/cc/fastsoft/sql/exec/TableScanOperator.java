@@ -0,0 +1,50 @@
+package cc.fastsoft.sql.exec;
+
+import cc.fastsoft.db.core.KeyRange;
+import cc.fastsoft.db.core.StorageManager;
+import cc.fastsoft.db.core.TableScanner;
+import cc.fastsoft.db.schema.TableSchema;
+
+/**
+ * Table Scan Operator - Streams the rows of a table from a RocksDB iterator
+ *
+ * Reads every row, or only those whose leading primary key column lies in a key range,
+ * in primary key order or, for a reverse scan, in descending order.
+ */
+public class TableScanOperator implements Operator {
+    private final StorageManager storageManager;
+    private final TableSchema schema;
+    private final KeyRange keyRange;
+    private final boolean reverse;
+    private TableScanner scanner;
+
+    public TableScanOperator(StorageManager storageManager, TableSchema schema) {
+        this(storageManager, schema, KeyRange.ALL, false);
+    }
+
+    public TableScanOperator(StorageManager storageManager, TableSchema schema, KeyRange keyRange,
+                             boolean reverse) {
+        this.storageManager = storageManager;
+        this.schema = schema;
+        this.keyRange = keyRange;
+        this.reverse = reverse;
+    }
+
+    @Override
+    public void open() {
+        scanner = storageManager.scan(schema, keyRange, reverse);
+    }
+
+    @Override
+    public Object[] next() throws Exception {
+        return scanner.next();
+    }
+
+    @Override
+    public void close() {
+        if (scanner != null) {
+            scanner.close();
+            scanner = null;
+        }
+    }
+}
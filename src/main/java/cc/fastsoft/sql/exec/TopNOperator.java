@@ -0,0 +1,68 @@
+package cc.fastsoft.sql.exec;
+
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+/**
+ * Top-N Operator - Produces the first {@code n} rows of its child in sort order
+ *
+ * The child is consumed into a bounded heap whose root is the largest row kept
+ * so far; a row smaller than the root replaces it. Only {@code n} rows are held,
+ * so ORDER BY ... LIMIT n over a large table costs O(rows * log n) time and O(n)
+ * memory instead of a full sort. Larger limits should use {@link SortOperator},
+ * which can spill to disk.
+ */
+public class TopNOperator implements Operator {
+
+    // Largest n a top-N heap is used for
+    public static final long MAX_ROWS = 100_000;
+
+    private final Operator child;
+    private final Comparator<Object[]> comparator;
+    private final int n;
+    private Object[][] rows;
+    private int position;
+
+    public TopNOperator(Operator child, Comparator<Object[]> comparator, long n) {
+        if (n > MAX_ROWS) {
+            throw new IllegalArgumentException("Top-N heap limited to " + MAX_ROWS + " rows: " + n);
+        }
+        this.child = child;
+        this.comparator = comparator;
+        this.n = (int) n;
+    }
+
+    @Override
+    public void open() throws Exception {
+        child.open();
+        PriorityQueue<Object[]> heap = new PriorityQueue<>(Math.max(1, Math.min(n, 1024)), comparator.reversed());
+        if (n > 0) {
+            Object[] row;
+            while ((row = child.next()) != null) {
+                if (heap.size() < n) {
+                    heap.add(row);
+                } else if (comparator.compare(row, heap.peek()) < 0) {
+                    heap.poll();
+                    heap.add(row);
+                }
+            }
+        }
+        // The heap yields the largest row first; fill the output from the back
+        rows = new Object[heap.size()][];
+        for (int i = rows.length - 1; i >= 0; i--) {
+            rows[i] = heap.poll();
+        }
+        position = 0;
+    }
+
+    @Override
+    public Object[] next() {
+        return position < rows.length ? rows[position++] : null;
+    }
+
+    @Override
+    public void close() {
+        rows = null;
+        child.close();
+    }
+}
@@ -0,0 +1,178 @@
+package cc.fastsoft.sql.plan;
+
+import cc.fastsoft.db.core.KeyRange;
+import cc.fastsoft.db.schema.IndexSchema;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Access Path - Describes how rows of a single table are located for a statement
+ *
+ * Types:
+ * - POINT_LOOKUP: every primary key column is bound by an equality predicate,
+ *   the row is fetched with a single key get
+ * - MULTI_GET: every primary key column is bound by an equality or IN-list
+ *   predicate, the rows of all combinations are fetched with batched multiGets
+ * - INDEX_SEEK: leading columns of a secondary index are bound by equality
+ *   predicates, the matching index entries are scanned
+ * - RANGE_SCAN: the leading primary key column is bounded by comparison
+ *   predicates, only the keys inside the bounds are iterated
+ * - FULL_SCAN: no usable predicate, every row of the table is visited
+ *
+ * An ordered path already produces its rows in the order of the statement's
+ * ORDER BY, reading the keys backwards when {@link #isReverse()}, so no sort is needed.
+ */
+public class AccessPath {
+
+    public enum Type {
+        POINT_LOOKUP,
+        MULTI_GET,
+        INDEX_SEEK,
+        RANGE_SCAN,
+        FULL_SCAN
+    }
+
+    private static final AccessPath FULL_SCAN = new AccessPath(Type.FULL_SCAN, Collections.emptyMap(),
+            Collections.emptyList(), null, Collections.emptyList(), KeyRange.ALL, false, false);
+
+    private final Type type;
+    private final Map<String, Object> primaryKeyValues;
+    private final List<Map<String, Object>> primaryKeys;
+    private final IndexSchema index;
+    private final List<Object> indexValues;
+    private final KeyRange keyRange;
+    private final boolean ordered;
+    private final boolean reverse;
+
+    private AccessPath(Type type, Map<String, Object> primaryKeyValues, List<Map<String, Object>> primaryKeys,
+                       IndexSchema index, List<Object> indexValues, KeyRange keyRange, boolean ordered,
+                       boolean reverse) {
+        this.type = type;
+        this.primaryKeyValues = primaryKeyValues;
+        this.primaryKeys = primaryKeys;
+        this.index = index;
+        this.indexValues = indexValues;
+        this.keyRange = keyRange;
+        this.ordered = ordered;
+        this.reverse = reverse;
+    }
+
+    public static AccessPath pointLookup(Map<String, Object> primaryKeyValues) {
+        return new AccessPath(Type.POINT_LOOKUP, Collections.unmodifiableMap(primaryKeyValues),
+                Collections.emptyList(), null, Collections.emptyList(), KeyRange.ALL, false, false);
+    }
+
+    public static AccessPath multiGet(List<Map<String, Object>> primaryKeys) {
+        return new AccessPath(Type.MULTI_GET, Collections.emptyMap(), Collections.unmodifiableList(primaryKeys),
+                null, Collections.emptyList(), KeyRange.ALL, false, false);
+    }
+
+    public static AccessPath indexSeek(IndexSchema index, List<Object> leadingValues) {
+        return new AccessPath(Type.INDEX_SEEK, Collections.emptyMap(), Collections.emptyList(), index,
+                Collections.unmodifiableList(leadingValues), KeyRange.ALL, false, false);
+    }
+
+    public static AccessPath rangeScan(KeyRange keyRange) {
+        return new AccessPath(Type.RANGE_SCAN, Collections.emptyMap(), Collections.emptyList(), null,
+                Collections.emptyList(), keyRange, false, false);
+    }
+
+    /**
+     * The same path, producing rows in the statement's ORDER BY order
+     */
+    public AccessPath ordered(boolean reverse) {
+        return new AccessPath(type, primaryKeyValues, primaryKeys, index, indexValues, keyRange, true, reverse);
+    }
+
+    public static AccessPath fullScan() {
+        return FULL_SCAN;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public boolean isPointLookup() {
+        return type == Type.POINT_LOOKUP;
+    }
+
+    public boolean isMultiGet() {
+        return type == Type.MULTI_GET;
+    }
+
+    public boolean isIndexSeek() {
+        return type == Type.INDEX_SEEK;
+    }
+
+    public boolean isRangeScan() {
+        return type == Type.RANGE_SCAN;
+    }
+
+    /**
+     * Primary key values for a point lookup, keyed by column name
+     */
+    public Map<String, Object> getPrimaryKeyValues() {
+        return primaryKeyValues;
+    }
+
+    /**
+     * Primary key values of every row a multiGet fetches, keyed by column name
+     */
+    public List<Map<String, Object>> getPrimaryKeys() {
+        return primaryKeys;
+    }
+
+    /**
+     * Index to seek for an index seek
+     */
+    public IndexSchema getIndex() {
+        return index;
+    }
+
+    /**
+     * Values of the leading index columns for an index seek, in index column order
+     */
+    public List<Object> getIndexValues() {
+        return indexValues;
+    }
+
+    /**
+     * Whether rows come in the statement's ORDER BY order without sorting
+     */
+    public boolean isOrdered() {
+        return ordered;
+    }
+
+    /**
+     * Whether keys are read backwards, from the last key of the path to the first
+     */
+    public boolean isReverse() {
+        return reverse;
+    }
+
+    /**
+     * Bounds on the leading primary key column for a range scan
+     */
+    public KeyRange getKeyRange() {
+        return keyRange;
+    }
+
+    @Override
+    public String toString() {
+        String order = ordered ? (reverse ? " ORDERED REVERSE" : " ORDERED") : "";
+        switch (type) {
+            case POINT_LOOKUP:
+                return "AccessPath{POINT_LOOKUP " + primaryKeyValues + order + "}";
+            case MULTI_GET:
+                return "AccessPath{MULTI_GET " + primaryKeys.size() + " keys" + order + "}";
+            case INDEX_SEEK:
+                return "AccessPath{INDEX_SEEK " + index.indexName + " " + indexValues + order + "}";
+            case RANGE_SCAN:
+                return "AccessPath{RANGE_SCAN " + keyRange + order + "}";
+            default:
+                return "AccessPath{FULL_SCAN" + order + "}";
+        }
+    }
+}
@@ -0,0 +1,548 @@
+package cc.fastsoft.sql.plan;
+
+import cc.fastsoft.db.core.KeyRange;
+import cc.fastsoft.db.core.RowCodec;
+import cc.fastsoft.db.schema.Column;
+import cc.fastsoft.db.schema.IndexSchema;
+import cc.fastsoft.db.schema.TableSchema;
+import net.sf.jsqlparser.expression.Expression;
+import net.sf.jsqlparser.expression.operators.conditional.AndExpression;
+import net.sf.jsqlparser.expression.operators.relational.Between;
+import net.sf.jsqlparser.expression.operators.relational.ComparisonOperator;
+import net.sf.jsqlparser.expression.operators.relational.EqualsTo;
+import net.sf.jsqlparser.expression.operators.relational.ExpressionList;
+import net.sf.jsqlparser.expression.operators.relational.GreaterThan;
+import net.sf.jsqlparser.expression.operators.relational.GreaterThanEquals;
+import net.sf.jsqlparser.expression.operators.relational.InExpression;
+import net.sf.jsqlparser.expression.operators.relational.MinorThan;
+import net.sf.jsqlparser.expression.operators.relational.MinorThanEquals;
+import net.sf.jsqlparser.expression.operators.relational.ParenthesedExpressionList;
+import net.sf.jsqlparser.statement.select.OrderByElement;
+
+import java.time.DateTimeException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Access Path Planner - Chooses how the rows of a table are read for a WHERE clause
+ *
+ * The WHERE clause is split into its AND-ed conjuncts. When equality predicates
+ * of the form {@code column = literal} bind every primary key column, the rows
+ * can be located with a point lookup instead of a full table scan. When some of
+ * them are bound by {@code column IN (literal, ...)} instead, every combination
+ * of values is a key and the rows are fetched with batched multiGets. Otherwise the
+ * secondary index with the most leading columns bound by equalities is seeked, if
+ * any. Failing that, comparisons ({@code <, <=, >, >=, =, BETWEEN}) on the leading
+ * primary key column are combined into a key range, so only the keys inside it
+ * are iterated; a range pinning the leading column to a single value is preferred
+ * over an index seek. The complete WHERE clause is still evaluated against the
+ * fetched row by the caller, so a range only has to contain every matching row.
+ *
+ * For an ORDER BY, a path whose keys already come in the requested order (read
+ * forwards or backwards) is marked ordered so the caller does not sort. Columns
+ * bound by equalities are constant and ignored in that comparison. With a LIMIT,
+ * a full scan is replaced by a scan of an index in the requested order, so only
+ * the first rows are read.
+ */
+public class AccessPathPlanner {
+
+    // Most keys an IN-list predicate is expanded into; beyond that a scan is planned
+    static final int MAX_MULTI_GET_KEYS = 10_000;
+
+    /**
+     * Plan the access path for a table and an optional WHERE clause
+     */
+    public static AccessPath plan(TableSchema schema, Expression where) {
+        return plan(schema, where, Collections.emptyList());
+    }
+
+    /**
+     * Plan the access path with the parameter values of a prepared statement
+     */
+    public static AccessPath plan(TableSchema schema, Expression where, List<Object> params) {
+        if (where == null || schema.primaryKeyColumns.isEmpty()) {
+            return AccessPath.fullScan();
+        }
+
+        Map<String, Object> equalities = new HashMap<>();
+        Map<String, List<Object>> inLists = new HashMap<>();
+        Column leadingColumn = schema.getColumn(schema.primaryKeyColumns.get(0));
+        RangeBounds range = new RangeBounds();
+        for (Expression conjunct : splitConjuncts(where)) {
+            collectEquality(schema, conjunct, params, equalities);
+            collectInList(schema, conjunct, params, inLists);
+            collectRangeBound(leadingColumn, conjunct, params, range);
+        }
+
+        if (equalities.keySet().containsAll(schema.primaryKeyColumns)) {
+            Map<String, Object> pkValues = new HashMap<>();
+            for (String pkCol : schema.primaryKeyColumns) {
+                pkValues.put(pkCol, equalities.get(pkCol));
+            }
+            return AccessPath.pointLookup(pkValues);
+        }
+        List<Map<String, Object>> primaryKeys = primaryKeyCombinations(schema, equalities, inLists);
+        if (primaryKeys != null) {
+            return AccessPath.multiGet(primaryKeys);
+        }
+        if (range.isSingleValue()) {
+            return AccessPath.rangeScan(range.toKeyRange());
+        }
+        AccessPath indexSeek = planIndexSeek(schema, equalities);
+        if (indexSeek.isIndexSeek() || range.isUnbounded()) {
+            return indexSeek;
+        }
+        return AccessPath.rangeScan(range.toKeyRange());
+    }
+
+    /**
+     * Plan the access path for a SELECT with an ORDER BY whose column references
+     * are already resolved to table columns. {@code limited} tells whether the
+     * statement has a LIMIT.
+     */
+    public static AccessPath plan(TableSchema schema, Expression where, List<Object> params,
+                                  List<OrderByElement> orderBy, boolean limited) {
+        AccessPath path = plan(schema, where, params);
+        if (orderBy == null || orderBy.isEmpty() || schema.primaryKeyColumns.isEmpty()) {
+            return path;
+        }
+        if (path.isPointLookup()) {
+            return path.ordered(false);
+        }
+
+        Map<String, Object> equalities = new HashMap<>();
+        if (where != null) {
+            for (Expression conjunct : splitConjuncts(where)) {
+                collectEquality(schema, conjunct, params, equalities);
+            }
+        }
+        List<String> keyColumns = path.isIndexSeek() ? indexKeyColumns(schema, path.getIndex())
+                : schema.primaryKeyColumns;
+        Boolean reverse = keyOrder(keyColumns, equalities.keySet(), orderBy);
+        if (reverse != null) {
+            return path.ordered(reverse);
+        }
+        if (limited && path.getType() == AccessPath.Type.FULL_SCAN) {
+            for (IndexSchema index : schema.indexes) {
+                if (index.building) {
+                    continue;
+                }
+                reverse = keyOrder(indexKeyColumns(schema, index), equalities.keySet(), orderBy);
+                if (reverse != null) {
+                    return AccessPath.indexSeek(index, Collections.emptyList()).ordered(reverse);
+                }
+            }
+        }
+        return path;
+    }
+
+    /**
+     * Columns an index key sorts by: the indexed columns, then the primary key
+     */
+    private static List<String> indexKeyColumns(TableSchema schema, IndexSchema index) {
+        List<String> columns = new ArrayList<>(index.columns);
+        columns.addAll(schema.primaryKeyColumns);
+        return columns;
+    }
+
+    /**
+     * Whether keys sorting by {@code keyColumns}, which end with the primary key,
+     * come in ORDER BY order: null if not, false if read forwards, true if read
+     * backwards. Columns in {@code constant} are skipped on both sides; once the
+     * whole key is matched the rows are unique and the remaining items cannot
+     * change the order.
+     */
+    private static Boolean keyOrder(List<String> keyColumns, Set<String> constant, List<OrderByElement> orderBy) {
+        List<String> key = new ArrayList<>();
+        for (String column : keyColumns) {
+            if (!constant.contains(column)) {
+                key.add(column);
+            }
+        }
+        Boolean descending = null;
+        int position = 0;
+        for (OrderByElement element : orderBy) {
+            if (position == key.size()) {
+                break;
+            }
+            // The key order puts NULLs first, which is only the default order
+            if (element.getNullOrdering() != null
+                    || !(element.getExpression() instanceof net.sf.jsqlparser.schema.Column)) {
+                return null;
+            }
+            String name = ((net.sf.jsqlparser.schema.Column) element.getExpression()).getColumnName();
+            if (constant.contains(name)) {
+                continue;
+            }
+            if (!key.get(position).equals(name)) {
+                return null;
+            }
+            position++;
+            boolean desc = !element.isAsc();
+            if (descending != null && descending != desc) {
+                return null;
+            }
+            descending = desc;
+        }
+        return descending != null && descending;
+    }
+
+    /**
+     * Seek the built index with the longest prefix of columns bound by equalities
+     */
+    private static AccessPath planIndexSeek(TableSchema schema, Map<String, Object> equalities) {
+        IndexSchema best = null;
+        List<Object> bestValues = Collections.emptyList();
+        for (IndexSchema index : schema.indexes) {
+            if (index.building) {
+                continue;
+            }
+            List<Object> values = new ArrayList<>();
+            for (String column : index.columns) {
+                if (!equalities.containsKey(column)) {
+                    break;
+                }
+                values.add(equalities.get(column));
+            }
+            if (values.size() > bestValues.size()) {
+                best = index;
+                bestValues = values;
+            }
+        }
+        return best == null ? AccessPath.fullScan() : AccessPath.indexSeek(best, bestValues);
+    }
+
+    /**
+     * Split a predicate into the list of expressions joined by AND
+     */
+    public static List<Expression> splitConjuncts(Expression where) {
+        List<Expression> conjuncts = new ArrayList<>();
+        addConjuncts(where, conjuncts);
+        return conjuncts;
+    }
+
+    private static void addConjuncts(Expression expr, List<Expression> conjuncts) {
+        if (expr instanceof AndExpression) {
+            AndExpression and = (AndExpression) expr;
+            addConjuncts(and.getLeftExpression(), conjuncts);
+            addConjuncts(and.getRightExpression(), conjuncts);
+        } else if (expr instanceof ParenthesedExpressionList && ((ParenthesedExpressionList<?>) expr).size() == 1) {
+            addConjuncts(((ParenthesedExpressionList<?>) expr).get(0), conjuncts);
+        } else {
+            conjuncts.add(expr);
+        }
+    }
+
+    /**
+     * Record {@code column = literal} (or {@code literal = column}) with the literal
+     * converted to the column type. Conflicting equalities on one column are left
+     * to the row filter, which will reject every row.
+     */
+    private static void collectEquality(TableSchema schema, Expression conjunct, List<Object> params,
+                                        Map<String, Object> equalities) {
+        if (!(conjunct instanceof EqualsTo)) {
+            return;
+        }
+        EqualsTo equals = (EqualsTo) conjunct;
+        Expression left = equals.getLeftExpression();
+        Expression right = equals.getRightExpression();
+
+        net.sf.jsqlparser.schema.Column columnRef;
+        Object literal;
+        if (left instanceof net.sf.jsqlparser.schema.Column) {
+            columnRef = (net.sf.jsqlparser.schema.Column) left;
+            literal = Literals.valueOf(right, params);
+        } else if (right instanceof net.sf.jsqlparser.schema.Column) {
+            columnRef = (net.sf.jsqlparser.schema.Column) right;
+            literal = Literals.valueOf(left, params);
+        } else {
+            return;
+        }
+        if (literal == Literals.NOT_A_LITERAL || literal == null) {
+            return;
+        }
+
+        Column column = schema.getColumn(columnRef.getColumnName());
+        // A string column equals a number when its text parses as that number ('01',
+        // '1.0', ' 1'), so no single key holds the matches; the row filter finds them
+        if (column == null || isStringType(column.type) && literal instanceof Number) {
+            return;
+        }
+        Object value;
+        try {
+            value = Literals.coerce(column, literal);
+        } catch (NumberFormatException | DateTimeException e) {
+            // e.g. id = 'abc' on a numeric key can never match via the key encoding
+            return;
+        }
+        equalities.putIfAbsent(column.name, value);
+    }
+
+    /**
+     * Record {@code column IN (literal, ...)} with the literals converted to the
+     * column type. NULLs and literals that do not convert can never match and are
+     * dropped. A list with an expression, or with numbers for a string column
+     * (which compare numerically), is left to the row filter.
+     */
+    private static void collectInList(TableSchema schema, Expression conjunct, List<Object> params,
+                                      Map<String, List<Object>> inLists) {
+        if (!(conjunct instanceof InExpression) || ((InExpression) conjunct).isNot()) {
+            return;
+        }
+        InExpression in = (InExpression) conjunct;
+        Expression right = in.getRightExpression();
+        if (!(in.getLeftExpression() instanceof net.sf.jsqlparser.schema.Column) || !(right instanceof ExpressionList)) {
+            return;
+        }
+        Column column = schema.getColumn(((net.sf.jsqlparser.schema.Column) in.getLeftExpression()).getColumnName());
+        if (column == null || inLists.containsKey(column.name)) {
+            return;
+        }
+        boolean stringColumn = isStringType(column.type);
+        List<Object> values = new ArrayList<>();
+        for (Object item : (ExpressionList<?>) right) {
+            Object literal = Literals.valueOf((Expression) item, params);
+            if (literal == Literals.NOT_A_LITERAL || stringColumn && literal instanceof Number) {
+                return;
+            }
+            if (literal == null) {
+                continue;
+            }
+            try {
+                values.add(Literals.coerce(column, literal));
+            } catch (NumberFormatException | DateTimeException e) {
+                // never equal to a value of a numeric or temporal column
+            }
+        }
+        inLists.put(column.name, values);
+    }
+
+    /**
+     * Whether values of a column type are stored as strings
+     */
+    private static boolean isStringType(Column.ColumnType type) {
+        switch (type) {
+            case INT:
+            case LONG:
+            case FLOAT:
+            case DOUBLE:
+            case BOOLEAN:
+                return false;
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * Every primary key whose columns are bound by equalities or IN-lists, or null
+     * if a column is unbound, no IN-list is involved or there are too many keys
+     */
+    private static List<Map<String, Object>> primaryKeyCombinations(TableSchema schema, Map<String, Object> equalities,
+                                                                    Map<String, List<Object>> inLists) {
+        long count = 1;
+        for (String column : schema.primaryKeyColumns) {
+            if (!equalities.containsKey(column)) {
+                if (!inLists.containsKey(column)) {
+                    return null;
+                }
+                count *= inLists.get(column).size();
+                if (count > MAX_MULTI_GET_KEYS) {
+                    return null;
+                }
+            }
+        }
+        List<Map<String, Object>> keys = new ArrayList<>();
+        keys.add(new HashMap<>());
+        for (String column : schema.primaryKeyColumns) {
+            List<Object> values = equalities.containsKey(column) ? List.of(equalities.get(column))
+                    : inLists.get(column);
+            List<Map<String, Object>> extended = new ArrayList<>(keys.size() * values.size());
+            for (Map<String, Object> key : keys) {
+                for (Object value : values) {
+                    Map<String, Object> combination = new HashMap<>(key);
+                    combination.put(column, value);
+                    extended.add(combination);
+                }
+            }
+            keys = extended;
+        }
+        return keys;
+    }
+
+    /**
+     * Narrow the range of the leading primary key column by a conjunct of the form
+     * {@code column op literal}, {@code literal op column} or
+     * {@code column BETWEEN literal AND literal}
+     */
+    private static void collectRangeBound(Column column, Expression conjunct, List<Object> params,
+                                          RangeBounds range) {
+        if (conjunct instanceof Between) {
+            Between between = (Between) conjunct;
+            if (between.isNot() || !refersTo(between.getLeftExpression(), column)) {
+                return;
+            }
+            range.narrowLower(boundValue(column, Literals.valueOf(between.getBetweenExpressionStart(), params), true), true);
+            range.narrowUpper(boundValue(column, Literals.valueOf(between.getBetweenExpressionEnd(), params), false), true);
+            return;
+        }
+        if (!(conjunct instanceof EqualsTo || conjunct instanceof GreaterThan || conjunct instanceof GreaterThanEquals
+                || conjunct instanceof MinorThan || conjunct instanceof MinorThanEquals)) {
+            return;
+        }
+        ComparisonOperator comparison = (ComparisonOperator) conjunct;
+        boolean columnOnLeft;
+        Object literal;
+        if (refersTo(comparison.getLeftExpression(), column)) {
+            columnOnLeft = true;
+            literal = Literals.valueOf(comparison.getRightExpression(), params);
+        } else if (refersTo(comparison.getRightExpression(), column)) {
+            columnOnLeft = false;
+            literal = Literals.valueOf(comparison.getLeftExpression(), params);
+        } else {
+            return;
+        }
+
+        if (conjunct instanceof EqualsTo) {
+            range.narrowLower(boundValue(column, literal, true), true);
+            range.narrowUpper(boundValue(column, literal, false), true);
+            return;
+        }
+        // literal < column is column > literal
+        boolean greater = (conjunct instanceof GreaterThan || conjunct instanceof GreaterThanEquals) == columnOnLeft;
+        boolean inclusive = conjunct instanceof GreaterThanEquals || conjunct instanceof MinorThanEquals;
+        if (greater) {
+            range.narrowLower(boundValue(column, literal, true), inclusive);
+        } else {
+            range.narrowUpper(boundValue(column, literal, false), inclusive);
+        }
+    }
+
+    private static boolean refersTo(Expression expr, Column column) {
+        return expr instanceof net.sf.jsqlparser.schema.Column
+                && column.name.equalsIgnoreCase(((net.sf.jsqlparser.schema.Column) expr).getColumnName());
+    }
+
+    /**
+     * Convert a literal to a key bound of the column type, or return null when it
+     * cannot bound the key. A fractional bound on an integer column is rounded
+     * outwards, so the range still holds every matching row; the row filter drops
+     * the extra values.
+     */
+    private static Bound boundValue(Column column, Object literal, boolean lower) {
+        if (literal == Literals.NOT_A_LITERAL || literal == null) {
+            return null;
+        }
+        switch (column.type) {
+            case INT:
+            case LONG: {
+                if (!(literal instanceof Number)) {
+                    return null;
+                }
+                double exact = ((Number) literal).doubleValue();
+                long value;
+                boolean rounded = false;
+                if (literal instanceof Double || literal instanceof Float) {
+                    double bound = lower ? Math.ceil(exact) : Math.floor(exact);
+                    rounded = bound != exact;
+                    if (bound < Long.MIN_VALUE || bound > Long.MAX_VALUE) {
+                        return null;
+                    }
+                    value = (long) bound;
+                } else {
+                    value = ((Number) literal).longValue();
+                }
+                if (column.type == Column.ColumnType.INT) {
+                    if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+                        return null;
+                    }
+                    return new Bound((int) value, rounded);
+                }
+                return new Bound(value, rounded);
+            }
+            case FLOAT:
+            case DOUBLE:
+                return literal instanceof Number ? new Bound(((Number) literal).doubleValue(), false) : null;
+            case BOOLEAN:
+                return null;
+            case DATE:
+            case DATETIME:
+                try {
+                    return literal instanceof Number ? null
+                            : new Bound(RowCodec.formatTemporal(column.type, literal), false);
+                } catch (DateTimeException e) {
+                    return null;
+                }
+            default:
+                // Numbers compare with strings numerically, which is not key order
+                return literal instanceof Number ? null : new Bound(literal.toString(), false);
+        }
+    }
+
+    /**
+     * A bound value; a rounded bound always includes its value
+     */
+    private static class Bound {
+        final Object value;
+        final boolean rounded;
+
+        Bound(Object value, boolean rounded) {
+            this.value = value;
+            this.rounded = rounded;
+        }
+    }
+
+    /**
+     * Tightest lower and upper bound seen so far on the leading primary key column
+     */
+    private static class RangeBounds {
+        private Object lower;
+        private boolean lowerInclusive;
+        private Object upper;
+        private boolean upperInclusive;
+
+        void narrowLower(Bound bound, boolean inclusive) {
+            if (bound == null) {
+                return;
+            }
+            inclusive |= bound.rounded;
+            int order = lower == null ? 1 : compare(bound.value, lower);
+            if (order > 0 || (order == 0 && !inclusive)) {
+                lower = bound.value;
+                lowerInclusive = inclusive;
+            }
+        }
+
+        void narrowUpper(Bound bound, boolean inclusive) {
+            if (bound == null) {
+                return;
+            }
+            inclusive |= bound.rounded;
+            int order = upper == null ? -1 : compare(bound.value, upper);
+            if (order < 0 || (order == 0 && !inclusive)) {
+                upper = bound.value;
+                upperInclusive = inclusive;
+            }
+        }
+
+        boolean isUnbounded() {
+            return lower == null && upper == null;
+        }
+
+        boolean isSingleValue() {
+            return lower != null && upper != null && lowerInclusive && upperInclusive && compare(lower, upper) == 0;
+        }
+
+        KeyRange toKeyRange() {
+            return new KeyRange(lower, lowerInclusive, upper, upperInclusive);
+        }
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private static int compare(Object a, Object b) {
+            return ((Comparable) a).compareTo(b);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package cc.fastsoft.sql.plan;
+
+import cc.fastsoft.db.core.RowCodec;
+import cc.fastsoft.db.schema.Column;
+import net.sf.jsqlparser.expression.DoubleValue;
+import net.sf.jsqlparser.expression.Expression;
+import net.sf.jsqlparser.expression.JdbcParameter;
+import net.sf.jsqlparser.expression.LongValue;
+import net.sf.jsqlparser.expression.NullValue;
+import net.sf.jsqlparser.expression.SignedExpression;
+import net.sf.jsqlparser.expression.StringValue;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Literals - Converts SQL literal expressions into Java values of a column's type
+ *
+ * Parameter markers ({@code ?}) of a prepared statement count as literals; their
+ * values are taken from the bound parameter list (index 1 is the first marker).
+ */
+public final class Literals {
+
+    /**
+     * Marker returned by {@link #valueOf(Expression)} for expressions that are not constants
+     */
+    public static final Object NOT_A_LITERAL = new Object();
+
+    private Literals() {
+    }
+
+    /**
+     * Extract the constant value of a literal expression, or {@link #NOT_A_LITERAL}
+     */
+    public static Object valueOf(Expression expr) {
+        return valueOf(expr, Collections.emptyList());
+    }
+
+    /**
+     * Extract the constant value of a literal or bound parameter, or {@link #NOT_A_LITERAL}
+     */
+    public static Object valueOf(Expression expr, List<Object> params) {
+        if (expr instanceof JdbcParameter) {
+            Integer index = ((JdbcParameter) expr).getIndex();
+            if (index == null || index < 1 || index > params.size()) {
+                throw new IllegalStateException("No value bound for parameter " + expr);
+            }
+            return params.get(index - 1);
+        }
+        if (expr instanceof NullValue) {
+            return null;
+        }
+        if (expr instanceof LongValue) {
+            long value = ((LongValue) expr).getValue();
+            if (value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE) {
+                return (int) value;
+            }
+            return value;
+        }
+        if (expr instanceof DoubleValue) {
+            return ((DoubleValue) expr).getValue();
+        }
+        if (expr instanceof StringValue) {
+            return ((StringValue) expr).getValue();
+        }
+        if (expr instanceof SignedExpression) {
+            SignedExpression signed = (SignedExpression) expr;
+            Object inner = valueOf(signed.getExpression(), params);
+            if (signed.getSign() == '-' && inner instanceof Number) {
+                return negate((Number) inner);
+            }
+            return inner;
+        }
+        return NOT_A_LITERAL;
+    }
+
+    /**
+     * Convert a value to the Java representation used for the given column type
+     */
+    public static Object coerce(Column column, Object value) {
+        if (value == null || column == null) {
+            return value;
+        }
+        switch (column.type) {
+            case INT:
+                if (value instanceof Number) {
+                    return ((Number) value).intValue();
+                }
+                return Integer.parseInt(value.toString().trim());
+            case LONG:
+                if (value instanceof Number) {
+                    return ((Number) value).longValue();
+                }
+                return Long.parseLong(value.toString().trim());
+            case FLOAT:
+            case DOUBLE:
+                if (value instanceof Number) {
+                    return ((Number) value).doubleValue();
+                }
+                return Double.parseDouble(value.toString().trim());
+            case BOOLEAN:
+                if (value instanceof Boolean) {
+                    return value;
+                }
+                if (value instanceof Number) {
+                    return ((Number) value).intValue() != 0;
+                }
+                return Boolean.parseBoolean(value.toString().trim());
+            case DATE:
+            case DATETIME:
+                // Throws java.time.DateTimeException for text that is not a date
+                return RowCodec.formatTemporal(column.type, value);
+            default:
+                return value.toString();
+        }
+    }
+
+    private static Number negate(Number number) {
+        if (number instanceof Integer) {
+            return -number.intValue();
+        }
+        if (number instanceof Long) {
+            return -number.longValue();
+        }
+        return -number.doubleValue();
+    }
+}
@@ -6,8 +6,19 @@ import org.rocksdb.ColumnFamilyDescriptor;
 import org.rocksdb.ColumnFamilyHandle;
 import org.rocksdb.ColumnFamilyOptions;
 import org.rocksdb.DBOptions;
+import org.rocksdb.OptimisticTransactionDB;
+import org.rocksdb.OptimisticTransactionOptions;
+import org.rocksdb.ReadOptions;
 import org.rocksdb.RocksDB;
 import org.rocksdb.RocksDBException;
+import org.rocksdb.RocksIterator;
+import org.rocksdb.Slice;
+import org.rocksdb.Transaction;
+import org.rocksdb.TransactionDB;
+import org.rocksdb.TransactionDBOptions;
+import org.rocksdb.TransactionOptions;
+import org.rocksdb.WriteBatch;
+import org.rocksdb.WriteOptions;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -50,6 +61,21 @@ public class RocksDBOperationUtils {
             DBOptions dbOptions,
             boolean isReadOnly)
             throws IOException {
+        return openDB(path, columnFamilyDescriptors, columnFamilyHandles, dbOptions, isReadOnly, TransactionMode.NONE);
+    }
+
+    /**
+     * Open a database, as a transactional one unless {@code transactionMode} is NONE.
+     * A read-only database is always opened plain.
+     */
+    public static RocksDB openDB(
+            String path,
+            List<ColumnFamilyDescriptor> columnFamilyDescriptors,
+            List<ColumnFamilyHandle> columnFamilyHandles,
+            DBOptions dbOptions,
+            boolean isReadOnly,
+            TransactionMode transactionMode)
+            throws IOException {
         RocksDB dbRef;
         try {
             if (isReadOnly) {
@@ -58,6 +84,22 @@ public class RocksDBOperationUtils {
                         checkNotNull(path),
                         columnFamilyDescriptors,
                         columnFamilyHandles);
+            } else if (transactionMode == TransactionMode.OPTIMISTIC) {
+                dbRef = OptimisticTransactionDB.open(
+                        checkNotNull(dbOptions),
+                        checkNotNull(path),
+                        columnFamilyDescriptors,
+                        columnFamilyHandles);
+            } else if (transactionMode == TransactionMode.PESSIMISTIC) {
+                // The options are copied by the database
+                try (TransactionDBOptions transactionDBOptions = new TransactionDBOptions()) {
+                    dbRef = TransactionDB.open(
+                            checkNotNull(dbOptions),
+                            transactionDBOptions,
+                            checkNotNull(path),
+                            columnFamilyDescriptors,
+                            columnFamilyHandles);
+                }
             } else {
                 dbRef = RocksDB.open(
                         checkNotNull(dbOptions),
@@ -80,6 +122,80 @@ public class RocksDBOperationUtils {
         return dbRef;
     }
 
+    /**
+     * Whether the database was opened as an OptimisticTransactionDB or TransactionDB
+     */
+    public static boolean isTransactional(RocksDB db) {
+        return db instanceof OptimisticTransactionDB || db instanceof TransactionDB;
+    }
+
+    /**
+     * Begin a transaction that reads at a snapshot taken now and checks its writes
+     * against it. {@code lockTimeoutMillis} only applies to a TransactionDB, which
+     * also detects deadlocks. The caller must close the transaction.
+     */
+    public static Transaction beginTransaction(RocksDB db, WriteOptions writeOptions, long lockTimeoutMillis) {
+        if (db instanceof OptimisticTransactionDB) {
+            try (OptimisticTransactionOptions options = new OptimisticTransactionOptions().setSetSnapshot(true)) {
+                return ((OptimisticTransactionDB) db).beginTransaction(writeOptions, options);
+            }
+        }
+        if (db instanceof TransactionDB) {
+            try (TransactionOptions options = new TransactionOptions()
+                    .setSetSnapshot(true)
+                    .setLockTimeout(lockTimeoutMillis)
+                    .setDeadlockDetect(true)) {
+                return ((TransactionDB) db).beginTransaction(writeOptions, options);
+            }
+        }
+        throw new IllegalStateException("The database was not opened for transactions");
+    }
+
+    /**
+     * Delete the keys of a column family in each [begin, end) range. Transactional
+     * databases reject range deletes: an OptimisticTransactionDB writes them to its
+     * base database, and a TransactionDB deletes the keys one by one, in batches of
+     * {@code batchSize}, so its ranges are not deleted atomically.
+     */
+    public static void deleteRanges(RocksDB db, ColumnFamilyHandle columnFamily, WriteOptions writeOptions,
+                                    List<byte[][]> ranges, int batchSize) throws RocksDBException {
+        if (db instanceof TransactionDB) {
+            for (byte[][] range : ranges) {
+                deleteKeys(db, columnFamily, writeOptions, range[0], range[1], batchSize);
+            }
+            return;
+        }
+        RocksDB target = db instanceof OptimisticTransactionDB ? ((OptimisticTransactionDB) db).getBaseDB() : db;
+        try (WriteBatch batch = new WriteBatch()) {
+            for (byte[][] range : ranges) {
+                batch.deleteRange(columnFamily, range[0], range[1]);
+            }
+            target.write(writeOptions, batch);
+        }
+    }
+
+    private static void deleteKeys(RocksDB db, ColumnFamilyHandle columnFamily, WriteOptions writeOptions,
+                                   byte[] begin, byte[] end, int batchSize) throws RocksDBException {
+        try (Slice upperBound = new Slice(end);
+             ReadOptions readOptions = new ReadOptions()
+                     .setIterateUpperBound(upperBound)
+                     .setAutoPrefixMode(true)
+                     .setFillCache(false);
+             RocksIterator iterator = db.newIterator(columnFamily, readOptions)) {
+            iterator.seek(begin);
+            while (iterator.isValid()) {
+                try (WriteBatch batch = new WriteBatch()) {
+                    for (int i = 0; i < batchSize && iterator.isValid(); i++) {
+                        batch.delete(columnFamily, iterator.key());
+                        iterator.next();
+                    }
+                    db.write(writeOptions, batch);
+                }
+            }
+            iterator.status();
+        }
+    }
+
     private static void throwExceptionIfPathLengthExceededOnWindows(String path, Exception cause)
             throws IOException {
         // max directory path length on Windows is 247.
@@ -5,13 +5,20 @@ import org.rocksdb.ColumnFamilyDescriptor;
 import org.rocksdb.ColumnFamilyHandle;
 import org.rocksdb.ColumnFamilyOptions;
 import org.rocksdb.DBOptions;
+import org.rocksdb.Options;
 import org.rocksdb.RocksDB;
+import org.rocksdb.RocksDBException;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
 
 public class RocksDbHandle implements AutoCloseable {
     static {
@@ -20,6 +27,8 @@ public class RocksDbHandle implements AutoCloseable {
 
     private final boolean isReadOnly;
 
+    private final TransactionMode transactionMode;
+
     private final DBOptions dbOptions;
 
     private final String dbPath;
@@ -30,17 +39,48 @@ public class RocksDbHandle implements AutoCloseable {
 
     private final ColumnFamilyOptions defaultColumnFamilyOptions;
 
+    // Options for the column family of the given name, used when opening and creating one
+    private final Function<String, ColumnFamilyOptions> columnFamilyOptionsFactory;
+
+    private final Map<String, ColumnFamilyHandle> columnFamilyHandles = new ConcurrentHashMap<>();
+
+    // Released when the database is closed
+    private final List<ColumnFamilyHandle> droppedColumnFamilyHandles = Collections.synchronizedList(new ArrayList<>());
+    private final List<ColumnFamilyOptions> columnFamilyOptions = Collections.synchronizedList(new ArrayList<>());
+
     public RocksDbHandle(
             File instanceRocksDBPath,
             DBOptions dbOptions,
             ColumnFamilyOptions defaultColumnFamilyOptions,
+            Function<String, ColumnFamilyOptions> columnFamilyOptionsFactory,
+            TransactionMode transactionMode,
             boolean isReadOnly) {
         this.dbPath = instanceRocksDBPath.getAbsolutePath();
         this.dbOptions = dbOptions;
         this.defaultColumnFamilyOptions = defaultColumnFamilyOptions;
+        this.columnFamilyOptionsFactory = columnFamilyOptionsFactory;
+        this.transactionMode = transactionMode;
         this.isReadOnly = isReadOnly;
     }
 
+    public RocksDbHandle(
+            File instanceRocksDBPath,
+            DBOptions dbOptions,
+            ColumnFamilyOptions defaultColumnFamilyOptions,
+            Function<String, ColumnFamilyOptions> columnFamilyOptionsFactory,
+            boolean isReadOnly) {
+        this(instanceRocksDBPath, dbOptions, defaultColumnFamilyOptions, columnFamilyOptionsFactory,
+                TransactionMode.NONE, isReadOnly);
+    }
+
+    public RocksDbHandle(
+            File instanceRocksDBPath,
+            DBOptions dbOptions,
+            ColumnFamilyOptions defaultColumnFamilyOptions,
+            boolean isReadOnly) {
+        this(instanceRocksDBPath, dbOptions, defaultColumnFamilyOptions, name -> new ColumnFamilyOptions(), isReadOnly);
+    }
+
     public RocksDbHandle(
             File instanceRocksDBPath,
             DBOptions dbOptions,
@@ -53,23 +93,49 @@ public class RocksDbHandle implements AutoCloseable {
     }
 
     private void loadDb() throws IOException {
-        // we only have one column family, default column family
-        List<ColumnFamilyDescriptor> columnFamilyDescriptors =
-                Collections.singletonList(
-                        new ColumnFamilyDescriptor(
-                                RocksDB.DEFAULT_COLUMN_FAMILY, defaultColumnFamilyOptions
-                        )
-                );
-        List<ColumnFamilyHandle> defaultCfHandle = new ArrayList<>(1);
+        // the default column family comes first, followed by every column family on disk
+        List<ColumnFamilyDescriptor> columnFamilyDescriptors = new ArrayList<>();
+        columnFamilyDescriptors.add(
+                new ColumnFamilyDescriptor(
+                        RocksDB.DEFAULT_COLUMN_FAMILY, defaultColumnFamilyOptions
+                )
+        );
+        for (byte[] name : listColumnFamilies()) {
+            if (!Arrays.equals(name, RocksDB.DEFAULT_COLUMN_FAMILY)) {
+                String cfName = new String(name, StandardCharsets.UTF_8);
+                columnFamilyDescriptors.add(
+                        new ColumnFamilyDescriptor(name, columnFamilyOptionsFactory.apply(cfName)));
+            }
+        }
+
+        List<ColumnFamilyHandle> handles = new ArrayList<>(columnFamilyDescriptors.size());
         db = RocksDBOperationUtils.openDB(
                 dbPath,
                 columnFamilyDescriptors,
-                defaultCfHandle,
+                handles,
                 dbOptions,
-                isReadOnly
+                isReadOnly,
+                transactionMode
         );
         // remove the default column family which is located at the first index
-        defaultColumnFamilyHandle = defaultCfHandle.remove(0);
+        defaultColumnFamilyHandle = handles.remove(0);
+        for (int i = 0; i < handles.size(); i++) {
+            ColumnFamilyDescriptor descriptor = columnFamilyDescriptors.get(i + 1);
+            columnFamilyHandles.put(new String(descriptor.getName(), StandardCharsets.UTF_8), handles.get(i));
+            columnFamilyOptions.add(descriptor.getOptions());
+        }
+    }
+
+    private List<byte[]> listColumnFamilies() throws IOException {
+        if (!new File(dbPath).exists()) {
+            return Collections.emptyList();
+        }
+        try (Options options = new Options()) {
+            return RocksDB.listColumnFamilies(options, dbPath);
+        } catch (RocksDBException e) {
+            // a directory without a database yet
+            return Collections.emptyList();
+        }
     }
 
     public RocksDB getDb() {
@@ -80,11 +146,54 @@ public class RocksDbHandle implements AutoCloseable {
         return defaultColumnFamilyHandle;
     }
 
+    /**
+     * Column families other than the default one, by name
+     */
+    public Map<String, ColumnFamilyHandle> getColumnFamilyHandles() {
+        return Collections.unmodifiableMap(columnFamilyHandles);
+    }
+
+    /**
+     * Create a column family with the options of the factory
+     */
+    public ColumnFamilyHandle createColumnFamily(String name) throws RocksDBException {
+        ColumnFamilyOptions options = columnFamilyOptionsFactory.apply(name);
+        ColumnFamilyHandle handle;
+        try {
+            handle = db.createColumnFamily(
+                    new ColumnFamilyDescriptor(name.getBytes(StandardCharsets.UTF_8), options));
+        } catch (RocksDBException e) {
+            options.close();
+            throw e;
+        }
+        columnFamilyOptions.add(options);
+        columnFamilyHandles.put(name, handle);
+        return handle;
+    }
+
+    /**
+     * Drop a column family and all of its data. Its files are deleted once no
+     * iterator or snapshot uses them. The handle stays valid until the database is
+     * closed, so statements still holding it fail cleanly instead of crashing.
+     */
+    public void dropColumnFamily(String name) throws RocksDBException {
+        ColumnFamilyHandle handle = columnFamilyHandles.remove(name);
+        if (handle == null) {
+            return;
+        }
+        db.dropColumnFamily(handle);
+        droppedColumnFamilyHandles.add(handle);
+    }
+
     @Override
     public void close() {
+        IOUtils.closeAllQuietly(columnFamilyHandles.values());
+        columnFamilyHandles.clear();
+        IOUtils.closeAllQuietly(droppedColumnFamilyHandles);
         IOUtils.closeQuietly(defaultColumnFamilyHandle);
         IOUtils.closeQuietly(db);
         // Making sure the already created column family options will be closed
         IOUtils.closeQuietly(defaultColumnFamilyOptions);
+        IOUtils.closeAllQuietly(columnFamilyOptions);
     }
 }
@@ -0,0 +1,13 @@
+package cc.fastsoft.storage.rocksdb;
+
+/**
+ * How RocksDB is opened: as a plain database, or as one that runs transactions
+ */
+public enum TransactionMode {
+    /** Plain RocksDB: every write batch is atomic, but there are no transactions */
+    NONE,
+    /** OptimisticTransactionDB: no locks, write conflicts fail the commit */
+    OPTIMISTIC,
+    /** TransactionDB: written keys are locked, write conflicts fail the write */
+    PESSIMISTIC
+}
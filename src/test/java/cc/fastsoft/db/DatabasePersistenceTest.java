@@ -1,11 +1,25 @@
 package cc.fastsoft.db;
 
+import cc.fastsoft.db.core.KeyEncoder;
+import cc.fastsoft.db.core.MemComparable;
 import cc.fastsoft.db.schema.Column;
+import cc.fastsoft.db.schema.TableSchema;
+import cc.fastsoft.sql.SqlParse;
 import org.junit.jupiter.api.*;
+import org.rocksdb.ColumnFamilyDescriptor;
+import org.rocksdb.ColumnFamilyHandle;
+import org.rocksdb.DBOptions;
+import org.rocksdb.Options;
+import org.rocksdb.RocksDB;
 import org.rocksdb.RocksDBException;
+import org.rocksdb.RocksIterator;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -40,6 +54,7 @@ class DatabasePersistenceTest {
     @DisplayName("Should create database and table on first run")
     void testFirstRun_CreateDatabaseAndTable() throws RocksDBException {
         try (DatabaseEngine engine = createTestEngine()) {
+            Session session = new Session();
             // Verify no databases exist initially
             List<String> databases = engine.listDatabases();
             assertFalse(databases.contains(TEST_DB_NAME), "Database should not exist initially");
@@ -52,16 +67,16 @@ class DatabasePersistenceTest {
             assertTrue(engine.databaseExists(TEST_DB_NAME), "Database should exist after creation");
 
             // Use database
-            engine.useDatabase(TEST_DB_NAME);
-            assertEquals(TEST_DB_NAME, engine.getCurrentDatabase(), "Current database should be test_db");
+            engine.useDatabase(session, TEST_DB_NAME);
+            assertEquals(TEST_DB_NAME, session.getDatabase(), "Current database should be test_db");
 
             // Create table
             List<Column> columns = createTestColumns();
-            assertDoesNotThrow(() -> engine.createTable(TEST_TABLE_NAME, columns, List.of("id")),
+            assertDoesNotThrow(() -> engine.createTable(session, TEST_TABLE_NAME, columns, List.of("id")),
                     "Should successfully create table");
 
             // Verify table was created
-            assertTrue(engine.tableExists(TEST_TABLE_NAME), "Table should exist after creation");
+            assertTrue(engine.tableExists(session, TEST_TABLE_NAME), "Table should exist after creation");
         }
     }
 
@@ -70,7 +85,8 @@ class DatabasePersistenceTest {
     @DisplayName("Should detect duplicate database in same session")
     void testSameSession_DetectDuplicateDatabase() throws RocksDBException {
         try (DatabaseEngine engine = createTestEngine()) {
-            engine.useDatabase(TEST_DB_NAME);
+            Session session = new Session();
+            engine.useDatabase(session, TEST_DB_NAME);
 
             // Try to create duplicate database
             IllegalStateException exception = assertThrows(IllegalStateException.class,
@@ -87,12 +103,13 @@ class DatabasePersistenceTest {
     @DisplayName("Should detect duplicate table in same session")
     void testSameSession_DetectDuplicateTable() throws RocksDBException {
         try (DatabaseEngine engine = createTestEngine()) {
-            engine.useDatabase(TEST_DB_NAME);
+            Session session = new Session();
+            engine.useDatabase(session, TEST_DB_NAME);
 
             // Try to create duplicate table
             List<Column> columns = createTestColumns();
             IllegalStateException exception = assertThrows(IllegalStateException.class,
-                    () -> engine.createTable(TEST_TABLE_NAME, columns, List.of("id")),
+                    () -> engine.createTable(session, TEST_TABLE_NAME, columns, List.of("id")),
                     "Should throw exception for duplicate table");
 
             assertTrue(exception.getMessage().contains("already exists"),
@@ -105,19 +122,20 @@ class DatabasePersistenceTest {
     @DisplayName("Should insert and query data successfully")
     void testDataOperations_InsertAndQuery() throws RocksDBException {
         try (DatabaseEngine engine = createTestEngine()) {
-            engine.useDatabase(TEST_DB_NAME);
+            Session session = new Session();
+            engine.useDatabase(session, TEST_DB_NAME);
 
             // Insert test data
             Map<String, Object> user1 = createTestUser(1L, "Alice", "alice@example.com");
             Map<String, Object> user2 = createTestUser(2L, "Bob", "bob@example.com");
 
-            assertDoesNotThrow(() -> engine.insert(TEST_TABLE_NAME, user1),
+            assertDoesNotThrow(() -> engine.insert(session, TEST_TABLE_NAME, user1),
                     "Should insert user1 successfully");
-            assertDoesNotThrow(() -> engine.insert(TEST_TABLE_NAME, user2),
+            assertDoesNotThrow(() -> engine.insert(session, TEST_TABLE_NAME, user2),
                     "Should insert user2 successfully");
 
             // Query data
-            List<Map<String, Object>> users = engine.selectAll(TEST_TABLE_NAME);
+            List<Map<String, Object>> users = engine.selectAll(session, TEST_TABLE_NAME);
             assertNotNull(users, "Query result should not be null");
             assertEquals(2, users.size(), "Should have 2 users");
 
@@ -135,6 +153,7 @@ class DatabasePersistenceTest {
     void testRestart_LoadExistingDatabase() throws RocksDBException {
         // Create new engine instance (simulating restart)
         try (DatabaseEngine engine = createTestEngine()) {
+            Session session = new Session();
             // Verify database is loaded
             assertTrue(engine.databaseExists(TEST_DB_NAME),
                     "Database should be loaded from RocksDB");
@@ -150,14 +169,15 @@ class DatabasePersistenceTest {
     @DisplayName("Should load existing table on restart")
     void testRestart_LoadExistingTable() throws RocksDBException {
         try (DatabaseEngine engine = createTestEngine()) {
-            engine.useDatabase(TEST_DB_NAME);
+            Session session = new Session();
+            engine.useDatabase(session, TEST_DB_NAME);
 
             // Verify table is loaded
-            assertTrue(engine.tableExists(TEST_TABLE_NAME),
+            assertTrue(engine.tableExists(session, TEST_TABLE_NAME),
                     "Table should be loaded from RocksDB");
 
             // Verify data persists
-            List<Map<String, Object>> users = engine.selectAll(TEST_TABLE_NAME);
+            List<Map<String, Object>> users = engine.selectAll(session, TEST_TABLE_NAME);
             assertEquals(2, users.size(), "Data should persist across restarts");
         }
     }
@@ -167,6 +187,7 @@ class DatabasePersistenceTest {
     @DisplayName("Should detect duplicate database after restart")
     void testAfterRestart_DetectDuplicateDatabase() throws RocksDBException {
         try (DatabaseEngine engine = createTestEngine()) {
+            Session session = new Session();
             // Try to create duplicate database after restart
             IllegalStateException exception = assertThrows(IllegalStateException.class,
                     () -> engine.createDatabase(TEST_DB_NAME),
@@ -182,12 +203,13 @@ class DatabasePersistenceTest {
     @DisplayName("Should detect duplicate table after restart")
     void testAfterRestart_DetectDuplicateTable() throws RocksDBException {
         try (DatabaseEngine engine = createTestEngine()) {
-            engine.useDatabase(TEST_DB_NAME);
+            Session session = new Session();
+            engine.useDatabase(session, TEST_DB_NAME);
 
             // Try to create duplicate table after restart
             List<Column> columns = createTestColumns();
             IllegalStateException exception = assertThrows(IllegalStateException.class,
-                    () -> engine.createTable(TEST_TABLE_NAME, columns, List.of("id")),
+                    () -> engine.createTable(session, TEST_TABLE_NAME, columns, List.of("id")),
                     "Should throw exception for duplicate table after restart");
 
             assertTrue(exception.getMessage().contains("already exists"),
@@ -200,16 +222,17 @@ class DatabasePersistenceTest {
     @DisplayName("Should allow operations on existing data after restart")
     void testAfterRestart_QueryExistingData() throws RocksDBException {
         try (DatabaseEngine engine = createTestEngine()) {
-            engine.useDatabase(TEST_DB_NAME);
+            Session session = new Session();
+            engine.useDatabase(session, TEST_DB_NAME);
 
             // Query existing data
-            List<Map<String, Object>> users = engine.selectAll(TEST_TABLE_NAME);
+            List<Map<String, Object>> users = engine.selectAll(session, TEST_TABLE_NAME);
             assertNotNull(users, "Should be able to query existing data");
             assertEquals(2, users.size(), "Should have 2 users from previous tests");
 
             // Select by primary key
             Map<String, Object> pk = Map.of("id", 1L);
-            Map<String, Object> user = engine.selectByPrimaryKey(TEST_TABLE_NAME, pk);
+            Map<String, Object> user = engine.selectByPrimaryKey(session, TEST_TABLE_NAME, pk);
             assertNotNull(user, "Should find user by primary key");
             assertEquals("Alice", user.get("name"), "Should retrieve correct user");
         }
@@ -220,6 +243,7 @@ class DatabasePersistenceTest {
     @DisplayName("Should handle multiple databases correctly")
     void testMultipleDatabases() throws RocksDBException {
         try (DatabaseEngine engine = createTestEngine()) {
+            Session session = new Session();
             // Create another database
             String secondDb = "test_db_2";
             assertDoesNotThrow(() -> engine.createDatabase(secondDb),
@@ -231,18 +255,18 @@ class DatabasePersistenceTest {
             assertTrue(databases.contains(secondDb), "Second database should exist");
 
             // Create table with same name in second database
-            engine.useDatabase(secondDb);
+            engine.useDatabase(session, secondDb);
             List<Column> columns = createTestColumns();
-            assertDoesNotThrow(() -> engine.createTable(TEST_TABLE_NAME, columns, List.of("id")),
+            assertDoesNotThrow(() -> engine.createTable(session, TEST_TABLE_NAME, columns, List.of("id")),
                     "Should create table with same name in different database");
 
             // Verify table isolation
-            engine.useDatabase(TEST_DB_NAME);
-            List<Map<String, Object>> users1 = engine.selectAll(TEST_TABLE_NAME);
+            engine.useDatabase(session, TEST_DB_NAME);
+            List<Map<String, Object>> users1 = engine.selectAll(session, TEST_TABLE_NAME);
             assertEquals(2, users1.size(), "First database should have 2 users");
 
-            engine.useDatabase(secondDb);
-            List<Map<String, Object>> users2 = engine.selectAll(TEST_TABLE_NAME);
+            engine.useDatabase(session, secondDb);
+            List<Map<String, Object>> users2 = engine.selectAll(session, TEST_TABLE_NAME);
             assertEquals(0, users2.size(), "Second database table should be empty");
 
             // Clean up
@@ -250,8 +274,259 @@ class DatabasePersistenceTest {
         }
     }
 
+    @Test
+    @Order(11)
+    @DisplayName("Should migrate legacy text keys and keep primary key order numeric")
+    void testLegacyFormatMigration() throws Exception {
+        String legacyPath = "rocks_legacy_test.db";
+        deleteDirectory(new File(legacyPath));
+        try {
+            // Write data the way the text key format stored it
+            try (org.rocksdb.Options options = new org.rocksdb.Options().setCreateIfMissing(true);
+                 org.rocksdb.RocksDB raw = org.rocksdb.RocksDB.open(options, legacyPath)) {
+                raw.put("meta:db:legacy".getBytes(), "legacy|t|id:LONG,name:STRING|id".getBytes());
+                raw.put("data:legacy.t:10".getBytes(), "id=10;name=ten".getBytes());
+                raw.put("data:legacy.t:9".getBytes(), "id=9;name=nine".getBytes());
+            }
+
+            System.setProperty("rocksdb.path", legacyPath);
+            try (DatabaseEngine engine = new DatabaseEngine()) {
+                Session session = new Session();
+                engine.useDatabase(session, "legacy");
+                assertNotEquals(0, engine.getTableSchema(session, "t").tableId, "Table id should be assigned");
+
+                List<Map<String, Object>> rows = engine.selectAll(session, "t");
+                assertEquals(2, rows.size());
+                assertEquals(9L, rows.get(0).get("id"), "Binary keys must sort numerically");
+                assertEquals(10L, rows.get(1).get("id"));
+
+                Map<String, Object> row = engine.selectByPrimaryKey(session, "t", Map.of("id", 10));
+                assertEquals("ten", row.get("name"));
+            }
+
+            // A second start must not migrate again
+            try (DatabaseEngine engine = new DatabaseEngine()) {
+                Session session = new Session();
+                engine.useDatabase(session, "legacy");
+                assertEquals(2, engine.selectAll(session, "t").size());
+            }
+        } finally {
+            System.setProperty("rocksdb.path", TEST_DB_PATH);
+            deleteDirectory(new File(legacyPath));
+        }
+    }
+
+    @Test
+    @Order(12)
+    @DisplayName("Should scan across key prefixes held by different SST files")
+    void testScansAcrossPrefixFilteredFiles() throws Exception {
+        String path = "rocks_prefix_test.db";
+        deleteDirectory(new File(path));
+        System.setProperty("rocksdb.path", path);
+        try {
+            try (DatabaseEngine engine = new DatabaseEngine()) {
+                Session session = new Session();
+                engine.createDatabase("prefix_db");
+                engine.useDatabase(session, "prefix_db");
+                engine.createTable(session, "events", List.of(
+                        new Column("id", ColumnType.INT),
+                        new Column("grp", ColumnType.INT)
+                ), List.of("id"));
+                SqlParse.parseSql("CREATE INDEX idx_grp ON events (grp)", engine, session);
+            }
+            // Every reopen flushes the recovered writes into an SST file of their own,
+            // so each file holds a disjoint run of key prefixes (256 ids each)
+            for (int round = 0; round < 3; round++) {
+                try (DatabaseEngine engine = new DatabaseEngine()) {
+                    Session session = new Session();
+                    engine.useDatabase(session, "prefix_db");
+                    StringBuilder sql = new StringBuilder("INSERT INTO events (id, grp) VALUES ");
+                    for (int id = round * 600; id < (round + 1) * 600; id++) {
+                        sql.append(id == round * 600 ? "" : ", ").append('(').append(id).append(", ")
+                                .append(id % 7).append(')');
+                    }
+                    SqlParse.parseSql(sql.toString(), engine, session);
+                }
+            }
+
+            try (DatabaseEngine engine = new DatabaseEngine()) {
+                Session session = new Session();
+                engine.useDatabase(session, "prefix_db");
+                assertEquals(1800L, count(engine, session, "SELECT COUNT(*) AS n FROM events"));
+                assertEquals(1101L, count(engine, session,
+                        "SELECT COUNT(*) AS n FROM events WHERE id BETWEEN 100 AND 1200"));
+
+                List<Map<String, Object>> rows = SqlParse.parseSql(
+                        "SELECT id FROM events WHERE id >= 590 AND id < 1210 ORDER BY id DESC", engine, session)
+                        .getRows();
+                assertEquals(620, rows.size());
+                assertEquals(1209, ((Number) rows.get(0).get("id")).intValue());
+                assertEquals(590, ((Number) rows.get(619).get("id")).intValue());
+
+                // Index keys all share one prefix, scanned forwards and backwards
+                assertEquals(257, SqlParse.parseSql("SELECT id FROM events WHERE grp = 3", engine, session)
+                        .getRows().size());
+                rows = SqlParse.parseSql("SELECT id FROM events WHERE grp = 3 ORDER BY grp DESC", engine, session)
+                        .getRows();
+                assertEquals(257, rows.size());
+            }
+        } finally {
+            System.setProperty("rocksdb.path", TEST_DB_PATH);
+            deleteDirectory(new File(path));
+        }
+    }
+
+    @Test
+    @Order(13)
+    @DisplayName("Should never reuse AUTO_INCREMENT values after restart")
+    void testAutoIncrementSurvivesRestart() throws Exception {
+        String path = "rocks_auto_increment_test.db";
+        deleteDirectory(new File(path));
+        System.setProperty("rocksdb.path", path);
+        System.setProperty("server.auto_increment.block", "10");
+        try {
+            try (DatabaseEngine engine = new DatabaseEngine()) {
+                Session session = new Session();
+                engine.createDatabase("seq_db");
+                engine.useDatabase(session, "seq_db");
+                engine.createTable(session, "tickets", List.of(
+                        new Column("id", ColumnType.LONG, true),
+                        new Column("title", ColumnType.STRING)
+                ), List.of("id"));
+                for (int i = 1; i <= 3; i++) {
+                    Map<String, Object> row = new HashMap<>();
+                    row.put("title", "ticket " + i);
+                    engine.insert(session, "tickets", row);
+                    assertEquals(i, session.getLastInsertId());
+                }
+            }
+
+            try (DatabaseEngine engine = new DatabaseEngine()) {
+                Session session = new Session();
+                engine.useDatabase(session, "seq_db");
+                assertTrue(engine.getTableSchema(session, "tickets").getColumn("id").autoIncrement);
+
+                // The rest of the block reserved before the restart is skipped
+                Map<String, Object> row = new HashMap<>();
+                row.put("title", "after restart");
+                engine.insert(session, "tickets", row);
+                assertEquals(11, session.getLastInsertId());
+
+                // An explicit value far ahead reserves past it, so the restart below cannot reuse it
+                row = new HashMap<>();
+                row.put("id", 500L);
+                row.put("title", "explicit");
+                engine.insert(session, "tickets", row);
+                assertEquals(11, session.getLastInsertId());
+            }
+
+            try (DatabaseEngine engine = new DatabaseEngine()) {
+                Session session = new Session();
+                engine.useDatabase(session, "seq_db");
+                Map<String, Object> row = new HashMap<>();
+                row.put("title", "after second restart");
+                engine.insert(session, "tickets", row);
+                assertTrue(session.getLastInsertId() > 500, "reused id " + session.getLastInsertId());
+                assertEquals(6, engine.selectAll(session, "tickets").size());
+            }
+        } finally {
+            System.clearProperty("server.auto_increment.block");
+            System.setProperty("rocksdb.path", TEST_DB_PATH);
+            deleteDirectory(new File(path));
+        }
+    }
+
+    @Test
+    @Order(14)
+    @DisplayName("Should rewrite DATE and DATETIME keys stored as text")
+    void testTemporalKeyMigration() throws Exception {
+        String path = "rocks_temporal_test.db";
+        deleteDirectory(new File(path));
+        System.setProperty("rocksdb.path", path);
+        try {
+            TableSchema schema;
+            try (DatabaseEngine engine = new DatabaseEngine()) {
+                Session session = new Session();
+                engine.createDatabase("time_db");
+                engine.useDatabase(session, "time_db");
+                SqlParse.parseSql("CREATE TABLE visits (ts DATETIME PRIMARY KEY, d DATE, n INT)", engine, session);
+                SqlParse.parseSql("CREATE INDEX idx_d ON visits (d)", engine, session);
+                SqlParse.parseSql("INSERT INTO visits (ts, d, n) VALUES ('2024-01-05 10:00:00', '2024-01-05', 1), "
+                        + "('2024-01-05 09:00:00', '2024-01-05', 2), ('2023-12-31 23:00:00', '2023-12-31', 3)",
+                        engine, session);
+                schema = engine.getTableSchema(session, "visits");
+            }
+
+            // Put the keys back the way version 3 wrote them: the value's text, as the
+            // client spelled it, and no index entries
+            KeyEncoder keyEncoder = new KeyEncoder();
+            List<byte[]> families;
+            try (Options options = new Options()) {
+                families = RocksDB.listColumnFamilies(options, path);
+            }
+            List<ColumnFamilyDescriptor> descriptors = new ArrayList<>();
+            for (byte[] name : families) {
+                descriptors.add(new ColumnFamilyDescriptor(name));
+            }
+            List<ColumnFamilyHandle> handles = new ArrayList<>();
+            try (DBOptions options = new DBOptions();
+                 RocksDB raw = RocksDB.open(options, path, descriptors, handles)) {
+                for (int i = 0; i < handles.size(); i++) {
+                    if (!new String(families.get(i)).startsWith("time_db.visits#")) {
+                        continue;
+                    }
+                    ColumnFamilyHandle family = handles.get(i);
+                    Map<byte[], byte[]> entries = new LinkedHashMap<>();
+                    try (RocksIterator iterator = raw.newIterator(family)) {
+                        for (iterator.seekToFirst(); iterator.isValid(); iterator.next()) {
+                            entries.put(iterator.key(), iterator.value());
+                        }
+                    }
+                    for (Map.Entry<byte[], byte[]> entry : entries.entrySet()) {
+                        byte[] key = entry.getKey();
+                        raw.delete(family, key);
+                        if (key[0] != KeyEncoder.TABLE_DATA_NAMESPACE) {
+                            continue;
+                        }
+                        Object ts = keyEncoder.decodePrimaryKey(schema, key).get("ts");
+                        ByteArrayOutputStream textKey = new ByteArrayOutputStream();
+                        textKey.write(key, 0, KeyEncoder.TABLE_PREFIX_LENGTH);
+                        textKey.write(MemComparable.VALUE_MARKER);
+                        MemComparable.writeBytes(textKey,
+                                ts.toString().replace(' ', 'T').getBytes(StandardCharsets.UTF_8));
+                        raw.put(family, textKey.toByteArray(), entry.getValue());
+                    }
+                }
+                raw.put("meta:format_version".getBytes(), "3".getBytes());
+            } finally {
+                handles.forEach(ColumnFamilyHandle::close);
+            }
+
+            try (DatabaseEngine engine = new DatabaseEngine()) {
+                Session session = new Session();
+                engine.useDatabase(session, "time_db");
+                List<Map<String, Object>> rows = SqlParse.parseSql("SELECT n FROM visits ORDER BY ts", engine, session)
+                        .getRows();
+                assertEquals(List.of(3, 2, 1), rows.stream().map(r -> ((Number) r.get("n")).intValue()).toList());
+                assertEquals(1L, count(engine, session,
+                        "SELECT COUNT(*) AS n FROM visits WHERE ts = '2024-01-05T09:00:00'"));
+                assertEquals(2L, count(engine, session, "SELECT COUNT(*) AS n FROM visits WHERE d = '2024-01-05'"));
+                assertThrows(Exception.class, () -> SqlParse.parseSql(
+                        "INSERT INTO visits (ts, d, n) VALUES ('2024-01-05 10:00:00.000', '2024-01-05', 4)",
+                        engine, session));
+            }
+        } finally {
+            System.setProperty("rocksdb.path", TEST_DB_PATH);
+            deleteDirectory(new File(path));
+        }
+    }
+
     // Helper methods
 
+    private long count(DatabaseEngine engine, Session session, String sql) throws Exception {
+        return ((Number) SqlParse.parseSql(sql, engine, session).getRows().get(0).get("n")).longValue();
+    }
+
     private DatabaseEngine createTestEngine() {
         // Override the default rocks.db path for testing
         System.setProperty("rocksdb.path", TEST_DB_PATH);
@@ -0,0 +1,100 @@
+package cc.fastsoft.db.core;
+
+import cc.fastsoft.db.schema.Column;
+import cc.fastsoft.db.schema.TableSchema;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Compares the binary row format against the original "name=value;" text format.
+ *
+ * Run with:
+ *   mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=cc.fastsoft.db.core.RowCodecBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RowCodecBenchmark {
+
+    private final RowCodec codec = new RowCodec();
+    private TableSchema schema;
+    private Map<String, Object> row;
+    private byte[] binaryRow;
+    private String textRow;
+
+    @Setup
+    public void setUp() {
+        schema = new TableSchema("users", List.of(
+                new Column("id", Column.ColumnType.LONG),
+                new Column("name", Column.ColumnType.STRING),
+                new Column("email", Column.ColumnType.VARCHAR),
+                new Column("age", Column.ColumnType.INT),
+                new Column("score", Column.ColumnType.DOUBLE),
+                new Column("active", Column.ColumnType.BOOLEAN),
+                new Column("created_at", Column.ColumnType.LONG)
+        ), List.of("id"), 1L);
+
+        row = new LinkedHashMap<>();
+        row.put("id", 123456789L);
+        row.put("name", "Alice Smith");
+        row.put("email", "alice.smith@example.com");
+        row.put("age", 34);
+        row.put("score", 97.25d);
+        row.put("active", true);
+        row.put("created_at", 1_700_000_000_000L);
+
+        binaryRow = codec.encodeRow(schema, row);
+        textRow = encodeText(row);
+    }
+
+    @Benchmark
+    public byte[] encodeBinary() {
+        return codec.encodeRow(schema, row);
+    }
+
+    @Benchmark
+    public byte[] encodeText() {
+        return encodeText(row).getBytes();
+    }
+
+    @Benchmark
+    public Object[] decodeBinary() {
+        return codec.decodeValues(schema, binaryRow);
+    }
+
+    @Benchmark
+    public Object[] decodeText() {
+        return codec.decodeLegacyValues(schema, textRow);
+    }
+
+    private String encodeText(Map<String, Object> values) {
+        return schema.columns.stream()
+                .map(c -> c.name + "=" + (values.get(c.name) == null ? "NULL" : values.get(c.name)))
+                .collect(Collectors.joining(";"));
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(RowCodecBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,71 @@
+package cc.fastsoft.db.core;
+
+import cc.fastsoft.db.schema.Column;
+import cc.fastsoft.db.schema.TableSchema;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RowCodecTest {
+
+    private final RowCodec codec = new RowCodec();
+
+    private final TableSchema schema = new TableSchema("events", List.of(
+            new Column("id", Column.ColumnType.LONG),
+            new Column("name", Column.ColumnType.STRING),
+            new Column("count", Column.ColumnType.INT),
+            new Column("ratio", Column.ColumnType.DOUBLE),
+            new Column("active", Column.ColumnType.BOOLEAN),
+            new Column("day", Column.ColumnType.DATE),
+            new Column("at", Column.ColumnType.DATETIME)
+    ), List.of("id"), 1L);
+
+    @Test
+    void testRoundTripWithSeparatorsAndNulls() {
+        Map<String, Object> row = new HashMap<>();
+        row.put("id", 42L);
+        row.put("name", "a=b;c=d é");
+        row.put("count", null);
+        row.put("ratio", -1.5d);
+        row.put("active", true);
+        row.put("day", "2024-02-29");
+        row.put("at", "2024-02-29 13:45:01.25");
+
+        byte[] encoded = codec.encodeRow(schema, row);
+        assertEquals(RowCodec.FORMAT_VERSION, encoded[0]);
+
+        Map<String, Object> decoded = codec.decodeRow(schema, encoded);
+        assertEquals(42L, decoded.get("id"));
+        assertEquals("a=b;c=d é", decoded.get("name"));
+        assertNull(decoded.get("count"));
+        assertTrue(decoded.containsKey("count"));
+        assertEquals(-1.5d, decoded.get("ratio"));
+        assertEquals(true, decoded.get("active"));
+        assertEquals("2024-02-29", decoded.get("day"));
+        assertEquals("2024-02-29 13:45:01.25", decoded.get("at"));
+    }
+
+    @Test
+    void testDecodesLegacyTextRows() {
+        Map<String, Object> decoded = codec.decodeRow(schema, "id=7;name=Bob;count=3;active=NULL".getBytes());
+        assertEquals(7L, decoded.get("id"));
+        assertEquals("Bob", decoded.get("name"));
+        assertEquals(3, decoded.get("count"));
+        assertNull(decoded.get("active"));
+    }
+
+    @Test
+    void testRowsWrittenBeforeColumnWasAdded() {
+        TableSchema narrow = new TableSchema("events", schema.columns.subList(0, 2), List.of("id"), 1L);
+        byte[] encoded = codec.encodeRow(narrow, Map.of("id", 1L, "name", "x"));
+
+        Object[] values = codec.decodeValues(schema, encoded);
+        assertEquals(1L, values[0]);
+        assertEquals("x", values[1]);
+        assertNull(values[6]);
+    }
+}
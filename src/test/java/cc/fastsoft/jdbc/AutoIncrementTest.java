@@ -0,0 +1,165 @@
+package cc.fastsoft.jdbc;
+
+import cc.fastsoft.MysqlServer;
+import cc.fastsoft.config.ServerConfig;
+import cc.fastsoft.db.DatabaseEngine;
+import cc.fastsoft.db.Session;
+import cc.fastsoft.jdbc.executor.StatementExecutor;
+import cc.fastsoft.sql.SqlParse;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * AUTO_INCREMENT columns over the wire: generated keys, LAST_INSERT_ID() and
+ * concurrent inserts
+ */
+public class AutoIncrementTest {
+    private static final String DATABASE = "auto_db";
+
+    private static ServerFixture fixture;
+
+    @BeforeAll
+    public static void setUp() throws Exception {
+        fixture = new ServerFixture("auto_increment");
+        try (DatabaseEngine engine = new DatabaseEngine()) {
+            Session session = new Session();
+            engine.createDatabase(DATABASE);
+            engine.useDatabase(session, DATABASE);
+            SqlParse.parseSql("CREATE TABLE users (id INT AUTO_INCREMENT PRIMARY KEY, name VARCHAR(50))",
+                    engine, session);
+            SqlParse.parseSql("CREATE TABLE events (id BIGINT NOT NULL AUTO_INCREMENT, payload TEXT, "
+                    + "PRIMARY KEY (id))", engine, session);
+        }
+
+        fixture.start(new MysqlServer(new StatementExecutor(ServerConfig.ExecutorType.POOL, 4, 16)), DATABASE);
+    }
+
+    @AfterAll
+    public static void tearDown() {
+        if (fixture != null) {
+            fixture.close();
+        }
+    }
+
+    @Test
+    public void testGeneratedKeys() throws Exception {
+        try (Connection conn = connect(); Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate("INSERT INTO users (name) VALUES ('alice')", Statement.RETURN_GENERATED_KEYS);
+            long alice = generatedKey(stmt);
+            assertTrue(alice > 0);
+            assertEquals(alice, lastInsertId(stmt));
+
+            try (PreparedStatement insert = conn.prepareStatement("INSERT INTO users (id, name) VALUES (?, ?)",
+                    Statement.RETURN_GENERATED_KEYS)) {
+                // NULL asks for a generated value just like a missing column
+                insert.setNull(1, java.sql.Types.INTEGER);
+                insert.setString(2, "bob");
+                insert.executeUpdate();
+                try (ResultSet keys = insert.getGeneratedKeys()) {
+                    assertTrue(keys.next());
+                    assertTrue(keys.getLong(1) > alice);
+                }
+            }
+
+            try (ResultSet rs = stmt.executeQuery("SELECT name FROM users WHERE id = " + alice)) {
+                assertTrue(rs.next());
+                assertEquals("alice", rs.getString(1));
+            }
+        }
+    }
+
+    @Test
+    public void testMultiRowInsertReportsFirstId() throws Exception {
+        try (Connection conn = connect(); Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate("INSERT INTO events (payload) VALUES ('a'), ('b'), ('c')");
+            long first = lastInsertId(stmt);
+            for (int i = 0; i < 3; i++) {
+                try (ResultSet rs = stmt.executeQuery("SELECT payload FROM events WHERE id = " + (first + i))) {
+                    assertTrue(rs.next());
+                    assertEquals(String.valueOf((char) ('a' + i)), rs.getString(1));
+                }
+            }
+
+            // An insert that generates nothing leaves LAST_INSERT_ID() alone
+            stmt.executeUpdate("INSERT INTO events (id, payload) VALUES (" + (first + 100) + ", 'explicit')");
+            assertEquals(first, lastInsertId(stmt));
+            // ... but moves the sequence past the explicit value
+            stmt.executeUpdate("INSERT INTO events (payload) VALUES ('d')");
+            assertEquals(first + 101, lastInsertId(stmt));
+        }
+    }
+
+    @Test
+    public void testConcurrentInsertsGetDistinctIds() throws Exception {
+        int threads = 4;
+        int inserts = 50;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<List<Long>>> futures = new ArrayList<>();
+        try {
+            for (int t = 0; t < threads; t++) {
+                futures.add(pool.submit(() -> {
+                    List<Long> ids = new ArrayList<>();
+                    try (Connection conn = connect(); Statement stmt = conn.createStatement()) {
+                        for (int i = 0; i < inserts; i++) {
+                            stmt.executeUpdate("INSERT INTO events (payload) VALUES ('x')",
+                                    Statement.RETURN_GENERATED_KEYS);
+                            ids.add(generatedKey(stmt));
+                        }
+                    }
+                    return ids;
+                }));
+            }
+            Set<Long> ids = new HashSet<>();
+            for (Future<List<Long>> future : futures) {
+                ids.addAll(future.get());
+            }
+            assertEquals(threads * inserts, ids.size());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testAutoIncrementMustBeIntegerKey() throws Exception {
+        try (Connection conn = connect(); Statement stmt = conn.createStatement()) {
+            assertThrows(SQLException.class, () -> stmt.execute(
+                    "CREATE TABLE bad_type (id VARCHAR(10) AUTO_INCREMENT PRIMARY KEY)"));
+            assertThrows(SQLException.class, () -> stmt.execute(
+                    "CREATE TABLE bad_key (id INT PRIMARY KEY, seq INT AUTO_INCREMENT)"));
+        }
+    }
+
+    private static long generatedKey(Statement stmt) throws SQLException {
+        try (ResultSet keys = stmt.getGeneratedKeys()) {
+            assertTrue(keys.next());
+            return keys.getLong(1);
+        }
+    }
+
+    private static long lastInsertId(Statement stmt) throws SQLException {
+        try (ResultSet rs = stmt.executeQuery("SELECT LAST_INSERT_ID()")) {
+            assertTrue(rs.next());
+            return rs.getLong(1);
+        }
+    }
+
+    private static Connection connect() throws SQLException {
+        return fixture.connect();
+    }
+}
@@ -0,0 +1,115 @@
+package cc.fastsoft.jdbc;
+
+import cc.fastsoft.MysqlServer;
+import cc.fastsoft.config.ServerConfig;
+import cc.fastsoft.db.DatabaseEngine;
+import cc.fastsoft.db.Session;
+import cc.fastsoft.db.schema.Column;
+import cc.fastsoft.jdbc.executor.StatementExecutor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rows per second of LOAD DATA LOCAL INFILE of a 10M-row CSV file over loopback,
+ * sent through Connector/J and loaded by SST file ingestion.
+ *
+ * Run with:
+ *   mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=cc.fastsoft.jdbc.BulkLoadBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 1, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(value = 1, jvmArgs = {"-Xmx4g"})
+public class BulkLoadBenchmark {
+    private static final String DATABASE = "bench_db";
+    private static final int ROWS = 10_000_000;
+
+    private ServerFixture fixture;
+    private Connection connection;
+    private File dataFile;
+
+    @Setup
+    public void setUp() throws Exception {
+        fixture = new ServerFixture("bulk_load_bench");
+        try (DatabaseEngine engine = new DatabaseEngine()) {
+            Session session = new Session();
+            engine.createDatabase(DATABASE);
+            engine.useDatabase(session, DATABASE);
+            engine.createTable(session, "items", List.of(
+                    new Column("id", Column.ColumnType.INT),
+                    new Column("name", Column.ColumnType.STRING),
+                    new Column("email", Column.ColumnType.VARCHAR),
+                    new Column("score", Column.ColumnType.DOUBLE)
+            ), List.of("id"));
+        }
+
+        // Shuffled keys, so the loader has to sort
+        dataFile = File.createTempFile("bulk-load-bench", ".csv");
+        try (BufferedWriter writer = Files.newBufferedWriter(dataFile.toPath(), StandardCharsets.UTF_8)) {
+            for (int i = 0; i < ROWS; i++) {
+                int id = (int) ((i * 2_654_435_761L) % ROWS);
+                writer.write(id + ",item-" + id + ",user" + id + "@example.com," + id * 0.5 + "\n");
+            }
+        }
+
+        fixture.start(new MysqlServer(new StatementExecutor(ServerConfig.ExecutorType.POOL, 2, 16)), DATABASE,
+                "allowLoadLocalInfile=true");
+        connection = fixture.connect();
+    }
+
+    @Setup(Level.Invocation)
+    public void truncate() throws Exception {
+        try (Statement stmt = connection.createStatement()) {
+            stmt.executeUpdate("TRUNCATE TABLE items");
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        connection.close();
+        fixture.close();
+        dataFile.delete();
+    }
+
+    /**
+     * Score is rows per second; each iteration runs at least one whole load
+     */
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public long loadData() throws Exception {
+        try (Statement stmt = connection.createStatement()) {
+            return stmt.executeLargeUpdate("LOAD DATA LOCAL INFILE '" + dataFile.getAbsolutePath()
+                    + "' INTO TABLE items FIELDS TERMINATED BY ','");
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(BulkLoadBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
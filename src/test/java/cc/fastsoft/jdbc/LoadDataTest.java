@@ -0,0 +1,207 @@
+package cc.fastsoft.jdbc;
+
+import cc.fastsoft.MysqlServer;
+import cc.fastsoft.config.ServerConfig;
+import cc.fastsoft.db.DatabaseEngine;
+import cc.fastsoft.db.Session;
+import cc.fastsoft.db.schema.Column;
+import cc.fastsoft.jdbc.executor.StatementExecutor;
+import com.mysql.cj.jdbc.JdbcStatement;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * LOAD DATA LOCAL INFILE through Connector/J, loaded by SST file ingestion
+ */
+public class LoadDataTest {
+    private static final String DATABASE = "load_db";
+    private static final int ROWS = 2000;
+
+    private static ServerFixture fixture;
+    private static File dataFile;
+
+    @BeforeAll
+    public static void setUp() throws Exception {
+        fixture = new ServerFixture("load_data");
+        // A small buffer spreads the load over many SST files
+        System.setProperty(ServerConfig.LOAD_BUFFER_SIZE, "4096");
+        try (DatabaseEngine engine = new DatabaseEngine()) {
+            Session session = new Session();
+            engine.createDatabase(DATABASE);
+            engine.useDatabase(session, DATABASE);
+            engine.createTable(session, "users", List.of(
+                    new Column("id", Column.ColumnType.INT),
+                    new Column("name", Column.ColumnType.STRING),
+                    new Column("score", Column.ColumnType.LONG)
+            ), List.of("id"));
+        }
+
+        StringBuilder csv = new StringBuilder("id,name,score\n");
+        csv.append("1,\"Smith, \"\"Al\"\"\",100\n");
+        csv.append("2,Bob\\, Jr,\\N\n");
+        for (int i = ROWS; i > 2; i--) {
+            csv.append(i).append(",user-").append(i).append(',').append(i * 10L).append('\n');
+        }
+        // Duplicate of the first row near the end of the file: the first one wins
+        csv.append("1,duplicate,0\n");
+        dataFile = File.createTempFile("load-data", ".csv");
+        Files.writeString(dataFile.toPath(), csv, StandardCharsets.UTF_8);
+
+        fixture.start(new MysqlServer(new StatementExecutor(ServerConfig.ExecutorType.POOL, 2, 16)), DATABASE,
+                "allowLoadLocalInfile=true");
+    }
+
+    @AfterAll
+    public static void tearDown() {
+        if (fixture != null) {
+            fixture.close();
+        }
+        System.clearProperty(ServerConfig.LOAD_BUFFER_SIZE);
+        if (dataFile != null) {
+            dataFile.delete();
+        }
+    }
+
+    @Test
+    public void testLoadDataLocalInfile() throws Exception {
+        String load = "LOAD DATA LOCAL INFILE '" + dataFile.getAbsolutePath().replace("\\", "\\\\") + "' %s "
+                + "INTO TABLE users FIELDS TERMINATED BY ',' OPTIONALLY ENCLOSED BY '\"' "
+                + "LINES TERMINATED BY '\\n' IGNORE 1 LINES (id, name, score)";
+        try (Connection conn = fixture.connect();
+             Statement stmt = conn.createStatement()) {
+            assertEquals(ROWS, stmt.executeUpdate(String.format(load, "")));
+            assertRow(stmt, 1, "Smith, \"Al\"", 100L);
+            assertRow(stmt, 2, "Bob, Jr", null);
+            assertRow(stmt, ROWS, "user-" + ROWS, ROWS * 10L);
+            assertEquals(ROWS, countRows(stmt));
+
+            // Rows already in the table are kept, unless REPLACE is given
+            stmt.executeUpdate("UPDATE users SET name = 'changed' WHERE id = 5");
+            stmt.executeUpdate("CREATE INDEX idx_name ON users (name)");
+            assertEquals(0, stmt.executeUpdate(String.format(load, "IGNORE")));
+            assertRow(stmt, 5, "changed", 50L);
+            assertEquals(ROWS, stmt.executeUpdate(String.format(load, "REPLACE")));
+            assertRow(stmt, 5, "user-5", 50L);
+            // With REPLACE the last row of a key wins
+            assertRow(stmt, 1, "duplicate", 0L);
+            assertEquals(ROWS, countRows(stmt));
+            // Index entries of replaced rows are replaced as well
+            assertEquals(List.of(5), idsWithName(stmt, "users", "user-5"));
+            assertEquals(List.of(), idsWithName(stmt, "users", "changed"));
+            assertEquals(List.of(1), idsWithName(stmt, "users", "duplicate"));
+
+            // A bad value fails the whole load after the file was received
+            File bad = File.createTempFile("load-data-bad", ".csv");
+            try {
+                Files.writeString(bad.toPath(), "9001\tok\t1\n9002\tbad\tnot-a-number\n", StandardCharsets.UTF_8);
+                SQLException error = assertThrows(SQLException.class, () -> stmt.executeUpdate(
+                        "LOAD DATA LOCAL INFILE '" + bad.getAbsolutePath().replace("\\", "\\\\") + "' INTO TABLE users"));
+                assertTrue(error.getMessage().contains("line 2"), error.getMessage());
+            } finally {
+                bad.delete();
+            }
+            assertEquals(ROWS, countRows(stmt));
+            // The connection is usable after the failed transfer
+            assertRow(stmt, 3, "user-3", 30L);
+        }
+    }
+
+    @Test
+    public void testRowsWrittenDuringTransfer() throws Exception {
+        try (Connection conn = fixture.connect();
+             Connection other = fixture.connect();
+             Statement stmt = conn.createStatement();
+             Statement otherStmt = other.createStatement()) {
+            stmt.executeUpdate("CREATE TABLE late (id INT PRIMARY KEY, name VARCHAR(20))");
+            stmt.executeUpdate("CREATE INDEX idx_late_name ON late (name)");
+            StringBuilder csv = new StringBuilder();
+            for (int i = 1; i <= 100; i++) {
+                csv.append(i).append("\tuser-").append(i).append('\n');
+            }
+            byte[] data = csv.toString().getBytes(StandardCharsets.UTF_8);
+            String load = "LOAD DATA LOCAL INFILE 'late.tsv' %s INTO TABLE late (id, name)";
+
+            // The table is empty when the load starts and has a row of the file's keys before it ends
+            JdbcStatement jdbcStmt = stmt.unwrap(JdbcStatement.class);
+            jdbcStmt.setLocalInfileInputStream(insertingMidway(data, otherStmt,
+                    "INSERT INTO late (id, name) VALUES (50, 'inserted')"));
+            assertEquals(99, stmt.executeUpdate(String.format(load, "IGNORE")));
+            assertEquals(List.of(50), idsWithName(stmt, "late", "inserted"));
+            assertEquals(List.of(), idsWithName(stmt, "late", "user-50"));
+
+            stmt.executeUpdate("DELETE FROM late");
+            jdbcStmt.setLocalInfileInputStream(insertingMidway(data, otherStmt,
+                    "INSERT INTO late (id, name) VALUES (60, 'inserted')"));
+            stmt.executeUpdate(String.format(load, "REPLACE"));
+            // The replaced row's index entry is deleted, not left behind
+            assertEquals(List.of(), idsWithName(stmt, "late", "inserted"));
+            assertEquals(List.of(60), idsWithName(stmt, "late", "user-60"));
+        }
+    }
+
+    /**
+     * The file's bytes, running an INSERT on another connection once half were read
+     */
+    private static InputStream insertingMidway(byte[] data, Statement other, String insert) {
+        return new ByteArrayInputStream(data) {
+            private boolean inserted;
+
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                if (!inserted && pos >= data.length / 2) {
+                    inserted = true;
+                    try {
+                        other.executeUpdate(insert);
+                    } catch (SQLException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+                return super.read(b, off, Math.min(len, data.length / 2));
+            }
+        };
+    }
+
+    private static void assertRow(Statement stmt, int id, String name, Long score) throws SQLException {
+        try (ResultSet rs = stmt.executeQuery("SELECT name, score FROM users WHERE id = " + id)) {
+            assertTrue(rs.next(), "row " + id);
+            assertEquals(name, rs.getString(1));
+            long value = rs.getLong(2);
+            assertEquals(score, rs.wasNull() ? null : value);
+        }
+    }
+
+    private static List<Integer> idsWithName(Statement stmt, String table, String name) throws SQLException {
+        List<Integer> ids = new ArrayList<>();
+        try (ResultSet rs = stmt.executeQuery("SELECT id FROM " + table + " WHERE name = '" + name + "'")) {
+            while (rs.next()) {
+                ids.add(rs.getInt(1));
+            }
+        }
+        return ids;
+    }
+
+    private static int countRows(Statement stmt) throws SQLException {
+        int count = 0;
+        try (ResultSet rs = stmt.executeQuery("SELECT id FROM users")) {
+            while (rs.next()) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,105 @@
+package cc.fastsoft.jdbc;
+
+import cc.fastsoft.MysqlServer;
+import cc.fastsoft.config.ServerConfig;
+import cc.fastsoft.db.DatabaseEngine;
+import cc.fastsoft.db.Session;
+import cc.fastsoft.db.schema.Column;
+import cc.fastsoft.jdbc.executor.StatementExecutor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rows per second of a full-table SELECT over loopback, read through Connector/J.
+ *
+ * Run with:
+ *   mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=cc.fastsoft.jdbc.ResultSetBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ResultSetBenchmark {
+    private static final String DATABASE = "bench_db";
+    private static final int ROWS = 10_000;
+
+    private ServerFixture fixture;
+    private Connection connection;
+
+    @Setup
+    public void setUp() throws Exception {
+        fixture = new ServerFixture("result_set_bench");
+        try (DatabaseEngine engine = new DatabaseEngine()) {
+            Session session = new Session();
+            engine.createDatabase(DATABASE);
+            engine.useDatabase(session, DATABASE);
+            engine.createTable(session, "items", List.of(
+                    new Column("id", Column.ColumnType.INT),
+                    new Column("name", Column.ColumnType.STRING),
+                    new Column("email", Column.ColumnType.VARCHAR),
+                    new Column("score", Column.ColumnType.DOUBLE)
+            ), List.of("id"));
+            for (int i = 0; i < ROWS; i++) {
+                Map<String, Object> row = new HashMap<>();
+                row.put("id", i);
+                row.put("name", "item-" + i);
+                row.put("email", "user" + i + "@example.com");
+                row.put("score", i * 0.5);
+                engine.insert(session, "items", row);
+            }
+        }
+
+        fixture.start(new MysqlServer(new StatementExecutor(ServerConfig.ExecutorType.POOL, 2, 16)), DATABASE);
+        connection = fixture.connect();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        connection.close();
+        fixture.close();
+    }
+
+    /**
+     * Score is rows per second
+     */
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public long selectAll() throws Exception {
+        long sum = 0;
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT * FROM items")) {
+            while (rs.next()) {
+                sum += rs.getInt(1);
+            }
+        }
+        return sum;
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(ResultSetBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
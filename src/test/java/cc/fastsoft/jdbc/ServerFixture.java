@@ -0,0 +1,95 @@
+package cc.fastsoft.jdbc;
+
+import cc.fastsoft.MysqlServer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+
+/**
+ * Server Fixture - A database under a temporary directory, served over JDBC, for
+ * tests and benchmarks
+ *
+ * Creating the fixture points {@code rocksdb.path} at a new temporary directory, so
+ * a {@link cc.fastsoft.db.DatabaseEngine} opened afterwards (to create the schema,
+ * or by {@link #start}) uses it. Closing the fixture stops the server, restores
+ * {@code rocksdb.path} and deletes the directory with the engine's load and spill
+ * directories next to it.
+ */
+public final class ServerFixture implements AutoCloseable {
+    private static final String USER = "root";
+    private static final String PASSWORD = "123456";
+
+    private final File directory;
+    private final String previousPath;
+    private MysqlServer server;
+    private String url;
+
+    public ServerFixture(String name) throws IOException {
+        this.directory = Files.createTempDirectory(name).toFile();
+        this.previousPath = System.getProperty("rocksdb.path");
+        System.setProperty("rocksdb.path", new File(directory, "rocks.db").getPath());
+    }
+
+    /**
+     * Start a server, which opens the database, on a free port. Connections go to
+     * {@code database} ("" for none) with the given extra connection properties,
+     * e.g. "useServerPrepStmts=true".
+     */
+    public void start(MysqlServer server, String database, String... properties) throws InterruptedException {
+        stop();
+        this.server = server;
+        this.url = url(server.start(0), database, properties);
+    }
+
+    /**
+     * Stop the server, if started
+     */
+    public void stop() {
+        if (server != null) {
+            server.close();
+            server = null;
+        }
+    }
+
+    public Connection connect() throws SQLException {
+        return DriverManager.getConnection(url, USER, PASSWORD);
+    }
+
+    @Override
+    public void close() {
+        stop();
+        if (previousPath == null) {
+            System.clearProperty("rocksdb.path");
+        } else {
+            System.setProperty("rocksdb.path", previousPath);
+        }
+        deleteDirectory(directory);
+    }
+
+    private static String url(int port, String database, String... properties) {
+        StringBuilder url = new StringBuilder("jdbc:mysql://127.0.0.1:").append(port).append('/').append(database)
+                .append("?useSSL=false&allowPublicKeyRetrieval=true");
+        for (String property : properties) {
+            url.append('&').append(property);
+        }
+        return url.toString();
+    }
+
+    private static void deleteDirectory(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isDirectory()) {
+                    deleteDirectory(file);
+                } else {
+                    file.delete();
+                }
+            }
+        }
+        directory.delete();
+    }
+}
@@ -0,0 +1,150 @@
+package cc.fastsoft.jdbc;
+
+import cc.fastsoft.MysqlServer;
+import cc.fastsoft.config.ServerConfig;
+import cc.fastsoft.db.DatabaseEngine;
+import cc.fastsoft.db.Session;
+import cc.fastsoft.db.schema.Column;
+import cc.fastsoft.jdbc.executor.StatementExecutor;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Types;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Prepared statements over COM_STMT_PREPARE / COM_STMT_EXECUTE with binary result rows
+ */
+public class ServerPreparedStatementTest {
+    private static final String DATABASE = "prepared_db";
+
+    private static ServerFixture fixture;
+
+    @BeforeAll
+    public static void setUp() throws Exception {
+        fixture = new ServerFixture("prepared");
+        try (DatabaseEngine engine = new DatabaseEngine()) {
+            Session session = new Session();
+            engine.createDatabase(DATABASE);
+            engine.useDatabase(session, DATABASE);
+            engine.createTable(session, "users", List.of(
+                    new Column("id", Column.ColumnType.INT),
+                    new Column("name", Column.ColumnType.STRING),
+                    new Column("score", Column.ColumnType.LONG)
+            ), List.of("id"));
+        }
+
+        fixture.start(new MysqlServer(new StatementExecutor(ServerConfig.ExecutorType.POOL, 2, 16)), DATABASE,
+                "useServerPrepStmts=true", "cachePrepStmts=true");
+    }
+
+    @AfterAll
+    public static void tearDown() {
+        if (fixture != null) {
+            fixture.close();
+        }
+    }
+
+    @Test
+    public void testPreparedInsertSelectUpdate() throws Exception {
+        try (Connection conn = fixture.connect()) {
+            try (PreparedStatement insert = conn.prepareStatement("INSERT INTO users (id, name, score) VALUES (?, ?, ?)")) {
+                for (int i = 1; i <= 3; i++) {
+                    insert.setInt(1, i);
+                    insert.setString(2, "user-" + i);
+                    if (i == 3) {
+                        insert.setNull(3, Types.BIGINT);
+                    } else {
+                        insert.setLong(3, i * 100L);
+                    }
+                    assertEquals(1, insert.executeUpdate());
+                }
+            }
+
+            try (PreparedStatement select = conn.prepareStatement("SELECT id, name, score FROM users WHERE id = ?")) {
+                select.setInt(1, 2);
+                try (ResultSet rs = select.executeQuery()) {
+                    assertEquals(Types.INTEGER, rs.getMetaData().getColumnType(1));
+                    assertEquals(Types.BIGINT, rs.getMetaData().getColumnType(3));
+                    assertTrue(rs.next());
+                    assertEquals(2, rs.getInt("id"));
+                    assertEquals("user-2", rs.getString("name"));
+                    assertEquals(200L, rs.getLong("score"));
+                    assertFalse(rs.next());
+                }
+
+                // Re-executing the same statement only sends new parameter values
+                select.setInt(1, 3);
+                try (ResultSet rs = select.executeQuery()) {
+                    assertTrue(rs.next());
+                    assertEquals("user-3", rs.getString("name"));
+                    rs.getLong("score");
+                    assertTrue(rs.wasNull());
+                }
+            }
+
+            try (PreparedStatement update = conn.prepareStatement("UPDATE users SET name = ? WHERE id = ?")) {
+                update.setString(1, "it's me");
+                update.setInt(2, 1);
+                assertEquals(1, update.executeUpdate());
+            }
+            try (PreparedStatement select = conn.prepareStatement("SELECT name FROM users WHERE id = ?")) {
+                select.setInt(1, 1);
+                try (ResultSet rs = select.executeQuery()) {
+                    assertTrue(rs.next());
+                    assertEquals("it's me", rs.getString(1));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testLongData() throws Exception {
+        String text = "long data, très longue, ".repeat(2000);
+        try (Connection conn = fixture.connect()) {
+            try (PreparedStatement insert = conn.prepareStatement("INSERT INTO users (id, name, score) VALUES (?, ?, ?)")) {
+                // Streams are sent with COM_STMT_SEND_LONG_DATA before the execution
+                insert.setInt(1, 100);
+                insert.setCharacterStream(2, new StringReader(text));
+                insert.setLong(3, 1L);
+                assertEquals(1, insert.executeUpdate());
+
+                insert.setInt(1, 101);
+                insert.setBinaryStream(2, new ByteArrayInputStream("bytes".getBytes(StandardCharsets.UTF_8)));
+                assertEquals(1, insert.executeUpdate());
+
+                // Clearing the parameters resets the statement, dropping long data not executed
+                insert.setInt(1, 102);
+                insert.setCharacterStream(2, new StringReader("dropped"));
+                insert.clearParameters();
+                insert.setInt(1, 102);
+                insert.setString(2, "plain");
+                insert.setLong(3, 1L);
+                assertEquals(1, insert.executeUpdate());
+            }
+
+            try (PreparedStatement select = conn.prepareStatement("SELECT name FROM users WHERE id = ?")) {
+                assertEquals(text, name(select, 100));
+                assertEquals("bytes", name(select, 101));
+                assertEquals("plain", name(select, 102));
+            }
+        }
+    }
+
+    private static String name(PreparedStatement select, int id) throws Exception {
+        select.setInt(1, id);
+        try (ResultSet rs = select.executeQuery()) {
+            assertTrue(rs.next());
+            return rs.getString(1);
+        }
+    }
+}
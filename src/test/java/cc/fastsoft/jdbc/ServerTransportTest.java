@@ -0,0 +1,66 @@
+package cc.fastsoft.jdbc;
+
+import cc.fastsoft.MysqlServer;
+import cc.fastsoft.config.ServerConfig;
+import cc.fastsoft.db.DatabaseEngine;
+import cc.fastsoft.jdbc.executor.StatementExecutor;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Every available transport serves queries, also with several SO_REUSEPORT acceptors
+ */
+public class ServerTransportTest {
+    private static ServerFixture fixture;
+
+    @BeforeAll
+    public static void setUp() throws Exception {
+        fixture = new ServerFixture("transport");
+        new DatabaseEngine().close();
+    }
+
+    @AfterAll
+    public static void tearDown() {
+        if (fixture != null) {
+            fixture.close();
+        }
+    }
+
+    @Test
+    public void testAvailableTransportsServeQueries() throws Exception {
+        for (ServerTransport transport : ServerTransport.values()) {
+            if (!transport.isAvailable()) {
+                continue;
+            }
+            fixture.start(new MysqlServer(
+                    new StatementExecutor(ServerConfig.ExecutorType.POOL, 2, 16), transport, 2, 2), "");
+            try {
+                for (int i = 0; i < 4; i++) {
+                    try (Connection conn = fixture.connect();
+                         Statement stmt = conn.createStatement();
+                         ResultSet rs = stmt.executeQuery("SELECT 1")) {
+                        assertTrue(conn.isValid(1), transport + " should answer COM_PING");
+                        assertTrue(rs.next());
+                        assertEquals("1", rs.getString(1));
+                    }
+                }
+            } finally {
+                fixture.stop();
+            }
+        }
+    }
+
+    @Test
+    public void testUnavailableTransportFallsBackToNio() {
+        assertEquals(ServerTransport.NIO, ServerTransport.select(ServerConfig.TransportType.NIO));
+        ServerTransport auto = ServerTransport.select(ServerConfig.TransportType.AUTO);
+        assertEquals(ServerTransport.EPOLL.isAvailable() ? ServerTransport.EPOLL : ServerTransport.NIO, auto);
+    }
+}
@@ -0,0 +1,132 @@
+package cc.fastsoft.jdbc;
+
+import cc.fastsoft.MysqlServer;
+import cc.fastsoft.config.ServerConfig;
+import cc.fastsoft.db.DatabaseEngine;
+import cc.fastsoft.db.Session;
+import cc.fastsoft.db.schema.Column;
+import cc.fastsoft.jdbc.executor.StatementExecutor;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Point selects must not queue behind a full table scan running on another connection
+ */
+public class StatementExecutorLatencyTest {
+    private static final String DATABASE = "latency_db";
+    private static final int ROWS = 100_000;
+
+    private static ServerFixture fixture;
+
+    @BeforeAll
+    public static void setUp() throws Exception {
+        fixture = new ServerFixture("latency");
+        try (DatabaseEngine engine = new DatabaseEngine()) {
+            Session session = new Session();
+            engine.createDatabase(DATABASE);
+            engine.useDatabase(session, DATABASE);
+            engine.createTable(session, "items", List.of(
+                    new Column("id", Column.ColumnType.INT),
+                    new Column("name", Column.ColumnType.STRING),
+                    new Column("age", Column.ColumnType.INT)
+            ), List.of("id"));
+            for (int i = 0; i < ROWS; i++) {
+                Map<String, Object> row = new HashMap<>();
+                row.put("id", i);
+                row.put("name", "item-" + i);
+                row.put("age", i % 100);
+                engine.insert(session, "items", row);
+            }
+        }
+
+        fixture.start(new MysqlServer(new StatementExecutor(ServerConfig.ExecutorType.POOL, 4, 64)), DATABASE);
+    }
+
+    @AfterAll
+    public static void tearDown() {
+        if (fixture != null) {
+            fixture.close();
+        }
+    }
+
+    @Test
+    public void testPointSelectsStayFastDuringFullScan() throws Exception {
+        long scanMillis;
+        try (Connection conn = connect(); Statement stmt = conn.createStatement()) {
+            long start = System.nanoTime();
+            assertFalse(stmt.executeQuery("SELECT * FROM items WHERE age = 1000").next());
+            scanMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        }
+
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicInteger scans = new AtomicInteger();
+        ExecutorService scanner = Executors.newSingleThreadExecutor();
+        Future<?> scanLoop = scanner.submit(() -> {
+            try (Connection conn = connect(); Statement stmt = conn.createStatement()) {
+                while (!done.get()) {
+                    stmt.executeQuery("SELECT * FROM items WHERE age = 1000").close();
+                    scans.incrementAndGet();
+                }
+            }
+            return null;
+        });
+
+        long[] latencies = new long[200];
+        try (Connection conn = connect(); Statement stmt = conn.createStatement()) {
+            for (int i = 0; i < latencies.length; i++) {
+                long start = System.nanoTime();
+                try (ResultSet rs = stmt.executeQuery("SELECT name FROM items WHERE id = " + (i * 397 % ROWS))) {
+                    assertTrue(rs.next());
+                }
+                latencies[i] = System.nanoTime() - start;
+            }
+        } finally {
+            done.set(true);
+            scanLoop.get(30, TimeUnit.SECONDS);
+            scanner.shutdown();
+        }
+
+        Arrays.sort(latencies);
+        long p50Millis = TimeUnit.NANOSECONDS.toMillis(latencies[latencies.length / 2]);
+        long p99Millis = TimeUnit.NANOSECONDS.toMillis(latencies[latencies.length * 99 / 100]);
+        assertTrue(scans.get() > 0, "scan loop should have run concurrently");
+        // On a shared event loop a point select waits for the scan in front of it
+        assertTrue(p50Millis * 4 < scanMillis, "point select p50 " + p50Millis + " ms (p99 " + p99Millis
+                + " ms, " + scans.get() + " concurrent scans) should be far below the scan time " + scanMillis + " ms");
+    }
+
+    @Test
+    public void testLargeResultSetArrivesInOrder() throws Exception {
+        // Several MB of rows: spans many coalesced chunks and the write watermarks
+        try (Connection conn = connect(); Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT id, name FROM items")) {
+            int count = 0;
+            while (rs.next()) {
+                assertEquals("item-" + rs.getInt(1), rs.getString(2));
+                count++;
+            }
+            assertEquals(ROWS, count);
+        }
+    }
+
+    private static Connection connect() throws Exception {
+        return fixture.connect();
+    }
+}
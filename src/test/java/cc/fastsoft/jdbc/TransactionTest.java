@@ -0,0 +1,273 @@
+package cc.fastsoft.jdbc;
+
+import cc.fastsoft.MysqlServer;
+import cc.fastsoft.config.ServerConfig;
+import cc.fastsoft.db.DatabaseEngine;
+import cc.fastsoft.db.Session;
+import cc.fastsoft.db.schema.Column;
+import cc.fastsoft.jdbc.executor.StatementExecutor;
+import cc.fastsoft.sql.SqlParse;
+import com.mysql.cj.jdbc.JdbcConnection;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * BEGIN / COMMIT / ROLLBACK and autocommit over the wire, on an OptimisticTransactionDB
+ */
+public class TransactionTest {
+    private static final String DATABASE = "txn_db";
+
+    private static ServerFixture fixture;
+
+    @BeforeAll
+    public static void setUp() throws Exception {
+        fixture = new ServerFixture("transaction");
+        try (DatabaseEngine engine = new DatabaseEngine()) {
+            Session session = new Session();
+            engine.createDatabase(DATABASE);
+            engine.useDatabase(session, DATABASE);
+            engine.createTable(session, "accounts", List.of(
+                    new Column("id", Column.ColumnType.INT),
+                    new Column("balance", Column.ColumnType.LONG)
+            ), List.of("id"));
+        }
+
+        fixture.start(new MysqlServer(new StatementExecutor(ServerConfig.ExecutorType.POOL, 4, 16)), DATABASE);
+    }
+
+    @AfterAll
+    public static void tearDown() {
+        if (fixture != null) {
+            fixture.close();
+        }
+    }
+
+    @BeforeEach
+    public void resetAccounts() throws Exception {
+        try (Connection conn = connect(); Statement stmt = conn.createStatement()) {
+            stmt.execute("DELETE FROM accounts");
+            stmt.execute("INSERT INTO accounts (id, balance) VALUES (1, 100), (2, 200)");
+        }
+    }
+
+    @Test
+    public void testSnapshotIsolation() throws Exception {
+        try (Connection reader = connect(); Connection writer = connect();
+             Statement readStmt = reader.createStatement(); Statement writeStmt = writer.createStatement()) {
+            readStmt.execute("BEGIN");
+            assertEquals(100, balance(readStmt, 1));
+
+            assertEquals(1, writeStmt.executeUpdate("UPDATE accounts SET balance = 150 WHERE id = 1"));
+            writeStmt.executeUpdate("INSERT INTO accounts (id, balance) VALUES (3, 300)");
+
+            // Changes committed after the snapshot stay invisible until the transaction ends
+            assertEquals(100, balance(readStmt, 1));
+            assertEquals(2, count(readStmt));
+            readStmt.execute("COMMIT");
+
+            assertEquals(150, balance(readStmt, 1));
+            assertEquals(3, count(readStmt));
+        }
+    }
+
+    @Test
+    public void testRollbackDiscardsOwnWrites() throws Exception {
+        try (Connection conn = connect(); Connection other = connect();
+             Statement stmt = conn.createStatement(); Statement otherStmt = other.createStatement()) {
+            stmt.execute("START TRANSACTION");
+            stmt.executeUpdate("UPDATE accounts SET balance = 0 WHERE id = 1");
+            stmt.executeUpdate("INSERT INTO accounts (id, balance) VALUES (3, 300)");
+            assertEquals(1, stmt.executeUpdate("DELETE FROM accounts WHERE id = 2"));
+
+            // The transaction sees its own writes, nobody else does
+            assertEquals(0, balance(stmt, 1));
+            assertEquals(2, count(stmt));
+            assertEquals(100, balance(otherStmt, 1));
+            assertEquals(2, count(otherStmt));
+
+            stmt.execute("ROLLBACK");
+            assertEquals(100, balance(stmt, 1));
+            assertEquals(200, balance(stmt, 2));
+            assertEquals(2, count(stmt));
+        }
+    }
+
+    @Test
+    public void testAutocommitOff() throws Exception {
+        try (Connection conn = connect(); Connection other = connect();
+             Statement stmt = conn.createStatement(); Statement otherStmt = other.createStatement()) {
+            conn.setAutoCommit(false);
+            stmt.executeUpdate("UPDATE accounts SET balance = 90 WHERE id = 1");
+            stmt.executeUpdate("UPDATE accounts SET balance = 210 WHERE id = 2");
+            assertTrue(inTransaction(conn));
+            assertEquals(100, balance(otherStmt, 1));
+
+            conn.commit();
+            assertFalse(inTransaction(conn));
+            assertEquals(90, balance(otherStmt, 1));
+            assertEquals(210, balance(otherStmt, 2));
+
+            stmt.executeUpdate("UPDATE accounts SET balance = 0 WHERE id = 1");
+            conn.rollback();
+            assertEquals(90, balance(otherStmt, 1));
+
+            // Turning autocommit back on commits the open transaction
+            stmt.executeUpdate("UPDATE accounts SET balance = 80 WHERE id = 1");
+            conn.setAutoCommit(true);
+            assertFalse(inTransaction(conn));
+            assertEquals(80, balance(otherStmt, 1));
+        }
+    }
+
+    @Test
+    public void testFailedStatementKeepsTransaction() throws Exception {
+        try (Connection conn = connect(); Statement stmt = conn.createStatement()) {
+            stmt.execute("BEGIN");
+            assertTrue(inTransaction(conn));
+            stmt.executeUpdate("INSERT INTO accounts (id, balance) VALUES (3, 300)");
+            // The duplicate fails on its own; the row before it in the statement is undone
+            assertThrows(SQLException.class,
+                    () -> stmt.executeUpdate("INSERT INTO accounts (id, balance) VALUES (4, 400), (1, 1)"));
+            assertTrue(inTransaction(conn));
+            stmt.execute("COMMIT");
+            assertFalse(inTransaction(conn));
+
+            assertEquals(300, balance(stmt, 3));
+            assertEquals(3, count(stmt));
+        }
+    }
+
+    @Test
+    public void testWriteConflict() throws Exception {
+        try (Connection first = connect(); Connection second = connect();
+             Statement firstStmt = first.createStatement(); Statement secondStmt = second.createStatement()) {
+            firstStmt.execute("BEGIN");
+            firstStmt.executeUpdate("UPDATE accounts SET balance = 110 WHERE id = 1");
+            assertEquals(1, secondStmt.executeUpdate("UPDATE accounts SET balance = 120 WHERE id = 1"));
+
+            // The first writer to commit wins; the other update is not silently lost
+            SQLException e = assertThrows(SQLException.class, () -> firstStmt.execute("COMMIT"));
+            assertTrue(e.getMessage().contains("Write conflict"), e.getMessage());
+            // ERR packets carry no status flags; the next result reports the ended transaction
+            assertEquals(120, balance(firstStmt, 1));
+            assertFalse(inTransaction(first));
+        }
+    }
+
+    @Test
+    public void testConcurrentIncrementsAreNotLost() throws Exception {
+        int threads = 4;
+        int increments = 25;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                futures.add(pool.submit(() -> {
+                    try (Connection conn = connect(); Statement stmt = conn.createStatement()) {
+                        for (int i = 0; i < increments; i++) {
+                            increment(stmt);
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        try (Connection conn = connect(); Statement stmt = conn.createStatement()) {
+            assertEquals(100 + threads * increments, balance(stmt, 1));
+        }
+    }
+
+    @Test
+    public void testPessimisticLockWait() throws Exception {
+        System.setProperty("rocksdb.transaction.mode", "pessimistic");
+        System.setProperty("rocksdb.transaction.lock.timeout", "50");
+        try (ServerFixture pessimistic = new ServerFixture("transaction_pessimistic");
+             DatabaseEngine engine = new DatabaseEngine()) {
+            Session first = new Session();
+            Session second = new Session();
+            engine.createDatabase(DATABASE);
+            engine.useDatabase(first, DATABASE);
+            engine.useDatabase(second, DATABASE);
+            engine.createTable(first, "accounts", List.of(
+                    new Column("id", Column.ColumnType.INT),
+                    new Column("balance", Column.ColumnType.LONG)
+            ), List.of("id"));
+            SqlParse.parseSql("INSERT INTO accounts (id, balance) VALUES (1, 100)", engine, first);
+
+            engine.beginTransaction(first);
+            SqlParse.parseSql("UPDATE accounts SET balance = 110 WHERE id = 1", engine, first);
+            // The row is locked until the first transaction ends
+            Exception e = assertThrows(Exception.class,
+                    () -> SqlParse.parseSql("UPDATE accounts SET balance = 120 WHERE id = 1", engine, second));
+            assertTrue(e.getMessage().contains("Lock wait timeout"), e.getMessage());
+
+            engine.commit(first);
+            assertEquals(1, SqlParse.parseSql("UPDATE accounts SET balance = 120 WHERE id = 1", engine, second)
+                    .getAffectedRows());
+        } finally {
+            System.clearProperty("rocksdb.transaction.mode");
+            System.clearProperty("rocksdb.transaction.lock.timeout");
+        }
+    }
+
+    /**
+     * Read-modify-write in a transaction, restarted when it conflicts
+     */
+    private static void increment(Statement stmt) throws SQLException {
+        while (true) {
+            stmt.execute("BEGIN");
+            try {
+                long balance = balance(stmt, 1);
+                stmt.executeUpdate("UPDATE accounts SET balance = " + (balance + 1) + " WHERE id = 1");
+                stmt.execute("COMMIT");
+                return;
+            } catch (SQLException e) {
+                if (!e.getMessage().contains("try restarting transaction")) {
+                    throw e;
+                }
+                stmt.execute("ROLLBACK");
+            }
+        }
+    }
+
+    private static long balance(Statement stmt, int id) throws SQLException {
+        try (ResultSet rs = stmt.executeQuery("SELECT balance FROM accounts WHERE id = " + id)) {
+            assertTrue(rs.next(), "no account " + id);
+            return rs.getLong(1);
+        }
+    }
+
+    private static long count(Statement stmt) throws SQLException {
+        try (ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM accounts")) {
+            assertTrue(rs.next());
+            return rs.getLong(1);
+        }
+    }
+
+    private static boolean inTransaction(Connection conn) throws SQLException {
+        return conn.unwrap(JdbcConnection.class).getSession().getServerSession().inTransactionOnServer();
+    }
+
+    private static Connection connect() throws SQLException {
+        return fixture.connect();
+    }
+}
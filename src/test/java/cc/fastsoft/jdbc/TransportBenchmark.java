@@ -0,0 +1,96 @@
+package cc.fastsoft.jdbc;
+
+import cc.fastsoft.MysqlServer;
+import cc.fastsoft.config.ServerConfig;
+import cc.fastsoft.db.DatabaseEngine;
+import cc.fastsoft.jdbc.executor.StatementExecutor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.sql.Connection;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the NIO, epoll and io_uring transports with a connect storm (full
+ * handshake and authentication per operation) and a COM_PING ping-pong over an
+ * open connection, both from 4 client threads.
+ *
+ * Run with:
+ *   mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=cc.fastsoft.jdbc.TransportBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(4)
+@Fork(1)
+public class TransportBenchmark {
+    @Param({"NIO", "EPOLL", "IO_URING"})
+    public String transport;
+
+    @Param({"1", "2"})
+    public int acceptors;
+
+    private ServerFixture fixture;
+
+    @State(Scope.Thread)
+    public static class ClientConnection {
+        Connection connection;
+
+        @Setup
+        public void open(TransportBenchmark benchmark) throws Exception {
+            connection = benchmark.fixture.connect();
+        }
+
+        @TearDown
+        public void close() throws Exception {
+            connection.close();
+        }
+    }
+
+    @Setup
+    public void setUp() throws Exception {
+        fixture = new ServerFixture("transport_bench");
+        new DatabaseEngine().close();
+
+        fixture.start(new MysqlServer(new StatementExecutor(ServerConfig.ExecutorType.POOL, 4, 64),
+                ServerTransport.select(ServerConfig.TransportType.valueOf(transport)),
+                acceptors, Runtime.getRuntime().availableProcessors()), "");
+    }
+
+    @TearDown
+    public void tearDown() {
+        fixture.close();
+    }
+
+    @Benchmark
+    public void connectStorm() throws Exception {
+        fixture.connect().close();
+    }
+
+    @Benchmark
+    public boolean pingPong(ClientConnection client) throws Exception {
+        // Connector/J answers isValid with a COM_PING round trip
+        return client.connection.isValid(0);
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(TransportBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
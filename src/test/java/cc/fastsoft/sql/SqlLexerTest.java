@@ -0,0 +1,46 @@
+package cc.fastsoft.sql;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SqlLexerTest {
+
+    @Test
+    public void testStripsCommentsOutsideQuotes() {
+        LexedSql lexed = SqlLexer.lex("/* mysql-connector-j */ SELECT  name -- trailing\n FROM t # hash\n"
+                + "WHERE note = 'a -- b # c /* d */' AND `x#y` = 1");
+        assertEquals("SELECT name FROM t WHERE note = 'a -- b # c /* d */' AND `x#y` = 1", lexed.getSql());
+        assertEquals(SqlLexer.StatementType.SELECT, lexed.getType());
+
+        // Only "-- " starts a comment
+        assertEquals("UPDATE t SET a = a--1", SqlLexer.lex("UPDATE t SET a = a--1").getSql());
+        assertEquals("SELECT 'it''s', \"q\\\"\"", SqlLexer.lex("\tSELECT 'it''s', \"q\\\"\"  ").getSql());
+        assertEquals("SET NAMES utf8", SqlLexer.lex("/*!40101 SET NAMES utf8 */").getSql());
+    }
+
+    @Test
+    public void testCleanStatementIsNotCopied() {
+        String sql = "SELECT * FROM users WHERE id = 1";
+        assertSame(sql, SqlLexer.lex(sql).getSql());
+    }
+
+    @Test
+    public void testClassifiesByLeadingWords() {
+        LexedSql lexed = SqlLexer.lex("show /* x */ session\nstatus like 'Statement%'");
+        assertEquals(SqlLexer.StatementType.SHOW, lexed.getType());
+        assertTrue(lexed.isWord(1, "SESSION"));
+        assertTrue(lexed.isWord(2, "STATUS"));
+        assertFalse(lexed.isWord(3, "LIKE"));
+
+        lexed = SqlLexer.lex("use `my db`");
+        assertEquals(SqlLexer.StatementType.USE, lexed.getType());
+        assertEquals("`my db`", lexed.textAfterWords(1));
+
+        assertTrue(SqlLexer.lex("SELECT @@session.auto_increment_increment").wordStartsWith(1, "@@"));
+        assertEquals(SqlLexer.StatementType.DML, SqlLexer.lex("insert into t values (1)").getType());
+        assertEquals(SqlLexer.StatementType.DDL, SqlLexer.lex("CREATE TABLE t (id INT)").getType());
+        assertEquals(SqlLexer.StatementType.TRANSACTION, SqlLexer.lex("commit").getType());
+        assertEquals(SqlLexer.StatementType.OTHER, SqlLexer.lex("  ").getType());
+    }
+}
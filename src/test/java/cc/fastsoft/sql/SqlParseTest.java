@@ -1,11 +1,28 @@
 package cc.fastsoft.sql;
 
+import cc.fastsoft.config.ServerConfig;
 import cc.fastsoft.db.DatabaseEngine;
+import cc.fastsoft.db.Session;
+import cc.fastsoft.db.core.KeyRange;
+import cc.fastsoft.db.core.TableScanner;
 import cc.fastsoft.db.schema.Column;
+import cc.fastsoft.db.schema.TableSchema;
+import cc.fastsoft.sql.exec.Operator;
+import cc.fastsoft.sql.plan.AccessPath;
+import cc.fastsoft.sql.plan.AccessPathPlanner;
+import net.sf.jsqlparser.expression.Expression;
+import net.sf.jsqlparser.expression.operators.conditional.AndExpression;
+import net.sf.jsqlparser.expression.operators.conditional.OrExpression;
+import net.sf.jsqlparser.expression.operators.conditional.XorExpression;
+import net.sf.jsqlparser.parser.CCJSqlParserUtil;
+import net.sf.jsqlparser.statement.select.OrderByElement;
+import net.sf.jsqlparser.statement.select.Select;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -14,6 +31,7 @@ import static org.junit.jupiter.api.Assertions.*;
 
 public class SqlParseTest {
     private DatabaseEngine engine;
+    private Session session;
     private static final String TEST_DB = "test_db";
     private static final String TEST_TABLE = "users";
 
@@ -22,10 +40,11 @@ public class SqlParseTest {
         // Set up a temporary RocksDB for testing
         System.setProperty("rocksdb.path", "test_rocks.db");
         engine = new DatabaseEngine();
+        session = new Session();
 
         // Create database and table
         engine.createDatabase(TEST_DB);
-        engine.useDatabase(TEST_DB);
+        engine.useDatabase(session, TEST_DB);
 
         List<Column> columns = List.of(
                 new Column("id", Column.ColumnType.INT),
@@ -34,7 +53,7 @@ public class SqlParseTest {
         );
         List<String> pkColumns = List.of("id");
 
-        engine.createTable(TEST_TABLE, columns, pkColumns);
+        engine.createTable(session, TEST_TABLE, columns, pkColumns);
     }
 
     @AfterEach
@@ -66,7 +85,7 @@ public class SqlParseTest {
     @Test
     public void testInsertStatement() throws Exception {
         String sql = "INSERT INTO users (id, name, age) VALUES (1, 'Alice', 30)";
-        SqlData result = SqlParse.parseSql(sql, engine);
+        SqlData result = SqlParse.parseSql(sql, engine, session);
 
         assertNotNull(result);
         assertTrue(result.getColumns().isEmpty());
@@ -75,7 +94,7 @@ public class SqlParseTest {
         // Verify the data was inserted
         Map<String, Object> pk = new HashMap<>();
         pk.put("id", 1);
-        Map<String, Object> row = engine.selectByPrimaryKey(TEST_TABLE, pk);
+        Map<String, Object> row = engine.selectByPrimaryKey(session, TEST_TABLE, pk);
         assertNotNull(row);
         assertEquals("Alice", row.get("name"));
         assertEquals(30, row.get("age"));
@@ -88,17 +107,17 @@ public class SqlParseTest {
         row1.put("id", 1);
         row1.put("name", "Alice");
         row1.put("age", 30);
-        engine.insert(TEST_TABLE, row1);
+        engine.insert(session, TEST_TABLE, row1);
 
         Map<String, Object> row2 = new HashMap<>();
         row2.put("id", 2);
         row2.put("name", "Bob");
         row2.put("age", 25);
-        engine.insert(TEST_TABLE, row2);
+        engine.insert(session, TEST_TABLE, row2);
 
         // Test SELECT *
         String sql = "SELECT * FROM users";
-        SqlData result = SqlParse.parseSql(sql, engine);
+        SqlData result = SqlParse.parseSql(sql, engine, session);
 
         assertNotNull(result);
         assertEquals(3, result.getColumns().size());
@@ -112,11 +131,11 @@ public class SqlParseTest {
         row1.put("id", 1);
         row1.put("name", "Alice");
         row1.put("age", 30);
-        engine.insert(TEST_TABLE, row1);
+        engine.insert(session, TEST_TABLE, row1);
 
         // Test SELECT specific columns
         String sql = "SELECT id, name FROM users";
-        SqlData result = SqlParse.parseSql(sql, engine);
+        SqlData result = SqlParse.parseSql(sql, engine, session);
 
         assertNotNull(result);
         assertEquals(2, result.getColumns().size());
@@ -132,17 +151,17 @@ public class SqlParseTest {
         row1.put("id", 1);
         row1.put("name", "Alice");
         row1.put("age", 30);
-        engine.insert(TEST_TABLE, row1);
+        engine.insert(session, TEST_TABLE, row1);
 
         Map<String, Object> row2 = new HashMap<>();
         row2.put("id", 2);
         row2.put("name", "Bob");
         row2.put("age", 25);
-        engine.insert(TEST_TABLE, row2);
+        engine.insert(session, TEST_TABLE, row2);
 
         // Test SELECT with WHERE
         String sql = "SELECT * FROM users WHERE id = 1";
-        SqlData result = SqlParse.parseSql(sql, engine);
+        SqlData result = SqlParse.parseSql(sql, engine, session);
 
         assertNotNull(result);
         assertEquals(1, result.getRows().size());
@@ -158,12 +177,12 @@ public class SqlParseTest {
             row.put("id", i);
             row.put("name", "User" + i);
             row.put("age", 20 + i);
-            engine.insert(TEST_TABLE, row);
+            engine.insert(session, TEST_TABLE, row);
         }
 
         // Test SELECT with LIMIT
         String sql = "SELECT * FROM users LIMIT 3";
-        SqlData result = SqlParse.parseSql(sql, engine);
+        SqlData result = SqlParse.parseSql(sql, engine, session);
 
         assertNotNull(result);
         assertEquals(3, result.getRows().size());
@@ -176,11 +195,11 @@ public class SqlParseTest {
         row1.put("id", 1);
         row1.put("name", "Alice");
         row1.put("age", 30);
-        engine.insert(TEST_TABLE, row1);
+        engine.insert(session, TEST_TABLE, row1);
 
         // Test UPDATE
         String sql = "UPDATE users SET age = 31 WHERE id = 1";
-        SqlData result = SqlParse.parseSql(sql, engine);
+        SqlData result = SqlParse.parseSql(sql, engine, session);
 
         assertNotNull(result);
         assertTrue(result.getColumns().isEmpty());
@@ -189,7 +208,7 @@ public class SqlParseTest {
         // Verify the data was updated
         Map<String, Object> pk = new HashMap<>();
         pk.put("id", 1);
-        Map<String, Object> row = engine.selectByPrimaryKey(TEST_TABLE, pk);
+        Map<String, Object> row = engine.selectByPrimaryKey(session, TEST_TABLE, pk);
         assertNotNull(row);
         assertEquals(31, row.get("age"));
     }
@@ -201,26 +220,752 @@ public class SqlParseTest {
         row1.put("id", 1);
         row1.put("name", "Alice");
         row1.put("age", 30);
-        engine.insert(TEST_TABLE, row1);
+        engine.insert(session, TEST_TABLE, row1);
 
         Map<String, Object> row2 = new HashMap<>();
         row2.put("id", 2);
         row2.put("name", "Bob");
         row2.put("age", 25);
-        engine.insert(TEST_TABLE, row2);
+        engine.insert(session, TEST_TABLE, row2);
 
         // Test DELETE
         String sql = "DELETE FROM users WHERE id = 1";
-        SqlData result = SqlParse.parseSql(sql, engine);
+        SqlData result = SqlParse.parseSql(sql, engine, session);
 
         assertNotNull(result);
         assertTrue(result.getColumns().isEmpty());
         assertTrue(result.getRows().isEmpty());
 
         // Verify the data was deleted
-        List<Map<String, Object>> allRows = engine.selectAll(TEST_TABLE);
+        List<Map<String, Object>> allRows = engine.selectAll(session, TEST_TABLE);
         assertEquals(1, allRows.size());
         assertEquals(2, allRows.get(0).get("id"));
     }
-}
 
+    @Test
+    public void testUpdatePrimaryKeyMovesRow() throws Exception {
+        SqlParse.parseSql("INSERT INTO users (id, name, age) VALUES (1, 'Alice', 30)", engine, session);
+        SqlParse.parseSql("INSERT INTO users (id, name, age) VALUES (2, 'Bob', 25)", engine, session);
+
+        SqlParse.parseSql("UPDATE users SET id = 10 WHERE id = 1", engine, session);
+
+        List<Map<String, Object>> allRows = engine.selectAll(session, TEST_TABLE);
+        assertEquals(2, allRows.size());
+        assertEquals(2, allRows.get(0).get("id"));
+        assertEquals(10, allRows.get(1).get("id"));
+        assertEquals("Alice", allRows.get(1).get("name"));
+    }
+
+    @Test
+    public void testMultiRowInsert() throws Exception {
+        SqlData inserted = SqlParse.parseSql("INSERT INTO users (id, name, age) VALUES "
+                + "(1, 'Smith, Alice', 30), (2, 'Bob', 25), (3, 'Carol', 41)", engine, session);
+        assertEquals(3, inserted.getAffectedRows());
+        List<Map<String, Object>> allRows = engine.selectAll(session, TEST_TABLE);
+        assertEquals(3, allRows.size());
+        assertEquals("Smith, Alice", allRows.get(0).get("name"));
+
+        // A duplicate key rejects the whole statement, including the rows before it
+        Exception error = assertThrows(IllegalStateException.class,
+                () -> SqlParse.parseSql("INSERT INTO users (id, name, age) VALUES (4, 'Dan', 20), (2, 'Bob', 25)",
+                        engine, session));
+        assertTrue(error.getMessage().startsWith("Duplicate entry"));
+        assertThrows(IllegalStateException.class,
+                () -> SqlParse.parseSql("INSERT INTO users VALUES (5, 'Eve', 20), (5, 'Eve', 21)", engine, session));
+        assertEquals(3, engine.selectAll(session, TEST_TABLE).size());
+
+        SqlData ignored = SqlParse.parseSql("INSERT IGNORE INTO users (id, name, age) VALUES "
+                + "(3, 'Other', 1), (4, 'Dan', 20)", engine, session);
+        assertEquals(1, ignored.getAffectedRows());
+        assertEquals(4, engine.selectAll(session, TEST_TABLE).size());
+
+        SqlData upserted = SqlParse.parseSql("INSERT INTO users (id, name, age) VALUES (1, 'Alice', 30), "
+                + "(2, 'Robert', 25), (5, 'Eve', 22) "
+                + "ON DUPLICATE KEY UPDATE name = VALUES(name), age = (age + 1)", engine, session);
+        assertEquals(5, upserted.getAffectedRows());
+        allRows = engine.selectAll(session, TEST_TABLE);
+        assertEquals(5, allRows.size());
+        assertEquals("Alice", allRows.get(0).get("name"));
+        assertEquals(31, allRows.get(0).get("age"));
+        assertEquals("Robert", allRows.get(1).get("name"));
+        assertEquals(26, allRows.get(1).get("age"));
+        assertEquals(22, allRows.get(4).get("age"));
+
+        // Any expression over the existing row and VALUES()
+        SqlParse.parseSql("INSERT INTO users (id, name, age) VALUES (1, 'Al', 5), (2, 'Bo', 7) "
+                + "ON DUPLICATE KEY UPDATE name = VALUES(age) - age, age = age * 2 + VALUES(age)", engine, session);
+        allRows = engine.selectAll(session, TEST_TABLE);
+        assertEquals(67, allRows.get(0).get("age"));
+        assertEquals("-26", allRows.get(0).get("name"));
+        assertEquals(59, allRows.get(1).get("age"));
+        assertThrows(Exception.class, () -> SqlParse.parseSql("INSERT INTO users (id, name, age) VALUES (1, 'Al', 5) "
+                + "ON DUPLICATE KEY UPDATE name = CONCAT(name, 'x')", engine, session));
+        assertEquals("-26", engine.selectAll(session, TEST_TABLE).get(0).get("name"));
+    }
+
+    @Test
+    public void testCreateTruncateAndDropTable() throws Exception {
+        SqlParse.parseSql("CREATE TABLE IF NOT EXISTS `orders` (id BIGINT NOT NULL, note VARCHAR(20), "
+                + "PRIMARY KEY (id))", engine, session);
+        SqlParse.parseSql("CREATE TABLE IF NOT EXISTS orders (id BIGINT PRIMARY KEY)", engine, session);
+        assertEquals(List.of("id"), engine.getTableSchema(session, "orders").getPrimaryKeyColumns());
+
+        for (int i = 1; i <= 3; i++) {
+            SqlParse.parseSql("INSERT INTO orders (id, note) VALUES (" + i + ", 'n" + i + "')", engine, session);
+        }
+        // Rows of other tables live in their own column family and are untouched
+        SqlParse.parseSql("INSERT INTO users (id, name, age) VALUES (1, 'Alice', 30)", engine, session);
+
+        SqlParse.parseSql("TRUNCATE TABLE orders", engine, session);
+        assertTrue(engine.selectAll(session, "orders").isEmpty());
+        SqlParse.parseSql("INSERT INTO orders (id, note) VALUES (4, 'n4')", engine, session);
+        assertEquals(1, engine.selectAll(session, "orders").size());
+
+        SqlParse.parseSql("DROP TABLE orders", engine, session);
+        assertFalse(engine.tableExists(session, "orders"));
+        SqlParse.parseSql("DROP TABLE IF EXISTS orders", engine, session);
+        assertThrows(Exception.class, () -> SqlParse.parseSql("DROP TABLE orders", engine, session));
+        assertEquals(1, engine.selectAll(session, TEST_TABLE).size());
+
+        // The dropped table's column family is gone after a restart
+        engine.close();
+        engine = null;
+        try (org.rocksdb.Options options = new org.rocksdb.Options()) {
+            for (byte[] name : org.rocksdb.RocksDB.listColumnFamilies(options, "test_rocks.db")) {
+                assertFalse(new String(name).startsWith(TEST_DB + ".orders#"));
+            }
+        }
+        engine = new DatabaseEngine();
+        SqlParse.parseSql("CREATE TABLE orders (id BIGINT PRIMARY KEY, note TEXT)", engine, session);
+        assertTrue(engine.selectAll(session, "orders").isEmpty());
+        assertEquals(1, engine.selectAll(session, TEST_TABLE).size());
+    }
+
+    @Test
+    public void testFailedUpdateLeavesNoPartialChanges() throws Exception {
+        for (int i = 1; i <= 3; i++) {
+            SqlParse.parseSql("INSERT INTO users (id, name, age) VALUES (" + i + ", 'User" + i + "', 20)",
+                    engine, session);
+        }
+
+        // Every row moves to id 7: the second move fails and the statement is rolled back
+        Exception error = assertThrows(IllegalStateException.class,
+                () -> SqlParse.parseSql("UPDATE users SET id = 7, age = 99 WHERE age = 20", engine, session));
+        assertTrue(error.getMessage().startsWith("Duplicate entry"));
+
+        List<Map<String, Object>> allRows = engine.selectAll(session, TEST_TABLE);
+        assertEquals(3, allRows.size());
+        for (Map<String, Object> row : allRows) {
+            assertEquals(20, row.get("age"));
+        }
+
+        SqlData deleted = SqlParse.parseSql("DELETE FROM users WHERE age = 20", engine, session);
+        assertEquals(3, deleted.getAffectedRows());
+        assertTrue(engine.selectAll(session, TEST_TABLE).isEmpty());
+    }
+
+    @Test
+    public void testPrimaryKeyPredicatesDoNotOpenIterator() throws Exception {
+        for (int i = 1; i <= 5; i++) {
+            Map<String, Object> row = new HashMap<>();
+            row.put("id", i);
+            row.put("name", "User" + i);
+            row.put("age", 20 + i);
+            engine.insert(session, TEST_TABLE, row);
+        }
+
+        long scansBefore = engine.getStorageManager().getScanCount();
+
+        SqlData result = SqlParse.parseSql("SELECT * FROM users WHERE id = 3", engine, session);
+        assertEquals(1, result.getRows().size());
+        assertEquals("User3", result.getRows().get(0).get("name"));
+
+        // Residual predicates are still applied to the fetched row
+        result = SqlParse.parseSql("SELECT * FROM users WHERE id = 3 AND name = 'User4'", engine, session);
+        assertEquals(0, result.getRows().size());
+
+        SqlParse.parseSql("UPDATE users SET age = 99 WHERE id = 2", engine, session);
+        SqlParse.parseSql("DELETE FROM users WHERE id = 4", engine, session);
+
+        assertEquals(scansBefore, engine.getStorageManager().getScanCount(),
+                "Primary key predicates must not open a table iterator");
+
+        Map<String, Object> pk = new HashMap<>();
+        pk.put("id", 2);
+        assertEquals(99, engine.selectByPrimaryKey(session, TEST_TABLE, pk).get("age"));
+        pk.put("id", 4);
+        assertNull(engine.selectByPrimaryKey(session, TEST_TABLE, pk));
+
+        // A predicate on a non-key column still needs a scan
+        result = SqlParse.parseSql("SELECT * FROM users WHERE name = 'User5'", engine, session);
+        assertEquals(1, result.getRows().size());
+        assertEquals(scansBefore + 1, engine.getStorageManager().getScanCount());
+    }
+
+    @Test
+    public void testSecondaryIndex() throws Exception {
+        // More rows than one build chunk, so the build resumes across chunks
+        StringBuilder insert = new StringBuilder("INSERT INTO users (id, name, age) VALUES ");
+        for (int i = 1; i <= 2500; i++) {
+            insert.append(i == 1 ? "" : ", ").append("(").append(i).append(", 'User").append(i % 500)
+                    .append("', ").append(i % 50).append(")");
+        }
+        SqlParse.parseSql(insert.toString(), engine, session);
+        SqlParse.parseSql("CREATE INDEX idx_name ON users (name, age)", engine, session);
+        assertEquals(List.of("name", "age"), engine.getTableSchema(session, TEST_TABLE).getIndex("idx_name").columns);
+
+        long scansBefore = engine.getStorageManager().getScanCount();
+        SqlData result = SqlParse.parseSql("SELECT * FROM users WHERE name = 'User7'", engine, session);
+        assertEquals(5, result.getRows().size());
+        for (Map<String, Object> row : result.getRows()) {
+            assertEquals("User7", row.get("name"));
+        }
+        // Covered by the index: name and age are indexed, id is the primary key
+        result = SqlParse.parseSql("SELECT id, age FROM users WHERE name = 'User7' AND age = 7", engine, session);
+        assertEquals(List.of(7, 507, 1007, 1507, 2007), result.getRows().stream().map(r -> r.get("id")).toList());
+        assertEquals(7, result.getRows().get(0).get("age"));
+
+        // Writes keep the index in step with the rows
+        SqlParse.parseSql("UPDATE users SET name = 'Moved' WHERE id = 507", engine, session);
+        SqlParse.parseSql("DELETE FROM users WHERE id = 1007", engine, session);
+        SqlParse.parseSql("INSERT INTO users (id, name, age) VALUES (1507, 'x', 0) "
+                + "ON DUPLICATE KEY UPDATE name = 'Moved'", engine, session);
+        SqlParse.parseSql("UPDATE users SET id = 3000 WHERE id = 2007", engine, session);
+        result = SqlParse.parseSql("SELECT id FROM users WHERE name = 'User7'", engine, session);
+        assertEquals(List.of(7, 3000), result.getRows().stream().map(r -> r.get("id")).toList());
+        result = SqlParse.parseSql("SELECT id FROM users WHERE name = 'Moved'", engine, session);
+        assertEquals(List.of(507, 1507), result.getRows().stream().map(r -> r.get("id")).toList());
+        assertEquals(2, SqlParse.parseSql("DELETE FROM users WHERE name = 'Moved'", engine, session).getAffectedRows());
+        assertEquals(scansBefore, engine.getStorageManager().getScanCount(),
+                "Index predicates must not open a table iterator");
+
+        // The index survives a restart; dropping it goes back to scanning
+        engine.close();
+        engine = new DatabaseEngine();
+        scansBefore = engine.getStorageManager().getScanCount();
+        assertEquals(2, SqlParse.parseSql("SELECT id FROM users WHERE name = 'User7'", engine, session).getRows().size());
+        assertEquals(scansBefore, engine.getStorageManager().getScanCount());
+        SqlParse.parseSql("DROP INDEX idx_name ON users", engine, session);
+        assertNull(engine.getTableSchema(session, TEST_TABLE).getIndex("idx_name"));
+        assertEquals(2, SqlParse.parseSql("SELECT id FROM users WHERE name = 'User7'", engine, session).getRows().size());
+        assertEquals(scansBefore + 1, engine.getStorageManager().getScanCount());
+
+        // Indexes declared with the table
+        SqlParse.parseSql("CREATE TABLE accounts (id INT PRIMARY KEY, email VARCHAR(64), KEY idx_email (email))",
+                engine, session);
+        SqlParse.parseSql("INSERT INTO accounts (id, email) VALUES (1, 'a@x.org'), (2, 'b@x.org')", engine, session);
+        scansBefore = engine.getStorageManager().getScanCount();
+        result = SqlParse.parseSql("SELECT id FROM accounts WHERE email = 'b@x.org'", engine, session);
+        assertEquals(List.of(2), result.getRows().stream().map(r -> r.get("id")).toList());
+        assertEquals(scansBefore, engine.getStorageManager().getScanCount());
+    }
+
+    @Test
+    public void testPrimaryKeyRangeScan() throws Exception {
+        StringBuilder insert = new StringBuilder("INSERT INTO users (id, name, age) VALUES ");
+        for (int i = 1; i <= 100; i++) {
+            insert.append(i == 1 ? "" : ", ").append("(").append(i).append(", 'User").append(i)
+                    .append("', ").append(i == 50 ? "NULL" : String.valueOf(i % 10)).append(")");
+        }
+        SqlParse.parseSql(insert.toString(), engine, session);
+
+        assertEquals(List.of(91, 92, 93, 94, 95, 96, 97, 98, 99, 100), ids("SELECT id FROM users WHERE id > 90"));
+        assertEquals(List.of(90, 91, 92, 93, 94), ids("SELECT id FROM users WHERE id >= 90 AND id < 95"));
+        assertEquals(List.of(10, 11, 12), ids("SELECT id FROM users WHERE id BETWEEN 10 AND 12"));
+        assertEquals(List.of(1, 2, 3, 4), ids("SELECT id FROM users WHERE 5 > id"));
+        assertEquals(List.of(1, 2, 3), ids("SELECT id FROM users WHERE id < 3.5"));
+        assertEquals(List.of(3, 4), ids("SELECT id FROM users WHERE id > 2.5 AND id <= 4 AND id > 1"));
+        assertEquals(List.of(), ids("SELECT id FROM users WHERE id > 10 AND id < 5"));
+        assertEquals(List.of(98), ids("SELECT id FROM users WHERE id >= 97 AND age = 8"));
+
+        // Comparisons beyond the key are evaluated, not ignored
+        assertEquals(List.of(1, 2, 100), ids("SELECT id FROM users WHERE id NOT BETWEEN 3 AND 99"));
+        assertEquals(99, ids("SELECT id FROM users WHERE id <> 50").size());
+        assertEquals(List.of(9, 19), ids("SELECT id FROM users WHERE age >= 9 AND id < 20"));
+        assertEquals(List.of(1, 100), ids("SELECT id FROM users WHERE id = 1 OR id = 100"));
+        // NULL compares as unknown, also under NOT
+        assertEquals(90, ids("SELECT id FROM users WHERE age > 0").size());
+        assertEquals(99, ids("SELECT id FROM users WHERE NOT (age > 100)").size());
+        assertThrows(Exception.class, () -> ids("SELECT id FROM users WHERE name REGEXP '^User'"));
+
+        // Only the keys inside the range are iterated
+        TableSchema schema = engine.getTableSchema(session, TEST_TABLE);
+        AccessPath path = AccessPathPlanner.plan(schema, CCJSqlParserUtil.parseCondExpression("id > 90 AND id <= 95"));
+        assertTrue(path.isRangeScan());
+        try (TableScanner scanner = engine.getStorageManager().scan(schema, path.getKeyRange())) {
+            int rows = 0;
+            while (scanner.next() != null) {
+                rows++;
+            }
+            assertEquals(5, rows);
+        }
+        try (TableScanner scanner = engine.getStorageManager().scan(schema, new KeyRange(null, false, 3, false))) {
+            assertEquals(1, scanner.next()[0]);
+            assertEquals(2, scanner.next()[0]);
+            assertNull(scanner.next());
+        }
+        assertFalse(AccessPathPlanner.plan(schema, CCJSqlParserUtil.parseCondExpression("age > 5")).isRangeScan());
+
+        // Updates and deletes use the range too
+        assertEquals(3, SqlParse.parseSql("UPDATE users SET age = 0 WHERE id BETWEEN 20 AND 22", engine, session)
+                .getAffectedRows());
+        assertEquals(List.of(20, 21, 22), ids("SELECT id FROM users WHERE id > 10 AND id < 30 AND age = 0"));
+        assertEquals(10, SqlParse.parseSql("DELETE FROM users WHERE id > 90", engine, session).getAffectedRows());
+        assertEquals(89, ids("SELECT id FROM users WHERE id > 1").size());
+
+        // An equality on the leading column of a composite key scans that key prefix
+        SqlParse.parseSql("CREATE TABLE events (device INT, seq INT, note VARCHAR(16), PRIMARY KEY (device, seq))",
+                engine, session);
+        SqlParse.parseSql("INSERT INTO events (device, seq, note) VALUES (1, 1, 'a'), (2, 1, 'b'), (2, 2, 'c'), (3, 1, 'd')",
+                engine, session);
+        TableSchema events = engine.getTableSchema(session, "events");
+        assertTrue(AccessPathPlanner.plan(events, CCJSqlParserUtil.parseCondExpression("device = 2")).isRangeScan());
+        SqlData result = SqlParse.parseSql("SELECT note FROM events WHERE device = 2", engine, session);
+        assertEquals(List.of("b", "c"), result.getRows().stream().map(r -> r.get("note")).toList());
+    }
+
+    @Test
+    public void testPrimaryKeyInList() throws Exception {
+        StringBuilder insert = new StringBuilder("INSERT INTO users (id, name, age) VALUES ");
+        for (int i = 1; i <= 100; i++) {
+            insert.append(i == 1 ? "" : ", ").append("(").append(i).append(", 'User").append(i)
+                    .append("', ").append(i % 10).append(")");
+        }
+        SqlParse.parseSql(insert.toString(), engine, session);
+        TableSchema schema = engine.getTableSchema(session, TEST_TABLE);
+        long scansBefore = engine.getStorageManager().getScanCount();
+
+        // Rows come in key order, once per key, in batches smaller than the list
+        System.setProperty(ServerConfig.MULTI_GET_BATCH_SIZE, "2");
+        try {
+            assertEquals(List.of(3, 5, 7, 42), ids("SELECT id FROM users WHERE id IN (42, 7, 3, 3, 500, NULL, 'x', 5)"));
+            assertEquals(List.of(42, 7, 5), ids("SELECT id FROM users WHERE id IN (42, 7, 5) ORDER BY id DESC"));
+            assertEquals(List.of(7), ids("SELECT id FROM users WHERE id IN (42, 7, 5) AND age = 7"));
+            List<Map<String, Object>> rows = SqlParse.execute(CCJSqlParserUtil.parse(
+                    "SELECT id FROM users WHERE id IN (?, ?, ?) ORDER BY id LIMIT 2"), engine, session,
+                    List.of(9, 5, 7)).getRows();
+            assertEquals(List.of(5, 7), rows.stream().map(r -> r.get("id")).toList());
+        } finally {
+            System.clearProperty(ServerConfig.MULTI_GET_BATCH_SIZE);
+        }
+        assertEquals(List.of(), ids("SELECT id FROM users WHERE id IN ('a', NULL)"));
+        assertEquals(2, SqlParse.parseSql("UPDATE users SET age = 0 WHERE id IN (10, 20, 30000)", engine, session)
+                .getAffectedRows());
+        assertEquals(1, SqlParse.parseSql("DELETE FROM users WHERE id IN (10, 10)", engine, session)
+                .getAffectedRows());
+        assertEquals(List.of(20), ids("SELECT id FROM users WHERE id IN (10, 20) AND age = 0"));
+        assertEquals(scansBefore, engine.getStorageManager().getScanCount(), "IN-lists on the key read no iterator");
+
+        AccessPath path = AccessPathPlanner.plan(schema, CCJSqlParserUtil.parseCondExpression("id IN (1, 2, 2)"));
+        assertTrue(path.isMultiGet());
+        assertEquals(3, path.getPrimaryKeys().size());
+        assertFalse(AccessPathPlanner.plan(schema, CCJSqlParserUtil.parseCondExpression("id NOT IN (1, 2)"))
+                .isMultiGet());
+        assertFalse(AccessPathPlanner.plan(schema, CCJSqlParserUtil.parseCondExpression("id IN (1, age)"))
+                .isMultiGet());
+
+        // Every combination of a composite key's values is looked up
+        SqlParse.parseSql("CREATE TABLE events (device INT, seq INT, note VARCHAR(16), PRIMARY KEY (device, seq))",
+                engine, session);
+        SqlParse.parseSql("INSERT INTO events (device, seq, note) VALUES (1, 1, 'a'), (2, 1, 'b'), (2, 2, 'c'), (3, 1, 'd')",
+                engine, session);
+        TableSchema events = engine.getTableSchema(session, "events");
+        // JSqlParser nests what follows an IN list inside it; parsing moves it back out
+        path = AccessPathPlanner.plan(events, ((Select) SqlParse.parse(
+                "SELECT * FROM events WHERE device IN (1, 2) AND seq IN (1, 2) OR note = 'x'")).getPlainSelect()
+                .getWhere());
+        assertFalse(path.isMultiGet());
+        path = AccessPathPlanner.plan(events, ((Select) SqlParse.parse(
+                "SELECT * FROM events WHERE device IN (1, 2) AND seq IN (1, 2) AND note <> 'x'")).getPlainSelect()
+                .getWhere());
+        assertEquals(4, path.getPrimaryKeys().size());
+        assertFalse(AccessPathPlanner.plan(events, CCJSqlParserUtil.parseCondExpression("device IN (1, 2)"))
+                .isMultiGet());
+        SqlData result = SqlParse.parseSql("SELECT note FROM events WHERE seq IN (2, 1) AND device IN (3, 2)",
+                engine, session);
+        assertEquals(List.of("b", "c", "d"), result.getRows().stream().map(r -> r.get("note")).toList());
+    }
+
+    @Test
+    public void testStringKeyComparedWithNumber() throws Exception {
+        SqlParse.parseSql("CREATE TABLE codes (code VARCHAR(8) PRIMARY KEY, label VARCHAR(8), n INT)", engine, session);
+        SqlParse.parseSql("CREATE INDEX idx_label ON codes (label)", engine, session);
+        SqlParse.parseSql("INSERT INTO codes (code, label, n) VALUES ('1', '1', 1), ('01', '01', 2), "
+                + "('1.0', '1.0', 3), (' 1', ' 1', 4), ('x', 'x', 5), ('2', '2', 6)", engine, session);
+
+        // Every text equal to the number matches, not only the key spelled like it
+        TableSchema codes = engine.getTableSchema(session, "codes");
+        assertFalse(AccessPathPlanner.plan(codes, CCJSqlParserUtil.parseCondExpression("code = 1")).isPointLookup());
+        assertFalse(AccessPathPlanner.plan(codes, CCJSqlParserUtil.parseCondExpression("label = 1")).isIndexSeek());
+        assertTrue(AccessPathPlanner.plan(codes, CCJSqlParserUtil.parseCondExpression("code = '1'")).isPointLookup());
+        assertEquals(List.of(1, 2, 3, 4), numbers("SELECT n FROM codes WHERE code = 1 ORDER BY n"));
+        assertEquals(List.of(1, 2, 3, 4), numbers("SELECT n FROM codes WHERE 1 = label ORDER BY n"));
+        assertEquals(List.of(1), numbers("SELECT n FROM codes WHERE code = '1'"));
+    }
+
+    @Test
+    public void testInListPrecedence() throws Exception {
+        SqlParse.parseSql("INSERT INTO users (id, name, age) VALUES (1, 'a', 10), (2, 'b', 20), (5, 'c', 30)",
+                engine, session);
+        StatementCache cache = new StatementCache(engine, 8);
+
+        // AND binds tighter than OR on both sides of the IN list
+        String andThenOr = "SELECT id FROM users WHERE age = 10 AND id IN (1, 2) OR id = 5";
+        assertEquals(List.of(1, 5), ids(andThenOr));
+        assertEquals(List.of(1, 5), cache.execute(andThenOr, session).getRows().stream().map(r -> r.get("id")).toList());
+        assertEquals(List.of(1), ids("SELECT id FROM users WHERE id IN (1) OR age = 20 AND id = 5"));
+        assertEquals(List.of(1, 5), ids("SELECT id FROM users WHERE id IN (1) OR id IN (2, 5) AND age = 30"));
+        assertEquals(List.of(1, 5), ids("SELECT id FROM users WHERE age = 30 OR id IN (1, 2) AND age = 10 OR id = 7"));
+        // XOR lies between AND and OR
+        Expression xor = ((Select) SqlParse.parse("SELECT id FROM users WHERE id IN (1, 2) XOR age = 20 AND id = 2 "
+                + "OR id = 5")).getPlainSelect().getWhere();
+        assertEquals("id IN (1, 2) XOR age = 20 AND id = 2 OR id = 5", xor.toString());
+        assertInstanceOf(OrExpression.class, xor);
+        assertInstanceOf(XorExpression.class, ((OrExpression) xor).getLeftExpression());
+        assertInstanceOf(AndExpression.class, ((XorExpression) ((OrExpression) xor).getLeftExpression())
+                .getRightExpression());
+
+        // A NOT in front of the IN negates only the IN
+        assertEquals(List.of(1, 5), ids("SELECT id FROM users WHERE NOT id IN (1, 2) OR age = 10"));
+        assertEquals(List.of(2), ids("SELECT id FROM users WHERE NOT (age = 10 AND id IN (1, 2) OR id = 5)"));
+        assertEquals(List.of(1, 2), ids("SELECT id FROM users WHERE NOT (id IN (5) OR age = 20 AND id = 1)"));
+
+        // Parentheses keep their contents together
+        assertEquals(List.of(5), ids("SELECT id FROM users WHERE (age = 10 AND id IN (1, 2) OR id = 5) AND age > 10"));
+        assertEquals(List.of(1), ids("SELECT id FROM users WHERE age > 0 AND (id IN (1) OR id = 2 AND age = 10)"));
+        assertEquals(List.of(2, 5), ids("SELECT id FROM users WHERE (id IN (1, 2) OR id = 5) AND (age > 10)"));
+
+        assertEquals(2, SqlParse.parseSql("UPDATE users SET name = 'x' WHERE age = 10 AND id IN (1, 2) OR id = 5",
+                engine, session).getAffectedRows());
+    }
+
+    @Test
+    public void testOrderBy() throws Exception {
+        StringBuilder insert = new StringBuilder("INSERT INTO users (id, name, age) VALUES ");
+        for (int i = 1; i <= 200; i++) {
+            // ids inserted out of order; ages repeat and one is NULL
+            int id = (i * 37) % 200 + 1;
+            insert.append(i == 1 ? "" : ", ").append("(").append(id).append(", 'User").append(id)
+                    .append("', ").append(id == 100 ? "NULL" : String.valueOf(id % 7)).append(")");
+        }
+        SqlParse.parseSql(insert.toString(), engine, session);
+        TableSchema schema = engine.getTableSchema(session, TEST_TABLE);
+
+        // Primary key order needs no sort, backwards for DESC
+        assertEquals(List.of(200, 199, 198), ids("SELECT id FROM users ORDER BY id DESC LIMIT 3"));
+        assertEquals(List.of(14, 15), ids("SELECT id FROM users WHERE id > 13 ORDER BY id LIMIT 2"));
+        assertEquals(List.of(20, 19), ids("SELECT id FROM users WHERE id BETWEEN 10 AND 20 ORDER BY id DESC LIMIT 2"));
+        AccessPath path = AccessPathPlanner.plan(schema, null, List.of(),
+                orderBy("SELECT * FROM users ORDER BY id DESC"), true);
+        assertTrue(path.isOrdered() && path.isReverse());
+        assertFalse(AccessPathPlanner.plan(schema, null, List.of(),
+                orderBy("SELECT * FROM users ORDER BY age"), true).isOrdered());
+
+        // Sorted: NULL first ascending, last descending; ties broken by the next item
+        List<Object> byAge = ids("SELECT id FROM users ORDER BY age, id DESC");
+        assertEquals(200, byAge.size());
+        assertEquals(List.of(100, 196, 189), byAge.subList(0, 3));
+        List<Object> byAgeDesc = ids("SELECT id FROM users ORDER BY age DESC, id");
+        assertEquals(List.of(6, 13, 20), byAgeDesc.subList(0, 3));
+        assertEquals(100, byAgeDesc.get(199));
+        assertEquals(List.of(100, 6), ids("SELECT id FROM users ORDER BY age DESC NULLS FIRST, id LIMIT 2"));
+
+        // Top-N with offset, by alias, by position and by expression
+        assertEquals(List.of(13, 20), ids("SELECT id FROM users ORDER BY age DESC, id LIMIT 2 OFFSET 1"));
+        assertEquals(List.of(1, 10, 100), ids("SELECT id, name AS label FROM users ORDER BY label LIMIT 3"));
+        assertEquals(List.of(1, 10), ids("SELECT id, name FROM users ORDER BY 2 LIMIT 2"));
+        assertEquals(List.of(199, 198), ids("SELECT id FROM users WHERE id > 190 ORDER BY id % 10 DESC LIMIT 2"));
+
+        // With a LIMIT an index in the requested order replaces the full scan
+        SqlParse.parseSql("CREATE INDEX idx_age ON users (age)", engine, session);
+        schema = engine.getTableSchema(session, TEST_TABLE);
+        path = AccessPathPlanner.plan(schema, null, List.of(), orderBy("SELECT * FROM users ORDER BY age DESC"), true);
+        assertTrue(path.isIndexSeek() && path.isOrdered() && path.isReverse());
+        long scansBefore = engine.getStorageManager().getScanCount();
+        assertEquals(List.of(195, 188, 181), ids("SELECT id, age FROM users ORDER BY age DESC LIMIT 3"));
+        assertEquals(scansBefore, engine.getStorageManager().getScanCount());
+        assertEquals(List.of(182, 175), ids("SELECT id FROM users WHERE age = 0 ORDER BY id DESC LIMIT 2 OFFSET 2"));
+    }
+
+    @Test
+    public void testAggregates() throws Exception {
+        for (int i = 1; i <= 10; i++) {
+            SqlParse.parseSql("INSERT INTO users (id, name, age) VALUES (" + i + ", '" + (i % 2 == 0 ? "even" : "odd")
+                    + "', " + (i == 10 ? "NULL" : String.valueOf(i * 10)) + ")", engine, session);
+        }
+
+        // COUNT(*) of a whole table counts keys
+        SqlData count = SqlParse.parseSql("SELECT COUNT(*) FROM users", engine, session);
+        assertEquals(List.of("COUNT(*)"), count.getColumns());
+        assertEquals(10L, count.getRows().get(0).get("COUNT(*)"));
+        assertEquals(4L, SqlParse.parseSql("SELECT count(*) AS n FROM users WHERE age > 50", engine, session)
+                .getRows().get(0).get("n"));
+
+        Map<String, Object> totals = SqlParse.parseSql(
+                "SELECT COUNT(age), SUM(age), AVG(age), MIN(age), MAX(age), MIN(name) FROM users", engine, session)
+                .getRows().get(0);
+        assertEquals(List.of(9L, 450L, 50.0, 10, 90, "even"), List.copyOf(totals.values()));
+        Map<String, Object> empty = SqlParse.parseSql("SELECT COUNT(*), SUM(age), MAX(name) FROM users WHERE id > 100",
+                engine, session).getRows().get(0);
+        assertEquals(Arrays.asList(0L, null, null), new ArrayList<>(empty.values()));
+
+        List<Map<String, Object>> groups = SqlParse.parseSql(
+                "SELECT name, COUNT(*) AS n, SUM(age) AS total FROM users GROUP BY name ORDER BY total DESC",
+                engine, session).getRows();
+        assertEquals(2, groups.size());
+        assertEquals(List.of("odd", 5L, 250L), List.copyOf(groups.get(0).values()));
+        assertEquals(List.of("even", 5L, 200L), List.copyOf(groups.get(1).values()));
+
+        assertEquals(List.of("odd"), names("SELECT name FROM users GROUP BY name HAVING SUM(age) > 220"));
+        assertEquals(List.of("even"), names("SELECT name FROM users GROUP BY name HAVING COUNT(age) = 4"));
+        assertEquals(List.of("odd", "even"), names(
+                "SELECT name, MAX(age) - MIN(age) AS spread FROM users GROUP BY 1 ORDER BY spread DESC"));
+        assertEquals(List.of("even"), names("SELECT name FROM users GROUP BY name ORDER BY COUNT(age) LIMIT 1"));
+
+        // Several keys, one an expression; NULL forms its own group
+        List<Map<String, Object>> byAge = SqlParse.parseSql(
+                "SELECT name, age > 40 AS old, COUNT(*) AS n FROM users GROUP BY name, old ORDER BY 1, 2",
+                engine, session).getRows();
+        assertEquals(5, byAge.size());
+        assertEquals(Arrays.asList("even", null, 1L), new ArrayList<>(byAge.get(0).values()));
+        assertEquals(List.of("even", false, 2L), List.copyOf(byAge.get(1).values()));
+        assertEquals(List.of("odd", true, 3L), List.copyOf(byAge.get(4).values()));
+
+        SqlData described = SqlParse.describe(CCJSqlParserUtil.parse(
+                "SELECT COUNT(*), AVG(age), MIN(name), SUM(age) FROM users"), engine, session);
+        assertEquals(List.of(Column.ColumnType.LONG, Column.ColumnType.DOUBLE, Column.ColumnType.STRING,
+                Column.ColumnType.LONG), described.getColumnTypes());
+
+        assertThrows(Exception.class, () -> SqlParse.parseSql("SELECT name, age FROM users GROUP BY name", engine, session));
+        assertThrows(Exception.class, () -> SqlParse.parseSql("SELECT COUNT(DISTINCT age) FROM users", engine, session));
+        assertThrows(Exception.class, () -> SqlParse.parseSql("SELECT * FROM users GROUP BY id", engine, session));
+    }
+
+    @Test
+    public void testJoins() throws Exception {
+        for (int i = 1; i <= 10; i++) {
+            SqlParse.parseSql("INSERT INTO users (id, name, age) VALUES (" + i + ", 'u" + i + "', " + (20 + i) + ")",
+                    engine, session);
+        }
+        SqlParse.parseSql("CREATE TABLE orders (id BIGINT PRIMARY KEY, user_id INT, amount INT)", engine, session);
+        SqlParse.parseSql("INSERT INTO orders (id, user_id, amount) VALUES (1, 1, 10), (2, 1, 20), (3, 2, 30), "
+                + "(4, 3, 40), (5, 11, 50), (6, NULL, 60)", engine, session);
+
+        // Hash join over both scans
+        assertEquals(List.of("1:u1", "2:u1", "3:u2", "4:u3"), joined(
+                "SELECT o.id AS oid, u.name AS uname FROM orders o JOIN users u ON o.user_id = u.id ORDER BY o.id"));
+        // Primary key lookups for few outer rows
+        assertEquals(List.of("3:u2"), joined(
+                "SELECT o.id AS oid, u.name AS uname FROM orders o JOIN users u ON u.id = o.user_id WHERE o.id = 3"));
+        assertEquals(List.of("3:u2"), joined("SELECT o.id AS oid, u.name AS uname FROM orders o JOIN users u "
+                + "ON u.id = o.user_id AND u.age > o.amount - 10 WHERE o.id >= 3 AND o.id <= 4"));
+        assertEquals(List.of("3:u2", "4:u3"), joined("SELECT o.id AS oid, u.name AS uname "
+                + "FROM orders o INNER JOIN users u ON o.user_id = u.id WHERE u.age > 21 ORDER BY oid"));
+        // Join keys in WHERE, unaliased tables
+        assertEquals(List.of("1:u1", "2:u1"), joined("SELECT orders.id AS oid, users.name AS uname "
+                + "FROM orders, users WHERE orders.user_id = users.id AND users.name = 'u1' ORDER BY oid"));
+
+        // LEFT JOIN keeps orders without a user, with both strategies
+        assertEquals(List.of("1:u1", "2:u1", "3:u2", "4:u3", "5:null", "6:null"), joined(
+                "SELECT o.id AS oid, u.name AS uname FROM orders o LEFT JOIN users u ON o.user_id = u.id ORDER BY oid"));
+        assertEquals(List.of("5:null", "6:null"), joined("SELECT o.id AS oid, u.name AS uname "
+                + "FROM orders o LEFT JOIN users u ON o.user_id = u.id WHERE u.name IS NULL ORDER BY oid"));
+        assertEquals(List.of("4:null", "5:null"), joined("SELECT o.id AS oid, u.name AS uname FROM orders o "
+                + "LEFT JOIN users u ON o.user_id = u.id AND u.age > 30 WHERE o.id IN (4, 5)"));
+
+        // Hash join keys of mixed types compare as the = of a WHERE clause
+        SqlParse.parseSql("CREATE TABLE refs (id BIGINT PRIMARY KEY, s VARCHAR(10))", engine, session);
+        SqlParse.parseSql("INSERT INTO refs (id, s) VALUES (1, '21'), (2, '22'), (3, 'x'), (4, '22.0')",
+                engine, session);
+        assertEquals(List.of("u2"), names("SELECT name FROM users WHERE age = '22.0'"));
+        assertEquals(List.of("1:u1", "2:u2", "4:u2"), joined(
+                "SELECT r.id AS oid, u.name AS uname FROM refs r JOIN users u ON u.age = r.s ORDER BY oid"));
+        assertEquals(List.of("1:u1", "2:u2", "4:u2"), joined(
+                "SELECT r.id AS oid, u.name AS uname FROM users u JOIN refs r ON r.s = u.age ORDER BY oid"));
+        assertEquals(List.of("1:u1", "2:u2", "3:null", "4:u2"), joined(
+                "SELECT r.id AS oid, u.name AS uname FROM refs r LEFT JOIN users u ON u.age = r.s ORDER BY oid"));
+
+        // A string primary key joined with a number matches every spelling of it, not just one key
+        SqlParse.parseSql("CREATE TABLE codes (code VARCHAR(8) PRIMARY KEY, label VARCHAR(8))", engine, session);
+        SqlParse.parseSql("INSERT INTO codes (code, label) VALUES ('21', 'a'), ('021', 'b'), ('21.0', 'c'), "
+                + "('x', 'd'), ('22', 'e')", engine, session);
+        assertEquals(List.of("1:a", "1:b", "1:c"), joined("SELECT u.id AS oid, c.label AS uname "
+                + "FROM users u JOIN codes c ON c.code = u.age WHERE u.id = 1 ORDER BY uname"));
+        assertEquals(List.of("1:a", "1:b", "1:c", "3:null"), joined("SELECT u.id AS oid, c.label AS uname "
+                + "FROM users u LEFT JOIN codes c ON c.code = u.age WHERE u.id IN (1, 3) ORDER BY oid, uname"));
+        assertEquals(List.of("1:a"), joined("SELECT r.id AS oid, c.label AS uname "
+                + "FROM refs r JOIN codes c ON c.code = r.s WHERE r.id = 1"));
+        SqlParse.parseSql("CREATE TABLE visits (ts DATETIME PRIMARY KEY, note VARCHAR(8))", engine, session);
+        SqlParse.parseSql("CREATE TABLE logins (id INT PRIMARY KEY, at DATETIME, spelled VARCHAR(20))", engine, session);
+        SqlParse.parseSql("INSERT INTO visits (ts, note) VALUES ('2024-01-05 09:30:00', 'v')", engine, session);
+        SqlParse.parseSql("INSERT INTO logins (id, at, spelled) VALUES (1, '2024-01-05T09:30:00', '2024-01-05T09:30:00')",
+                engine, session);
+        assertEquals(List.of("1:v"), joined("SELECT l.id AS oid, v.note AS uname "
+                + "FROM logins l JOIN visits v ON v.ts = l.at WHERE l.id = 1"));
+        assertEquals(List.of("1:null"), joined("SELECT l.id AS oid, v.note AS uname "
+                + "FROM logins l LEFT JOIN visits v ON v.ts = l.spelled WHERE l.id = 1"));
+
+        List<Map<String, Object>> totals = SqlParse.parseSql("SELECT u.name AS uname, SUM(o.amount) AS total "
+                + "FROM users u JOIN orders o ON o.user_id = u.id GROUP BY u.name ORDER BY total DESC, uname",
+                engine, session).getRows();
+        assertEquals(List.of("u3", 40L), List.copyOf(totals.get(0).values()));
+        assertEquals(List.of("u1", 30L), List.copyOf(totals.get(1).values()));
+        assertEquals(List.of("u2", 30L), List.copyOf(totals.get(2).values()));
+        assertEquals(4L, SqlParse.parseSql("SELECT COUNT(*) FROM orders JOIN users ON user_id = users.id",
+                engine, session).getRows().get(0).get("COUNT(*)"));
+
+        assertEquals(List.of("id", "user_id", "amount", "id", "name", "age"), SqlParse.parseSql(
+                "SELECT * FROM orders o JOIN users u ON o.user_id = u.id WHERE o.id = 1", engine, session).getColumns());
+
+        assertThrows(Exception.class, () -> SqlParse.parseSql(
+                "SELECT id FROM orders JOIN users ON user_id = users.id", engine, session));
+        assertThrows(Exception.class, () -> SqlParse.parseSql(
+                "SELECT * FROM orders o RIGHT JOIN users u ON o.user_id = u.id", engine, session));
+        assertThrows(Exception.class, () -> SqlParse.parseSql(
+                "SELECT * FROM orders u JOIN users u ON u.user_id = u.id", engine, session));
+    }
+
+    @Test
+    public void testTemporalPrimaryKeys() throws Exception {
+        SqlParse.parseSql("CREATE TABLE events (ts DATETIME PRIMARY KEY, note VARCHAR(20))", engine, session);
+        SqlParse.parseSql("INSERT INTO events (ts, note) VALUES ('2024-01-05', 'midnight')", engine, session);
+        // Another spelling of the same value is the same key
+        assertThrows(Exception.class, () -> SqlParse.parseSql(
+                "INSERT INTO events (ts, note) VALUES ('2024-01-05 00:00:00', 'again')", engine, session));
+        for (String spelling : List.of("2024-01-05", "2024-01-05 00:00:00", "2024-01-05T00:00:00",
+                "2024-01-05 00:00:00.000")) {
+            List<Map<String, Object>> rows = SqlParse.parseSql(
+                    "SELECT ts, note FROM events WHERE ts = '" + spelling + "'", engine, session).getRows();
+            assertEquals(1, rows.size(), spelling);
+            assertEquals("2024-01-05 00:00:00", rows.get(0).get("ts"));
+        }
+
+        // Key order is time order, not text order
+        SqlParse.parseSql("INSERT INTO events (ts, note) VALUES ('2024-01-05 09:30:00.5', 'half'), "
+                + "('2024-01-05T10:00:00', 'ten'), ('2024-01-04 23:59:59', 'before')", engine, session);
+        assertEquals(List.of("half", "ten"), SqlParse.parseSql("SELECT note FROM events "
+                + "WHERE ts > '2024-01-05T09:00:00' ORDER BY ts", engine, session).getRows().stream()
+                .map(r -> r.get("note")).toList());
+        assertEquals(List.of("before", "midnight", "half", "ten"), SqlParse.parseSql(
+                "SELECT note FROM events ORDER BY ts", engine, session).getRows().stream()
+                .map(r -> r.get("note")).toList());
+
+        SqlParse.parseSql("CREATE TABLE days (d DATE PRIMARY KEY, n INT)", engine, session);
+        SqlParse.parseSql("INSERT INTO days (d, n) VALUES ('2024-01-05', 1)", engine, session);
+        assertEquals(1, SqlParse.parseSql("SELECT n FROM days WHERE d IN ('2024-01-05 00:00:00', '2024-02-01')",
+                engine, session).getRows().size());
+        assertTrue(SqlParse.parseSql("SELECT n FROM days WHERE d = 'not a date'", engine, session)
+                .getRows().isEmpty());
+    }
+
+    private List<Integer> numbers(String sql) throws Exception {
+        return SqlParse.parseSql(sql, engine, session).getRows().stream()
+                .map(r -> ((Number) r.get("n")).intValue()).toList();
+    }
+
+    private List<String> joined(String sql) throws Exception {
+        return SqlParse.parseSql(sql, engine, session).getRows().stream()
+                .map(r -> r.get("oid") + ":" + r.get("uname")).toList();
+    }
+
+    private List<Object> names(String sql) throws Exception {
+        return SqlParse.parseSql(sql, engine, session).getRows().stream().map(r -> r.get("name")).toList();
+    }
+
+    private List<OrderByElement> orderBy(String sql) throws Exception {
+        return ((Select) CCJSqlParserUtil.parse(sql)).getPlainSelect().getOrderByElements();
+    }
+
+    private List<Object> ids(String sql) throws Exception {
+        return SqlParse.parseSql(sql, engine, session).getRows().stream().map(r -> r.get("id")).toList();
+    }
+
+    @Test
+    public void testSelectStreamsRowsAndDmlReportsUpdateCount() throws Exception {
+        for (int i = 1; i <= 5; i++) {
+            SqlData inserted = SqlParse.parseSql("INSERT INTO users (id, name, age) VALUES (" + i + ", 'u" + i + "', 20)", engine, session);
+            assertFalse(inserted.isResultSet());
+            assertEquals(1, inserted.getAffectedRows());
+        }
+
+        SqlData result = SqlParse.parseSql("SELECT name FROM users LIMIT 1, 2", engine, session);
+        assertTrue(result.isResultSet());
+        Operator operator = result.getOperator();
+        assertNotNull(operator);
+        try (operator) {
+            operator.open();
+            assertArrayEquals(new Object[]{"u2"}, operator.next());
+            assertArrayEquals(new Object[]{"u3"}, operator.next());
+            assertNull(operator.next());
+        }
+
+        SqlData updated = SqlParse.parseSql("UPDATE users SET age = 21 WHERE age = 20", engine, session);
+        assertFalse(updated.isResultSet());
+        assertEquals(5, updated.getAffectedRows());
+    }
+
+    @Test
+    public void testSessionsKeepTheirOwnDatabase() throws Exception {
+        engine.createDatabase("other_db");
+        Session other = new Session();
+        engine.useDatabase(other, "other_db");
+        engine.createTable(other, TEST_TABLE, List.of(
+                new Column("id", Column.ColumnType.INT),
+                new Column("name", Column.ColumnType.STRING),
+                new Column("age", Column.ColumnType.INT)
+        ), List.of("id"));
+
+        SqlParse.parseSql("INSERT INTO users (id, name, age) VALUES (1, 'Other', 40)", engine, other);
+
+        // Switching databases in one session must not affect the other
+        assertEquals(TEST_DB, session.getDatabase());
+        assertTrue(SqlParse.parseSql("SELECT * FROM users", engine, session).getRows().isEmpty());
+        assertEquals(1, SqlParse.parseSql("SELECT * FROM users", engine, other).getRows().size());
+
+        Session none = new Session();
+        assertThrows(IllegalStateException.class, () -> SqlParse.parseSql("SELECT * FROM users", engine, none));
+    }
+
+    @Test
+    public void testNormalizeReplacesValueLiterals() {
+        SqlNormalizer.Normalized normalized = SqlNormalizer.normalize(
+                "SELECT name, 1 FROM users WHERE id = 7 AND name = 'it''s' ORDER BY 1 LIMIT 5");
+        assertEquals("SELECT name, 1 FROM users WHERE id = ? AND name = ? ORDER BY 1 LIMIT ?", normalized.sql);
+        assertEquals(List.of(7, "it's", 5), normalized.literals);
+
+        normalized = SqlNormalizer.normalize("UPDATE t1 SET score = -2.5, tag = x'0F' WHERE id = 3000000000");
+        assertEquals("UPDATE t1 SET score = -?, tag = x'0F' WHERE id = ?", normalized.sql);
+        assertEquals(List.of(2.5, 3000000000L), normalized.literals);
+
+        assertNull(SqlNormalizer.normalize("SELECT * FROM users WHERE id = ?"));
+    }
+
+    @Test
+    public void testStatementCacheSharesPlansAcrossLiterals() throws Exception {
+        StatementCache cache = new StatementCache(engine, 2);
+        for (int i = 1; i <= 5; i++) {
+            cache.execute("INSERT INTO users (id, name, age) VALUES (" + i + ", 'u" + i + "', " + (20 + i) + ")", session);
+        }
+        assertEquals(1, cache.getMisses());
+        assertEquals(4, cache.getHits());
+
+        List<Map<String, Object>> rows = cache.execute("SELECT * FROM users WHERE id = 3", session).getRows();
+        assertEquals(1, rows.size());
+        assertEquals("u3", rows.get(0).get("name"));
+        assertEquals(23, rows.get(0).get("age"));
+        rows = cache.execute("SELECT * FROM users WHERE id = 4", session).getRows();
+        assertEquals("u4", rows.get(0).get("name"));
+        assertEquals(2, cache.getMisses());
+        assertEquals(5, cache.getHits());
+
+        // A schema change invalidates every cached plan
+        engine.createTable(session, "other", List.of(new Column("id", Column.ColumnType.INT)), List.of("id"));
+        cache.execute("SELECT * FROM users WHERE id = 5", session);
+        assertEquals(3, cache.getMisses());
+
+        // Capacity 2: a third shape evicts the least recently used one
+        cache.execute("DELETE FROM users WHERE id = 1", session);
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictions());
+    }
+}
@@ -0,0 +1,93 @@
+package cc.fastsoft.sql.exec;
+
+import cc.fastsoft.db.schema.Column;
+import cc.fastsoft.db.schema.TableSchema;
+import net.sf.jsqlparser.parser.CCJSqlParserUtil;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ExpressionCompilerTest {
+
+    private final TableSchema schema = new TableSchema("items", List.of(
+            new Column("id", Column.ColumnType.LONG),
+            new Column("name", Column.ColumnType.STRING),
+            new Column("qty", Column.ColumnType.INT),
+            new Column("price", Column.ColumnType.DOUBLE)
+    ), List.of("id"), 1L);
+
+    private final Object[] widget = {7L, "Widget_1", 3, 2.5};
+    private final Object[] unnamed = {8L, null, null, 10.0};
+
+    @Test
+    void testComparisonsConvertConstantsToTheColumnType() throws Exception {
+        assertTrue(test("id = 7", widget));
+        assertTrue(test("id = '7'", widget));
+        assertTrue(test("7.0 = id", widget));
+        assertTrue(test("qty < 3.5 AND qty >= 3", widget));
+        assertTrue(test("price > 2", widget));
+        assertTrue(test("name >= 'W' AND name < 'X'", widget));
+        assertTrue(test("qty BETWEEN 1 AND 3", widget));
+        assertFalse(test("qty NOT BETWEEN 1 AND 3", widget));
+        assertTrue(test("id <> 8 OR qty = 0", widget));
+    }
+
+    @Test
+    void testNullFollowsThreeValuedLogic() throws Exception {
+        assertFalse(test("qty = 3", unnamed));
+        assertFalse(test("NOT (qty = 3)", unnamed));
+        assertTrue(test("qty IS NULL AND name IS NULL", unnamed));
+        assertTrue(test("qty IS NOT NULL", widget));
+        assertTrue(test("qty = 3 OR id = 8", unnamed));
+        assertFalse(test("qty NOT IN (1, 2)", unnamed));
+        assertFalse(test("id NOT IN (1, NULL)", widget));
+        assertTrue(test("id IN (7, NULL)", widget));
+    }
+
+    @Test
+    void testInLikeAndArithmetic() throws Exception {
+        assertTrue(test("id IN (1, 7, 9)", widget));
+        assertTrue(test("id IN (7)", widget));
+        assertFalse(test("qty IN (3.5, 4)", widget));
+        assertTrue(test("price IN (2.5, 3.5)", widget));
+        assertTrue(test("name IN ('Gadget', 'Widget_1')", widget));
+        assertTrue(test("name NOT IN ('Gadget')", widget));
+
+        assertTrue(test("name LIKE 'Wid%'", widget));
+        assertTrue(test("name LIKE '%_1'", widget));
+        assertTrue(test("name LIKE '%dge%'", widget));
+        assertTrue(test("name LIKE 'Widget\\_1'", widget));
+        assertFalse(test("name LIKE 'Widget\\_'", widget));
+        assertTrue(test("name LIKE 'W!%%' ESCAPE '!'", new Object[] {1L, "W%x", 0, 0.0}));
+        assertTrue(test("name NOT LIKE 'Gad%'", widget));
+        assertTrue(test("id LIKE '7'", widget));
+
+        assertTrue(test("qty * price = 7.5", widget));
+        assertTrue(test("id + 1 = 8 AND id - qty = 4", widget));
+        assertTrue(test("id / 2 = 3.5 AND id DIV 2 = 3 AND id % 2 = 1", widget));
+        assertTrue(test("-qty = -3", widget));
+        assertFalse(test("id / 0 = 0", widget));
+    }
+
+    @Test
+    void testConstantsAreFoldedAndUnsupportedExpressionsRejected() throws Exception {
+        assertTrue(test("1 + 1 = 2", unnamed));
+        assertTrue(test("1 = 1 OR qty = 3", unnamed));
+        assertFalse(test("1 = 0 AND id = 8", unnamed));
+        assertTrue(test("id = ?", widget, List.of(7)));
+
+        assertThrows(IllegalArgumentException.class, () -> test("nope = 1", widget));
+        assertThrows(IllegalArgumentException.class, () -> test("name REGEXP '^W'", widget));
+        assertThrows(IllegalArgumentException.class, () -> test("UPPER(name) = 'W'", widget));
+    }
+
+    private boolean test(String condition, Object[] row) throws Exception {
+        return test(condition, row, List.of());
+    }
+
+    private boolean test(String condition, Object[] row, List<Object> params) throws Exception {
+        return new ExpressionPredicate(CCJSqlParserUtil.parseCondExpression(condition), schema, params).test(row);
+    }
+}
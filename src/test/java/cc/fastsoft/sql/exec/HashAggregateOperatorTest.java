@@ -0,0 +1,117 @@
+package cc.fastsoft.sql.exec;
+
+import cc.fastsoft.db.schema.Column;
+import cc.fastsoft.db.schema.TableSchema;
+import net.sf.jsqlparser.parser.CCJSqlParserUtil;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HashAggregateOperatorTest {
+
+    private final TableSchema schema = new TableSchema("orders", List.of(
+            new Column("id", Column.ColumnType.LONG),
+            new Column("customer", Column.ColumnType.STRING),
+            new Column("amount", Column.ColumnType.INT)
+    ), List.of("id"), 1L);
+
+    @TempDir
+    File spillDirectory;
+
+    @Test
+    void testSpillsGroupsThatDoNotFitAndAggregatesThemLater() throws Exception {
+        List<Object[]> rows = new ArrayList<>();
+        for (long id = 0; id < 20000; id++) {
+            rows.add(new Object[] {id, "customer-" + (id * 7919) % 2000, (int) (id % 100)});
+        }
+        List<HashAggregateOperator.Call> calls = List.of(
+                new HashAggregateOperator.Call(HashAggregateOperator.Function.COUNT, null, null),
+                new HashAggregateOperator.Call(HashAggregateOperator.Function.SUM, value("amount"), Column.ColumnType.INT),
+                new HashAggregateOperator.Call(HashAggregateOperator.Function.MAX, value("amount"), Column.ColumnType.INT));
+        HashAggregateOperator aggregate = new HashAggregateOperator(new ListOperator(rows),
+                List.of(value("customer")), calls, 16 * 1024, spillDirectory);
+
+        Map<Object, Object[]> groups = new HashMap<>();
+        try {
+            aggregate.open();
+            Object[] row;
+            while ((row = aggregate.next()) != null) {
+                assertNull(groups.put(row[0], row), "Each group is produced once: " + row[0]);
+            }
+            assertTrue(aggregate.spilledPartitions() > 0, "A small budget must spill");
+        } finally {
+            aggregate.close();
+        }
+
+        Map<Object, long[]> expected = new HashMap<>();
+        for (Object[] row : rows) {
+            long[] state = expected.computeIfAbsent(row[1], key -> new long[3]);
+            state[0]++;
+            state[1] += (Integer) row[2];
+            state[2] = Math.max(state[2], (Integer) row[2]);
+        }
+        assertEquals(expected.size(), groups.size());
+        for (Map.Entry<Object, long[]> entry : expected.entrySet()) {
+            Object[] group = groups.get(entry.getKey());
+            assertEquals(entry.getValue()[0], group[1]);
+            assertEquals(entry.getValue()[1], group[2]);
+            assertEquals((int) entry.getValue()[2], group[3]);
+        }
+        assertEquals(0, spillDirectory.listFiles().length, "Partition files are deleted");
+    }
+
+    @Test
+    void testSumSwitchesToDoubleOnFractionsAndOverflow() throws Exception {
+        List<Object[]> rows = List.of(
+                new Object[] {1L, "a", Long.MAX_VALUE},
+                new Object[] {2L, "a", 1L},
+                new Object[] {3L, "b", 1L},
+                new Object[] {4L, "b", 0.5},
+                new Object[] {5L, "c", null});
+        HashAggregateOperator aggregate = new HashAggregateOperator(new ListOperator(rows), List.of(value("customer")),
+                List.of(new HashAggregateOperator.Call(HashAggregateOperator.Function.SUM, row -> row[2], null),
+                        new HashAggregateOperator.Call(HashAggregateOperator.Function.AVG, row -> row[2], null)),
+                1024 * 1024, spillDirectory);
+        aggregate.open();
+        assertArrayEquals(new Object[] {"a", (double) Long.MAX_VALUE + 1, ((double) Long.MAX_VALUE + 1) / 2},
+                aggregate.next());
+        assertArrayEquals(new Object[] {"b", 1.5, 0.75}, aggregate.next());
+        assertArrayEquals(new Object[] {"c", null, null}, aggregate.next());
+        assertNull(aggregate.next());
+        aggregate.close();
+    }
+
+    private RowEvaluator value(String expression) throws Exception {
+        return ExpressionCompiler.compileValue(CCJSqlParserUtil.parseExpression(expression), schema, List.of());
+    }
+
+    private static final class ListOperator implements Operator {
+        private final List<Object[]> rows;
+        private int position;
+
+        ListOperator(List<Object[]> rows) {
+            this.rows = rows;
+        }
+
+        @Override
+        public void open() {
+            position = 0;
+        }
+
+        @Override
+        public Object[] next() {
+            return position < rows.size() ? rows.get(position++) : null;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
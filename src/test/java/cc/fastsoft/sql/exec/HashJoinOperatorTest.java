@@ -0,0 +1,109 @@
+package cc.fastsoft.sql.exec;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HashJoinOperatorTest {
+
+    @TempDir
+    File spillDirectory;
+
+    @Test
+    void testPartitionsBothInputsWhenTheBuildSideDoesNotFit() throws Exception {
+        // users (id, name) and orders (id, user_id, amount); every user but the last has 3 orders
+        List<Object[]> users = new ArrayList<>();
+        List<Object[]> orders = new ArrayList<>();
+        for (long id = 0; id < 2000; id++) {
+            users.add(new Object[] {id, "user-" + id});
+        }
+        for (long id = 0; id < 5997; id++) {
+            orders.add(new Object[] {id, (int) (id % 1999), (int) (id % 100)});
+        }
+        orders.add(new Object[] {9999L, null, 1});
+
+        HashJoinOperator join = new HashJoinOperator(new ListOperator(orders), new ListOperator(users),
+                List.of(row -> row[1]), List.of(row -> row[0]), null, true, 2, false, 16 * 1024, spillDirectory);
+        Map<Object, Object[]> joined = new HashMap<>();
+        try {
+            join.open();
+            Object[] row;
+            while ((row = join.next()) != null) {
+                assertEquals(5, row.length);
+                assertNull(joined.put(row[0], row), "Each order is joined once: " + row[0]);
+            }
+            assertTrue(join.spilledPartitions() > 0, "A small budget must spill");
+        } finally {
+            join.close();
+        }
+
+        assertEquals(orders.size(), joined.size());
+        for (Object[] order : orders) {
+            Object[] row = joined.get(order[0]);
+            if (order[1] == null) {
+                assertArrayEquals(new Object[] {9999L, null, 1, null, null}, row, "NULL keys never match");
+            } else {
+                assertEquals(((Integer) order[1]).longValue(), row[3], "Integer and long keys of equal value match");
+                assertEquals("user-" + order[1], row[4]);
+            }
+        }
+        assertEquals(0, spillDirectory.listFiles().length, "Partition files are deleted");
+    }
+
+    @Test
+    void testBuildsEitherSideAndAppliesTheCondition() throws Exception {
+        List<Object[]> left = List.of(new Object[] {1L, "a"}, new Object[] {2L, "b"}, new Object[] {2L, "c"});
+        List<Object[]> right = List.of(new Object[] {2.0, 10}, new Object[] {2L, 20}, new Object[] {3L, 30});
+        RowEvaluator condition = row -> (Integer) row[3] > 10;
+
+        for (boolean buildLeft : new boolean[] {true, false}) {
+            HashJoinOperator join = new HashJoinOperator(new ListOperator(left), new ListOperator(right),
+                    List.of(row -> row[0]), List.of(row -> row[0]), condition, false, 2, buildLeft,
+                    1024 * 1024, spillDirectory);
+            List<String> rows = new ArrayList<>();
+            join.open();
+            Object[] row;
+            while ((row = join.next()) != null) {
+                rows.add(Arrays.toString(row));
+            }
+            join.close();
+            rows.sort(null);
+            assertEquals(List.of("[2, b, 2, 20]", "[2, c, 2, 20]"), rows, "buildLeft=" + buildLeft);
+            assertEquals(0, join.spilledPartitions());
+        }
+
+        assertThrows(IllegalArgumentException.class, () -> new HashJoinOperator(new ListOperator(left),
+                new ListOperator(right), List.of(), List.of(), null, true, 2, true, 1024, spillDirectory));
+    }
+
+    private static final class ListOperator implements Operator {
+        private final List<Object[]> rows;
+        private int position;
+
+        ListOperator(List<Object[]> rows) {
+            this.rows = rows;
+        }
+
+        @Override
+        public void open() {
+            position = 0;
+        }
+
+        @Override
+        public Object[] next() {
+            return position < rows.size() ? rows.get(position++) : null;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package cc.fastsoft.sql.exec;
+
+import cc.fastsoft.db.schema.Column;
+import cc.fastsoft.db.schema.TableSchema;
+import net.sf.jsqlparser.parser.CCJSqlParserUtil;
+import net.sf.jsqlparser.statement.select.OrderByElement;
+import net.sf.jsqlparser.statement.select.Select;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SortOperatorTest {
+
+    private final TableSchema schema = new TableSchema("events", List.of(
+            new Column("id", Column.ColumnType.LONG),
+            new Column("name", Column.ColumnType.STRING),
+            new Column("score", Column.ColumnType.DOUBLE)
+    ), List.of("id"), 1L);
+
+    @TempDir
+    File spillDirectory;
+
+    @Test
+    void testSpillsRunsAndMergesThem() throws Exception {
+        List<Object[]> rows = new ArrayList<>();
+        Random random = new Random(42);
+        for (long id = 0; id < 5000; id++) {
+            rows.add(new Object[] {id, "name-" + random.nextInt(1000), random.nextInt(10) == 0 ? null : random.nextDouble()});
+        }
+        RowComparator comparator = new RowComparator(orderBy("SELECT * FROM events ORDER BY score DESC, id"),
+                schema, List.of());
+
+        SortOperator sort = new SortOperator(new ListOperator(rows), comparator, 64 * 1024, spillDirectory);
+        List<Object[]> sorted = new ArrayList<>();
+        try {
+            sort.open();
+            Object[] row;
+            while ((row = sort.next()) != null) {
+                sorted.add(row);
+            }
+            assertTrue(sort.spilledRuns() > 1, "A small budget must spill");
+        } finally {
+            sort.close();
+        }
+
+        List<Object[]> expected = new ArrayList<>(rows);
+        expected.sort(comparator);
+        assertEquals(expected.size(), sorted.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertArrayEquals(expected.get(i), sorted.get(i));
+        }
+        assertNull(sorted.get(sorted.size() - 1)[2], "NULL sorts last in descending order");
+        assertEquals(0, spillDirectory.listFiles().length, "Run files are deleted on close");
+    }
+
+    @Test
+    void testTopNKeepsTheFirstRows() throws Exception {
+        List<Object[]> rows = new ArrayList<>();
+        for (long id = 0; id < 1000; id++) {
+            rows.add(new Object[] {id, "n", (double) ((id * 7919) % 1000)});
+        }
+        TopNOperator topN = new TopNOperator(new ListOperator(rows),
+                new RowComparator(orderBy("SELECT * FROM events ORDER BY score"), schema, List.of()), 3);
+        topN.open();
+        assertEquals(0.0, topN.next()[2]);
+        assertEquals(1.0, topN.next()[2]);
+        assertEquals(2.0, topN.next()[2]);
+        assertNull(topN.next());
+        topN.close();
+    }
+
+    private static List<OrderByElement> orderBy(String sql) throws Exception {
+        return ((Select) CCJSqlParserUtil.parse(sql)).getPlainSelect().getOrderByElements();
+    }
+
+    private static final class ListOperator implements Operator {
+        private final List<Object[]> rows;
+        private int position;
+
+        ListOperator(List<Object[]> rows) {
+            this.rows = rows;
+        }
+
+        @Override
+        public void open() {
+            position = 0;
+        }
+
+        @Override
+        public Object[] next() {
+            return position < rows.size() ? rows.get(position++) : null;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}